@@ -43,6 +43,7 @@ import com.codenvy.machine.backup.DockerEnvironmentBackupManager;
 import com.codenvy.machine.backup.EnvironmentBackupManager;
 import com.codenvy.plugin.gitlab.factory.resolver.GitlabFactoryParametersResolver;
 import com.codenvy.service.bitbucket.BitbucketConfigurationService;
+import com.codenvy.service.system.ClusterStateMonitor;
 import com.codenvy.service.system.DockerBasedSystemRamInfoProvider;
 import com.codenvy.service.system.HostedSystemService;
 import com.codenvy.service.system.SystemRamInfoProvider;
@@ -278,6 +279,7 @@ public class OnPremisesIdeApiModule extends AbstractModule {
     bind(org.eclipse.che.api.system.server.SystemEventsWebsocketBroadcaster.class)
         .asEagerSingleton();
 
+    bind(ClusterStateMonitor.class).asEagerSingleton();
     bind(SystemRamInfoProvider.class).to(DockerBasedSystemRamInfoProvider.class);
 
     bind(AuditService.class);
@@ -387,6 +389,23 @@ public class OnPremisesIdeApiModule extends AbstractModule {
             binder(), String.class, org.eclipse.che.plugin.docker.client.DockerConnector.class);
     dockerConnectors.addBinding("swarm").to(com.codenvy.swarm.client.SwarmDockerConnector.class);
     bindConstant().annotatedWith(Names.named("che.docker.connector")).to("swarm");
+    MapBinder<String, com.codenvy.swarm.client.NodeSelectionStrategy> nodeSelectionStrategies =
+        MapBinder.newMapBinder(
+            binder(), String.class, com.codenvy.swarm.client.NodeSelectionStrategy.class);
+    nodeSelectionStrategies
+        .addBinding("random")
+        .to(com.codenvy.swarm.client.RandomNodeSelectionStrategy.class);
+    nodeSelectionStrategies
+        .addBinding("least_loaded")
+        .to(com.codenvy.swarm.client.LeastLoadedNodeSelectionStrategy.class);
+    nodeSelectionStrategies
+        .addBinding("bin_packing")
+        .to(com.codenvy.swarm.client.BinPackingNodeSelectionStrategy.class);
+    nodeSelectionStrategies
+        .addBinding("spread")
+        .to(com.codenvy.swarm.client.SpreadNodeSelectionStrategy.class);
+    bind(com.codenvy.swarm.client.NodeSelectionStrategy.class)
+        .toProvider(com.codenvy.swarm.client.NodeSelectionStrategyProvider.class);
     bind(org.eclipse.che.plugin.docker.client.DockerRegistryDynamicAuthResolver.class)
         .to(AwsEcrAuthResolver.class);
 
@@ -440,6 +459,13 @@ public class OnPremisesIdeApiModule extends AbstractModule {
     install(new org.eclipse.che.plugin.docker.machine.ext.DockerExtServerModule());
 
     bind(com.codenvy.machine.backup.WorkspaceFsBackupScheduler.class).asEagerSingleton();
+    bind(com.codenvy.machine.backup.DedupBackupStorage.class).asEagerSingleton();
+    bind(com.codenvy.machine.backup.BackupStorageRebalancer.class).asEagerSingleton();
+    bind(com.codenvy.machine.ImagePrewarmer.class).asEagerSingleton();
+    bind(com.codenvy.machine.NodeDrainService.class);
+    bind(com.codenvy.machine.NodeDrainServicePermissionsFilter.class);
+    bind(com.codenvy.machine.ImagePrewarmService.class);
+    bind(com.codenvy.machine.ImagePrewarmServicePermissionsFilter.class);
 
     bind(String.class)
         .annotatedWith(Names.named("che.workspace.che_server_endpoint"))
@@ -496,7 +522,8 @@ public class OnPremisesIdeApiModule extends AbstractModule {
     }
 
     bind(org.eclipse.che.api.workspace.server.WorkspaceFilesCleaner.class)
-        .to(com.codenvy.workspace.WorkspaceFilesCleanUpScriptExecutor.class);
+        .to(com.codenvy.workspace.AsyncWorkspaceFilesCleaner.class);
+    bind(com.codenvy.workspace.AsyncWorkspaceFilesCleaner.class).asEagerSingleton();
     install(new com.codenvy.machine.agent.CodenvyAgentModule());
     bind(org.eclipse.che.api.environment.server.InfrastructureProvisioner.class)
         .to(com.codenvy.machine.agent.CodenvyInfrastructureProvisioner.class);
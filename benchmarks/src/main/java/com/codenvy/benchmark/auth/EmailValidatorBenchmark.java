@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.auth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.codenvy.auth.sso.server.EmailValidator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.core.BadRequestException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link EmailValidator#validateUserMail(String)} which is called on each user creation
+ * and email change, including users created on the fly by the sso server.
+ *
+ * <p>Blacklist contains the same number of exact, partial, gmail and regexp entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EmailValidatorBenchmark {
+
+  /** Number of entries of each kind in the blacklist. */
+  @Param({"10", "1000"})
+  public int blacklistEntries;
+
+  @Param({"john.doe@example.com", "spammer500@spam-domain5.com"})
+  public String email;
+
+  private Path blacklist;
+  private EmailValidator emailValidator;
+
+  @Setup
+  public void setUp() throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < blacklistEntries; i++) {
+      lines.add("spammer" + i + "@example.com");
+      lines.add("*@spam-domain" + i + ".com");
+      lines.add("spam.mer" + i + "@gmail.com");
+      lines.add("regexp:^bot" + i + "[0-9]+@.*$");
+    }
+    blacklist = Files.createTempFile("email-blacklist", ".txt");
+    Files.write(blacklist, lines, UTF_8);
+    emailValidator = new EmailValidator(blacklist.toString());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(blacklist);
+  }
+
+  @Benchmark
+  public boolean validateUserMail() {
+    try {
+      emailValidator.validateUserMail(email);
+      return true;
+    } catch (BadRequestException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.auth;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import com.codenvy.auth.sso.client.filter.ConjunctionRequestFilter;
+import com.codenvy.auth.sso.client.filter.DisjunctionRequestFilter;
+import com.codenvy.auth.sso.client.filter.NegationRequestFilter;
+import com.codenvy.auth.sso.client.filter.PathSegmentNumberFilter;
+import com.codenvy.auth.sso.client.filter.PathSegmentValueFilter;
+import com.codenvy.auth.sso.client.filter.RegexpRequestFilter;
+import com.codenvy.auth.sso.client.filter.RequestFilter;
+import com.codenvy.auth.sso.client.filter.RequestMethodFilter;
+import com.codenvy.auth.sso.client.filter.UriStartFromRequestFilter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link RequestFilter} composition which the sso client login filter evaluates on each
+ * request to the master api.
+ *
+ * <p>Filter is built the same way as in the master's api module, so the most common case of an
+ * authenticated request which is not skipped evaluates every nested filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestFilterBenchmark {
+
+  /** Request method and uri separated by a space. */
+  @Param({
+    "GET /api/workspace/workspace2ufqqpj1da8ay0ae",
+    "GET /api/factory/factoryr9ax4s2a0uf4jz5j",
+    "GET /api/docs/swagger.json",
+    "GET /api/permissions"
+  })
+  public String request;
+
+  private RequestFilter masterFilter;
+  private RequestFilter regexpFilter;
+  private HttpServletRequest httpRequest;
+
+  @Setup
+  public void setUp() {
+    String[] methodAndUri = request.split(" ", 2);
+    httpRequest = ServletStubs.request(methodAndUri[0], methodAndUri[1], Collections.emptyMap());
+    regexpFilter = new RegexpRequestFilter("^/api/builder/(\\w+)/download/(.+)$");
+    masterFilter =
+        new DisjunctionRequestFilter(
+            new ConjunctionRequestFilter(
+                new UriStartFromRequestFilter("/api/factory"),
+                new RequestMethodFilter("GET"),
+                new DisjunctionRequestFilter(
+                    new PathSegmentValueFilter(4, "image"),
+                    new PathSegmentValueFilter(4, "snippet"),
+                    new ConjunctionRequestFilter(
+                        new PathSegmentNumberFilter(3),
+                        new NegationRequestFilter(
+                            new UriStartFromRequestFilter("/api/factory/find"))))),
+            new UriStartFromRequestFilter("/api/analytics/public-metric"),
+            new UriStartFromRequestFilter("/api/docs"),
+            new RegexpRequestFilter("^/api/builder/(\\w+)/download/(.+)$"),
+            new ConjunctionRequestFilter(
+                new UriStartFromRequestFilter("/api/oauth/authenticate"),
+                r -> isNullOrEmpty(r.getParameter("userId"))),
+            new UriStartFromRequestFilter("/api/user/settings"),
+            new ConjunctionRequestFilter(
+                new RegexpRequestFilter("^/api/permissions$"), new RequestMethodFilter("GET")));
+  }
+
+  @Benchmark
+  public boolean masterFilter() {
+    return masterFilter.shouldSkip(httpRequest);
+  }
+
+  @Benchmark
+  public boolean regexpFilter() {
+    return regexpFilter.shouldSkip(httpRequest);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.auth;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Lightweight servlet objects for benchmarks.
+ *
+ * <p>Mocking frameworks record each invocation and would dominate measured time, so only methods
+ * used by the measured code are implemented, any other invocation fails.
+ */
+final class ServletStubs {
+
+  /** Creates request which has only method, uri and query parameters. */
+  static HttpServletRequest request(String method, String uri, Map<String, String> parameters) {
+    return new HttpServletRequestWrapper(unsupported(HttpServletRequest.class)) {
+      @Override
+      public String getMethod() {
+        return method;
+      }
+
+      @Override
+      public String getRequestURI() {
+        return uri;
+      }
+
+      @Override
+      public String getParameter(String name) {
+        return parameters.get(name);
+      }
+    };
+  }
+
+  /** Creates session which has only identifier. */
+  static HttpSession session(String id) {
+    return (HttpSession)
+        Proxy.newProxyInstance(
+            ServletStubs.class.getClassLoader(),
+            new Class<?>[] {HttpSession.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getId":
+                  return id;
+                case "hashCode":
+                  return id.hashCode();
+                case "equals":
+                  return proxy == args[0];
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  private static <T> T unsupported(Class<T> type) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            ServletStubs.class.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              throw new UnsupportedOperationException(method.getName());
+            }));
+  }
+
+  private ServletStubs() {}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.auth;
+
+import com.codenvy.auth.sso.client.SessionStore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SessionStore} which is looked up by the sso client on each request with a token.
+ *
+ * <p>The read-write group shows how session lookups are affected by concurrent logins and logouts,
+ * which are synchronized on the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SessionStoreBenchmark {
+
+  /** Number of stored sessions, each session has two tokens. */
+  @Param({"1000", "100000"})
+  public int sessions;
+
+  private SessionStore sessionStore;
+  private String[] tokens;
+
+  @Setup
+  public void setUp() {
+    sessionStore = new SessionStore();
+    tokens = new String[sessions * 2];
+    for (int i = 0; i < sessions; i++) {
+      HttpSession session = ServletStubs.session("session" + i);
+      tokens[i * 2] = "token" + i + "-a";
+      tokens[i * 2 + 1] = "token" + i + "-b";
+      sessionStore.saveSession(tokens[i * 2], session);
+      sessionStore.saveSession(tokens[i * 2 + 1], session);
+    }
+  }
+
+  @Benchmark
+  public HttpSession getSession() {
+    return sessionStore.getSession(randomToken());
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(3)
+  public HttpSession readWriteGetSession() {
+    return sessionStore.getSession(randomToken());
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(1)
+  public HttpSession readWriteSaveAndRemoveSession() {
+    // sessions of the writer don't intersect with looked up ones, so the store content is stable
+    String id = "login" + ThreadLocalRandom.current().nextInt(sessions);
+    sessionStore.saveSession(id, ServletStubs.session(id));
+    return sessionStore.removeSessionByToken(id);
+  }
+
+  private String randomToken() {
+    return tokens[ThreadLocalRandom.current().nextInt(tokens.length)];
+  }
+}
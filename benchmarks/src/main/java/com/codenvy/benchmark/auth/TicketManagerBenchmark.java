@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.auth;
+
+import com.codenvy.api.dao.authentication.AccessTicket;
+import com.codenvy.auth.sso.server.ticket.InMemoryTicketManager;
+import com.codenvy.auth.sso.server.ticket.SsoClientLogoutNotifier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link InMemoryTicketManager#getAccessTicket(String)} which is called by the sso server
+ * to validate the token of each request.
+ *
+ * <p>The read-write group shows how lookups are affected by concurrent logins and logouts, which
+ * take the write lock of the manager.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TicketManagerBenchmark {
+
+  /** Number of issued access tickets. */
+  @Param({"1000", "100000"})
+  public int tickets;
+
+  private SsoClientLogoutNotifier logoutNotifier;
+  private InMemoryTicketManager ticketManager;
+  private String[] tokens;
+
+  @Setup
+  public void setUp() {
+    // tickets have no registered clients, so nothing is sent on removal
+    logoutNotifier = new SsoClientLogoutNotifier(1, 1, 1, 0);
+    ticketManager = new InMemoryTicketManager(logoutNotifier);
+    tokens = new String[tickets];
+    for (int i = 0; i < tickets; i++) {
+      tokens[i] = "token" + i;
+      ticketManager.putAccessTicket(new AccessTicket(tokens[i], "user" + i, "default"));
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    logoutNotifier.shutdown();
+  }
+
+  @Benchmark
+  public AccessTicket getAccessTicket() {
+    return ticketManager.getAccessTicket(randomToken());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public AccessTicket getAccessTicketConcurrently() {
+    return ticketManager.getAccessTicket(randomToken());
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(3)
+  public AccessTicket readWriteGetAccessTicket() {
+    return ticketManager.getAccessTicket(randomToken());
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(1)
+  public AccessTicket readWritePutAndRemoveTicket() {
+    // tokens of the writer don't intersect with looked up ones, so the manager content is stable
+    String token = "login" + ThreadLocalRandom.current().nextInt(tickets);
+    ticketManager.putAccessTicket(new AccessTicket(token, "user", "default"));
+    return ticketManager.removeTicket(token);
+  }
+
+  private String randomToken() {
+    return tokens[ThreadLocalRandom.current().nextInt(tokens.length)];
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.machine;
+
+import static com.codenvy.machine.backup.DockerEnvironmentBackupManager.ENGINE_DOCKER_ARCHIVE;
+import static com.codenvy.machine.backup.DockerEnvironmentBackupManager.ENGINE_RSYNC;
+
+import com.codenvy.machine.backup.DockerEnvironmentBackupManager;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures backup and restore of files of a single workspace by {@link
+ * DockerEnvironmentBackupManager} with each backup engine.
+ *
+ * <p>Container is a local directory, see {@link LocalBackupEnvironment}, so results show costs of
+ * the engines and of the manager without network. Backup synchronizes the tree in which the given
+ * percent of files is modified since the previous backup, restore copies the whole tree into the
+ * empty container as it is done on the start of a workspace. Sampling gives latency percentiles,
+ * throughput and cpu time per operation are printed at the end of each iteration.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BackupBenchmark {
+  private static final String WORKSPACE_ID = "workspace0benchmark";
+
+  /** Workspace with generated projects which are backed up once before measurements. */
+  public abstract static class WorkspaceState {
+
+    @Param({ENGINE_RSYNC, ENGINE_DOCKER_ARCHIVE})
+    public String engine;
+
+    /** Number of files in the workspace. */
+    @Param({"10000"})
+    public int files;
+
+    /** Size of each file in KiB. */
+    @Param({"16"})
+    public int fileSizeKb;
+
+    LocalBackupEnvironment environment;
+    DockerEnvironmentBackupManager backupManager;
+    SyntheticProject project;
+    Path projects;
+    TransferStats stats;
+
+    private final String operation;
+
+    WorkspaceState(String operation) {
+      this.operation = operation;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+      environment = new LocalBackupEnvironment(engine);
+      backupManager = environment.getBackupManager();
+      projects = environment.addWorkspace(WORKSPACE_ID);
+      project = new SyntheticProject(projects, files, fileSizeKb * 1024);
+      project.create();
+      backupManager.backupWorkspace(WORKSPACE_ID);
+      prepare();
+      stats = new TransferStats();
+    }
+
+    /** Prepares workspace for the first measured operation. */
+    void prepare() throws Exception {}
+
+    @TearDown(Level.Iteration)
+    public void report() {
+      stats.report(operation);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      environment.close();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class BackupState extends WorkspaceState {
+
+    /** Percent of files modified before each backup. */
+    @Param({"0", "1", "10"})
+    public int changedPercent;
+
+    public BackupState() {
+      super("backup");
+    }
+
+    @Setup(Level.Invocation)
+    public void modify() throws Exception {
+      project.modify(changedPercent);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class RestoreState extends WorkspaceState {
+
+    public RestoreState() {
+      super("restore");
+    }
+
+    @Override
+    void prepare() throws Exception {
+      environment.stopWorkspace(WORKSPACE_ID);
+    }
+
+    @Setup(Level.Invocation)
+    public void removeContainerFiles() {
+      IoUtil.deleteRecursive(projects.toFile());
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopWorkspace() throws Exception {
+      // files are not modified, so backup only releases the workspace
+      environment.stopWorkspace(WORKSPACE_ID);
+    }
+  }
+
+  @Benchmark
+  public void backup(BackupState state) throws Exception {
+    state.stats.measure(
+        state.project.getSize(),
+        state.project.getFiles(),
+        () -> state.backupManager.backupWorkspace(WORKSPACE_ID));
+  }
+
+  @Benchmark
+  public void restore(RestoreState state) throws Exception {
+    state.stats.measure(
+        state.project.getSize(),
+        state.project.getFiles(),
+        () -> state.environment.startWorkspace(WORKSPACE_ID));
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.machine;
+
+import static com.codenvy.machine.backup.DockerEnvironmentBackupManager.ENGINE_DOCKER_ARCHIVE;
+import static com.codenvy.machine.backup.DockerEnvironmentBackupManager.ENGINE_RSYNC;
+import static java.util.Collections.singletonMap;
+
+import com.codenvy.machine.backup.WorkspaceFsBackupScheduler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a round of periodic backups of all running workspaces by {@link
+ * WorkspaceFsBackupScheduler}, from the scheduled call until the last backup is finished.
+ *
+ * <p>Workspaces run in local containers, see {@link LocalBackupEnvironment}, each of them on a
+ * separate node, so only the total limit of concurrent backups applies. Before each round the
+ * given percent of files of each workspace is modified. Sampling gives latency percentiles of
+ * rounds, throughput and cpu time per round are printed at the end of each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BackupSchedulerBenchmark {
+
+  @Param({ENGINE_RSYNC, ENGINE_DOCKER_ARCHIVE})
+  public String engine;
+
+  /** Number of running workspaces. */
+  @Param({"32"})
+  public int workspaces;
+
+  /** Number of files in each workspace. */
+  @Param({"1000"})
+  public int files;
+
+  /** Size of each file in KiB. */
+  @Param({"16"})
+  public int fileSizeKb;
+
+  /** Percent of files of each workspace modified before each round. */
+  @Param({"10"})
+  public int changedPercent;
+
+  @Param({"1", "4"})
+  public int maxConcurrentBackups;
+
+  private LocalBackupEnvironment environment;
+  private WorkspaceFsBackupScheduler scheduler;
+  private List<SyntheticProject> projects;
+  private TransferStats stats;
+
+  @Setup
+  public void setUp() throws Exception {
+    environment = new LocalBackupEnvironment(engine);
+    projects = new ArrayList<>(workspaces);
+    for (int i = 0; i < workspaces; i++) {
+      String workspaceId = "workspace" + i + "benchmark";
+      SyntheticProject project =
+          new SyntheticProject(environment.addWorkspace(workspaceId), files, fileSizeKb * 1024);
+      project.create();
+      projects.add(project);
+    }
+    // backup is due on each call, so every call starts a round of all workspaces
+    scheduler =
+        new WorkspaceFsBackupScheduler(
+            singletonMap(LocalBackupEnvironment.ENV_TYPE, environment.getBackupManager()),
+            environment.getWorkspaceRuntimes(),
+            0,
+            maxConcurrentBackups,
+            maxConcurrentBackups,
+            environment.getWorkspaceManager(),
+            environment.getMetrics());
+    // initial full backups are not measured
+    runRound();
+    stats = new TransferStats();
+  }
+
+  @Setup(Level.Invocation)
+  public void modify() throws Exception {
+    for (SyntheticProject project : projects) {
+      project.modify(changedPercent);
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void report() {
+    stats.report("backup round");
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    // releases threads of the scheduler the same way as the container does on shutdown
+    for (Method method : WorkspaceFsBackupScheduler.class.getDeclaredMethods()) {
+      if (method.isAnnotationPresent(PreDestroy.class)) {
+        method.setAccessible(true);
+        method.invoke(scheduler);
+      }
+    }
+    environment.close();
+  }
+
+  @Benchmark
+  public void backupRound() throws Exception {
+    stats.measure(
+        (long) workspaces * files * fileSizeKb * 1024, (long) workspaces * files, this::runRound);
+  }
+
+  private void runRound() throws InterruptedException {
+    scheduler.scheduleBackup();
+    while (scheduler.getQueueSize() > 0 || scheduler.getActiveBackupsCount() > 0) {
+      TimeUnit.MILLISECONDS.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.machine;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codenvy.machine.backup.BackupBandwidthLimiter;
+import com.codenvy.machine.backup.BackupFingerprintStore;
+import com.codenvy.machine.backup.BackupMetrics;
+import com.codenvy.machine.backup.ContainerUserStore;
+import com.codenvy.machine.backup.DedupBackupStorage;
+import com.codenvy.machine.backup.DockerArchiveBackupEngine;
+import com.codenvy.machine.backup.DockerEnvironmentBackupManager;
+import com.codenvy.machine.backup.WorkspaceIdHashLocationFinder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.eclipse.che.api.core.model.machine.MachineStatus;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.core.notification.EventService;
+import org.eclipse.che.api.machine.server.model.impl.MachineImpl;
+import org.eclipse.che.api.machine.server.model.impl.MachineRuntimeInfoImpl;
+import org.eclipse.che.api.machine.server.model.impl.ServerImpl;
+import org.eclipse.che.api.workspace.server.WorkspaceManager;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
+import org.eclipse.che.api.workspace.server.model.impl.EnvironmentImpl;
+import org.eclipse.che.api.workspace.server.model.impl.EnvironmentRecipeImpl;
+import org.eclipse.che.api.workspace.server.model.impl.WorkspaceConfigImpl;
+import org.eclipse.che.api.workspace.server.model.impl.WorkspaceImpl;
+import org.eclipse.che.api.workspace.server.model.impl.WorkspaceRuntimeImpl;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.Exec;
+import org.eclipse.che.plugin.docker.client.LogMessage;
+import org.eclipse.che.plugin.docker.client.MessageProcessor;
+import org.eclipse.che.plugin.docker.client.json.ContainerInfo;
+import org.eclipse.che.plugin.docker.client.json.ContainerState;
+import org.eclipse.che.plugin.docker.client.json.NetworkSettings;
+import org.eclipse.che.plugin.docker.client.json.PortBinding;
+import org.eclipse.che.plugin.docker.client.params.CreateExecParams;
+import org.eclipse.che.plugin.docker.client.params.GetResourceParams;
+import org.eclipse.che.plugin.docker.client.params.PutResourceParams;
+import org.eclipse.che.plugin.docker.client.params.StartExecParams;
+import org.eclipse.che.plugin.docker.machine.DockerInstance;
+import org.eclipse.che.plugin.docker.machine.node.DockerNode;
+
+/**
+ * {@link DockerEnvironmentBackupManager} wired to local directories for benchmarks.
+ *
+ * <p>Container of each workspace is a local directory, its path is also used as the host of the
+ * node where the container runs. Docker api is answered by mocks: archives of container files are
+ * read and written locally, containers are reported running with published ssh port and commands
+ * executed in containers report the current user. Rsync engine runs stand-in scripts which call
+ * rsync with the options of the real scripts on local directories instead of connecting to the
+ * container over ssh. Mocks are invoked a few times per backup, which is negligible comparing to
+ * transfer of files.
+ */
+final class LocalBackupEnvironment implements AutoCloseable {
+  static final String ENV_TYPE = "compose";
+
+  private static final String ACTIVE_ENV = "default";
+  private static final String PROJECTS_PATH = "/projects";
+  private static final String SSH_PORT = "2222";
+  private static final String USER_IDS_COMMAND = "id -u && id -g && id -u -n";
+  private static final String USER_NAME_COMMAND = "id -u -n";
+  private static final int SCRIPT_TIMEOUT_SEC = 3600;
+
+  private static final String RSYNC_OPTIONS =
+      "--quiet --recursive --times --links --safe-links --perms"
+          + " --include='.codenvy/' --filter=':- .gitignore'";
+  private static final String BACKUP_SCRIPT =
+      "#!/bin/sh\n"
+          + "# stand-in of rsyncbackup.sh, node host is the local root of container\n"
+          + "mkdir -p \"$4\" && rsync "
+          + RSYNC_OPTIONS
+          + " --partial --delete \"$2$1/\" \"$4/\"\n";
+  private static final String RESTORE_SCRIPT =
+      "#!/bin/sh\n"
+          + "# stand-in of rsyncrestore.sh, node host is the local root of container\n"
+          + "mkdir -p \"$3$2\" && rsync "
+          + RSYNC_OPTIONS
+          + " --delete \"$1/\" \"$3$2/\"\n";
+
+  private final Path root;
+  private final Path containersRoot;
+  private final File backupsRoot;
+  private final Set<String> workspaces;
+  private final WorkspaceManager workspaceManager;
+  private final WorkspaceRuntimes workspaceRuntimes;
+  private final WorkspaceConfigImpl workspaceConfig;
+  private final DockerConnector docker;
+  private final ExecutorService archiveWriters;
+  private final int userId;
+  private final int groupId;
+  private final String userName;
+  private final BackupMetrics metrics;
+  private final DockerArchiveBackupEngine archiveEngine;
+  private final DockerEnvironmentBackupManager backupManager;
+
+  /**
+   * Creates environment in a temporary directory.
+   *
+   * @param engine backup engine, one of {@link DockerEnvironmentBackupManager#ENGINE_RSYNC} and
+   *     {@link DockerEnvironmentBackupManager#ENGINE_DOCKER_ARCHIVE}
+   */
+  LocalBackupEnvironment(String engine) throws Exception {
+    root = Files.createTempDirectory("backup-benchmark");
+    containersRoot = Files.createDirectories(root.resolve("containers"));
+    backupsRoot = Files.createDirectories(root.resolve("backups")).toFile();
+    userId = (Integer) Files.getAttribute(root, "unix:uid");
+    groupId = (Integer) Files.getAttribute(root, "unix:gid");
+    userName = System.getProperty("user.name");
+    workspaces = Collections.synchronizedSet(new LinkedHashSet<>());
+    archiveWriters =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("LocalBackupEnvironment-%s")
+                .setDaemon(true)
+                .build());
+
+    EnvironmentRecipeImpl recipe = new EnvironmentRecipeImpl();
+    recipe.setType(ENV_TYPE);
+    EnvironmentImpl environment = new EnvironmentImpl();
+    environment.setRecipe(recipe);
+    workspaceConfig = new WorkspaceConfigImpl();
+    workspaceConfig.setEnvironments(singletonMap(ACTIVE_ENV, environment));
+    workspaceManager = mock(WorkspaceManager.class);
+    workspaceRuntimes = mock(WorkspaceRuntimes.class);
+    when(workspaceRuntimes.getRuntimesIds()).thenAnswer(invocation -> copyOfWorkspaces());
+    docker = mock(DockerConnector.class);
+    mockDocker();
+
+    metrics = new BackupMetrics(new MetricRegistry());
+    archiveEngine = new DockerArchiveBackupEngine(docker);
+    backupManager =
+        new DockerEnvironmentBackupManager(
+            script("backup.sh", BACKUP_SCRIPT),
+            script("restore.sh", RESTORE_SCRIPT),
+            SCRIPT_TIMEOUT_SEC,
+            SCRIPT_TIMEOUT_SEC,
+            backupsRoot,
+            new WorkspaceIdHashLocationFinder(),
+            PROJECTS_PATH,
+            workspaceManager,
+            docker,
+            false,
+            new BackupFingerprintStore(),
+            new DedupBackupStorage(backupsRoot, false),
+            engine,
+            archiveEngine,
+            null,
+            new EventService(),
+            metrics,
+            new ContainerUserStore(backupsRoot),
+            new BackupBandwidthLimiter(0, 0, metrics));
+  }
+
+  /**
+   * Adds running workspace and returns the directory of its projects in container.
+   *
+   * <p>Workspace files are restored the same way as on the start of a workspace, so the manager
+   * allows backups of the workspace.
+   */
+  Path addWorkspace(String workspaceId) throws Exception {
+    Path projects = Files.createDirectories(containerRoot(workspaceId).resolve("projects"));
+    String containerId = containerId(workspaceId);
+    String nodeHost = containerRoot(workspaceId).toString();
+
+    WorkspaceImpl workspace = mock(WorkspaceImpl.class);
+    WorkspaceRuntimeImpl runtime = mock(WorkspaceRuntimeImpl.class);
+    MachineImpl devMachine = mock(MachineImpl.class);
+    DockerInstance instance = mock(DockerInstance.class);
+    DockerNode node = mock(DockerNode.class);
+    MachineRuntimeInfoImpl machineRuntime = mock(MachineRuntimeInfoImpl.class);
+    when(workspaceManager.getWorkspace(workspaceId)).thenReturn(workspace);
+    when(workspace.getStatus()).thenReturn(WorkspaceStatus.RUNNING);
+    when(workspace.getConfig()).thenReturn(workspaceConfig);
+    when(workspace.getRuntime()).thenReturn(runtime);
+    when(runtime.getActiveEnv()).thenReturn(ACTIVE_ENV);
+    when(runtime.getDevMachine()).thenReturn(devMachine);
+    when(devMachine.getId()).thenReturn(workspaceId + "-dev-machine");
+    when(devMachine.getStatus()).thenReturn(MachineStatus.RUNNING);
+    when(workspaceManager.getMachineInstance(workspaceId, workspaceId + "-dev-machine"))
+        .thenReturn(instance);
+    when(instance.getNode()).thenReturn(node);
+    when(node.getHost()).thenReturn(nodeHost);
+    when(instance.getContainer()).thenReturn(containerId);
+    when(instance.getRuntime()).thenReturn(machineRuntime);
+    when(machineRuntime.getServers())
+        .thenReturn(
+            singletonMap(
+                "22/tcp", new ServerImpl("ssh", "tcp", nodeHost + ':' + SSH_PORT, null, null)));
+
+    backupManager.restoreWorkspaceBackup(workspaceId, containerId, nodeHost);
+    workspaces.add(workspaceId);
+    return projects;
+  }
+
+  /** Copies files of the workspace to backup storage as it is done on the stop of a workspace. */
+  void stopWorkspace(String workspaceId) throws Exception {
+    workspaces.remove(workspaceId);
+    backupManager.backupWorkspaceAndCleanup(
+        workspaceId, containerId(workspaceId), containerRoot(workspaceId).toString());
+  }
+
+  /** Starts stopped workspace restoring its files from backup storage. */
+  void startWorkspace(String workspaceId) throws Exception {
+    backupManager.restoreWorkspaceBackup(
+        workspaceId, containerId(workspaceId), containerRoot(workspaceId).toString());
+    workspaces.add(workspaceId);
+  }
+
+  DockerEnvironmentBackupManager getBackupManager() {
+    return backupManager;
+  }
+
+  WorkspaceManager getWorkspaceManager() {
+    return workspaceManager;
+  }
+
+  WorkspaceRuntimes getWorkspaceRuntimes() {
+    return workspaceRuntimes;
+  }
+
+  BackupMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public void close() throws Exception {
+    backupManager.shutdown();
+    archiveEngine.shutdown();
+    archiveWriters.shutdownNow();
+    IoUtil.deleteRecursive(root.toFile());
+  }
+
+  private Set<String> copyOfWorkspaces() {
+    synchronized (workspaces) {
+      return new LinkedHashSet<>(workspaces);
+    }
+  }
+
+  private Path containerRoot(String workspaceId) {
+    return containersRoot.resolve(containerId(workspaceId));
+  }
+
+  private static String containerId(String workspaceId) {
+    return workspaceId + "-container";
+  }
+
+  private Path containerPath(String containerId, String path) {
+    return Paths.get(containersRoot.resolve(containerId).toString(), path);
+  }
+
+  private String script(String name, String content) throws IOException {
+    Path script = root.resolve(name);
+    Files.write(script, content.getBytes(UTF_8));
+    Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+    return script.toString();
+  }
+
+  private void mockDocker() throws Exception {
+    NetworkSettings networkSettings = new NetworkSettings();
+    networkSettings.setPorts(
+        singletonMap("22/tcp", singletonList(new PortBinding().withHostPort(SSH_PORT))));
+    ContainerState containerState = new ContainerState();
+    containerState.setRunning(true);
+    ContainerInfo containerInfo = new ContainerInfo();
+    containerInfo.setNetworkSettings(networkSettings);
+    containerInfo.setState(containerState);
+    containerInfo.setImage("sha256:benchmark");
+    when(docker.inspectContainer(anyString())).thenReturn(containerInfo);
+
+    Exec userIdsExec = mock(Exec.class);
+    when(userIdsExec.getId()).thenReturn(USER_IDS_COMMAND);
+    Exec userNameExec = mock(Exec.class);
+    when(userNameExec.getId()).thenReturn(USER_NAME_COMMAND);
+    when(docker.createExec(any(CreateExecParams.class)))
+        .thenAnswer(
+            invocation -> {
+              CreateExecParams params = (CreateExecParams) invocation.getArguments()[0];
+              return params.equals(execParams(params.getContainer(), USER_IDS_COMMAND))
+                  ? userIdsExec
+                  : userNameExec;
+            });
+    doAnswer(
+            invocation -> {
+              String execId = ((StartExecParams) invocation.getArguments()[0]).getExecId();
+              @SuppressWarnings("unchecked")
+              MessageProcessor<LogMessage> processor =
+                  (MessageProcessor<LogMessage>) invocation.getArguments()[1];
+              if (USER_IDS_COMMAND.equals(execId)) {
+                processor.process(new LogMessage(LogMessage.Type.STDOUT, Integer.toString(userId)));
+                processor.process(
+                    new LogMessage(LogMessage.Type.STDOUT, Integer.toString(groupId)));
+              }
+              processor.process(new LogMessage(LogMessage.Type.STDOUT, userName));
+              return null;
+            })
+        .when(docker)
+        .startExec(any(StartExecParams.class), any());
+
+    when(docker.getResource(any(GetResourceParams.class)))
+        .thenAnswer(
+            invocation -> {
+              GetResourceParams params = (GetResourceParams) invocation.getArguments()[0];
+              return archive(containerPath(params.getContainer(), params.getSourcePath()));
+            });
+    doAnswer(
+            invocation -> {
+              PutResourceParams params = (PutResourceParams) invocation.getArguments()[0];
+              extract(
+                  params.getSourceStream(),
+                  containerPath(params.getContainer(), params.getTargetPath()));
+              return null;
+            })
+        .when(docker)
+        .putResource(any(PutResourceParams.class));
+  }
+
+  private static CreateExecParams execParams(String containerId, String command) {
+    return CreateExecParams.create(containerId, new String[] {"sh", "-c", command})
+        .withDetach(false);
+  }
+
+  /** Streams the directory as docker does, names of entries start with the name of directory. */
+  private InputStream archive(Path dir) throws IOException {
+    PipedInputStream archive = new PipedInputStream(64 * 1024);
+    PipedOutputStream archiveOut = new PipedOutputStream(archive);
+    archiveWriters.execute(
+        () -> {
+          try (TarArchiveOutputStream tar = new TarArchiveOutputStream(archiveOut)) {
+            writeArchive(dir, tar);
+          } catch (IOException e) {
+            // reader closed the stream, nothing to do
+          }
+        });
+    return archive;
+  }
+
+  private static void writeArchive(Path dir, TarArchiveOutputStream tar) throws IOException {
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    Path base = dir.getParent();
+    Files.walkFileTree(
+        dir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs)
+              throws IOException {
+            TarArchiveEntry entry = new TarArchiveEntry(base.relativize(path).toString() + '/');
+            entry.setModTime(attrs.lastModifiedTime().toMillis());
+            tar.putArchiveEntry(entry);
+            tar.closeArchiveEntry();
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path path, BasicFileAttributes attrs)
+              throws IOException {
+            String name = base.relativize(path).toString();
+            if (attrs.isSymbolicLink()) {
+              TarArchiveEntry entry = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+              entry.setLinkName(Files.readSymbolicLink(path).toString());
+              tar.putArchiveEntry(entry);
+            } else {
+              TarArchiveEntry entry = new TarArchiveEntry(name);
+              entry.setSize(attrs.size());
+              entry.setModTime(attrs.lastModifiedTime().toMillis());
+              tar.putArchiveEntry(entry);
+              Files.copy(path, tar);
+            }
+            tar.closeArchiveEntry();
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  /** Extracts archive into the directory replacing existing files as docker does. */
+  private static void extract(InputStream archive, Path dir) throws IOException {
+    try (TarArchiveInputStream tar = new TarArchiveInputStream(archive)) {
+      TarArchiveEntry entry;
+      while ((entry = tar.getNextTarEntry()) != null) {
+        Path path = dir.resolve(entry.getName());
+        if (entry.isDirectory()) {
+          Files.createDirectories(path);
+        } else if (entry.isSymbolicLink()) {
+          Files.deleteIfExists(path);
+          Files.createSymbolicLink(path, Paths.get(entry.getLinkName()));
+        } else {
+          Files.copy(tar, path, REPLACE_EXISTING);
+          Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getModTime().getTime()));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.machine;
+
+import com.codenvy.machine.UriTemplateServerProxyTransformer;
+import com.codenvy.machine.WsAgentServerProxyTransformer;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.api.machine.server.model.impl.ServerImpl;
+import org.eclipse.che.api.machine.server.model.impl.ServerPropertiesImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link UriTemplateServerProxyTransformer#transform(ServerImpl)} which is applied to each
+ * server of a machine whenever the runtime of a workspace is fetched.
+ *
+ * <p>Transformer is configured with the default template of the master.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ServerProxyTransformerBenchmark {
+
+  private UriTemplateServerProxyTransformer transformer;
+  private ServerImpl server;
+
+  @Setup
+  public void setUp() {
+    transformer =
+        new WsAgentServerProxyTransformer(
+            "http://%5$s/%3$s_%2$s/%4$s", "codenvy.example.com", null);
+    server =
+        new ServerImpl(
+            "wsagent",
+            "http",
+            "node1.example.com:32768",
+            "http://node1.example.com:32768/api",
+            new ServerPropertiesImpl(
+                "/api", "node1.example.com:32768", "http://node1.example.com:32768/api"));
+  }
+
+  @Benchmark
+  public ServerImpl transform() {
+    return transformer.transform(server);
+  }
+}
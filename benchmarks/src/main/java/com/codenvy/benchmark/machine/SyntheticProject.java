@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.machine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+/**
+ * Generated tree of files which stands for projects of a workspace.
+ *
+ * <p>Names and content of files are produced from a fixed seed, so trees of runs with the same
+ * parameters are identical. Files are placed in folders of {@value #FILES_PER_FOLDER} files.
+ * Modification time of each written file is one second after the previous one, so backup engines
+ * detect modified files even if they are rewritten within the same second.
+ */
+final class SyntheticProject {
+  private static final int FILES_PER_FOLDER = 100;
+  private static final long SEED = 20170101L;
+  private static final long INITIAL_MODIFICATION_TIME = 1483228800000L;
+
+  private final Path dir;
+  private final int files;
+  private final int fileSize;
+  private final Random random;
+  private final byte[] content;
+  private long modificationTime;
+
+  /**
+   * Creates project which is not written yet.
+   *
+   * @param dir root folder of the project
+   * @param files number of files
+   * @param fileSize size of each file in bytes
+   */
+  SyntheticProject(Path dir, int files, int fileSize) {
+    this.dir = dir;
+    this.files = files;
+    this.fileSize = fileSize;
+    this.random = new Random(SEED);
+    this.content = new byte[fileSize];
+    this.modificationTime = INITIAL_MODIFICATION_TIME;
+  }
+
+  /** Writes all files of the project. */
+  void create() throws IOException {
+    for (int i = 0; i < files; i += FILES_PER_FOLDER) {
+      Files.createDirectories(dir.resolve(path(i)).getParent());
+    }
+    for (int i = 0; i < files; i++) {
+      write(i);
+    }
+  }
+
+  /**
+   * Rewrites the given percent of files chosen randomly.
+   *
+   * @return number of rewritten files, the same file may be chosen more than once
+   */
+  int modify(int percent) throws IOException {
+    int count = (int) ((long) files * percent / 100);
+    for (int i = 0; i < count; i++) {
+      write(random.nextInt(files));
+    }
+    return count;
+  }
+
+  /** Returns number of files in the project. */
+  int getFiles() {
+    return files;
+  }
+
+  /** Returns total size of files in bytes. */
+  long getSize() {
+    return (long) files * fileSize;
+  }
+
+  private void write(int index) throws IOException {
+    random.nextBytes(content);
+    Path file = dir.resolve(path(index));
+    Files.write(file, content);
+    modificationTime += 1000;
+    Files.setLastModifiedTime(file, FileTime.fromMillis(modificationTime));
+  }
+
+  private static String path(int index) {
+    int folder = index / FILES_PER_FOLDER;
+    return "module" + folder / FILES_PER_FOLDER + "/package" + folder + "/File" + index + ".java";
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.benchmark.machine;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Throughput and cpu usage of transfers measured by backup benchmarks.
+ *
+ * <p>Latency percentiles are reported by jmh, this class complements them with values which jmh
+ * can't measure. Throughput is the size of synchronized trees divided by the time of operations,
+ * setup of operations is not included. Cpu time is read from {@code /proc/self/stat} and includes
+ * waited child processes, so rsync started by backup scripts is accounted together with the jvm.
+ * Linux reports cpu time in clock ticks which are 100 per second on all common architectures. Cpu
+ * time is not reported if {@code /proc} is not available.
+ */
+final class TransferStats {
+  private static final Path PROC_STAT = Paths.get("/proc/self/stat");
+  private static final long MILLIS_PER_TICK = 10;
+
+  /** Transfer which is measured. */
+  interface Transfer {
+    void run() throws Exception;
+  }
+
+  private long operations;
+  private long bytes;
+  private long files;
+  private long nanos;
+  private long cpuTicks;
+
+  /**
+   * Runs and measures transfer of a tree.
+   *
+   * @param treeBytes size of the synchronized tree
+   * @param treeFiles number of files in the synchronized tree
+   */
+  void measure(long treeBytes, long treeFiles, Transfer transfer) throws Exception {
+    final long startTicks = readCpuTicks();
+    final long start = System.nanoTime();
+    transfer.run();
+    nanos += System.nanoTime() - start;
+    final long endTicks = readCpuTicks();
+    if (startTicks < 0 || endTicks < 0) {
+      cpuTicks = -1;
+    } else if (cpuTicks >= 0) {
+      cpuTicks += endTicks - startTicks;
+    }
+    operations++;
+    bytes += treeBytes;
+    files += treeFiles;
+  }
+
+  /** Prints values collected since the previous report and resets them. */
+  void report(String operation) {
+    if (operations == 0) {
+      return;
+    }
+    final double seconds = nanos / 1e9;
+    System.out.printf(
+        "%n%s: %d ops, %.1f MiB/s, %.0f files/s, cpu %s ms/op%n",
+        operation,
+        operations,
+        bytes / seconds / (1024 * 1024),
+        files / seconds,
+        cpuTicks < 0 ? "n/a" : Long.toString(cpuTicks * MILLIS_PER_TICK / operations));
+    operations = 0;
+    bytes = 0;
+    files = 0;
+    nanos = 0;
+    cpuTicks = 0;
+  }
+
+  /** Returns user and system time of the process and its waited children or -1. */
+  private static long readCpuTicks() {
+    try {
+      final String stat = new String(Files.readAllBytes(PROC_STAT), UTF_8);
+      // command name may contain spaces, fields are counted after it
+      final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      // utime, stime, cutime and cstime are fields 14-17 of the whole line
+      long ticks = 0;
+      for (int i = 11; i <= 14; i++) {
+        ticks += Long.parseLong(fields[i]);
+      }
+      return ticks;
+    } catch (IOException | RuntimeException e) {
+      return -1;
+    }
+  }
+}
@@ -21,6 +21,9 @@ node default {
 # coma separated list of <IP>:<PORT>
   $swarm_nodes = getValue("CODENVY_SWARM_NODES","172.17.0.1:2375")
   $swarm_log_level = getValue("CODENVY_SWARM_LOG_LEVEL","info")
+# strategy of docker node selection for operations performed on a particular node
+# possible values: random, least_loaded, bin_packing, spread
+  $swarm_node_selection_strategy = getValue("CODENVY_SWARM_NODE_SELECTION_STRATEGY","random")
 
 ###############################
 #
@@ -93,6 +96,8 @@ node default {
 # LDAP Synchronization settings
   $ldap_sync_initial_delay_ms = getValue("CODENVY_LDAP_SYNC_INITIAL_DELAY_MS","10000")
   $ldap_sync_period_ms = getValue("CODENVY_LDAP_SYNC_PERIOD_MS","-1")
+  $ldap_sync_change_marker_attr = getValue("CODENVY_LDAP_SYNC_CHANGE_MARKER_ATTR","NULL")
+  $ldap_sync_full_sync_period_ms = getValue("CODENVY_LDAP_SYNC_FULL_SYNC_PERIOD_MS","86400000")
   $ldap_sync_page_size = getValue("CODENVY_LDAP_SYNC_PAGE_SIZE","1000")
   $ldap_sync_page_read_timeout_ms = getValue("CODENVY_LDAP_SYNC_PAGE_READ_TIMEOUT_MS","30000")
   $ldap_sync_user_additional_dn = getValue("CODENVY_LDAP_SYNC_USER_ADDITIONAL_DN","NULL")
@@ -249,6 +254,8 @@ node default {
   $workspace_auto_start = getValue("CODENVY_WORKSPACE_AUTO_START","true")
   $workspace_java_options= getValue("CHE_WORKSPACE_JAVA_OPTIONS", "-Xms256m -Xmx2048m -XX:+UseG1GC -XX:+UseStringDeduplication -Djava.security.egd=file:/dev/./urandom")
   $workspace_maven_options = getValue("CHE_WORKSPACE_MAVEN_OPTIONS", "NULL")
+# comma separated folders of additional volumes for backups of workspace files
+  $machine_backup_storage_volumes = getValue("CODENVY_MACHINE_BACKUP_STORAGE_VOLUMES","")
 
 ###############################
 # Codenvy machine configurations
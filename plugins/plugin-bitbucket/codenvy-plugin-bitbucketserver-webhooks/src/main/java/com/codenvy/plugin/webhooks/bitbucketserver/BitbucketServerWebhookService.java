@@ -18,6 +18,7 @@ import com.codenvy.plugin.webhooks.AuthConnection;
 import com.codenvy.plugin.webhooks.BaseWebhookService;
 import com.codenvy.plugin.webhooks.CloneUrlMatcher;
 import com.codenvy.plugin.webhooks.FactoryConnection;
+import com.codenvy.plugin.webhooks.WebhookEventQueue;
 import com.codenvy.plugin.webhooks.bitbucketserver.shared.Changeset;
 import com.codenvy.plugin.webhooks.bitbucketserver.shared.Project;
 import com.codenvy.plugin.webhooks.bitbucketserver.shared.PushEvent;
@@ -61,10 +62,12 @@ public class BitbucketServerWebhookService extends BaseWebhookService {
       final AuthConnection authConnection,
       final FactoryConnection factoryConnection,
       ConfigurationProperties configurationProperties,
+      WebhookEventQueue eventQueue,
       @Named("integration.factory.owner.username") String username,
       @Named("integration.factory.owner.password") String password,
       @Named("bitbucket.endpoint") String bitbucketEndpoint) {
-    super(authConnection, factoryConnection, configurationProperties, username, password);
+    super(
+        authConnection, factoryConnection, configurationProperties, eventQueue, username, password);
     this.configurationProperties = configurationProperties;
     this.bitbucketEndpoint = bitbucketEndpoint;
 
@@ -92,36 +95,37 @@ public class BitbucketServerWebhookService extends BaseWebhookService {
   @POST
   @Consumes(APPLICATION_JSON)
   public void handleWebhookEvent(PushEvent event) throws ServerException {
-    EnvironmentContext.getCurrent().setSubject(new TokenSubject());
     LOG.debug("{}", event);
-    try {
-      for (RefChange refChange : event.getRefChanges()) {
-        Optional<Changeset> changeset =
-            event
-                .getChangesets()
-                .getValues()
-                .stream()
-                .filter(changeSet -> changeSet.getToCommit().getId().equals(refChange.getToHash()))
-                .findAny();
-        if (!changeset.isPresent()) {
-          continue;
-        }
-        String commitMessage = changeset.get().getToCommit().getMessage();
-        if (commitMessage.startsWith("Merge pull request #")) {
-          handleMergeEvent(event, commitMessage);
-          continue;
-        }
-        String eventType = refChange.getType().toLowerCase();
-        if ("update".equals(eventType) || "add".equals(eventType)) {
-
-          handlePushEvent(event, refChange.getRefId().substring(11));
-        }
+    Repository repository = event.getRepository();
+    enqueue(
+        computeDeliveryId(event),
+        computeCloneUrl(repository.getProject().getKey(), repository.getSlug()),
+        () -> processWebhookEvent(event));
+  }
+
+  private void processWebhookEvent(PushEvent event) throws ServerException, IOException {
+    EnvironmentContext.getCurrent().setSubject(new TokenSubject());
+    for (RefChange refChange : event.getRefChanges()) {
+      Optional<Changeset> changeset =
+          event
+              .getChangesets()
+              .getValues()
+              .stream()
+              .filter(changeSet -> changeSet.getToCommit().getId().equals(refChange.getToHash()))
+              .findAny();
+      if (!changeset.isPresent()) {
+        continue;
+      }
+      String commitMessage = changeset.get().getToCommit().getMessage();
+      if (commitMessage.startsWith("Merge pull request #")) {
+        handleMergeEvent(event, commitMessage);
+        continue;
+      }
+      String eventType = refChange.getType().toLowerCase();
+      if ("update".equals(eventType) || "add".equals(eventType)) {
+
+        handlePushEvent(event, refChange.getRefId().substring(11));
       }
-    } catch (IOException e) {
-      LOG.warn(e.getMessage());
-      throw new ServerException(e.getMessage());
-    } finally {
-      EnvironmentContext.reset();
     }
   }
 
@@ -172,6 +176,25 @@ public class BitbucketServerWebhookService extends BaseWebhookService {
     }
   }
 
+  /**
+   * Bitbucket Server doesn't identify event deliveries, but redelivered push event contains the
+   * same ref changes of the same repository.
+   */
+  private String computeDeliveryId(PushEvent event) {
+    Repository repository = event.getRepository();
+    StringBuilder sb = new StringBuilder();
+    sb.append(repository.getProject().getKey()).append('/').append(repository.getSlug());
+    for (RefChange refChange : event.getRefChanges()) {
+      sb.append(':')
+          .append(refChange.getRefId())
+          .append(':')
+          .append(refChange.getFromHash())
+          .append(':')
+          .append(refChange.getToHash());
+    }
+    return sb.toString();
+  }
+
   private String computeCloneUrl(String projectKey, String repositorySlug) {
     StringBuilder sb = new StringBuilder();
     sb.append(bitbucketEndpoint)
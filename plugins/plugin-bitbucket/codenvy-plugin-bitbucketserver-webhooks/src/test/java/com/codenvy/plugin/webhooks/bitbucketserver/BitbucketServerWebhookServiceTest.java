@@ -23,6 +23,7 @@ import static org.testng.Assert.assertFalse;
 
 import com.codenvy.plugin.webhooks.AuthConnection;
 import com.codenvy.plugin.webhooks.FactoryConnection;
+import com.codenvy.plugin.webhooks.WebhookEventQueue;
 import com.codenvy.plugin.webhooks.bitbucketserver.shared.Changeset;
 import com.codenvy.plugin.webhooks.bitbucketserver.shared.Changesets;
 import com.codenvy.plugin.webhooks.bitbucketserver.shared.Commit;
@@ -33,6 +34,7 @@ import com.codenvy.plugin.webhooks.bitbucketserver.shared.Repository;
 import com.codenvy.plugin.webhooks.bitbucketserver.shared.User;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.eclipse.che.api.core.rest.shared.dto.Link;
 import org.eclipse.che.api.factory.shared.dto.FactoryDto;
 import org.eclipse.che.api.workspace.shared.dto.ProjectConfigDto;
@@ -79,6 +81,14 @@ public class BitbucketServerWebhookServiceTest {
         .thenReturn("http://owner@bitbucketserver.host/scm/projectkey/repository.git");
     parameters.put("branch", "testBranch");
     when(source.getParameters()).thenReturn(parameters);
+    // process events synchronously
+    WebhookEventQueue eventQueue = mock(WebhookEventQueue.class);
+    when(eventQueue.offer(anyString(), anyString(), anyObject()))
+        .thenAnswer(
+            invocation -> {
+              ((WebhookEventQueue.EventHandler) invocation.getArguments()[2]).handle();
+              return CompletableFuture.completedFuture(null);
+            });
 
     service =
         spy(
@@ -86,6 +96,7 @@ public class BitbucketServerWebhookServiceTest {
                 mock(AuthConnection.class),
                 factoryConnection,
                 configurationProperties,
+                eventQueue,
                 "username",
                 "password",
                 "http://bitbucketserver.host"));
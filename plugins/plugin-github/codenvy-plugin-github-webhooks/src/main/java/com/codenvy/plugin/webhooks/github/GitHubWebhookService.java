@@ -18,6 +18,7 @@ import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import com.codenvy.plugin.webhooks.AuthConnection;
 import com.codenvy.plugin.webhooks.BaseWebhookService;
 import com.codenvy.plugin.webhooks.FactoryConnection;
+import com.codenvy.plugin.webhooks.WebhookEventQueue;
 import com.codenvy.plugin.webhooks.github.shared.PullRequestEvent;
 import com.codenvy.plugin.webhooks.github.shared.PushEvent;
 import io.swagger.annotations.Api;
@@ -56,6 +57,7 @@ public class GitHubWebhookService extends BaseWebhookService {
   private static final Logger LOG = LoggerFactory.getLogger(GitHubWebhookService.class);
 
   private static final String GITHUB_REQUEST_HEADER = "X-GitHub-Event";
+  private static final String GITHUB_DELIVERY_HEADER = "X-GitHub-Delivery";
   private static final String WEBHOOK_PROPERTY_PATTERN = "env.CODENVY_GITHUB_WEBHOOK_.+";
   private static final String WEBHOOK_REPOSITORY_URL_SUFFIX = "_REPOSITORY_URL";
   private static final String WEBHOOK_FACTORY_ID_SUFFIX_PATTERN = "_FACTORY.+_ID";
@@ -67,9 +69,11 @@ public class GitHubWebhookService extends BaseWebhookService {
       final AuthConnection authConnection,
       final FactoryConnection factoryConnection,
       final ConfigurationProperties configurationProperties,
+      final WebhookEventQueue eventQueue,
       @Named("integration.factory.owner.username") String username,
       @Named("integration.factory.owner.password") String password) {
-    super(authConnection, factoryConnection, configurationProperties, username, password);
+    super(
+        authConnection, factoryConnection, configurationProperties, eventQueue, username, password);
     this.configurationProperties = configurationProperties;
   }
 
@@ -93,17 +97,24 @@ public class GitHubWebhookService extends BaseWebhookService {
     try (ServletInputStream inputStream = request.getInputStream()) {
       if (inputStream != null) {
         String githubHeader = request.getHeader(GITHUB_REQUEST_HEADER);
+        String deliveryId = request.getHeader(GITHUB_DELIVERY_HEADER);
         if (!isNullOrEmpty(githubHeader)) {
           switch (githubHeader) {
             case "push":
               final PushEvent pushEvent =
                   DtoFactory.getInstance().createDtoFromJson(inputStream, PushEvent.class);
-              handlePushEvent(pushEvent);
+              enqueue(
+                  deliveryId,
+                  pushEvent.getRepository().getHtmlUrl(),
+                  () -> handlePushEvent(pushEvent));
               break;
             case "pull_request":
               final PullRequestEvent PRevent =
                   DtoFactory.getInstance().createDtoFromJson(inputStream, PullRequestEvent.class);
-              handlePullRequestEvent(PRevent);
+              enqueue(
+                  deliveryId,
+                  PRevent.getPullRequest().getBase().getRepo().getHtmlUrl(),
+                  () -> handlePullRequestEvent(PRevent));
               break;
             default:
               response =
@@ -121,8 +132,6 @@ public class GitHubWebhookService extends BaseWebhookService {
     } catch (IOException e) {
       LOG.warn(e.getMessage());
       throw new ServerException(e.getMessage());
-    } finally {
-      EnvironmentContext.reset();
     }
 
     return response;
@@ -11,6 +11,7 @@
 package com.codenvy.plugin.webhooks;
 
 import static javax.ws.rs.core.Response.Status.NO_CONTENT;
+import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -23,6 +24,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Response;
@@ -88,12 +90,22 @@ public class TestGitHubWebhookService {
     when(mockFactoryConnection.getFactory("fakeFactoryId")).thenReturn(gitHubfakeFactory);
     when(mockFactoryConnection.updateFactory(gitHubfakeFactory)).thenReturn(gitHubfakeFactory);
 
+    // Prepare eventQueue, events are processed synchronously
+    WebhookEventQueue mockEventQueue = mock(WebhookEventQueue.class);
+    when(mockEventQueue.offer(anyObject(), anyObject(), anyObject()))
+        .thenAnswer(
+            invocation -> {
+              ((WebhookEventQueue.EventHandler) invocation.getArguments()[2]).handle();
+              return CompletableFuture.completedFuture(null);
+            });
+
     // Prepare GitHubWebhookService
     fakeGitHubWebhookService =
         new GitHubWebhookService(
             mockAuthConnection,
             mockFactoryConnection,
             configurationProperties,
+            mockEventQueue,
             "username",
             "password");
   }
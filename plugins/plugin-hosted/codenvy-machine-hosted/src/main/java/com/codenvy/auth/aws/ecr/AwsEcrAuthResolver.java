@@ -12,10 +12,10 @@ package com.codenvy.auth.aws.ecr;
 
 import static org.eclipse.che.dto.server.DtoFactory.newDto;
 
-import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.ecr.AmazonECR;
 import com.amazonaws.services.ecr.AmazonECRClient;
-import com.amazonaws.services.ecr.model.AmazonECRException;
 import com.amazonaws.services.ecr.model.AuthorizationData;
 import com.amazonaws.services.ecr.model.GetAuthorizationTokenRequest;
 import com.amazonaws.services.ecr.model.GetAuthorizationTokenResult;
@@ -27,6 +27,11 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PreDestroy;
 import org.eclipse.che.commons.annotation.Nullable;
 import org.eclipse.che.plugin.docker.client.DockerRegistryDynamicAuthResolver;
 import org.eclipse.che.plugin.docker.client.dto.AuthConfig;
@@ -36,6 +41,11 @@ import org.slf4j.LoggerFactory;
 /**
  * This class provides actual auth config for AWS ECR.
  *
+ * <p>Auth configs are cached per registry until shortly before expiration of the ECR authorization
+ * token. When the token is about to expire one caller refreshes it while the others keep using the
+ * cached token. When the token is expired or absent, concurrent callers wait for a single refresh.
+ * ECR clients are created once per registry and reused.
+ *
  * @author Mykola Morhun
  */
 @Singleton
@@ -43,11 +53,22 @@ public class AwsEcrAuthResolver implements DockerRegistryDynamicAuthResolver {
   private static final Logger LOG =
       LoggerFactory.getLogger(DockerRegistryDynamicAuthResolver.class);
 
+  /** ECR authorization token lifetime which is used if ECR doesn't report expiration time. */
+  private static final long DEFAULT_TOKEN_LIFETIME_MS = TimeUnit.HOURS.toMillis(12);
+  /** How long before expiration the token is refreshed. */
+  @VisibleForTesting static final long REFRESH_BEFORE_EXPIRATION_MS = TimeUnit.MINUTES.toMillis(30);
+
   private final AwsEcrInitialAuthConfig awsEcrInitialAuthConfig;
+  private final ConcurrentMap<String, CachedAuthConfig> authConfigs;
+  private final ConcurrentMap<String, ReentrantLock> refreshLocks;
+  private final ConcurrentMap<String, AmazonECR> ecrClients;
 
   @Inject
   public AwsEcrAuthResolver(AwsEcrInitialAuthConfig awsInitialAuthConfig) {
     this.awsEcrInitialAuthConfig = awsInitialAuthConfig;
+    this.authConfigs = new ConcurrentHashMap<>();
+    this.refreshLocks = new ConcurrentHashMap<>();
+    this.ecrClients = new ConcurrentHashMap<>();
   }
 
   /**
@@ -61,34 +82,49 @@ public class AwsEcrAuthResolver implements DockerRegistryDynamicAuthResolver {
   @Override
   @Nullable
   public AuthConfig getXRegistryAuth(@Nullable String registry) {
-    if (registry != null) {
-      AwsAccountCredentials awsAccountCredentials =
-          awsEcrInitialAuthConfig.getAuthConfigs().get(registry);
-      if (awsAccountCredentials != null) { // given registry is configured
-        try {
-          String authorizationToken =
-              getAwsAuthorizationToken(
-                  awsAccountCredentials.getAccessKeyId(),
-                  awsAccountCredentials.getSecretAccessKey());
-          if (authorizationToken != null) {
-            String decodedAuthorizationToken =
-                new String(Base64.getDecoder().decode(authorizationToken));
-            int colonIndex = decodedAuthorizationToken.indexOf(':');
-            if (colonIndex != -1) {
-              return newDto(AuthConfig.class)
-                  .withUsername(decodedAuthorizationToken.substring(0, colonIndex))
-                  .withPassword(decodedAuthorizationToken.substring(colonIndex + 1));
-            } else {
-              LOG.error("Cannot retrieve ECR credentials from token for {} registry", registry);
-            }
-          }
-        } catch (IllegalArgumentException e) {
-          LOG.error(
-              "Retrieved AWS ECR authorization token for {} registry has invalid format", registry);
-        }
+    if (registry == null) {
+      return null;
+    }
+    AwsAccountCredentials awsAccountCredentials =
+        awsEcrInitialAuthConfig.getAuthConfigs().get(registry);
+    if (awsAccountCredentials == null) { // given registry is not configured
+      return null;
+    }
+
+    CachedAuthConfig cached = authConfigs.get(registry);
+    if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+      return cached.authConfig;
+    }
+
+    ReentrantLock refreshLock = refreshLocks.computeIfAbsent(registry, r -> new ReentrantLock());
+    if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+      if (!refreshLock.tryLock()) {
+        // token is still valid and another thread is already refreshing it
+        return cached.authConfig;
       }
+    } else {
+      refreshLock.lock();
+    }
+    try {
+      cached = authConfigs.get(registry);
+      long now = System.currentTimeMillis();
+      if (cached != null && cached.isFresh(now)) {
+        return cached.authConfig;
+      }
+      CachedAuthConfig refreshed = fetchAuthConfig(registry, awsAccountCredentials, now);
+      if (refreshed != null) {
+        authConfigs.put(registry, refreshed);
+        return refreshed.authConfig;
+      }
+      if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+        LOG.warn("Failed to refresh AWS ECR token for {} registry, cached token is used", registry);
+        return cached.authConfig;
+      }
+      authConfigs.remove(registry);
+      return null;
+    } finally {
+      refreshLock.unlock();
     }
-    return null;
   }
 
   /**
@@ -111,23 +147,90 @@ public class AwsEcrAuthResolver implements DockerRegistryDynamicAuthResolver {
     return dynamicAuthConfigs;
   }
 
+  @PreDestroy
+  public void shutdown() {
+    for (AmazonECR ecrClient : ecrClients.values()) {
+      ecrClient.shutdown();
+    }
+    ecrClients.clear();
+  }
+
+  @Nullable
+  private CachedAuthConfig fetchAuthConfig(
+      String registry, AwsAccountCredentials awsAccountCredentials, long now) {
+    AuthorizationData authorizationData =
+        getAwsAuthorizationData(registry, awsAccountCredentials);
+    if (authorizationData == null || authorizationData.getAuthorizationToken() == null) {
+      return null;
+    }
+    try {
+      String decodedAuthorizationToken =
+          new String(Base64.getDecoder().decode(authorizationData.getAuthorizationToken()));
+      int colonIndex = decodedAuthorizationToken.indexOf(':');
+      if (colonIndex == -1) {
+        LOG.error("Cannot retrieve ECR credentials from token for {} registry", registry);
+        return null;
+      }
+      AuthConfig authConfig =
+          newDto(AuthConfig.class)
+              .withUsername(decodedAuthorizationToken.substring(0, colonIndex))
+              .withPassword(decodedAuthorizationToken.substring(colonIndex + 1));
+      long expiresAt =
+          authorizationData.getExpiresAt() != null
+              ? authorizationData.getExpiresAt().getTime()
+              : now + DEFAULT_TOKEN_LIFETIME_MS;
+      return new CachedAuthConfig(authConfig, expiresAt);
+    } catch (IllegalArgumentException e) {
+      LOG.error(
+          "Retrieved AWS ECR authorization token for {} registry has invalid format", registry);
+      return null;
+    }
+  }
+
   @VisibleForTesting
-  String getAwsAuthorizationToken(String accessKeyId, String secretAccessKey) {
+  @Nullable
+  AuthorizationData getAwsAuthorizationData(
+      String registry, AwsAccountCredentials awsAccountCredentials) {
     try {
-      AWSCredentials credentials = new BasicAWSCredentials(accessKeyId, secretAccessKey);
-      AmazonECRClient amazonECRClient = new AmazonECRClient(credentials);
+      AmazonECR amazonECRClient =
+          ecrClients.computeIfAbsent(registry, r -> createEcrClient(awsAccountCredentials));
       GetAuthorizationTokenResult tokenResult =
           amazonECRClient.getAuthorizationToken(new GetAuthorizationTokenRequest());
       List<AuthorizationData> authData = tokenResult.getAuthorizationData();
 
       if (!authData.isEmpty()) {
-        return authData.get(0).getAuthorizationToken();
+        return authData.get(0);
       }
 
       LOG.warn("Failed to retrieve AWS ECR token");
-    } catch (AmazonECRException e) {
+    } catch (AmazonClientException e) {
       LOG.warn(e.getLocalizedMessage());
     }
     return null;
   }
+
+  @VisibleForTesting
+  AmazonECR createEcrClient(AwsAccountCredentials awsAccountCredentials) {
+    return new AmazonECRClient(
+        new BasicAWSCredentials(
+            awsAccountCredentials.getAccessKeyId(), awsAccountCredentials.getSecretAccessKey()));
+  }
+
+  private static class CachedAuthConfig {
+    private final AuthConfig authConfig;
+    private final long expiresAt;
+
+    private CachedAuthConfig(AuthConfig authConfig, long expiresAt) {
+      this.authConfig = authConfig;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isFresh(long now) {
+      return now < expiresAt - REFRESH_BEFORE_EXPIRATION_MS;
+    }
+
+    private boolean isExpired(long now) {
+      return now >= expiresAt;
+    }
+  }
 }
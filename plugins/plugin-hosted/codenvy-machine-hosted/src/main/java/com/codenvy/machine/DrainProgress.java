@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+/** Describes progress of a drain of a docker node. */
+public class DrainProgress {
+
+  private final String node;
+  private final boolean inProgress;
+  private final int totalWorkspaces;
+  private final int stoppedWorkspaces;
+  private final int failedWorkspaces;
+  private final long totalBytes;
+  private final long stoppedBytes;
+  private final long startedAt;
+  private final long estimatedCompletionAt;
+  private final long deadline;
+
+  public DrainProgress(
+      String node,
+      boolean inProgress,
+      int totalWorkspaces,
+      int stoppedWorkspaces,
+      int failedWorkspaces,
+      long totalBytes,
+      long stoppedBytes,
+      long startedAt,
+      long estimatedCompletionAt,
+      long deadline) {
+    this.node = node;
+    this.inProgress = inProgress;
+    this.totalWorkspaces = totalWorkspaces;
+    this.stoppedWorkspaces = stoppedWorkspaces;
+    this.failedWorkspaces = failedWorkspaces;
+    this.totalBytes = totalBytes;
+    this.stoppedBytes = stoppedBytes;
+    this.startedAt = startedAt;
+    this.estimatedCompletionAt = estimatedCompletionAt;
+    this.deadline = deadline;
+  }
+
+  /** Host of the drained node. */
+  public String getNode() {
+    return node;
+  }
+
+  /** Returns {@code true} if workspaces of the node are being stopped at the moment. */
+  public boolean isInProgress() {
+    return inProgress;
+  }
+
+  /** Number of workspaces which were running on the node when the drain started. */
+  public int getTotalWorkspaces() {
+    return totalWorkspaces;
+  }
+
+  /** Number of workspaces already stopped by the drain. */
+  public int getStoppedWorkspaces() {
+    return stoppedWorkspaces;
+  }
+
+  /** Number of workspaces which were not stopped within the stop timeout. */
+  public int getFailedWorkspaces() {
+    return failedWorkspaces;
+  }
+
+  /** Total size of the last backups of the drained workspaces in Bytes. */
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /** Size of the last backups of the already stopped workspaces in Bytes. */
+  public long getStoppedBytes() {
+    return stoppedBytes;
+  }
+
+  /** Time in milliseconds when the drain was started. */
+  public long getStartedAt() {
+    return startedAt;
+  }
+
+  /**
+   * Time in milliseconds when the drain is expected to complete at the current pace, time of the
+   * completion if the drain is completed or 0 if no workspace is stopped yet.
+   */
+  public long getEstimatedCompletionAt() {
+    return estimatedCompletionAt;
+  }
+
+  /** Time in milliseconds after which the drain gives up waiting for workspaces to stop. */
+  public long getDeadline() {
+    return deadline;
+  }
+}
@@ -13,10 +13,15 @@ package com.codenvy.machine;
 import static com.codenvy.machine.MaintenanceConstraintProvider.MAINTENANCE_CONSTRAINT_KEY;
 import static com.codenvy.machine.MaintenanceConstraintProvider.MAINTENANCE_CONSTRAINT_VALUE;
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import com.codenvy.swarm.client.SwarmDockerConnector;
+import com.codenvy.swarm.client.SwarmWorkaroundRetrier;
+import com.codenvy.swarm.client.SwarmWorkaroundRetrier.Workaround;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.File;
 import java.io.FileWriter;
@@ -25,9 +30,12 @@ import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -67,7 +75,8 @@ import org.slf4j.Logger;
  * - provides compose services with environment context that contains the specific machine token
  * instead of user token <br>
  * - workarounds buggy pulling on swarm by replacing it with build <br>
- * - add constraints to build to avoid docker image building on a node under maintenance
+ * - add constraints to build to avoid docker image building on a node under maintenance <br>
+ * - coalesces concurrent builds of the same machine image
  *
  * @author Anton Korneta
  * @author Roman Iuvshyn
@@ -77,7 +86,8 @@ import org.slf4j.Logger;
 public class HostedMachineProviderImpl extends MachineProviderImpl {
   private static final Logger LOG = getLogger(HostedMachineProviderImpl.class);
 
-  @VisibleForTesting static int SWARM_WAIT_BEFORE_REPEAT_WORKAROUND_TIME_MS = 5_000;
+  private static final Pattern DOCKERFILE_FROM_PATTERN =
+      Pattern.compile("^\\s*FROM\\s+(?<image>\\S+)", Pattern.MULTILINE | Pattern.CASE_INSENSITIVE);
 
   private final DockerConnector docker;
   private final UserSpecificDockerRegistryCredentialsProvider dockerCredentials;
@@ -86,6 +96,9 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
   private final long cpuPeriod;
   private final long cpuQuota;
   private final Map<String, String> buildArgs;
+  private final ImagePrewarmer imagePrewarmer;
+  private final SwarmWorkaroundRetrier workaroundRetrier;
+  private final MachineImageBuildCoalescer buildCoalescer;
 
   private final ScheduledExecutorService snapshotImagesCleanerService;
 
@@ -119,7 +132,10 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
       @Named("che.docker.cpu_quota") long cpuQuota,
       @Named("che.docker.extra_hosts") Set<Set<String>> additionalHosts,
       @Nullable @Named("che.docker.dns_resolvers") String[] dnsResolvers,
-      @Named("che.docker.build_args") Map<String, String> buildArgs)
+      @Named("che.docker.build_args") Map<String, String> buildArgs,
+      ImagePrewarmer imagePrewarmer,
+      SwarmWorkaroundRetrier workaroundRetrier,
+      MachineImageBuildCoalescer buildCoalescer)
       throws IOException {
     super(
         dockerConnectorProvider,
@@ -160,6 +176,9 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
     this.buildArgs = new HashMap<>(buildArgs);
     // don't build an image on a node under maintenance
     this.buildArgs.put(MAINTENANCE_CONSTRAINT_KEY, MAINTENANCE_CONSTRAINT_VALUE);
+    this.imagePrewarmer = imagePrewarmer;
+    this.workaroundRetrier = workaroundRetrier;
+    this.buildCoalescer = buildCoalescer;
 
     this.snapshotImagesCleanerService =
         Executors.newSingleThreadScheduledExecutor(
@@ -203,7 +222,10 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
         output.append("FROM ").append(image);
       }
 
-      docker.buildImage(
+      obtainImage(
+          image != null && !image.contains(MACHINE_SNAPSHOT_PREFIX)
+              ? getRecipeKey("FROM " + image, buildArgs)
+              : null,
           BuildImageParams.create(dockerfileFile)
               .withForceRemoveIntermediateContainers(true)
               .withRepository(machineImageName)
@@ -215,6 +237,8 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
               .withCpuPeriod(cpuPeriod)
               .withCpuQuota(cpuQuota)
               .withBuildArgs(buildArgs),
+          image,
+          machineImageName,
           progressMonitor);
     } catch (ImageNotFoundException e) {
       throw new SourceNotFoundException(
@@ -283,7 +307,9 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
     File workDir = null;
     try {
       BuildImageParams buildImageParams;
+      String baseImage = null;
       if (service.getBuild() != null && service.getBuild().getDockerfileContent() != null) {
+        baseImage = getBaseImage(service.getBuild().getDockerfileContent());
 
         workDir = Files.createTempDirectory(null).toFile();
         final File dockerfileFile = new File(workDir, "Dockerfile");
@@ -317,7 +343,14 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
           .withCpuQuota(cpuQuota)
           .withBuildArgs(buildArgs);
 
-      docker.buildImage(buildImageParams, progressMonitor);
+      obtainImage(
+          service.getBuild().getDockerfileContent() != null
+              ? getRecipeKey(service.getBuild().getDockerfileContent(), buildArgs)
+              : null,
+          buildImageParams,
+          baseImage,
+          machineImageName,
+          progressMonitor);
     } catch (IOException e) {
       throw new MachineException(e.getLocalizedMessage(), e);
     } finally {
@@ -327,6 +360,80 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
     }
   }
 
+  /**
+   * Builds machine image. Concurrent builds from the same recipe are coalesced by {@link
+   * MachineImageBuildCoalescer}. Images built with credentials of a user are shared only between
+   * starts of the same user, so private images don't leak to others.
+   *
+   * @param recipeKey key of the recipe of the image or null if builds from it can't be shared
+   */
+  private void obtainImage(
+      @Nullable String recipeKey,
+      BuildImageParams params,
+      @Nullable String baseImage,
+      String machineImageName,
+      ProgressMonitor progressMonitor)
+      throws IOException {
+    // pre-pulls don't have credentials of the user, see ImagePrewarmer
+    if (params.getAuthConfigs() == null) {
+      baseImageUsed(baseImage);
+    }
+    if (recipeKey == null) {
+      build(params, baseImage, progressMonitor);
+      return;
+    }
+    if (params.getAuthConfigs() != null) {
+      recipeKey += '@' + EnvironmentContext.getCurrent().getSubject().getUserId();
+    }
+    buildCoalescer.build(
+        recipeKey, machineImageName, progressMonitor, monitor -> build(params, baseImage, monitor));
+  }
+
+  /**
+   * Builds image on a node which holds the base image if the base image is known and swarm is
+   * used, see {@link SwarmDockerConnector#buildImage(BuildImageParams, ProgressMonitor, String)}.
+   */
+  private void build(
+      BuildImageParams params, @Nullable String baseImage, ProgressMonitor progressMonitor)
+      throws IOException {
+    if (docker instanceof SwarmDockerConnector) {
+      ((SwarmDockerConnector) docker).buildImage(params, progressMonitor, baseImage);
+    } else {
+      docker.buildImage(params, progressMonitor);
+    }
+  }
+
+  /** Counts base images other than snapshots for {@link ImagePrewarmer}. */
+  private void baseImageUsed(@Nullable String baseImage) {
+    if (baseImage != null && !baseImage.contains(MACHINE_SNAPSHOT_PREFIX)) {
+      imagePrewarmer.imageUsed(baseImage);
+    }
+  }
+
+  /** Returns key which is the same for recipes of the same image. */
+  private static String getRecipeKey(String dockerfileContent, Map<String, String> buildArgs) {
+    return Hashing.sha256()
+        .newHasher()
+        .putString(dockerfileContent, UTF_8)
+        .putString(new TreeMap<>(buildArgs).toString(), UTF_8)
+        .hash()
+        .toString();
+  }
+
+  /** Returns image of the first FROM instruction of the dockerfile or null if it is unknown. */
+  @VisibleForTesting
+  @Nullable
+  static String getBaseImage(String dockerfileContent) {
+    final Matcher matcher = DOCKERFILE_FROM_PATTERN.matcher(dockerfileContent);
+    // image may be defined by build argument which is not resolved here, or follow FROM options
+    if (matcher.find()
+        && !matcher.group("image").contains("$")
+        && !matcher.group("image").startsWith("-")) {
+      return matcher.group("image");
+    }
+    return null;
+  }
+
   @Override
   protected void setNonExitingContainerCommandIfNeeded(ContainerConfig containerConfig)
       throws IOException {
@@ -335,13 +442,14 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
     try {
       super.setNonExitingContainerCommandIfNeeded(containerConfig);
     } catch (ImageNotFoundException e) {
-      try {
-        Thread.sleep(SWARM_WAIT_BEFORE_REPEAT_WORKAROUND_TIME_MS);
-        super.setNonExitingContainerCommandIfNeeded(containerConfig);
-      } catch (InterruptedException ignored) {
-        // throw original error
-        throw e;
-      }
+      workaroundRetrier.retry(
+          Workaround.IMAGE_NOT_FOUND_ON_INSPECT,
+          e,
+          () -> {
+            super.setNonExitingContainerCommandIfNeeded(containerConfig);
+            return null;
+          },
+          error -> error instanceof ImageNotFoundException);
     }
   }
 
@@ -352,13 +460,14 @@ public class HostedMachineProviderImpl extends MachineProviderImpl {
     try {
       super.checkContainerIsRunning(container);
     } catch (ContainerNotFoundException e) {
-      try {
-        Thread.sleep(SWARM_WAIT_BEFORE_REPEAT_WORKAROUND_TIME_MS);
-        super.checkContainerIsRunning(container);
-      } catch (InterruptedException ignored) {
-        // throw original error
-        throw e;
-      }
+      workaroundRetrier.retry(
+          Workaround.CONTAINER_NOT_FOUND_ON_INSPECT,
+          e,
+          () -> {
+            super.checkContainerIsRunning(container);
+            return null;
+          },
+          error -> error instanceof ContainerNotFoundException);
     }
   }
 
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import java.util.List;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.eclipse.che.api.core.rest.Service;
+
+/** Defines REST API of images pre-pulled onto docker nodes by {@link ImagePrewarmer}. */
+@Path("/image-prewarm")
+@Api(value = "image-prewarm", description = "Images pre-pull service")
+public class ImagePrewarmService extends Service {
+
+  private final ImagePrewarmer imagePrewarmer;
+
+  @Inject
+  public ImagePrewarmService(ImagePrewarmer imagePrewarmer) {
+    this.imagePrewarmer = imagePrewarmer;
+  }
+
+  @GET
+  @Path("/{host}")
+  @Produces(MediaType.APPLICATION_JSON)
+  @ApiOperation(
+    value = "Get states of the images pre-pulled onto the node",
+    response = ImageWarmStatus.class,
+    responseContainer = "List"
+  )
+  @ApiResponses(
+    value = {
+      @ApiResponse(code = 200, message = "OK"),
+      @ApiResponse(code = 500, message = "Server error")
+    }
+  )
+  public List<ImageWarmStatus> getStatus(
+      @ApiParam("Hostname of the node") @PathParam("host") String host) {
+    return imagePrewarmer.getStatus(host);
+  }
+}
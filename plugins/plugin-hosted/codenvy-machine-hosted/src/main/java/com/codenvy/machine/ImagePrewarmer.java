@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import static java.util.Arrays.asList;
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.codenvy.machine.ImageWarmStatus.State;
+import com.codenvy.swarm.client.SwarmDockerConnector;
+import com.codenvy.swarm.client.model.DockerNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.eclipse.che.commons.schedule.ScheduleDelay;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
+import org.eclipse.che.plugin.docker.client.ProgressMonitor;
+import org.eclipse.che.plugin.docker.client.params.PullParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pulls images which are used by the most of recent workspace starts onto every docker node in the
+ * background, so workspaces started on a new node or after an update of an image don't wait for
+ * the pull of the whole image.
+ *
+ * <p>Each run pulls the most used images onto every healthy node of the cluster, which also pulls
+ * images updated in registries since the previous run. A run only submits the pulls, and runs are
+ * skipped while pulls of the previous one are in progress. Usage of images decays by half on each
+ * run, so images which are not used anymore leave the list. Pulls go directly to docker daemons of
+ * nodes and only a bounded number of them is performed at a time. Nodes with fewer containers are
+ * served first, as containers and their images take disk space of a node. Swarm doesn't report
+ * free disk space of nodes, so a node on which a pull failed because of lack of disk space is
+ * skipped for a while.
+ *
+ * <p>Pulls are performed without a user, so only registry credentials configured for the system
+ * are used, {@link DockerConnector} resolves them for every pull. Starts which use credentials of a
+ * user are not counted, and an image which can't be pulled because of lack of access is marked
+ * failed and skipped for a while.
+ */
+@Singleton
+public class ImagePrewarmer {
+  private static final Logger LOG = LoggerFactory.getLogger(ImagePrewarmer.class);
+
+  private static final String NO_SPACE_ERROR = "no space left on device";
+  private static final List<String> ACCESS_ERRORS =
+      asList("unauthorized", "authentication required", "access denied", "no pull access");
+  private static final long DENIED_IMAGE_RETRY_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+  private static final long LOW_DISK_RETRY_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+  private static final double MIN_USAGE = 0.1;
+
+  private final DockerConnector docker;
+  private final boolean enabled;
+  private final int maxImages;
+  private final ExecutorService executor;
+  /** Image -> number of workspace starts which used the image, decayed on each run. */
+  private final ConcurrentMap<String, Double> usage;
+  /** Node hostname -> image -> state of the image on the node. */
+  private final ConcurrentMap<String, ConcurrentMap<String, ImageWarmStatus>> statuses;
+  /** Node hostname -> time until which the node is not used because of lack of disk space. */
+  private final ConcurrentMap<String, Long> lowDiskNodes;
+  /** Image -> time until which the image is not pulled because of lack of access to it. */
+  private final ConcurrentMap<String, Long> deniedImages;
+
+  private final AtomicInteger pendingPulls;
+  private final AtomicLong pulls;
+  private final AtomicLong failedPulls;
+
+  @Inject
+  public ImagePrewarmer(
+      DockerConnectorProvider dockerConnectorProvider,
+      @Named("machine.image_prewarm.enabled") boolean enabled,
+      @Named("machine.image_prewarm.max_images") int maxImages,
+      @Named("machine.image_prewarm.max_parallel_pulls") int maxParallelPulls) {
+    if (maxImages < 0 || maxParallelPulls <= 0) {
+      throw new IllegalArgumentException(
+          "Number of pre-pulled images must not be negative and number of parallel pulls must be"
+              + " positive");
+    }
+    this.docker = dockerConnectorProvider.get();
+    this.enabled = enabled;
+    this.maxImages = maxImages;
+    this.executor =
+        Executors.newFixedThreadPool(
+            maxParallelPulls,
+            new ThreadFactoryBuilder()
+                .setNameFormat("ImagePrewarmer-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    this.usage = new ConcurrentHashMap<>();
+    this.statuses = new ConcurrentHashMap<>();
+    this.lowDiskNodes = new ConcurrentHashMap<>();
+    this.deniedImages = new ConcurrentHashMap<>();
+    this.pendingPulls = new AtomicInteger();
+    this.pulls = new AtomicLong();
+    this.failedPulls = new AtomicLong();
+  }
+
+  /** Records start of a machine from the image. */
+  public void imageUsed(String image) {
+    if (enabled) {
+      usage.merge(image, 1.0, Double::sum);
+    }
+  }
+
+  /** Returns states of pre-pulled images on the node with the given hostname. */
+  public List<ImageWarmStatus> getStatus(String nodeHostname) {
+    final Map<String, ImageWarmStatus> nodeStatuses = statuses.get(nodeHostname);
+    if (nodeStatuses == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<>(nodeStatuses.values());
+  }
+
+  /** Returns number of pulls performed by the pre-warmer. */
+  @Gauge(name = "machine.image_prewarm.pulls")
+  public long getPullsCount() {
+    return pulls.get();
+  }
+
+  /** Returns number of pulls which failed. */
+  @Gauge(name = "machine.image_prewarm.failed_pulls")
+  public long getFailedPullsCount() {
+    return failedPulls.get();
+  }
+
+  /** Returns number of submitted pulls which are not finished yet. */
+  @Gauge(name = "machine.image_prewarm.pending_pulls")
+  public int getPendingPullsCount() {
+    return pendingPulls.get();
+  }
+
+  /** Returns number of nodes on which all the pre-pulled images are present. */
+  @Gauge(name = "machine.image_prewarm.warm_nodes")
+  public long getWarmNodesCount() {
+    return statuses
+        .values()
+        .stream()
+        .filter(
+            images ->
+                !images.isEmpty()
+                    && images.values().stream().allMatch(s -> s.getState() == State.WARM))
+        .count();
+  }
+
+  /**
+   * Submits pulls of the most used images onto every node. Doesn't wait for the pulls, so the
+   * scheduler thread is not held by them, and does nothing while pulls of the previous run are in
+   * progress.
+   */
+  @ScheduleDelay(initialDelay = 60, delayParameterName = "machine.image_prewarm.period_sec")
+  public void prewarm() {
+    if (!enabled || !(docker instanceof SwarmDockerConnector)) {
+      return;
+    }
+    // runs are not concurrent, so pulls can't be submitted by another run after the check
+    if (pendingPulls.get() > 0) {
+      LOG.debug("Skipping pre-pull of images, {} pulls are in progress", pendingPulls.get());
+      return;
+    }
+    final List<String> images = getPopularImages();
+    decayUsage();
+    final List<DockerNode> nodes;
+    try {
+      nodes = ((SwarmDockerConnector) docker).getAvailableNodes();
+    } catch (IOException e) {
+      LOG.warn("Can't get docker nodes to pre-pull images. Error: {}", e.getLocalizedMessage());
+      return;
+    }
+    forgetStale(nodes, images);
+
+    final long now = System.currentTimeMillis();
+    lowDiskNodes.values().removeIf(retryAt -> retryAt <= now);
+    deniedImages.values().removeIf(retryAt -> retryAt <= now);
+    final List<String> pulledImages =
+        images.stream().filter(image -> !deniedImages.containsKey(image)).collect(toList());
+    if (pulledImages.isEmpty()) {
+      return;
+    }
+    final List<DockerNode> targets =
+        nodes
+            .stream()
+            .filter(node -> !lowDiskNodes.containsKey(node.getHostname()))
+            .sorted(comparingInt(DockerNode::getContainers))
+            .collect(toList());
+    // the most used image goes to every node before the next one
+    for (String image : pulledImages) {
+      for (DockerNode node : targets) {
+        pendingPulls.incrementAndGet();
+        try {
+          executor.execute(
+              () -> {
+                try {
+                  pull(node, image);
+                } finally {
+                  pendingPulls.decrementAndGet();
+                }
+              });
+        } catch (RejectedExecutionException e) {
+          pendingPulls.decrementAndGet();
+          LOG.error("Pre-pull of images is interrupted. Error: {}", e.getLocalizedMessage());
+          return;
+        }
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @VisibleForTesting
+  List<String> getPopularImages() {
+    return usage
+        .entrySet()
+        .stream()
+        .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+        .limit(maxImages)
+        .map(Map.Entry::getKey)
+        .collect(toList());
+  }
+
+  private void decayUsage() {
+    usage.replaceAll((image, count) -> count / 2);
+    usage.values().removeIf(count -> count < MIN_USAGE);
+  }
+
+  /** Forgets nodes which left the cluster and images which are not pre-pulled anymore. */
+  private void forgetStale(List<DockerNode> nodes, List<String> images) {
+    final Set<String> hostnames = nodes.stream().map(DockerNode::getHostname).collect(toSet());
+    statuses.keySet().retainAll(hostnames);
+    for (Map<String, ImageWarmStatus> nodeStatuses : statuses.values()) {
+      nodeStatuses.keySet().retainAll(images);
+    }
+  }
+
+  private void pull(DockerNode node, String image) {
+    final String hostname = node.getHostname();
+    if (lowDiskNodes.containsKey(hostname) || deniedImages.containsKey(image)) {
+      return;
+    }
+    setStatus(hostname, image, State.PULLING, null);
+    pulls.incrementAndGet();
+    try {
+      ((SwarmDockerConnector) docker).pull(toPullParams(image), node, ProgressMonitor.DEV_NULL);
+      setStatus(hostname, image, State.WARM, null);
+    } catch (IOException e) {
+      failedPulls.incrementAndGet();
+      setStatus(hostname, image, State.FAILED, e.getLocalizedMessage());
+      final String message = e.getMessage() == null ? "" : e.getMessage().toLowerCase();
+      if (message.contains(NO_SPACE_ERROR)) {
+        lowDiskNodes.put(hostname, System.currentTimeMillis() + LOW_DISK_RETRY_PERIOD_MS);
+      } else if (ACCESS_ERRORS.stream().anyMatch(message::contains)) {
+        deniedImages.put(image, System.currentTimeMillis() + DENIED_IMAGE_RETRY_PERIOD_MS);
+      }
+      LOG.warn(
+          "Failed to pre-pull image {} on node {}. Error: {}",
+          image,
+          hostname,
+          e.getLocalizedMessage());
+    }
+  }
+
+  private void setStatus(String hostname, String image, State state, String error) {
+    statuses
+        .computeIfAbsent(hostname, key -> new ConcurrentHashMap<>())
+        .put(
+            image,
+            new ImageWarmStatus(hostname, image, state, System.currentTimeMillis(), error));
+  }
+
+  /** Splits image reference into registry, repository and tag or digest. */
+  @VisibleForTesting
+  static PullParams toPullParams(String image) {
+    String registry = null;
+    String repository = image;
+    final int slash = image.indexOf('/');
+    if (slash > 0) {
+      final String host = image.substring(0, slash);
+      if (host.contains(".") || host.contains(":") || host.equals("localhost")) {
+        registry = host;
+        repository = image.substring(slash + 1);
+      }
+    }
+    String tag = null;
+    // digest is pulled as a part of the repository
+    if (repository.indexOf('@') == -1) {
+      final int colon = repository.lastIndexOf(':');
+      if (colon > repository.lastIndexOf('/')) {
+        tag = repository.substring(colon + 1);
+        repository = repository.substring(0, colon);
+      } else {
+        tag = "latest";
+      }
+    }
+    return PullParams.create(repository).withRegistry(registry).withTag(tag);
+  }
+}
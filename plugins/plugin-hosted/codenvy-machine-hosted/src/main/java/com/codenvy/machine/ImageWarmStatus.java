@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+/** Describes whether an image pre-pulled by {@link ImagePrewarmer} is present on a docker node. */
+public class ImageWarmStatus {
+
+  /** State of the image on the node. */
+  public enum State {
+    /** Image is being pulled. */
+    PULLING,
+    /** The last pull of the image succeeded. */
+    WARM,
+    /** The last pull of the image failed. */
+    FAILED
+  }
+
+  private final String node;
+  private final String image;
+  private final State state;
+  private final long updatedAt;
+  private final String error;
+
+  public ImageWarmStatus(String node, String image, State state, long updatedAt, String error) {
+    this.node = node;
+    this.image = image;
+    this.state = state;
+    this.updatedAt = updatedAt;
+    this.error = error;
+  }
+
+  /** Hostname of the node. */
+  public String getNode() {
+    return node;
+  }
+
+  /** Pre-pulled image. */
+  public String getImage() {
+    return image;
+  }
+
+  /** State of the image on the node. */
+  public State getState() {
+    return state;
+  }
+
+  /** Time in milliseconds when the state was changed. */
+  public long getUpdatedAt() {
+    return updatedAt;
+  }
+
+  /** Error of the last failed pull or null if the state is not {@link State#FAILED}. */
+  public String getError() {
+    return error;
+  }
+}
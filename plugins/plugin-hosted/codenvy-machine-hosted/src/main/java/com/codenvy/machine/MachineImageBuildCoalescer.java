@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
+import org.eclipse.che.plugin.docker.client.ProgressMonitor;
+import org.eclipse.che.plugin.docker.client.json.ProgressStatus;
+import org.eclipse.che.plugin.docker.client.params.TagParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent builds of machine images from the same recipe, e.g. when many users start
+ * workspaces from the same stack at once.
+ *
+ * <p>The first build of a recipe is performed, and builds of the same recipe requested while it
+ * runs wait for it and get its progress. Then the built image is tagged with the names of their
+ * machine images, as images built from the same recipe are the same. Tagged images prefer the node
+ * of the build, see {@link com.codenvy.swarm.client.SwarmDockerConnector#tag(TagParams)}.
+ *
+ * <p>Images built recently are kept in a short-lived cache by recipe, and starts which follow
+ * shortly tag the cached image instead of building it again. It is a cache of built machine
+ * images only, pulls are not recorded and still check the registry. If the shared build fails,
+ * doesn't finish within the build timeout or its image can't be tagged, the image is built
+ * separately.
+ */
+@Singleton
+public class MachineImageBuildCoalescer {
+  private static final Logger LOG = LoggerFactory.getLogger(MachineImageBuildCoalescer.class);
+
+  /** Build of a machine image. */
+  public interface Build {
+    void run(ProgressMonitor progressMonitor) throws IOException;
+  }
+
+  private final DockerConnector docker;
+  /** Recipe key -> build which is in progress. */
+  private final ConcurrentMap<String, SharedBuild> builds;
+  /** Recipe key -> image which was recently built from the recipe. */
+  private final Cache<String, String> recentBuilds;
+  /** How long a start waits for the shared build before building the image separately. */
+  private final long buildTimeoutMs;
+
+  private final AtomicLong performedBuilds;
+  private final AtomicLong sharedBuilds;
+
+  @Inject
+  public MachineImageBuildCoalescer(
+      DockerConnectorProvider dockerConnectorProvider,
+      @Named("machine.image_build.recent_build_ttl_sec") long recentBuildTtlSec,
+      @Named("che.docker.tcp_connection_read_timeout_ms") long buildTimeoutMs) {
+    this(dockerConnectorProvider.get(), recentBuildTtlSec, buildTimeoutMs);
+  }
+
+  @VisibleForTesting
+  MachineImageBuildCoalescer(DockerConnector docker, long recentBuildTtlSec, long buildTimeoutMs) {
+    this.docker = docker;
+    this.buildTimeoutMs = buildTimeoutMs;
+    this.builds = new ConcurrentHashMap<>();
+    this.recentBuilds =
+        CacheBuilder.newBuilder().expireAfterWrite(recentBuildTtlSec, TimeUnit.SECONDS).build();
+    this.performedBuilds = new AtomicLong();
+    this.sharedBuilds = new AtomicLong();
+  }
+
+  /**
+   * Builds the image or tags the image built from the same recipe by a concurrent or recent build.
+   *
+   * @param recipeKey key which is the same for builds which produce the same image
+   * @param image name of the built image
+   * @param progressMonitor monitor which gets progress of the build which produces the image
+   * @param build build of the image
+   */
+  public void build(String recipeKey, String image, ProgressMonitor progressMonitor, Build build)
+      throws IOException {
+    final String recentImage = recentBuilds.getIfPresent(recipeKey);
+    if (recentImage != null && tag(recentImage, image)) {
+      sharedBuilds.incrementAndGet();
+      return;
+    }
+
+    final SharedBuild newBuild = new SharedBuild(image);
+    final SharedBuild current = builds.putIfAbsent(recipeKey, newBuild);
+    if (current == null) {
+      newBuild.addMonitor(progressMonitor);
+      performedBuilds.incrementAndGet();
+      try {
+        build.run(newBuild);
+        recentBuilds.put(recipeKey, image);
+        newBuild.result.complete(image);
+      } catch (IOException | RuntimeException | Error e) {
+        newBuild.result.completeExceptionally(e);
+        throw e;
+      } finally {
+        builds.remove(recipeKey, newBuild);
+      }
+      return;
+    }
+
+    current.addMonitor(progressMonitor);
+    final String builtImage;
+    try {
+      builtImage = current.result.get(buildTimeoutMs, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Build of image " + image + " is interrupted", e);
+    } catch (ExecutionException e) {
+      // the error may be caused by the concurrent start, e.g. lack of memory for its limit
+      LOG.warn(
+          "Shared build of image {} failed, building it separately. Error: {}",
+          image,
+          e.getCause().getMessage());
+      performedBuilds.incrementAndGet();
+      build.run(progressMonitor);
+      return;
+    } catch (TimeoutException e) {
+      LOG.warn(
+          "Shared build of image {} didn't finish in {}ms, building it separately",
+          image,
+          buildTimeoutMs);
+      performedBuilds.incrementAndGet();
+      build.run(progressMonitor);
+      return;
+    } finally {
+      current.removeMonitor(progressMonitor);
+    }
+    if (tag(builtImage, image)) {
+      sharedBuilds.incrementAndGet();
+    } else {
+      performedBuilds.incrementAndGet();
+      build.run(progressMonitor);
+    }
+  }
+
+  /** Returns number of builds performed by docker. */
+  @Gauge(name = "machine.image_build.performed")
+  public long getPerformedBuildsCount() {
+    return performedBuilds.get();
+  }
+
+  /** Returns number of images which were tagged instead of building them. */
+  @Gauge(name = "machine.image_build.shared")
+  public long getSharedBuildsCount() {
+    return sharedBuilds.get();
+  }
+
+  private boolean tag(String builtImage, String image) {
+    try {
+      docker.tag(TagParams.create(builtImage, image));
+      return true;
+    } catch (IOException e) {
+      // image may be removed after the start of its machine
+      LOG.debug("Failed to tag image {} as {}. Error: {}", builtImage, image, e.getMessage());
+      return false;
+    }
+  }
+
+  /** Build in progress which passes its progress to all the waiting starts. */
+  private static class SharedBuild implements ProgressMonitor {
+    final String image;
+    final CompletableFuture<String> result;
+    final List<ProgressMonitor> monitors;
+
+    volatile ProgressStatus lastStatus;
+
+    SharedBuild(String image) {
+      this.image = image;
+      this.result = new CompletableFuture<>();
+      this.monitors = new CopyOnWriteArrayList<>();
+    }
+
+    void addMonitor(ProgressMonitor monitor) {
+      monitors.add(monitor);
+      // the joined start sees where the build is
+      final ProgressStatus status = lastStatus;
+      if (status != null) {
+        notify(monitor, status);
+      }
+    }
+
+    void removeMonitor(ProgressMonitor monitor) {
+      monitors.remove(monitor);
+    }
+
+    @Override
+    public void updateProgress(ProgressStatus status) {
+      lastStatus = status;
+      for (ProgressMonitor monitor : monitors) {
+        notify(monitor, status);
+      }
+    }
+
+    private void notify(ProgressMonitor monitor, ProgressStatus status) {
+      try {
+        monitor.updateProgress(status);
+      } catch (RuntimeException e) {
+        // output of one start must not break the build of others
+        LOG.warn("Failed to pass progress of build of image {}. Error: {}", image, e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import org.eclipse.che.api.core.ConflictException;
+import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.api.core.rest.Service;
+
+/** Defines REST API of drain of docker nodes. */
+@Path("/node")
+@Api(value = "node", description = "Docker nodes service")
+public class NodeDrainService extends Service {
+
+  private final NodeDrainer nodeDrainer;
+
+  @Inject
+  public NodeDrainService(NodeDrainer nodeDrainer) {
+    this.nodeDrainer = nodeDrainer;
+  }
+
+  @POST
+  @Path("/{host}/drain")
+  @Produces(MediaType.APPLICATION_JSON)
+  @ApiOperation(
+    value = "Stop all the workspaces running on the node",
+    response = DrainProgress.class
+  )
+  @ApiResponses(
+    value = {
+      @ApiResponse(code = 200, message = "Drain is started"),
+      @ApiResponse(code = 409, message = "Node is being drained already"),
+      @ApiResponse(code = 500, message = "Server error")
+    }
+  )
+  public DrainProgress drain(@ApiParam("Host of the node") @PathParam("host") String host)
+      throws ConflictException, ServerException {
+    return nodeDrainer.drain(host);
+  }
+
+  @GET
+  @Path("/{host}/drain")
+  @Produces(MediaType.APPLICATION_JSON)
+  @ApiOperation(
+    value = "Get progress of the current or the last drain of the node",
+    response = DrainProgress.class
+  )
+  @ApiResponses(
+    value = {
+      @ApiResponse(code = 200, message = "OK"),
+      @ApiResponse(code = 404, message = "Node was not drained"),
+      @ApiResponse(code = 500, message = "Server error")
+    }
+  )
+  public DrainProgress getProgress(@ApiParam("Host of the node") @PathParam("host") String host)
+      throws NotFoundException {
+    return nodeDrainer.getProgress(host);
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.codenvy.machine.backup.WorkspaceIdHashLocationFinder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.api.core.ConflictException;
+import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.api.core.model.machine.Machine;
+import org.eclipse.che.api.core.model.machine.MachineStatus;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.workspace.server.WorkspaceManager;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
+import org.eclipse.che.api.workspace.server.model.impl.WorkspaceImpl;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains a docker node by stopping all the workspaces running on it, e.g. before maintenance of
+ * the node. Node should be put into maintenance beforehand (see {@link
+ * MaintenanceConstraintProvider}), so no new workspaces are started on it.
+ *
+ * <p>Stop of a workspace includes the final backup of its files, so workspaces are stopped by a
+ * bounded number at a time instead of all at once. Workspaces with the largest backups are stopped
+ * first, so the long backups don't stay at the end of the drain and the drain duration is close to
+ * the total backup time divided by the number of parallel stops. Each stop is awaited no longer
+ * than the stop timeout, which limits the whole drain duration.
+ */
+@Singleton
+public class NodeDrainer {
+  private static final Logger LOG = LoggerFactory.getLogger(NodeDrainer.class);
+
+  private static final long STATUS_CHECK_PERIOD_MS = 500;
+
+  private final WorkspaceRuntimes workspaceRuntimes;
+  private final WorkspaceManager workspaceManager;
+  private final File backupsRootDir;
+  private final WorkspaceIdHashLocationFinder locationFinder;
+  private final int maxParallelStops;
+  private final long stopTimeoutMillis;
+  private final ExecutorService executor;
+  /** The last drain of each node by node host. */
+  private final ConcurrentMap<String, Drain> drains;
+
+  @Inject
+  public NodeDrainer(
+      WorkspaceRuntimes workspaceRuntimes,
+      WorkspaceManager workspaceManager,
+      @Named("che.user.workspaces.storage") File backupsRootDir,
+      WorkspaceIdHashLocationFinder locationFinder,
+      @Named("machine.drain.max_parallel_stops") int maxParallelStops,
+      @Named("machine.drain.stop_timeout_sec") long stopTimeoutSec) {
+    if (maxParallelStops <= 0 || stopTimeoutSec <= 0) {
+      throw new IllegalArgumentException(
+          "Max number of parallel workspace stops and stop timeout must be positive");
+    }
+    this.workspaceRuntimes = workspaceRuntimes;
+    this.workspaceManager = workspaceManager;
+    this.backupsRootDir = backupsRootDir;
+    this.locationFinder = locationFinder;
+    this.maxParallelStops = maxParallelStops;
+    this.stopTimeoutMillis = TimeUnit.SECONDS.toMillis(stopTimeoutSec);
+    this.executor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("NodeDrainer-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    this.drains = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Starts stopping of all the workspaces running on the node and returns immediately.
+   *
+   * @param nodeHost host of the node to drain
+   * @return progress of the started drain
+   * @throws ConflictException if the node is being drained already
+   * @throws ServerException if the drain can't be started
+   */
+  public DrainProgress drain(String nodeHost) throws ConflictException, ServerException {
+    final List<String> workspaces = findWorkspaces(nodeHost);
+    final long batches = (workspaces.size() + maxParallelStops - 1) / maxParallelStops;
+    final Drain drain = new Drain(nodeHost, workspaces.size(), batches * stopTimeoutMillis);
+    final Drain current =
+        drains.compute(
+            nodeHost,
+            (host, previous) -> previous != null && !previous.isFinished() ? previous : drain);
+    if (current != drain) {
+      throw new ConflictException("Node " + nodeHost + " is being drained already");
+    }
+    try {
+      executor.execute(() -> run(drain, workspaces));
+    } catch (RejectedExecutionException e) {
+      drains.remove(nodeHost, drain);
+      throw new ServerException("Drainer is stopped");
+    }
+    LOG.info(
+        "Drain of node {} is started, {} workspaces are going to be stopped",
+        nodeHost,
+        workspaces.size());
+    return drain.getProgress();
+  }
+
+  /**
+   * Returns progress of the current or the last drain of the node.
+   *
+   * @throws NotFoundException if the node was never drained
+   */
+  public DrainProgress getProgress(String nodeHost) throws NotFoundException {
+    final Drain drain = drains.get(nodeHost);
+    if (drain == null) {
+      throw new NotFoundException("Node " + nodeHost + " was not drained");
+    }
+    return drain.getProgress();
+  }
+
+  /** Returns number of nodes which are being drained at the moment. */
+  @Gauge(name = "machine.drain.active_drains")
+  public long getActiveDrainsCount() {
+    return drains.values().stream().filter(drain -> !drain.isFinished()).count();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /** Returns ids of running workspaces which dev machines are located on the node. */
+  private List<String> findWorkspaces(String nodeHost) throws ServerException {
+    final List<String> workspaces = new ArrayList<>();
+    for (String workspaceId : workspaceRuntimes.getRuntimesIds()) {
+      try {
+        final WorkspaceImpl workspace = workspaceManager.getWorkspace(workspaceId);
+        if (workspace.getStatus() != WorkspaceStatus.RUNNING || workspace.getRuntime() == null) {
+          continue;
+        }
+        final Machine devMachine = workspace.getRuntime().getDevMachine();
+        // machine that is not in running state can be just a stub without node
+        if (devMachine != null
+            && devMachine.getStatus() == MachineStatus.RUNNING
+            && nodeHost.equals(
+                workspaceManager
+                    .getMachineInstance(workspaceId, devMachine.getId())
+                    .getNode()
+                    .getHost())) {
+          workspaces.add(workspaceId);
+        }
+      } catch (NotFoundException e) {
+        // it's ok, means that ws is stopped or removed already
+      }
+    }
+    return workspaces;
+  }
+
+  private void run(Drain drain, List<String> workspaceIds) {
+    final List<DrainedWorkspace> workspaces = new ArrayList<>(workspaceIds.size());
+    for (String workspaceId : workspaceIds) {
+      final long size = getBackupSize(workspaceId);
+      workspaces.add(new DrainedWorkspace(workspaceId, size));
+      drain.totalBytes.addAndGet(size);
+    }
+    workspaces.sort(
+        Comparator.comparingLong((DrainedWorkspace workspace) -> workspace.size).reversed());
+
+    final Semaphore slots = new Semaphore(maxParallelStops);
+    try {
+      for (DrainedWorkspace workspace : workspaces) {
+        slots.acquire();
+        try {
+          executor.execute(
+              () -> {
+                try {
+                  stop(drain, workspace);
+                } finally {
+                  slots.release();
+                }
+              });
+        } catch (RejectedExecutionException e) {
+          slots.release();
+          throw e;
+        }
+      }
+      // wait for the last stops
+      slots.acquire(maxParallelStops);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      drain.finish();
+      final DrainProgress progress = drain.getProgress();
+      LOG.info(
+          "Drain of node {} is finished, {} workspaces are stopped, {} failed to stop",
+          drain.nodeHost,
+          progress.getStoppedWorkspaces(),
+          progress.getFailedWorkspaces());
+    }
+  }
+
+  private void stop(Drain drain, DrainedWorkspace workspace) {
+    try {
+      if (stopAndWait(workspace.id)) {
+        drain.stopped.incrementAndGet();
+        drain.stoppedBytes.addAndGet(workspace.size);
+        return;
+      }
+      LOG.warn(
+          "Workspace {} is not stopped within {} seconds during drain of node {}",
+          workspace.id,
+          TimeUnit.MILLISECONDS.toSeconds(stopTimeoutMillis),
+          drain.nodeHost);
+    } catch (ServerException e) {
+      LOG.error(
+          "Can't stop workspace {} during drain of node {}. Error: {}",
+          workspace.id,
+          drain.nodeHost,
+          e.getLocalizedMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    drain.failed.incrementAndGet();
+  }
+
+  /** Stops the workspace and returns true if it is stopped within the stop timeout. */
+  private boolean stopAndWait(String workspaceId) throws ServerException, InterruptedException {
+    try {
+      workspaceManager.stopWorkspace(workspaceId);
+    } catch (NotFoundException e) {
+      return true;
+    } catch (ConflictException e) {
+      // workspace is stopping already
+    }
+    final long deadline = System.currentTimeMillis() + stopTimeoutMillis;
+    while (true) {
+      try {
+        if (workspaceManager.getWorkspace(workspaceId).getStatus() == WorkspaceStatus.STOPPED) {
+          return true;
+        }
+      } catch (NotFoundException e) {
+        return true;
+      }
+      if (System.currentTimeMillis() >= deadline) {
+        return false;
+      }
+      TimeUnit.MILLISECONDS.sleep(STATUS_CHECK_PERIOD_MS);
+    }
+  }
+
+  /** Returns size of files in the backup folder of the workspace or 0 if it can't be counted. */
+  private long getBackupSize(String workspaceId) {
+    final Path backupDir = locationFinder.calculateDirPath(backupsRootDir, workspaceId).toPath();
+    if (!Files.isDirectory(backupDir, NOFOLLOW_LINKS)) {
+      return 0;
+    }
+    final AtomicLong size = new AtomicLong();
+    try {
+      Files.walkFileTree(
+          backupDir,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              if (attrs.isRegularFile()) {
+                size.addAndGet(attrs.size());
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      LOG.warn(
+          "Can't count size of backup of workspace {}. Error: {}",
+          workspaceId,
+          e.getLocalizedMessage());
+    }
+    return size.get();
+  }
+
+  private static class DrainedWorkspace {
+    final String id;
+    final long size;
+
+    DrainedWorkspace(String id, long size) {
+      this.id = id;
+      this.size = size;
+    }
+  }
+
+  private static class Drain {
+    final String nodeHost;
+    final int totalWorkspaces;
+    final long startedAt;
+    final long deadline;
+    final AtomicInteger stopped = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final AtomicLong totalBytes = new AtomicLong();
+    final AtomicLong stoppedBytes = new AtomicLong();
+
+    volatile long finishedAt;
+
+    Drain(String nodeHost, int totalWorkspaces, long maxDurationMillis) {
+      this.nodeHost = nodeHost;
+      this.totalWorkspaces = totalWorkspaces;
+      this.startedAt = System.currentTimeMillis();
+      this.deadline = startedAt + maxDurationMillis;
+    }
+
+    boolean isFinished() {
+      return finishedAt != 0;
+    }
+
+    void finish() {
+      finishedAt = System.currentTimeMillis();
+    }
+
+    DrainProgress getProgress() {
+      final long finished = finishedAt;
+      final int stoppedCount = stopped.get();
+      final long total = totalBytes.get();
+      final long stoppedSize = stoppedBytes.get();
+      long estimatedCompletionAt = finished;
+      if (finished == 0 && stoppedCount > 0) {
+        // the pace is measured in Bytes when sizes are known and in workspaces otherwise
+        final double done =
+            stoppedSize > 0
+                ? (double) stoppedSize / total
+                : (double) stoppedCount / totalWorkspaces;
+        final long elapsed = System.currentTimeMillis() - startedAt;
+        estimatedCompletionAt = startedAt + (long) (elapsed / done);
+      }
+      return new DrainProgress(
+          nodeHost,
+          finished == 0,
+          totalWorkspaces,
+          stoppedCount,
+          failed.get(),
+          total,
+          stoppedSize,
+          startedAt,
+          estimatedCompletionAt,
+          deadline);
+    }
+  }
+}
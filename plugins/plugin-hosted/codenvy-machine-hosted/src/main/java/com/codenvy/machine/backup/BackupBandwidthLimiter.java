@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.annotation.Nullable;
+
+/**
+ * Limits bandwidth of transfers of workspace files between nodes and backup storage, so backups
+ * don't saturate disks and network of nodes and slow down workspaces running there.
+ *
+ * <p>There is a budget for each node and a global one, both in KiB per second like rsync {@code
+ * --bwlimit} option, 0 means unlimited. Transfers which stream data through the master are
+ * throttled by token buckets of their node and of all nodes. Interactive transfers, such as
+ * restores on workspace start, are never delayed, but they consume tokens, so background transfers
+ * of the same node wait longer until the budget is restored.
+ *
+ * <p>External rsync processes can't be throttled by token buckets, so they get a fair share of the
+ * budgets instead, which is the budget divided by the number of transfers in progress at the moment
+ * of the start.
+ */
+@Singleton
+public class BackupBandwidthLimiter {
+  private static final long BYTES_PER_KIB = 1024;
+
+  private final long nodeLimitKibps;
+  private final long totalLimitKibps;
+  private final BackupMetrics metrics;
+  private final LongSupplier nanoClock;
+  private final TokenBucket totalBucket;
+  private final ConcurrentMap<String, TokenBucket> nodesBuckets;
+
+  /** Number of transfers in progress by node host, guarded by this. */
+  private final Map<String, Integer> nodesTransfers;
+  /** Number of transfers in progress, guarded by this. */
+  private int transfers;
+
+  @Inject
+  public BackupBandwidthLimiter(
+      @Named("machine.backup.bandwidth.node_limit_kibps") long nodeLimitKibps,
+      @Named("machine.backup.bandwidth.total_limit_kibps") long totalLimitKibps,
+      BackupMetrics metrics) {
+    this(nodeLimitKibps, totalLimitKibps, metrics, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  BackupBandwidthLimiter(
+      long nodeLimitKibps, long totalLimitKibps, BackupMetrics metrics, LongSupplier nanoClock) {
+    if (nodeLimitKibps < 0 || totalLimitKibps < 0) {
+      throw new IllegalArgumentException("Backup bandwidth limits must not be negative");
+    }
+    this.nodeLimitKibps = nodeLimitKibps;
+    this.totalLimitKibps = totalLimitKibps;
+    this.metrics = metrics;
+    this.nanoClock = nanoClock;
+    this.totalBucket =
+        totalLimitKibps == 0 ? null : new TokenBucket(totalLimitKibps * BYTES_PER_KIB, nanoClock);
+    this.nodesBuckets = new ConcurrentHashMap<>();
+    this.nodesTransfers = new HashMap<>();
+  }
+
+  /**
+   * Starts transfer of files of a workspace. Returned transfer must be closed when the transfer
+   * ends.
+   *
+   * @param node host of the node where the workspace runs, null if it is unknown
+   * @param interactive true if a user waits for the transfer, such transfer is never delayed
+   */
+  public Transfer start(@Nullable String node, boolean interactive) {
+    final int nodeCount;
+    final int totalCount;
+    synchronized (this) {
+      totalCount = ++transfers;
+      nodeCount = node == null ? 1 : nodesTransfers.merge(node, 1, Integer::sum);
+    }
+    long share = 0;
+    if (totalLimitKibps > 0) {
+      share = Math.max(1, totalLimitKibps / totalCount);
+    }
+    if (nodeLimitKibps > 0) {
+      long nodeShare = Math.max(1, nodeLimitKibps / nodeCount);
+      share = share == 0 ? nodeShare : Math.min(share, nodeShare);
+    }
+    final TokenBucket nodeBucket =
+        node == null || nodeLimitKibps == 0
+            ? null
+            : nodesBuckets.computeIfAbsent(
+                node, n -> new TokenBucket(nodeLimitKibps * BYTES_PER_KIB, nanoClock));
+    return new Transfer(node, interactive, nodeBucket, share);
+  }
+
+  private synchronized void finish(String node) {
+    transfers--;
+    if (node != null) {
+      nodesTransfers.computeIfPresent(node, (n, count) -> count > 1 ? count - 1 : null);
+    }
+  }
+
+  /** Transfer of workspace files which is limited by the budgets. */
+  public class Transfer implements Throttle, AutoCloseable {
+    private final String node;
+    private final boolean interactive;
+    private final TokenBucket nodeBucket;
+    private final long shareKibps;
+
+    private boolean closed;
+
+    private Transfer(String node, boolean interactive, TokenBucket nodeBucket, long shareKibps) {
+      this.node = node;
+      this.interactive = interactive;
+      this.nodeBucket = nodeBucket;
+      this.shareKibps = shareKibps;
+    }
+
+    /**
+     * Returns bandwidth in KiB per second which the transfer may use if it can't be throttled by
+     * {@link #acquire(long)}, 0 if the bandwidth is not limited.
+     */
+    public long getShareKibps() {
+      return interactive ? 0 : shareKibps;
+    }
+
+    @Override
+    public void acquire(long bytes) throws IOException {
+      long waitNanos = 0;
+      if (totalBucket != null) {
+        waitNanos = totalBucket.take(bytes);
+      }
+      if (nodeBucket != null) {
+        waitNanos = Math.max(waitNanos, nodeBucket.take(bytes));
+      }
+      if (interactive || waitNanos == 0) {
+        return;
+      }
+      metrics.throttleWaited(waitNanos);
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Transfer of workspace files is interrupted");
+      }
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        finish(node);
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps fingerprints of workspaces file systems which correspond to the content of their backups.
+ *
+ * <p>Fingerprint is persisted in a file next to the workspace backup folder, so it survives restarts
+ * of the master and is not touched by synchronization of the backup folder itself. Fingerprints are
+ * additionally cached in memory to avoid reading the file on each scheduled backup.
+ *
+ * <p>Absence of a fingerprint means that the backup content is unknown and the workspace should be
+ * backed up.
+ */
+@Singleton
+public class BackupFingerprintStore {
+  private static final Logger LOG = LoggerFactory.getLogger(BackupFingerprintStore.class);
+
+  private static final String FINGERPRINT_FILE_SUFFIX = ".fingerprint";
+
+  private final ConcurrentMap<String, String> fingerprints = new ConcurrentHashMap<>();
+
+  /**
+   * Returns fingerprint of the file system stored in the given backup folder or null if it is
+   * unknown.
+   *
+   * @param workspaceId id of the workspace
+   * @param backupDir backup folder of the workspace
+   */
+  public String get(String workspaceId, File backupDir) {
+    String fingerprint = fingerprints.get(workspaceId);
+    if (fingerprint != null) {
+      return fingerprint;
+    }
+    try {
+      fingerprint = new String(Files.readAllBytes(getFingerprintFile(backupDir)), UTF_8).trim();
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      LOG.warn(
+          "Can't read backup fingerprint of workspace {}. Error: {}",
+          workspaceId,
+          e.getLocalizedMessage());
+      return null;
+    }
+    if (fingerprint.isEmpty()) {
+      return null;
+    }
+    fingerprints.putIfAbsent(workspaceId, fingerprint);
+    return fingerprint;
+  }
+
+  /**
+   * Stores fingerprint of the file system which was just copied into the given backup folder.
+   *
+   * @param workspaceId id of the workspace
+   * @param backupDir backup folder of the workspace
+   * @param fingerprint fingerprint of the copied file system
+   */
+  public void put(String workspaceId, File backupDir, String fingerprint) {
+    try {
+      Path fingerprintFile = getFingerprintFile(backupDir);
+      Files.createDirectories(fingerprintFile.getParent());
+      Files.write(fingerprintFile, fingerprint.getBytes(UTF_8));
+      fingerprints.put(workspaceId, fingerprint);
+    } catch (IOException e) {
+      LOG.warn(
+          "Can't store backup fingerprint of workspace {}. Error: {}",
+          workspaceId,
+          e.getLocalizedMessage());
+      invalidate(workspaceId, backupDir);
+    }
+  }
+
+  /**
+   * Forgets fingerprint of the given backup folder. Must be called before backup folder content is
+   * modified, so interrupted modification can't be treated as up to date backup.
+   *
+   * @param workspaceId id of the workspace
+   * @param backupDir backup folder of the workspace
+   */
+  public void invalidate(String workspaceId, File backupDir) {
+    fingerprints.remove(workspaceId);
+    try {
+      Files.deleteIfExists(getFingerprintFile(backupDir));
+    } catch (IOException e) {
+      LOG.error(
+          "Can't remove backup fingerprint of workspace {}. Error: {}",
+          workspaceId,
+          e.getLocalizedMessage());
+    }
+  }
+
+  /** Returns file which keeps fingerprint of the given backup folder. */
+  static Path getFingerprintFile(File backupDir) {
+    return new File(backupDir.getParentFile(), backupDir.getName() + FINGERPRINT_FILE_SUFFIX)
+        .toPath();
+  }
+}
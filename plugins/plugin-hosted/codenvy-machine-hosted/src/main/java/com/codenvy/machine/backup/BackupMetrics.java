@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.annotation.Nullable;
+
+/**
+ * Records metrics of copying of workspace files between containers and backup storage.
+ *
+ * <p>For each {@link Operation} there are metrics named {@code machine.backup.<operation>.*}:
+ *
+ * <ul>
+ *   <li>{@code duration} - timer of completed operations, also split by node in {@code
+ *       duration.node.<host>}
+ *   <li>{@code failures} - meter of failed operations, also split by node in {@code
+ *       failures.node.<host>}
+ *   <li>{@code in_flight} - counter of operations in progress
+ *   <li>{@code bytes}, {@code files} - histograms of size and number of the written files, reported
+ *       only by engines which count them
+ *   <li>{@code lock_wait} - timer of waiting for the workspace backup lock
+ * </ul>
+ *
+ * Exit codes of synchronization processes are counted in {@code
+ * machine.backup.sync.exit_code.<code>}, time scheduled backups wait for a free slot is recorded in
+ * {@code machine.backup.scheduled.queue_wait}, delays of transfers by bandwidth budgets are
+ * recorded in {@code machine.backup.throttle_wait}.
+ */
+@Singleton
+public class BackupMetrics {
+  private static final String PREFIX = "machine.backup";
+
+  /** Operation with workspace files. */
+  public enum Operation {
+    BACKUP,
+    RESTORE,
+    CLEANUP;
+
+    // static import of MetricRegistry.name is shadowed by Enum.name here
+    private final String metricName = MetricRegistry.name(PREFIX, name().toLowerCase());
+  }
+
+  private final MetricRegistry registry;
+
+  @Inject
+  public BackupMetrics(MetricRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * Starts tracking of the operation. Returned tracker must be closed when the operation ends, the
+   * operation is treated as failed unless {@link Tracker#succeeded()} is called before.
+   *
+   * @param operation tracked operation
+   * @param node host of the node where the workspace runs, null if the operation is not bound to
+   *     any node
+   */
+  public Tracker track(Operation operation, @Nullable String node) {
+    return new Tracker(operation, node);
+  }
+
+  /** Records time spent on waiting for the workspace backup lock. */
+  public void lockWaited(Operation operation, long nanos) {
+    registry.timer(name(operation.metricName, "lock_wait")).update(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Counts operations skipped because the workspace backup lock was held by another operation. */
+  public void lockBusy(Operation operation) {
+    registry.meter(name(operation.metricName, "lock_busy")).mark();
+  }
+
+  /** Records time a due scheduled backup waited in the queue for a free slot. */
+  public void queueWaited(long nanos) {
+    registry.timer(name(PREFIX, "scheduled", "queue_wait")).update(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Records time a background transfer was delayed to stay within the bandwidth budget. */
+  public void throttleWaited(long nanos) {
+    registry.timer(name(PREFIX, "throttle_wait")).update(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Counts exit code of a finished synchronization process. */
+  public void exitCode(int exitCode) {
+    registry.counter(name(PREFIX, "sync", "exit_code", Integer.toString(exitCode))).inc();
+  }
+
+  /** Tracks a single operation. */
+  public class Tracker implements AutoCloseable {
+    private final Operation operation;
+    private final String node;
+    private final Timer.Context duration;
+    private final Timer.Context nodeDuration;
+    private final Counter inFlight;
+
+    private boolean succeeded;
+
+    private Tracker(Operation operation, String node) {
+      this.operation = operation;
+      this.node = node == null ? null : node.replace('.', '_');
+      this.duration = registry.timer(name(operation.metricName, "duration")).time();
+      this.nodeDuration =
+          this.node == null
+              ? null
+              : registry.timer(name(operation.metricName, "duration", "node", this.node)).time();
+      this.inFlight = registry.counter(name(operation.metricName, "in_flight"));
+      inFlight.inc();
+    }
+
+    /** Records size and number of the files written by the operation. */
+    public void transferred(TransferReport report) {
+      registry.histogram(name(operation.metricName, "bytes")).update(report.getBytes());
+      registry.histogram(name(operation.metricName, "files")).update(report.getFiles());
+    }
+
+    /** Marks the operation as successful. */
+    public void succeeded() {
+      succeeded = true;
+    }
+
+    @Override
+    public void close() {
+      inFlight.dec();
+      if (succeeded) {
+        duration.stop();
+        if (nodeDuration != null) {
+          nodeDuration.stop();
+        }
+      } else {
+        registry.meter(name(operation.metricName, "failures")).mark();
+        if (node != null) {
+          registry.meter(name(operation.metricName, "failures", "node", node)).mark();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.COPY_ATTRIBUTES;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.codahale.metrics.annotation.Gauge;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.workspace.server.WorkspaceManager;
+import org.eclipse.che.commons.schedule.ScheduleDelay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves backup folders of workspaces to the volumes they belong to according to {@link
+ * WorkspaceIdHashLocationFinder}, e.g. after a new volume is added.
+ *
+ * <p>Only folders of stopped workspaces are moved, as backups of running workspaces may be written
+ * at any moment. Folder is copied next to its new location under a temporary name and then renamed,
+ * so the new location is either absent or complete. Once it is present it is used by all the
+ * following backups and restores, so the old folder is removed if the workspace is still stopped,
+ * otherwise it is removed by one of the next runs.
+ */
+@Singleton
+public class BackupStorageRebalancer {
+  private static final Logger LOG = LoggerFactory.getLogger(BackupStorageRebalancer.class);
+
+  private static final Pattern SEGMENT = Pattern.compile("[0-9a-f]{2}");
+  private static final String MOVING_SUFFIX = ".moving";
+
+  private final File backupsRootDir;
+  private final WorkspaceIdHashLocationFinder locationFinder;
+  private final WorkspaceManager workspaceManager;
+  private final AtomicLong movedBackups;
+  private final AtomicLong misplacedBackups;
+
+  @Inject
+  public BackupStorageRebalancer(
+      @Named("che.user.workspaces.storage") File backupsRootDir,
+      WorkspaceIdHashLocationFinder locationFinder,
+      WorkspaceManager workspaceManager) {
+    this.backupsRootDir = backupsRootDir;
+    this.locationFinder = locationFinder;
+    this.workspaceManager = workspaceManager;
+    this.movedBackups = new AtomicLong();
+    this.misplacedBackups = new AtomicLong();
+  }
+
+  /** Returns number of backup folders moved to other volumes. */
+  @Gauge(name = "machine.backup.rebalance.moved")
+  public long getMovedBackupsCount() {
+    return movedBackups.get();
+  }
+
+  /** Returns number of backup folders which were not on their volumes during the last run. */
+  @Gauge(name = "machine.backup.rebalance.misplaced")
+  public long getMisplacedBackupsCount() {
+    return misplacedBackups.get();
+  }
+
+  @ScheduleDelay(initialDelay = 300, delayParameterName = "machine.backup.rebalance_period_sec")
+  public void rebalance() {
+    final List<File> volumes = locationFinder.getVolumes(backupsRootDir);
+    if (volumes.size() < 2) {
+      return;
+    }
+    long misplaced = 0;
+    for (File volume : volumes) {
+      final List<Path> backups;
+      try {
+        backups = findBackups(volume.toPath());
+      } catch (IOException e) {
+        LOG.error("Can't list backups on volume {}. Error: {}", volume, e.getLocalizedMessage());
+        continue;
+      }
+      for (Path backup : backups) {
+        final String workspaceId = backup.getFileName().toString();
+        final File targetVolume = locationFinder.calculateVolume(volumes, workspaceId);
+        if (targetVolume.equals(volume)) {
+          continue;
+        }
+        misplaced++;
+        final Path target =
+            targetVolume.toPath().resolve(locationFinder.calculateRelativePath(workspaceId));
+        try {
+          if (rebalance(workspaceId, backup, target)) {
+            misplaced--;
+          }
+        } catch (IOException e) {
+          LOG.error(
+              "Can't move backup of workspace {} to volume {}. Error: {}",
+              workspaceId,
+              targetVolume,
+              e.getLocalizedMessage());
+        }
+      }
+    }
+    misplacedBackups.set(misplaced);
+  }
+
+  /** Returns true if the backup is moved or removed as a stale copy of the moved one. */
+  private boolean rebalance(String workspaceId, Path source, Path target) throws IOException {
+    if (!isStopped(workspaceId)) {
+      return false;
+    }
+    if (Files.exists(target, NOFOLLOW_LINKS)) {
+      // moved before, but workspace was started before the old folder was removed
+      removeBackup(source);
+      return true;
+    }
+    final Path tmp = target.resolveSibling('.' + workspaceId + MOVING_SUFFIX);
+    if (Files.exists(tmp, NOFOLLOW_LINKS)) {
+      deleteTree(tmp);
+    }
+    Files.createDirectories(target.getParent());
+    try {
+      copyTree(source, tmp);
+      if (!isStopped(workspaceId)) {
+        return false;
+      }
+      Files.move(tmp, target, ATOMIC_MOVE);
+    } finally {
+      if (Files.exists(tmp, NOFOLLOW_LINKS)) {
+        deleteTree(tmp);
+      }
+    }
+    final Path sourceFingerprint = BackupFingerprintStore.getFingerprintFile(source.toFile());
+    if (Files.exists(sourceFingerprint)) {
+      Files.copy(
+          sourceFingerprint,
+          BackupFingerprintStore.getFingerprintFile(target.toFile()),
+          REPLACE_EXISTING);
+    }
+    movedBackups.incrementAndGet();
+    LOG.info("Backup of workspace {} is moved from {} to {}", workspaceId, source, target);
+    if (isStopped(workspaceId)) {
+      removeBackup(source);
+    }
+    return true;
+  }
+
+  private boolean isStopped(String workspaceId) {
+    try {
+      return workspaceManager.getWorkspace(workspaceId).getStatus() == WorkspaceStatus.STOPPED;
+    } catch (NotFoundException e) {
+      // files of removed workspace are removed separately
+      return false;
+    } catch (ServerException e) {
+      LOG.warn(
+          "Can't get status of workspace {}. Error: {}", workspaceId, e.getLocalizedMessage());
+      return false;
+    }
+  }
+
+  /** Returns folders of workspaces backups which are located as {@code <volume>/xx/xx/xx/<id>}. */
+  private static List<Path> findBackups(Path volume) throws IOException {
+    if (!Files.isDirectory(volume)) {
+      return new ArrayList<>();
+    }
+    try (Stream<Path> dirs =
+        Files.find(
+            volume,
+            4,
+            (path, attrs) -> attrs.isDirectory() && isBackupFolder(volume.relativize(path)))) {
+      return dirs.collect(Collectors.toList());
+    }
+  }
+
+  private static boolean isBackupFolder(Path relPath) {
+    return relPath.getNameCount() == 4
+        && SEGMENT.matcher(relPath.getName(0).toString()).matches()
+        && SEGMENT.matcher(relPath.getName(1).toString()).matches()
+        && SEGMENT.matcher(relPath.getName(2).toString()).matches()
+        && !relPath.getName(3).toString().startsWith(".");
+  }
+
+  private static void removeBackup(Path backup) throws IOException {
+    deleteTree(backup);
+    Files.deleteIfExists(BackupFingerprintStore.getFingerprintFile(backup.toFile()));
+  }
+
+  /** Copies folder preserving modification times, permissions, owners and symbolic links. */
+  private static void copyTree(Path source, Path target) throws IOException {
+    Files.walkFileTree(
+        source,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            final Path copy = target.resolve(source.relativize(dir));
+            Files.copy(dir, copy, COPY_ATTRIBUTES, NOFOLLOW_LINKS);
+            copyOwner(dir, copy);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            final Path copy = target.resolve(source.relativize(file));
+            Files.copy(file, copy, COPY_ATTRIBUTES, NOFOLLOW_LINKS);
+            copyOwner(file, copy);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+              throws IOException {
+            if (exc != null) {
+              throw exc;
+            }
+            // copying of children changes modification time of the folder
+            Files.setLastModifiedTime(
+                target.resolve(source.relativize(dir)), Files.getLastModifiedTime(dir));
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static void copyOwner(Path source, Path target) {
+    try {
+      final Map<String, Object> owner =
+          Files.readAttributes(source, "unix:uid,gid", NOFOLLOW_LINKS);
+      Files.setAttribute(target, "unix:uid", owner.get("uid"), NOFOLLOW_LINKS);
+      Files.setAttribute(target, "unix:gid", owner.get("gid"), NOFOLLOW_LINKS);
+    } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+      // owner can be changed only by a privileged user
+      LOG.debug("Can't copy owner of {}. Error: {}", source, e.getLocalizedMessage());
+    }
+  }
+
+  private static void deleteTree(Path root) throws IOException {
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+              throws IOException {
+            if (exc != null) {
+              throw exc;
+            }
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+}
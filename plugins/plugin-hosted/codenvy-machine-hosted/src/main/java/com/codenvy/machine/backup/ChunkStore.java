@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores chunks of content in files named by SHA-256 of the content, so identical chunks are stored
+ * once.
+ *
+ * <p>Each chunk has a number of references which is increased each time the chunk is put and
+ * decreased when the referring snapshot releases it. Chunks without references are not deleted
+ * immediately but by garbage collection, which never deletes a chunk referenced at the moment of
+ * deletion. References are kept in memory only and must be registered with {@link #reference} for
+ * each chunk of existing snapshots before the store is used.
+ */
+class ChunkStore {
+  private static final Logger LOG = LoggerFactory.getLogger(ChunkStore.class);
+
+  private static final Pattern CHUNK_NAME = Pattern.compile("[0-9a-f]{62}");
+
+  private final Path root;
+  /** Chunks known to the store by hash, guarded by this. */
+  private final Map<String, Chunk> chunks = new HashMap<>();
+  /** Total size of known chunks, guarded by this. */
+  private long storedBytes;
+
+  ChunkStore(Path root) {
+    this.root = root;
+  }
+
+  /**
+   * Stores the chunk if it is not stored yet and adds a reference to it.
+   *
+   * @return hash of the chunk
+   */
+  String put(byte[] buffer, int length) throws IOException {
+    final String hash = Hashing.sha256().hashBytes(buffer, 0, length).toString();
+    reference(hash, length);
+    // referenced chunk can't be deleted by garbage collection, so it is safe to check existence
+    final Path chunkFile = getChunkFile(hash);
+    if (!Files.exists(chunkFile)) {
+      try {
+        Files.createDirectories(chunkFile.getParent());
+        Path tmp = Files.createTempFile(chunkFile.getParent(), hash, ".tmp");
+        try {
+          try (OutputStream out = Files.newOutputStream(tmp)) {
+            out.write(buffer, 0, length);
+          }
+          Files.move(tmp, chunkFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+          Files.deleteIfExists(tmp);
+        }
+      } catch (IOException e) {
+        release(hash);
+        throw e;
+      }
+    }
+    return hash;
+  }
+
+  /** Writes content of the chunk to the given stream. */
+  void copyTo(String hash, OutputStream out) throws IOException {
+    try {
+      Files.copy(getChunkFile(hash), out);
+    } catch (NoSuchFileException e) {
+      throw new IOException("Backup chunk " + hash + " is missing", e);
+    }
+  }
+
+  /** Adds a reference to the chunk with the given hash and size. */
+  synchronized void reference(String hash, int size) {
+    Chunk chunk = chunks.get(hash);
+    if (chunk == null) {
+      chunk = new Chunk(size);
+      chunks.put(hash, chunk);
+      storedBytes += size;
+    }
+    chunk.references++;
+  }
+
+  /** Removes a reference to the chunk, chunk without references is deleted by {@link #gc()}. */
+  synchronized void release(String hash) {
+    Chunk chunk = chunks.get(hash);
+    if (chunk != null && chunk.references > 0) {
+      chunk.references--;
+    }
+  }
+
+  /**
+   * Registers stored chunks which have no references, e.g. left after the abnormal termination of
+   * a backup, so garbage collection deletes them.
+   */
+  void registerUnreferenced() throws IOException {
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+    try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(root)) {
+      for (Path prefix : prefixes) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(prefix)) {
+          for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (CHUNK_NAME.matcher(name).matches()) {
+              registerUnreferenced(prefix.getFileName() + name, file);
+            } else {
+              // temporary file of interrupted chunk write
+              Files.deleteIfExists(file);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes chunks which have no references.
+   *
+   * @return number of deleted chunks
+   */
+  int gc() {
+    final List<String> candidates = new ArrayList<>();
+    synchronized (this) {
+      chunks.forEach(
+          (hash, chunk) -> {
+            if (chunk.references == 0) {
+              candidates.add(hash);
+            }
+          });
+    }
+    int deleted = 0;
+    for (String hash : candidates) {
+      // chunk may be referenced again since candidates were collected
+      synchronized (this) {
+        Chunk chunk = chunks.get(hash);
+        if (chunk == null || chunk.references > 0) {
+          continue;
+        }
+        try {
+          Files.deleteIfExists(getChunkFile(hash));
+          chunks.remove(hash);
+          storedBytes -= chunk.size;
+          deleted++;
+        } catch (IOException e) {
+          LOG.warn("Can't delete backup chunk {}. Error: {}", hash, e.getLocalizedMessage());
+        }
+      }
+    }
+    return deleted;
+  }
+
+  /** Returns total size of the stored chunks including the ones waiting for deletion. */
+  synchronized long getStoredBytes() {
+    return storedBytes;
+  }
+
+  private synchronized void registerUnreferenced(String hash, Path file) throws IOException {
+    if (!chunks.containsKey(hash)) {
+      Chunk chunk = new Chunk((int) Files.size(file));
+      chunks.put(hash, chunk);
+      storedBytes += chunk.size;
+    }
+  }
+
+  private Path getChunkFile(String hash) {
+    return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+  }
+
+  private static class Chunk {
+    final int size;
+    int references;
+
+    Chunk(int size) {
+      this.size = size;
+    }
+  }
+}
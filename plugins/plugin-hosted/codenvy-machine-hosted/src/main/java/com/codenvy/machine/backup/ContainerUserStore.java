@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.codahale.metrics.annotation.Gauge;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.api.core.ServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps identity of the user which owns workspace files inside of containers, so it is not
+ * requested from the container on each backup and restore.
+ *
+ * <p>User is cached in memory by container id until the container is {@link #invalidate(String)
+ * removed}, so recreated container which always has a new id is asked again. User is also cached
+ * by the image of the container, because the user is defined by the image and the configured user
+ * of the container. Images cache is persisted in a file in the backups root folder, so the user of
+ * an image is requested from a container at most once even across restarts of the master.
+ */
+@Singleton
+public class ContainerUserStore {
+  private static final Logger LOG = LoggerFactory.getLogger(ContainerUserStore.class);
+
+  static final String STORE_FILE = ".container_users";
+  static final int MAX_IMAGES = 10_000;
+
+  /** Retrieval of a value which is missing in the store. */
+  @FunctionalInterface
+  public interface Loader<T> {
+    T load() throws IOException, ServerException;
+  }
+
+  private final Path storeFile;
+  private final ConcurrentMap<String, User> containersUsers;
+  /** Users by image key in the order of usage, guarded by itself. */
+  private final LinkedHashMap<String, User> imagesUsers;
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+
+  private boolean loaded;
+
+  @Inject
+  public ContainerUserStore(@Named("che.user.workspaces.storage") File backupsRootDir) {
+    this.storeFile = backupsRootDir.toPath().resolve(STORE_FILE);
+    this.containersUsers = new ConcurrentHashMap<>();
+    this.imagesUsers =
+        new LinkedHashMap<String, User>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+            return size() > MAX_IMAGES;
+          }
+        };
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+  }
+
+  /**
+   * Returns user of the given container. If it is not known yet, it is looked up by the image of
+   * the container and, as the last resort, requested from the container itself.
+   *
+   * @param containerId id of the container
+   * @param imageKeyLoader retrieves key which identifies the user defined by the image of the
+   *     container, e.g. id of the image along with user from container configuration
+   * @param userLoader requests the user from the container
+   * @throws IOException if connection to container fails
+   * @throws ServerException if other error occurs
+   */
+  public User get(String containerId, Loader<String> imageKeyLoader, Loader<User> userLoader)
+      throws IOException, ServerException {
+    User user = containersUsers.get(containerId);
+    if (user != null) {
+      hits.incrementAndGet();
+      return user;
+    }
+    final String imageKey = imageKeyLoader.load();
+    synchronized (imagesUsers) {
+      load();
+      user = imagesUsers.get(imageKey);
+    }
+    if (user != null) {
+      hits.incrementAndGet();
+    } else {
+      // concurrent requests may load the same user, it is cheaper than serialize them
+      misses.incrementAndGet();
+      user = userLoader.load();
+      synchronized (imagesUsers) {
+        if (!user.equals(imagesUsers.put(imageKey, user))) {
+          save();
+        }
+      }
+    }
+    containersUsers.put(containerId, user);
+    return user;
+  }
+
+  /** Forgets user of the container which is removed. */
+  public void invalidate(String containerId) {
+    containersUsers.remove(containerId);
+  }
+
+  /** Returns number of users found in the store. */
+  @Gauge(name = "machine.backup.container_users.hits")
+  public long getHitsCount() {
+    return hits.get();
+  }
+
+  /** Returns number of users requested from containers. */
+  @Gauge(name = "machine.backup.container_users.misses")
+  public long getMissesCount() {
+    return misses.get();
+  }
+
+  /** Reads persisted users of images on the first access, must be called under the lock. */
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    final List<String> lines;
+    try {
+      lines = Files.readAllLines(storeFile, UTF_8);
+    } catch (NoSuchFileException e) {
+      return;
+    } catch (IOException e) {
+      LOG.warn("Can't read users of containers images. Error: {}", e.getLocalizedMessage());
+      return;
+    }
+    for (String line : lines) {
+      String[] fields = line.split("\t", -1);
+      if (fields.length == 4) {
+        imagesUsers.put(fields[0], new User(fields[1], fields[2], fields[3]));
+      }
+    }
+  }
+
+  /** Persists users of images, must be called under the lock. */
+  private void save() {
+    final List<String> lines = new ArrayList<>(imagesUsers.size());
+    for (Map.Entry<String, User> entry : imagesUsers.entrySet()) {
+      User user = entry.getValue();
+      lines.add(String.join("\t", entry.getKey(), user.getId(), user.getGroupId(), user.getName()));
+    }
+    try {
+      Files.createDirectories(storeFile.getParent());
+      Path tmpFile = Files.createTempFile(storeFile.getParent(), STORE_FILE, ".tmp");
+      try {
+        Files.write(tmpFile, lines, UTF_8);
+        Files.move(tmpFile, storeFile, ATOMIC_MOVE, REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmpFile);
+      }
+    } catch (IOException e) {
+      LOG.warn("Can't store users of containers images. Error: {}", e.getLocalizedMessage());
+    }
+  }
+
+  /** User which owns workspace files inside of a container. */
+  public static class User {
+    private final String id;
+    private final String groupId;
+    private final String name;
+
+    public User(String id, String groupId, String name) {
+      this.id = id;
+      this.groupId = groupId;
+      this.name = name;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getGroupId() {
+      return groupId;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof User)) {
+        return false;
+      }
+      final User that = (User) obj;
+      return id.equals(that.id) && groupId.equals(that.groupId) && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, groupId, name);
+    }
+
+    @Override
+    public String toString() {
+      return "User{id='" + id + "', groupId='" + groupId + "', name='" + name + "'}";
+    }
+  }
+}
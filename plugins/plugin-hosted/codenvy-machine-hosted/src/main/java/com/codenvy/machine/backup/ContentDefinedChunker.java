@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits content into chunks which boundaries depend on the content itself rather than on the
+ * offset, so an insertion in the middle of a file changes only the chunks around it.
+ *
+ * <p>Boundary is placed where the rolling gear hash of the preceding bytes has all the bits of the
+ * boundary mask unset, which gives chunks of {@value #AVG_CHUNK_SIZE} bytes on average. Chunk size
+ * is kept between {@value #MIN_CHUNK_SIZE} and {@value #MAX_CHUNK_SIZE} bytes, except the last
+ * chunk of the content which can be smaller.
+ */
+final class ContentDefinedChunker {
+  static final int MIN_CHUNK_SIZE = 16 * 1024;
+  static final int AVG_CHUNK_SIZE = 64 * 1024;
+  static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+  // highest bits of the gear hash depend on the longest window of preceding bytes
+  private static final long BOUNDARY_MASK =
+      (long) (AVG_CHUNK_SIZE - 1) << (Long.SIZE - Integer.numberOfTrailingZeros(AVG_CHUNK_SIZE));
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long[] GEAR = new long[256];
+
+  static {
+    // the table must never change, otherwise already stored content is chunked differently
+    Random random = new Random(0x636f64656e7679L);
+    for (int i = 0; i < GEAR.length; i++) {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  /** Receives chunks of the content. */
+  interface ChunkConsumer {
+    /**
+     * Receives the next chunk, the buffer is reused after the method returns.
+     *
+     * @param buffer buffer with the chunk content
+     * @param length length of the chunk in the buffer
+     */
+    void accept(byte[] buffer, int length) throws IOException;
+  }
+
+  /**
+   * Reads content to the end and passes its chunks to the consumer in order. Empty content has no
+   * chunks.
+   */
+  static void split(InputStream content, ChunkConsumer consumer) throws IOException {
+    final byte[] chunk = new byte[MAX_CHUNK_SIZE];
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    int size = 0;
+    long hash = 0;
+    int read;
+    while ((read = content.read(buffer)) != -1) {
+      for (int i = 0; i < read; i++) {
+        chunk[size++] = buffer[i];
+        hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+        if ((size >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0) || size == MAX_CHUNK_SIZE) {
+          consumer.accept(chunk, size);
+          size = 0;
+          hash = 0;
+        }
+      }
+    }
+    if (size > 0) {
+      consumer.accept(chunk, size);
+    }
+  }
+
+  private ContentDefinedChunker() {}
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Striped;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.eclipse.che.commons.schedule.ScheduleDelay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores snapshots of workspaces backup folders in a deduplicated form.
+ *
+ * <p>Content of each file is split into content defined chunks which are kept in {@link
+ * ChunkStore}, so chunks shared by files of different workspaces, e.g. the same dependencies or
+ * project sources, are stored once. Snapshot of a workspace lists files and folders of the backup
+ * folder with their attributes and the chunks of each file. Snapshots and chunks are kept in the
+ * {@value #STORAGE_DIR} folder of the backups root folder.
+ *
+ * <p>Chunks are referenced by snapshots, chunks which are not referenced by any snapshot are
+ * deleted by periodic garbage collection. References are counted from snapshots on the first use
+ * of the storage after the start of the master.
+ */
+@Singleton
+public class DedupBackupStorage {
+  private static final Logger LOG = LoggerFactory.getLogger(DedupBackupStorage.class);
+
+  static final String STORAGE_DIR = ".dedup";
+
+  private static final int SNAPSHOT_MAGIC = 0x43424b53;
+  private static final int SNAPSHOT_VERSION = 1;
+  private static final byte END = 0;
+  private static final byte DIRECTORY = 1;
+  private static final byte FILE = 2;
+  private static final byte SYMLINK = 3;
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+  private final boolean enabled;
+  private final Path snapshotsDir;
+  private final ChunkStore chunkStore;
+  private final Striped<Lock> workspacesLocks;
+  /** Total size of files in snapshot by workspace id. */
+  private final ConcurrentMap<String, Long> snapshotsSizes;
+
+  private volatile boolean loaded;
+
+  @Inject
+  public DedupBackupStorage(
+      @Named("che.user.workspaces.storage") File backupsRootDir,
+      @Named("machine.backup.dedup.enabled") boolean enabled) {
+    this.enabled = enabled;
+    Path storageDir = backupsRootDir.toPath().resolve(STORAGE_DIR);
+    this.snapshotsDir = storageDir.resolve("snapshots");
+    this.chunkStore = new ChunkStore(storageDir.resolve("chunks"));
+    this.workspacesLocks = Striped.lock(64);
+    this.snapshotsSizes = new ConcurrentHashMap<>();
+  }
+
+  /** Returns true if backups should be stored in this storage. */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Returns true if there is a snapshot of backup folder of the given workspace. */
+  public boolean hasSnapshot(String workspaceId) {
+    return enabled && Files.exists(getSnapshotFile(workspaceId));
+  }
+
+  /**
+   * Stores content of the backup folder as a snapshot of the workspace which replaces the previous
+   * one. If storing fails the previous snapshot is kept.
+   *
+   * @param workspaceId id of the workspace
+   * @param backupDir backup folder of the workspace
+   * @throws IOException if any error occurs
+   */
+  public void store(String workspaceId, File backupDir) throws IOException {
+    final Lock lock = workspacesLocks.get(workspaceId);
+    lock.lock();
+    try {
+      ensureLoaded();
+      Files.createDirectories(snapshotsDir);
+      final Path snapshotFile = getSnapshotFile(workspaceId);
+      final Path tmp = Files.createTempFile(snapshotsDir, workspaceId, TMP_SUFFIX);
+      // chunks referenced by the new snapshot, released if the snapshot is not stored
+      final List<String> referenced = new ArrayList<>();
+      try {
+        long size;
+        try (DataOutputStream out =
+            new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+          out.writeInt(SNAPSHOT_MAGIC);
+          out.writeInt(SNAPSHOT_VERSION);
+          size = writeEntries(backupDir.toPath(), out, referenced);
+          out.writeByte(END);
+        }
+        final List<String> previous = new ArrayList<>();
+        if (Files.exists(snapshotFile)) {
+          readSnapshot(snapshotFile, (entry, chunks) -> chunks.forEach(c -> previous.add(c.hash)));
+        }
+        Files.move(tmp, snapshotFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        referenced.clear();
+        previous.forEach(chunkStore::release);
+        snapshotsSizes.put(workspaceId, size);
+      } finally {
+        referenced.forEach(chunkStore::release);
+        Files.deleteIfExists(tmp);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Restores the snapshot of the workspace into its backup folder. Existing content of the folder
+   * is removed.
+   *
+   * @param workspaceId id of the workspace
+   * @param backupDir backup folder of the workspace
+   * @throws IOException if there is no snapshot of the workspace or any other error occurs
+   */
+  public void restore(String workspaceId, File backupDir) throws IOException {
+    final Lock lock = workspacesLocks.get(workspaceId);
+    lock.lock();
+    try {
+      ensureLoaded();
+      final Path snapshotFile = getSnapshotFile(workspaceId);
+      if (!Files.exists(snapshotFile)) {
+        throw new IOException("Backup snapshot of workspace " + workspaceId + " is not found");
+      }
+      if (backupDir.exists() && !IoUtil.deleteRecursive(backupDir)) {
+        throw new IOException("Can't clean backup folder " + backupDir);
+      }
+      final Path root = backupDir.toPath().toAbsolutePath().normalize();
+      Files.createDirectories(root);
+      final List<Entry> directories = new ArrayList<>();
+      readSnapshot(
+          snapshotFile,
+          (entry, chunks) -> {
+            final Path path = root.resolve(entry.path).normalize();
+            if (!path.startsWith(root)) {
+              throw new IOException("Invalid path " + entry.path + " in backup snapshot");
+            }
+            entry.path = path.toString();
+            switch (entry.type) {
+              case DIRECTORY:
+                Files.createDirectories(path);
+                directories.add(entry);
+                break;
+              case FILE:
+                try (OutputStream out = Files.newOutputStream(path)) {
+                  for (ChunkRef chunk : chunks) {
+                    chunkStore.copyTo(chunk.hash, out);
+                  }
+                }
+                applyAttributes(path, entry);
+                break;
+              case SYMLINK:
+                Files.createSymbolicLink(path, Paths.get(entry.linkTarget));
+                applyOwner(path, entry);
+                break;
+              default:
+                throw new IOException("Unknown entry type " + entry.type + " in backup snapshot");
+            }
+          });
+      // times of folders are applied last, as creation of children modifies them
+      for (int i = directories.size() - 1; i >= 0; i--) {
+        Entry directory = directories.get(i);
+        applyAttributes(Paths.get(directory.path), directory);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes snapshot of the workspace if it exists.
+   *
+   * @param workspaceId id of the workspace
+   * @throws IOException if snapshot can't be removed
+   */
+  public void delete(String workspaceId) throws IOException {
+    final Lock lock = workspacesLocks.get(workspaceId);
+    lock.lock();
+    try {
+      ensureLoaded();
+      final Path snapshotFile = getSnapshotFile(workspaceId);
+      if (!Files.exists(snapshotFile)) {
+        return;
+      }
+      final List<String> chunks = new ArrayList<>();
+      readSnapshot(
+          snapshotFile, (entry, entryChunks) -> entryChunks.forEach(c -> chunks.add(c.hash)));
+      Files.delete(snapshotFile);
+      chunks.forEach(chunkStore::release);
+      snapshotsSizes.remove(workspaceId);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Deletes chunks which are not referenced by any snapshot. */
+  @ScheduleDelay(initialDelay = 600, delayParameterName = "machine.backup.dedup.gc_period_sec")
+  public void collectGarbage() {
+    if (!enabled) {
+      return;
+    }
+    try {
+      ensureLoaded();
+      int deleted = chunkStore.gc();
+      LOG.debug("Garbage collection of backup chunks deleted {} chunks", deleted);
+    } catch (IOException e) {
+      LOG.error("Garbage collection of backup chunks failed. Error: " + e.getLocalizedMessage(), e);
+    }
+  }
+
+  /** Returns total size of files in all snapshots. */
+  @Gauge(name = "machine.backup.dedup.logical_bytes")
+  public long getLogicalBytes() {
+    return snapshotsSizes.values().stream().mapToLong(Long::longValue).sum();
+  }
+
+  /** Returns total size of stored chunks. */
+  @Gauge(name = "machine.backup.dedup.stored_bytes")
+  public long getStoredBytes() {
+    return chunkStore.getStoredBytes();
+  }
+
+  /** Returns how many times size of files in snapshots exceeds size of stored chunks. */
+  @Gauge(name = "machine.backup.dedup.ratio")
+  public double getDedupRatio() {
+    final long stored = getStoredBytes();
+    return stored == 0 ? 1 : (double) getLogicalBytes() / stored;
+  }
+
+  /** Counts references of chunks from existing snapshots. */
+  private synchronized void ensureLoaded() throws IOException {
+    if (loaded) {
+      return;
+    }
+    if (Files.isDirectory(snapshotsDir)) {
+      try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(snapshotsDir)) {
+        for (Path snapshot : snapshots) {
+          final String name = snapshot.getFileName().toString();
+          if (name.endsWith(TMP_SUFFIX)) {
+            // snapshot which storing was interrupted
+            Files.deleteIfExists(snapshot);
+            continue;
+          }
+          final long[] size = new long[1];
+          readSnapshot(
+              snapshot,
+              (entry, chunks) -> {
+                size[0] += entry.size;
+                chunks.forEach(c -> chunkStore.reference(c.hash, c.size));
+              });
+          snapshotsSizes.put(name, size[0]);
+        }
+      }
+    }
+    chunkStore.registerUnreferenced();
+    loaded = true;
+  }
+
+  /**
+   * Writes entries of the folder tree, puts files content into the chunk store.
+   *
+   * @return total size of files
+   */
+  private long writeEntries(Path root, DataOutputStream out, List<String> referenced)
+      throws IOException {
+    final long[] size = new long[1];
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            writeHeader(DIRECTORY, root, dir, attrs, out);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            if (attrs.isRegularFile()) {
+              final List<ChunkRef> chunks = new ArrayList<>();
+              try (InputStream in = Files.newInputStream(file)) {
+                ContentDefinedChunker.split(
+                    in,
+                    (buffer, length) -> {
+                      String hash = chunkStore.put(buffer, length);
+                      referenced.add(hash);
+                      chunks.add(new ChunkRef(hash, length));
+                    });
+              }
+              writeHeader(FILE, root, file, attrs, out);
+              out.writeInt(chunks.size());
+              for (ChunkRef chunk : chunks) {
+                out.write(HEX.decode(chunk.hash));
+                out.writeInt(chunk.size);
+                size[0] += chunk.size;
+              }
+            } else if (attrs.isSymbolicLink()) {
+              writeHeader(SYMLINK, root, file, attrs, out);
+              out.writeUTF(Files.readSymbolicLink(file).toString());
+            }
+            // sockets, pipes and devices are not backed up
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return size[0];
+  }
+
+  private void writeHeader(
+      byte type, Path root, Path path, BasicFileAttributes attrs, DataOutputStream out)
+      throws IOException {
+    final int[] unixAttrs = readUnixAttributes(path);
+    out.writeByte(type);
+    out.writeUTF(root.relativize(path).toString());
+    out.writeLong(attrs.lastModifiedTime().toMillis());
+    out.writeInt(unixAttrs[0]);
+    out.writeInt(unixAttrs[1]);
+    out.writeInt(unixAttrs[2]);
+  }
+
+  /** Returns mode, uid and gid of the file, uid and gid are -1 if they are not supported. */
+  private static int[] readUnixAttributes(Path path) throws IOException {
+    try {
+      final Map<String, Object> attrs =
+          Files.readAttributes(path, "unix:mode,uid,gid", NOFOLLOW_LINKS);
+      return new int[] {
+        (Integer) attrs.get("mode"), (Integer) attrs.get("uid"), (Integer) attrs.get("gid")
+      };
+    } catch (UnsupportedOperationException | IllegalArgumentException e) {
+      int mode = 0;
+      try {
+        for (PosixFilePermission permission : Files.getPosixFilePermissions(path, NOFOLLOW_LINKS)) {
+          mode |= 1 << (8 - permission.ordinal());
+        }
+      } catch (UnsupportedOperationException ignored) {
+        mode = 0644;
+      }
+      return new int[] {mode, -1, -1};
+    }
+  }
+
+  private static void applyAttributes(Path path, Entry entry) throws IOException {
+    applyOwner(path, entry);
+    final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+    for (PosixFilePermission permission : PosixFilePermission.values()) {
+      if ((entry.mode & (1 << (8 - permission.ordinal()))) != 0) {
+        permissions.add(permission);
+      }
+    }
+    try {
+      Files.setPosixFilePermissions(path, permissions);
+    } catch (UnsupportedOperationException e) {
+      LOG.debug("Can't restore permissions of {}", path);
+    }
+    Files.setLastModifiedTime(path, FileTime.fromMillis(entry.modificationTime));
+  }
+
+  private static void applyOwner(Path path, Entry entry) {
+    if (entry.uid < 0 || entry.gid < 0) {
+      return;
+    }
+    try {
+      Files.setAttribute(path, "unix:uid", entry.uid, NOFOLLOW_LINKS);
+      Files.setAttribute(path, "unix:gid", entry.gid, NOFOLLOW_LINKS);
+    } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+      // owner can be changed only by a privileged user
+      LOG.debug("Can't restore owner of {}. Error: {}", path, e.getLocalizedMessage());
+    }
+  }
+
+  private void readSnapshot(Path snapshotFile, EntryConsumer consumer) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshotFile))))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        throw new IOException("Unsupported format of backup snapshot " + snapshotFile);
+      }
+      byte type;
+      while ((type = in.readByte()) != END) {
+        final Entry entry = new Entry();
+        entry.type = type;
+        entry.path = in.readUTF();
+        entry.modificationTime = in.readLong();
+        entry.mode = in.readInt();
+        entry.uid = in.readInt();
+        entry.gid = in.readInt();
+        List<ChunkRef> chunks = new ArrayList<>();
+        if (type == FILE) {
+          final int chunksCount = in.readInt();
+          final byte[] hash = new byte[32];
+          for (int i = 0; i < chunksCount; i++) {
+            in.readFully(hash);
+            ChunkRef chunk = new ChunkRef(HEX.encode(hash), in.readInt());
+            chunks.add(chunk);
+            entry.size += chunk.size;
+          }
+        } else if (type == SYMLINK) {
+          entry.linkTarget = in.readUTF();
+        }
+        consumer.accept(entry, chunks);
+      }
+    } catch (EOFException e) {
+      throw new IOException("Backup snapshot " + snapshotFile + " is truncated", e);
+    }
+  }
+
+  private Path getSnapshotFile(String workspaceId) {
+    return snapshotsDir.resolve(workspaceId);
+  }
+
+  private interface EntryConsumer {
+    void accept(Entry entry, List<ChunkRef> chunks) throws IOException;
+  }
+
+  /** File, folder or symbolic link of a snapshot. */
+  private static class Entry {
+    byte type;
+    String path;
+    long modificationTime;
+    int mode;
+    int uid;
+    int gid;
+    long size;
+    String linkTarget;
+  }
+
+  private static class ChunkRef {
+    final String hash;
+    final int size;
+
+    ChunkRef(String hash, int size) {
+      this.hash = hash;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import org.eclipse.che.commons.annotation.Nullable;
+
+/**
+ * Published when folders whose restore was deferred until after the workspace start are restored
+ * into the workspace container, or when their restore fails.
+ */
+public class DeferredRestoreCompletedEvent {
+  private final String workspaceId;
+  private final TransferReport report;
+  private final String error;
+
+  public DeferredRestoreCompletedEvent(String workspaceId, TransferReport report, String error) {
+    this.workspaceId = workspaceId;
+    this.report = report;
+    this.error = error;
+  }
+
+  /** Returns id of the workspace. */
+  public String getWorkspaceId() {
+    return workspaceId;
+  }
+
+  /** Returns statistics of the files restored in background, including partial restore. */
+  public TransferReport getReport() {
+    return report;
+  }
+
+  /** Returns the reason why some of the deferred folders are not restored or null on success. */
+  @Nullable
+  public String getError() {
+    return error;
+  }
+
+  /** Returns true if all the deferred folders are restored. */
+  public boolean isSuccessful() {
+    return error == null;
+  }
+}
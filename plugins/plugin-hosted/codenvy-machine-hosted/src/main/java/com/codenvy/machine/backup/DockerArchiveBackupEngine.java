@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.params.GetResourceParams;
+import org.eclipse.che.plugin.docker.client.params.PutResourceParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies workspace files between container and backup folder as tar archives streamed through
+ * docker archive API, so neither external processes nor ssh connections into container are needed.
+ *
+ * <p>Backup folder is synchronized with the files of container the way rsync does it: files which
+ * have the same size and modification time are not rewritten, files which are absent in container
+ * are removed from backup folder. Modification times, permissions and numeric owners are preserved.
+ * Unlike rsync backup, the whole content of the files is streamed from the node on each backup,
+ * and files ignored by git are backed up too.
+ *
+ * <p>On restore, files are owned by the given user of the container.
+ */
+@Singleton
+public class DockerArchiveBackupEngine {
+  private static final Logger LOG = LoggerFactory.getLogger(DockerArchiveBackupEngine.class);
+
+  private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+  private final DockerConnector docker;
+  private final ExecutorService archiveWriters;
+  private final AtomicLong transferredFiles;
+  private final AtomicLong transferredBytes;
+
+  @Inject
+  public DockerArchiveBackupEngine(DockerConnector docker) {
+    this.docker = docker;
+    this.archiveWriters =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("BackupArchiveWriter-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    this.transferredFiles = new AtomicLong();
+    this.transferredBytes = new AtomicLong();
+  }
+
+  /**
+   * Synchronizes backup folder with the folder in container.
+   *
+   * @param containerId id of container
+   * @param srcPath absolute path of the folder in container
+   * @param destDir backup folder
+   * @throws IOException if any error occurs, backup folder may be partially synchronized then
+   */
+  public TransferReport backup(String containerId, String srcPath, File destDir)
+      throws IOException {
+    return backup(containerId, srcPath, destDir, Collections.emptySet(), Throttle.NONE);
+  }
+
+  /**
+   * Synchronizes backup folder with the folder in container, but doesn't remove the given folders,
+   * their content and their parents from backup folder even if they are absent in container.
+   *
+   * @param containerId id of container
+   * @param srcPath absolute path of the folder in container
+   * @param destDir backup folder
+   * @param keptDirs paths of folders relative to backup folder
+   * @param throttle limits rate of reading of the files from container
+   * @throws IOException if any error occurs, backup folder may be partially synchronized then
+   */
+  public TransferReport backup(
+      String containerId, String srcPath, File destDir, Set<Path> keptDirs, Throttle throttle)
+      throws IOException {
+    final long start = System.currentTimeMillis();
+    final Path root = destDir.toPath().toAbsolutePath().normalize();
+    Files.createDirectories(root);
+    final Set<Path> present = new HashSet<>();
+    final List<TarArchiveEntry> directories = new ArrayList<>();
+    long files = 0;
+    long bytes = 0;
+    try (TarArchiveInputStream tar =
+        new TarArchiveInputStream(
+            throttle.throttle(
+                docker.getResource(GetResourceParams.create(containerId, srcPath))))) {
+      TarArchiveEntry entry;
+      while ((entry = tar.getNextTarEntry()) != null) {
+        final Path path = resolve(root, entry.getName());
+        present.add(path);
+        if (entry.isDirectory()) {
+          if (Files.exists(path, NOFOLLOW_LINKS) && !Files.isDirectory(path, NOFOLLOW_LINKS)) {
+            Files.delete(path);
+          }
+          Files.createDirectories(path);
+          directories.add(entry);
+        } else if (entry.isSymbolicLink()) {
+          if (Files.isSymbolicLink(path)
+              && Files.readSymbolicLink(path).toString().equals(entry.getLinkName())) {
+            continue;
+          }
+          delete(path);
+          Files.createSymbolicLink(path, Paths.get(entry.getLinkName()));
+          setOwner(path, entry.getLongUserId(), entry.getLongGroupId());
+        } else if (entry.isFile()) {
+          if (!isUpToDate(path, entry)) {
+            delete(path);
+            final Path tmp = Files.createTempFile(path.getParent(), ".backup", ".tmp");
+            try {
+              Files.copy(tar, tmp, REPLACE_EXISTING);
+              Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+            } finally {
+              Files.deleteIfExists(tmp);
+            }
+            files++;
+            bytes += entry.getSize();
+          }
+          setAttributes(path, entry);
+        }
+        // hard links, devices and pipes are not backed up
+      }
+    }
+    final Set<Path> kept = new HashSet<>();
+    for (Path keptDir : keptDirs) {
+      kept.add(root.resolve(keptDir).normalize());
+    }
+    deleteAbsent(root, present, kept);
+    // times of folders are applied last, as modification of children changes them
+    for (int i = directories.size() - 1; i >= 0; i--) {
+      final TarArchiveEntry directory = directories.get(i);
+      setAttributes(resolve(root, directory.getName()), directory);
+    }
+    return report(files, bytes, start);
+  }
+
+  /**
+   * Copies content of backup folder into container replacing existing files.
+   *
+   * @param srcDir backup folder
+   * @param containerId id of container
+   * @param destPath absolute path of the folder in container
+   * @param userId numeric id of the owner of the restored files in container
+   * @param groupId numeric group id of the restored files in container
+   * @throws IOException if any error occurs
+   */
+  public TransferReport restore(
+      File srcDir, String containerId, String destPath, long userId, long groupId)
+      throws IOException {
+    return restore(
+        srcDir, containerId, destPath, userId, groupId, Collections.emptySet(), Throttle.NONE);
+  }
+
+  /**
+   * Copies content of backup folder except the given folders into container replacing existing
+   * files.
+   *
+   * @param srcDir backup folder
+   * @param containerId id of container
+   * @param destPath absolute path of the folder in container
+   * @param userId numeric id of the owner of the restored files in container
+   * @param groupId numeric group id of the restored files in container
+   * @param excludedDirs paths of folders relative to backup folder which are not copied
+   * @param throttle limits rate of writing of the files into container
+   * @throws IOException if any error occurs
+   */
+  public TransferReport restore(
+      File srcDir,
+      String containerId,
+      String destPath,
+      long userId,
+      long groupId,
+      Set<Path> excludedDirs,
+      Throttle throttle)
+      throws IOException {
+    final long start = System.currentTimeMillis();
+    final Path dest = Paths.get(destPath);
+    final String parent = dest.getParent() == null ? "/" : dest.getParent().toString();
+    final String rootName = dest.getFileName() == null ? "" : dest.getFileName().toString();
+    final long[] written = new long[2];
+    final PipedInputStream archive = new PipedInputStream(PIPE_BUFFER_SIZE);
+    final PipedOutputStream archiveOut = new PipedOutputStream(archive);
+    final Future<?> writer =
+        archiveWriters.submit(
+            () -> {
+              writeArchive(
+                  srcDir.toPath(), rootName, userId, groupId, excludedDirs, archiveOut, written);
+              return null;
+            });
+    try {
+      docker.putResource(
+          PutResourceParams.create(containerId, parent)
+              .withSourceStream(throttle.throttle(archive)));
+    } finally {
+      // unblocks writer if docker stopped reading
+      archive.close();
+    }
+    try {
+      writer.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      writer.cancel(true);
+      throw new IOException("Restore of files into container " + containerId + " interrupted");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      throw cause instanceof IOException
+          ? (IOException) cause
+          : new IOException(cause.getLocalizedMessage(), cause);
+    }
+    return report(written[0], written[1], start);
+  }
+
+  /** Returns number of files written by all backups and restores. */
+  @Gauge(name = "machine.backup.archive.transferred_files")
+  public long getTransferredFiles() {
+    return transferredFiles.get();
+  }
+
+  /** Returns total size of files written by all backups and restores. */
+  @Gauge(name = "machine.backup.archive.transferred_bytes")
+  public long getTransferredBytes() {
+    return transferredBytes.get();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    archiveWriters.shutdownNow();
+  }
+
+  private TransferReport report(long files, long bytes, long start) {
+    transferredFiles.addAndGet(files);
+    transferredBytes.addAndGet(bytes);
+    return new TransferReport(files, bytes, System.currentTimeMillis() - start);
+  }
+
+  private static void writeArchive(
+      Path srcDir,
+      String rootName,
+      long userId,
+      long groupId,
+      Set<Path> excludedDirs,
+      OutputStream out,
+      long[] written)
+      throws IOException {
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(out)) {
+      tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+      Files.walkFileTree(
+          srcDir,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                throws IOException {
+              if (excludedDirs.contains(srcDir.relativize(dir))) {
+                return FileVisitResult.SKIP_SUBTREE;
+              }
+              putEntry(new TarArchiveEntry(entryName(dir) + '/'), dir, attrs);
+              tar.closeArchiveEntry();
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+              if (attrs.isRegularFile()) {
+                final TarArchiveEntry entry = new TarArchiveEntry(entryName(file));
+                entry.setSize(attrs.size());
+                putEntry(entry, file, attrs);
+                Files.copy(file, tar);
+                tar.closeArchiveEntry();
+                written[0]++;
+                written[1] += attrs.size();
+              } else if (attrs.isSymbolicLink()) {
+                final TarArchiveEntry entry =
+                    new TarArchiveEntry(entryName(file), TarArchiveEntry.LF_SYMLINK);
+                entry.setLinkName(Files.readSymbolicLink(file).toString());
+                putEntry(entry, file, attrs);
+                tar.closeArchiveEntry();
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            private String entryName(Path path) {
+              final String relative = srcDir.relativize(path).toString();
+              if (rootName.isEmpty()) {
+                return relative.isEmpty() ? "." : relative;
+              }
+              return relative.isEmpty() ? rootName : rootName + '/' + relative;
+            }
+
+            private void putEntry(TarArchiveEntry entry, Path path, BasicFileAttributes attrs)
+                throws IOException {
+              entry.setModTime(attrs.lastModifiedTime().toMillis());
+              entry.setMode(entry.getMode() & ~0777 | getMode(path));
+              entry.setUserId(userId);
+              entry.setGroupId(groupId);
+              tar.putArchiveEntry(entry);
+            }
+          });
+      tar.finish();
+    }
+  }
+
+  /** Resolves path of entry without its first component, which is the name of copied folder. */
+  private static Path resolve(Path root, String entryName) throws IOException {
+    final int separator = entryName.indexOf('/');
+    final String relative = separator == -1 ? "" : entryName.substring(separator + 1);
+    final Path path = root.resolve(relative).normalize();
+    if (!path.startsWith(root)) {
+      throw new IOException("Invalid path " + entryName + " in backup archive");
+    }
+    return path;
+  }
+
+  private static boolean isUpToDate(Path path, TarArchiveEntry entry) throws IOException {
+    if (!Files.isRegularFile(path, NOFOLLOW_LINKS)) {
+      return false;
+    }
+    // tar keeps modification time with seconds precision
+    return Files.size(path) == entry.getSize()
+        && Files.getLastModifiedTime(path).toMillis() / 1000
+            == entry.getModTime().getTime() / 1000;
+  }
+
+  /**
+   * Removes files and folders of backup folder which are absent in the copied folder, except the
+   * kept folders with their content and their parents.
+   */
+  private static void deleteAbsent(Path root, Set<Path> present, Set<Path> kept)
+      throws IOException {
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            if (kept.contains(dir)) {
+              return FileVisitResult.SKIP_SUBTREE;
+            }
+            if (dir.equals(root)
+                || present.contains(dir)
+                || kept.stream().anyMatch(keptDir -> keptDir.startsWith(dir))) {
+              return FileVisitResult.CONTINUE;
+            }
+            delete(dir);
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            if (!present.contains(file)) {
+              Files.delete(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static void delete(Path path) throws IOException {
+    if (Files.isDirectory(path, NOFOLLOW_LINKS)) {
+      if (!IoUtil.deleteRecursive(path.toFile())) {
+        throw new IOException("Can't remove " + path + " from backup folder");
+      }
+    } else {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  private static void setAttributes(Path path, TarArchiveEntry entry) throws IOException {
+    setOwner(path, entry.getLongUserId(), entry.getLongGroupId());
+    final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+    for (PosixFilePermission permission : PosixFilePermission.values()) {
+      if ((entry.getMode() & (1 << (8 - permission.ordinal()))) != 0) {
+        permissions.add(permission);
+      }
+    }
+    Files.setPosixFilePermissions(path, permissions);
+    Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getModTime().getTime()));
+  }
+
+  private static void setOwner(Path path, long userId, long groupId) {
+    try {
+      final Map<String, Object> owner =
+          Files.readAttributes(path, "unix:uid,gid", NOFOLLOW_LINKS);
+      if (((Integer) owner.get("uid")) != userId) {
+        Files.setAttribute(path, "unix:uid", (int) userId, NOFOLLOW_LINKS);
+      }
+      if (((Integer) owner.get("gid")) != groupId) {
+        Files.setAttribute(path, "unix:gid", (int) groupId, NOFOLLOW_LINKS);
+      }
+    } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+      // owner can be changed only by a privileged user
+      LOG.debug("Can't set owner of {}. Error: {}", path, e.getLocalizedMessage());
+    }
+  }
+
+  private static int getMode(Path path) throws IOException {
+    int mode = 0;
+    for (PosixFilePermission permission : Files.getPosixFilePermissions(path, NOFOLLOW_LINKS)) {
+      mode |= 1 << (8 - permission.ordinal());
+    }
+    return mode;
+  }
+}
@@ -11,26 +11,43 @@
 package com.codenvy.machine.backup;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Strings.nullToEmpty;
 import static java.lang.String.format;
 import static java.util.Collections.emptyMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import com.codahale.metrics.annotation.Gauge;
+import com.codenvy.machine.backup.BackupMetrics.Operation;
+import com.codenvy.machine.backup.ContainerUserStore.User;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -39,6 +56,7 @@ import org.eclipse.che.api.core.ServerException;
 import org.eclipse.che.api.core.model.machine.Machine;
 import org.eclipse.che.api.core.model.machine.MachineStatus;
 import org.eclipse.che.api.core.model.machine.Server;
+import org.eclipse.che.api.core.notification.EventService;
 import org.eclipse.che.api.core.util.CommandLine;
 import org.eclipse.che.api.core.util.ListLineConsumer;
 import org.eclipse.che.api.core.util.ProcessUtil;
@@ -46,6 +64,9 @@ import org.eclipse.che.api.core.util.ValueHolder;
 import org.eclipse.che.api.environment.server.exception.EnvironmentException;
 import org.eclipse.che.api.workspace.server.WorkspaceManager;
 import org.eclipse.che.api.workspace.server.model.impl.WorkspaceImpl;
+import org.eclipse.che.commons.annotation.Nullable;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
 import org.eclipse.che.plugin.docker.client.DockerConnector;
 import org.eclipse.che.plugin.docker.client.Exec;
 import org.eclipse.che.plugin.docker.client.LogMessage;
@@ -59,11 +80,33 @@ import org.slf4j.Logger;
 /**
  * Copies workspace files between docker machine and backup storage.
  *
+ * <p>If skipping of unchanged backups is enabled, scheduled backup computes a fingerprint of the
+ * workspace file system inside of the container and doesn't run synchronization at all if the
+ * fingerprint matches the one stored along with the previous successful backup. Fingerprint covers
+ * paths, sizes, modification times, permissions and ownership of all the files and folders.
+ *
+ * <p>Files are copied either by rsync scripts over ssh connection into container or, if {@value
+ * #ENGINE_DOCKER_ARCHIVE} engine is configured, by {@link DockerArchiveBackupEngine} which streams
+ * tar archives through docker API without forking processes.
+ *
+ * <p>With {@value #ENGINE_DOCKER_ARCHIVE} engine, restore of folders matching configured deferred
+ * restore patterns, e.g. large dependency caches, can be postponed. Such folders are restored in
+ * background after the rest of the files, so the workspace starts without waiting for them. Backups
+ * don't remove these folders from backup storage until they are restored, and completion of their
+ * restore is reported with {@link DeferredRestoreCompletedEvent}.
+ *
+ * <p>If deduplicated storage is enabled, backup folder of a stopped workspace is moved into {@link
+ * DedupBackupStorage} and is restored from there on the next start of the workspace, so backup
+ * folders are kept on disk only for running workspaces.
+ *
  * @author Alexander Garagatyi
  * @author Mykola Morhun
  */
 @Singleton
 public class DockerEnvironmentBackupManager implements EnvironmentBackupManager {
+  public static final String ENGINE_RSYNC = "rsync";
+  public static final String ENGINE_DOCKER_ARCHIVE = "docker_archive";
+
   private static final Logger LOG = getLogger(DockerEnvironmentBackupManager.class);
   private static final String ERROR_MESSAGE_PREFIX =
       "Can't detect container user ids to chown backed up files of workspace ";
@@ -74,6 +117,10 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
   // user performs some files operations like git checkout. So we treat this situation as
   // successful.
   private static final Set<Integer> BACKUP_SUCCESS_RETURN_CODES = ImmutableSet.of(0, 24);
+  // prints md5 of the files list with their attributes, fails if any file can't be listed
+  private static final String FINGERPRINT_COMMAND =
+      "cd %s && find . -printf '%%p %%s %%T@ %%m %%U %%G\\n' | md5sum";
+  private static final Pattern FINGERPRINT = Pattern.compile("[0-9a-f]{32}");
 
   private final String backupScript;
   private final String restoreScript;
@@ -83,9 +130,23 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
   private final WorkspaceIdHashLocationFinder workspaceIdHashLocationFinder;
   private final String projectFolderPath;
   private final ConcurrentMap<String, ReentrantLock> workspacesBackupLocks;
-  private final ConcurrentMap<String, Map<String, User>> workspacesMachinesUsersInfo;
   private final WorkspaceManager workspaceManager;
   private final DockerConnector dockerConnector;
+  private final boolean skipUnchangedBackups;
+  private final BackupFingerprintStore fingerprintStore;
+  private final DedupBackupStorage dedupStorage;
+  private final boolean useArchiveEngine;
+  private final DockerArchiveBackupEngine archiveEngine;
+  private final List<PathMatcher> deferredRestoreMatchers;
+  private final EventService eventService;
+  private final BackupMetrics metrics;
+  private final ContainerUserStore userStore;
+  private final BackupBandwidthLimiter bandwidthLimiter;
+  private final ExecutorService deferredRestoreExecutor;
+  /** Folders with deferred restore which are not restored yet by workspace id. */
+  private final ConcurrentMap<String, Set<Path>> notRestoredDirs;
+  private final AtomicLong executedBackups;
+  private final AtomicLong skippedBackups;
 
   @Inject
   public DockerEnvironmentBackupManager(
@@ -97,7 +158,23 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       WorkspaceIdHashLocationFinder workspaceIdHashLocationFinder,
       @Named("che.workspace.projects.storage") String projectFolderPath,
       WorkspaceManager workspaceManager,
-      DockerConnector dockerConnector) {
+      DockerConnector dockerConnector,
+      @Named("machine.backup.skip_unchanged") boolean skipUnchangedBackups,
+      BackupFingerprintStore fingerprintStore,
+      DedupBackupStorage dedupStorage,
+      @Named("machine.backup.engine") String backupEngine,
+      DockerArchiveBackupEngine archiveEngine,
+      @Nullable @Named("machine.backup.deferred_restore_paths") String[] deferredRestorePaths,
+      EventService eventService,
+      BackupMetrics metrics,
+      ContainerUserStore userStore,
+      BackupBandwidthLimiter bandwidthLimiter) {
+    if (!ENGINE_RSYNC.equals(backupEngine) && !ENGINE_DOCKER_ARCHIVE.equals(backupEngine)) {
+      throw new IllegalArgumentException(
+          format(
+              "Unknown backup engine '%s', supported engines are '%s' and '%s'",
+              backupEngine, ENGINE_RSYNC, ENGINE_DOCKER_ARCHIVE));
+    }
     this.backupScript = backupScript;
     this.restoreScript = restoreScript;
     this.maxBackupDuration = maxBackupDurationSec;
@@ -107,9 +184,42 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
     this.projectFolderPath = projectFolderPath;
     this.workspaceManager = workspaceManager;
     this.dockerConnector = dockerConnector;
-
+    this.skipUnchangedBackups = skipUnchangedBackups;
+    this.fingerprintStore = fingerprintStore;
+    this.dedupStorage = dedupStorage;
+    this.useArchiveEngine = ENGINE_DOCKER_ARCHIVE.equals(backupEngine);
+    this.archiveEngine = archiveEngine;
+    this.eventService = eventService;
+    this.metrics = metrics;
+    this.userStore = userStore;
+    this.bandwidthLimiter = bandwidthLimiter;
+    this.deferredRestoreMatchers = new ArrayList<>();
+    if (deferredRestorePaths != null) {
+      for (String pattern : deferredRestorePaths) {
+        if (!pattern.trim().isEmpty()) {
+          deferredRestoreMatchers.add(
+              FileSystems.getDefault().getPathMatcher("glob:" + pattern.trim()));
+        }
+      }
+    }
+    if (!deferredRestoreMatchers.isEmpty() && !useArchiveEngine) {
+      LOG.warn(
+          "Deferred restore of workspace folders requires '{}' backup engine, "
+              + "all the files are restored before workspace start",
+          ENGINE_DOCKER_ARCHIVE);
+    }
+    this.deferredRestoreExecutor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("DeferredWorkspaceRestore-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    this.notRestoredDirs = new ConcurrentHashMap<>();
+
+    executedBackups = new AtomicLong();
+    skippedBackups = new AtomicLong();
     workspacesBackupLocks = new ConcurrentHashMap<>();
-    workspacesMachinesUsersInfo = new ConcurrentHashMap<>();
   }
 
   @Override
@@ -130,10 +240,14 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       String nodeHost = dockerDevMachine.getNode().getHost();
       String destPath =
           workspaceIdHashLocationFinder.calculateDirPath(backupsRootDir, workspaceId).toString();
-      String srcUserName = getUserInfo(workspaceId, dockerDevMachine.getContainer()).name;
-      int syncPort = getSyncPort(dockerDevMachine);
-
-      backupInsideLock(workspaceId, projectFolderPath, nodeHost, syncPort, srcUserName, destPath);
+      String containerId = dockerDevMachine.getContainer();
+      // archive engine doesn't connect to container over ssh
+      String srcUserName =
+          useArchiveEngine ? null : getUserInfo(workspaceId, containerId).getName();
+      int syncPort = useArchiveEngine ? 0 : getSyncPort(dockerDevMachine);
+
+      backupInsideLock(
+          workspaceId, containerId, projectFolderPath, nodeHost, syncPort, srcUserName, destPath);
     } catch (IOException e) {
       throw new ServerException(e.getLocalizedMessage(), e);
     }
@@ -154,11 +268,12 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       String destPath =
           workspaceIdHashLocationFinder.calculateDirPath(backupsRootDir, workspaceId).toString();
       // if sync agent is not in machine port parameter is not used
-      int syncPort = getSyncPort(containerId);
-      String srcUserName = getUserInfo(workspaceId, containerId).name;
+      int syncPort = useArchiveEngine ? 0 : getSyncPort(containerId);
+      String srcUserName =
+          useArchiveEngine ? null : getUserInfo(workspaceId, containerId).getName();
 
       backupAndCleanupInsideLock(
-          workspaceId, projectFolderPath, nodeHost, syncPort, srcUserName, destPath);
+          workspaceId, containerId, projectFolderPath, nodeHost, syncPort, srcUserName, destPath);
     } catch (IOException e) {
       throw new ServerException(e.getLocalizedMessage(), e);
     } finally {
@@ -166,8 +281,9 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       // leak
       // and blocking further WS start
       workspacesBackupLocks.remove(workspaceId);
-      // clear user info cache
-      workspacesMachinesUsersInfo.remove(workspaceId);
+      // container is removed after cleanup
+      userStore.invalidate(containerId);
+      notRestoredDirs.remove(workspaceId);
     }
   }
 
@@ -186,15 +302,16 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       String srcPath =
           workspaceIdHashLocationFinder.calculateDirPath(backupsRootDir, workspaceId).toString();
       User user = getUserInfo(workspaceId, containerId);
-      int syncPort = getSyncPort(containerId);
+      int syncPort = useArchiveEngine ? 0 : getSyncPort(containerId);
 
       restoreBackupInsideLock(
           workspaceId,
+          containerId,
           srcPath,
           projectFolderPath,
-          user.id,
-          user.groupId,
-          user.name,
+          user.getId(),
+          user.getGroupId(),
+          user.getName(),
           nodeHost,
           syncPort);
     } catch (IOException e) {
@@ -206,8 +323,21 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
     }
   }
 
+  /** Returns number of backups which were actually synchronized with backup storage. */
+  @Gauge(name = "machine.backup.executed_backups")
+  public long getExecutedBackupsCount() {
+    return executedBackups.get();
+  }
+
+  /** Returns number of scheduled backups skipped because workspace files were not changed. */
+  @Gauge(name = "machine.backup.skipped_backups")
+  public long getSkippedBackupsCount() {
+    return skippedBackups.get();
+  }
+
   private void backupInsideLock(
       String workspaceId,
+      String containerId,
       String srcPath,
       String srcAddress,
       int srcPort,
@@ -228,11 +358,31 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
             // because it is called after cleanup
             return;
           }
-          executeBackupScript(
-              workspaceId, srcPath, srcAddress, srcPort, false, srcUserName, destPath);
+          String fingerprint = null;
+          if (skipUnchangedBackups) {
+            fingerprint = getFsFingerprint(workspaceId, containerId, srcPath);
+            if (fingerprint != null
+                && fingerprint.equals(fingerprintStore.get(workspaceId, new File(destPath)))) {
+              skippedBackups.incrementAndGet();
+              LOG.debug("Files of workspace {} are not changed, backup skipped", workspaceId);
+              return;
+            }
+          }
+          executeBackupScriptAndStoreFingerprint(
+              workspaceId,
+              containerId,
+              srcPath,
+              srcAddress,
+              srcPort,
+              false,
+              srcUserName,
+              destPath,
+              fingerprint);
         } finally {
           lock.unlock();
         }
+      } else {
+        metrics.lockBusy(Operation.BACKUP);
       }
     } else {
       LOG.warn("Attempt to backup workspace {} after cleanup", workspaceId);
@@ -241,6 +391,7 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
 
   private void backupAndCleanupInsideLock(
       String workspaceId,
+      String containerId,
       String srcPath,
       String srcAddress,
       int srcPort,
@@ -249,7 +400,9 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       throws ServerException {
     ReentrantLock lock = workspacesBackupLocks.get(workspaceId);
     if (lock != null) {
+      long lockWaitStart = System.nanoTime();
       lock.lock();
+      metrics.lockWaited(Operation.BACKUP, System.nanoTime() - lockWaitStart);
       try {
         if (workspacesBackupLocks.get(workspaceId) == null) {
           // it is possible to reach here if invoke this method again while previous one is in
@@ -259,7 +412,22 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
               workspaceId);
           return;
         }
-        executeBackupScript(workspaceId, srcPath, srcAddress, srcPort, true, srcUserName, destPath);
+        // final backup is never skipped, but fingerprint is refreshed for the next workspace start
+        String fingerprint =
+            skipUnchangedBackups ? getFsFingerprint(workspaceId, containerId, srcPath) : null;
+        executeBackupScriptAndStoreFingerprint(
+            workspaceId,
+            containerId,
+            srcPath,
+            srcAddress,
+            srcPort,
+            true,
+            srcUserName,
+            destPath,
+            fingerprint);
+        if (dedupStorage.isEnabled()) {
+          moveToDedupStorage(workspaceId, new File(destPath));
+        }
       } finally {
         workspacesBackupLocks.remove(workspaceId);
         lock.unlock();
@@ -271,6 +439,7 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
 
   private void restoreBackupInsideLock(
       String workspaceId,
+      String containerId,
       String srcPath,
       String destinationPath,
       String destUserId,
@@ -293,26 +462,68 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
         throw new ServerException(err);
       }
 
-      // TODO refactor that code to eliminate creation of directories here
-      Files.createDirectories(Paths.get(srcPath));
+      try (BackupMetrics.Tracker tracker = metrics.track(Operation.RESTORE, destAddress);
+          BackupBandwidthLimiter.Transfer transfer = bandwidthLimiter.start(destAddress, true)) {
+        // backup folder which is left on disk is never older than the snapshot
+        File backupDir = new File(srcPath);
+        if (dedupStorage.hasSnapshot(workspaceId) && isEmptyDir(backupDir)) {
+          dedupStorage.restore(workspaceId, backupDir);
+        }
 
-      CommandLine commandLine =
-          new CommandLine(
-              restoreScript,
-              srcPath,
-              destinationPath,
+        // TODO refactor that code to eliminate creation of directories here
+        Files.createDirectories(Paths.get(srcPath));
+
+        if (useArchiveEngine) {
+          Set<Path> deferredDirs = findDeferredRestoreDirs(Paths.get(srcPath));
+          TransferReport report =
+              archiveEngine.restore(
+                  new File(srcPath),
+                  containerId,
+                  destinationPath,
+                  Long.parseLong(destUserId),
+                  Long.parseLong(destGroupId),
+                  deferredDirs,
+                  transfer);
+          LOG.debug("Files of workspace {} are restored: {}", workspaceId, report);
+          tracker.transferred(report);
+          if (!deferredDirs.isEmpty()) {
+            Set<Path> notRestored = ConcurrentHashMap.newKeySet();
+            notRestored.addAll(deferredDirs);
+            notRestoredDirs.put(workspaceId, notRestored);
+            deferredRestoreExecutor.execute(
+                () ->
+                    restoreDeferredDirs(
+                        workspaceId,
+                        containerId,
+                        destAddress,
+                        Paths.get(srcPath),
+                        Paths.get(destinationPath),
+                        Long.parseLong(destUserId),
+                        Long.parseLong(destGroupId),
+                        notRestored,
+                        lock));
+          }
+        } else {
+          CommandLine commandLine =
+              new CommandLine(
+                  restoreScript,
+                  srcPath,
+                  destinationPath,
+                  destAddress,
+                  Integer.toString(destPort),
+                  destUserId,
+                  destGroupId,
+                  destUserName);
+
+          executeCommand(
+              commandLine.asArray(),
+              restoreDuration,
               destAddress,
-              Integer.toString(destPort),
-              destUserId,
-              destGroupId,
-              destUserName);
-
-      executeCommand(
-          commandLine.asArray(),
-          restoreDuration,
-          destAddress,
-          workspaceId,
-          RESTORE_SUCCESS_RETURN_CODES);
+              workspaceId,
+              RESTORE_SUCCESS_RETURN_CODES);
+        }
+        tracker.succeeded();
+      }
       restored = true;
     } catch (TimeoutException e) {
       throw new ServerException(
@@ -347,6 +558,202 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
     }
   }
 
+  /**
+   * Runs backup and stores given fingerprint of the source file system when backup succeeds.
+   * Previously stored fingerprint is invalidated before the backup, so failed or interrupted backup
+   * can't be treated as an up to date one.
+   */
+  private void executeBackupScriptAndStoreFingerprint(
+      String workspaceId,
+      String containerId,
+      String srcPath,
+      String srcAddress,
+      int srcPort,
+      boolean removeSourceOnSuccess,
+      String srcUserName,
+      String destPath,
+      String fingerprint)
+      throws ServerException {
+    if (skipUnchangedBackups) {
+      fingerprintStore.invalidate(workspaceId, new File(destPath));
+    }
+    try (BackupMetrics.Tracker tracker = metrics.track(Operation.BACKUP, srcAddress);
+        BackupBandwidthLimiter.Transfer transfer = bandwidthLimiter.start(srcAddress, false)) {
+      if (useArchiveEngine) {
+        TransferReport report =
+            executeArchiveBackup(workspaceId, containerId, srcPath, srcAddress, destPath, transfer);
+        tracker.transferred(report);
+      } else {
+        executeBackupScript(
+            workspaceId,
+            srcPath,
+            srcAddress,
+            srcPort,
+            removeSourceOnSuccess,
+            srcUserName,
+            destPath,
+            transfer.getShareKibps());
+      }
+      tracker.succeeded();
+    }
+    executedBackups.incrementAndGet();
+    if (fingerprint != null) {
+      fingerprintStore.put(workspaceId, new File(destPath), fingerprint);
+    }
+  }
+
+  /**
+   * Stores backup folder of the stopped workspace in deduplicated storage and removes the folder.
+   * If the folder can't be stored it is kept, and the snapshot is removed as an outdated one.
+   */
+  private void moveToDedupStorage(String workspaceId, File backupDir) {
+    try {
+      dedupStorage.store(workspaceId, backupDir);
+    } catch (IOException e) {
+      LOG.error(
+          format(
+              "Can't store backup of workspace %s in deduplicated storage. Error: %s",
+              workspaceId, e.getLocalizedMessage()),
+          e);
+      try {
+        dedupStorage.delete(workspaceId);
+      } catch (IOException x) {
+        LOG.error(x.getLocalizedMessage(), x);
+      }
+      return;
+    }
+    if (!IoUtil.deleteRecursive(backupDir)) {
+      LOG.warn("Can't remove backup folder {} of workspace {}", backupDir, workspaceId);
+    }
+  }
+
+  /**
+   * Returns folders of backup folder which match deferred restore patterns. Nested matching folders
+   * are not listed separately.
+   */
+  private Set<Path> findDeferredRestoreDirs(Path backupDir) throws IOException {
+    if (deferredRestoreMatchers.isEmpty()) {
+      return Collections.emptySet();
+    }
+    Set<Path> deferredDirs = new LinkedHashSet<>();
+    Files.walkFileTree(
+        backupDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            Path relative = backupDir.relativize(dir);
+            for (PathMatcher matcher : deferredRestoreMatchers) {
+              if (matcher.matches(relative)) {
+                deferredDirs.add(relative);
+                return FileVisitResult.SKIP_SUBTREE;
+              }
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return deferredDirs;
+  }
+
+  /**
+   * Restores folders whose restore was deferred one by one. Holds workspace backup lock, so backups
+   * can't copy partially restored files. Stops if the workspace is stopped meanwhile. Unlike the
+   * restore on start, bandwidth of deferred restore is limited like the one of background backups.
+   */
+  private void restoreDeferredDirs(
+      String workspaceId,
+      String containerId,
+      String nodeHost,
+      Path srcDir,
+      Path destDir,
+      long userId,
+      long groupId,
+      Set<Path> notRestored,
+      ReentrantLock lock) {
+    long start = System.currentTimeMillis();
+    long files = 0;
+    long bytes = 0;
+    String error = null;
+    long lockWaitStart = System.nanoTime();
+    lock.lock();
+    metrics.lockWaited(Operation.RESTORE, System.nanoTime() - lockWaitStart);
+    try (BackupBandwidthLimiter.Transfer transfer = bandwidthLimiter.start(nodeHost, false)) {
+      for (Path dir : new ArrayList<>(notRestored)) {
+        if (workspacesBackupLocks.get(workspaceId) != lock) {
+          error = "Workspace is stopped before restore of its files completed";
+          break;
+        }
+        TransferReport report =
+            archiveEngine.restore(
+                srcDir.resolve(dir).toFile(),
+                containerId,
+                destDir.resolve(dir).toString(),
+                userId,
+                groupId,
+                Collections.emptySet(),
+                transfer);
+        notRestored.remove(dir);
+        files += report.getFiles();
+        bytes += report.getBytes();
+      }
+    } catch (IOException e) {
+      error = e.getLocalizedMessage();
+      LOG.error(
+          format(
+              "Deferred restore of files of workspace %s failed. Error: %s",
+              workspaceId, e.getLocalizedMessage()),
+          e);
+    } finally {
+      lock.unlock();
+    }
+    if (notRestored.isEmpty()) {
+      notRestoredDirs.remove(workspaceId, notRestored);
+    }
+    TransferReport report = new TransferReport(files, bytes, System.currentTimeMillis() - start);
+    LOG.debug("Deferred restore of files of workspace {} finished: {}", workspaceId, report);
+    eventService.publish(new DeferredRestoreCompletedEvent(workspaceId, report, error));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    deferredRestoreExecutor.shutdownNow();
+  }
+
+  private static boolean isEmptyDir(File dir) {
+    String[] children = dir.list();
+    return children == null || children.length == 0;
+  }
+
+  private TransferReport executeArchiveBackup(
+      String workspaceId,
+      String containerId,
+      String srcPath,
+      String srcAddress,
+      String destPath,
+      Throttle throttle)
+      throws ServerException {
+    try {
+      // folders which are not restored yet are absent in container but must stay in backup
+      TransferReport report =
+          archiveEngine.backup(
+              containerId,
+              srcPath,
+              new File(destPath),
+              notRestoredDirs.getOrDefault(workspaceId, Collections.emptySet()),
+              throttle);
+      LOG.debug("Files of workspace {} are backed up: {}", workspaceId, report);
+      return report;
+    } catch (IOException e) {
+      LOG.error(e.getLocalizedMessage(), e);
+      throw new ServerException(
+          "Backup of workspace "
+              + workspaceId
+              + " filesystem terminated on "
+              + srcAddress
+              + " node. "
+              + e.getLocalizedMessage());
+    }
+  }
+
   private void executeBackupScript(
       String workspaceId,
       String srcPath,
@@ -354,7 +761,8 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       int srcPort,
       boolean removeSourceOnSuccess,
       String srcUserName,
-      String destPath)
+      String destPath,
+      long bandwidthKibps)
       throws ServerException {
     CommandLine commandLine =
         new CommandLine(
@@ -365,6 +773,10 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
             destPath,
             Boolean.toString(removeSourceOnSuccess),
             srcUserName);
+    if (bandwidthKibps > 0) {
+      // overrides default bandwidth limit of the script
+      commandLine.add(Long.toString(bandwidthKibps));
+    }
 
     try {
       executeCommand(
@@ -400,6 +812,36 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
     }
   }
 
+  /**
+   * Computes fingerprint of the file system tree inside of container.
+   *
+   * @param workspaceId id of workspace
+   * @param containerId id of container
+   * @param path path to the root of the tree in container
+   * @return fingerprint or null if it can't be computed, e.g. if some files are not accessible or
+   *     needed utilities are missing in container
+   */
+  private String getFsFingerprint(String workspaceId, String containerId, String path) {
+    try {
+      ArrayList<String> output =
+          executeCommandInContainer(containerId, format(FINGERPRINT_COMMAND, path));
+      if (output != null && output.size() == 1) {
+        String fingerprint = output.get(0).trim().split("\\s+", 2)[0];
+        if (FINGERPRINT.matcher(fingerprint).matches()) {
+          return fingerprint;
+        }
+      }
+      LOG.debug(
+          "Unexpected output of fingerprint computation in workspace {}: {}", workspaceId, output);
+    } catch (IOException e) {
+      LOG.debug(
+          "Can't compute fingerprint of files of workspace {}. Error: {}",
+          workspaceId,
+          e.getLocalizedMessage());
+    }
+    return null;
+  }
+
   /**
    * Returns user id, group id and username in container. This method caches info about users and on
    * second and subsequent calls cached value will be returned.
@@ -412,19 +854,24 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
    */
   private User getUserInfo(String workspaceId, String containerId)
       throws IOException, ServerException {
-    Map<String, User> workspaceMachinesUserInfo = workspacesMachinesUsersInfo.get(workspaceId);
-    if (workspaceMachinesUserInfo == null) {
-      workspaceMachinesUserInfo = new HashMap<>();
-      workspacesMachinesUsersInfo.put(workspaceId, workspaceMachinesUserInfo);
-    }
-
-    User user = workspaceMachinesUserInfo.get(containerId);
-    if (user == null) {
-      user = getUserInfoWithinContainer(workspaceId, containerId);
-      workspaceMachinesUserInfo.put(containerId, user);
-    }
+    return userStore.get(
+        containerId,
+        () -> getImageUserKey(containerId),
+        () -> getUserInfoWithinContainer(workspaceId, containerId));
+  }
 
-    return user;
+  /**
+   * Returns key which identifies user of the container which is defined by its image and the user
+   * from container configuration.
+   *
+   * @param containerId ID of container
+   * @throws IOException if connection to container fails
+   */
+  private String getImageUserKey(String containerId) throws IOException {
+    ContainerInfo containerInfo = dockerConnector.inspectContainer(containerId);
+    String configuredUser =
+        containerInfo.getConfig() == null ? null : containerInfo.getConfig().getUser();
+    return containerInfo.getImage() + '#' + nullToEmpty(configuredUser);
   }
 
   /**
@@ -440,7 +887,11 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       throws IOException, ServerException {
 
     ArrayList<String> output =
-        executeCommandInContainer(workspaceId, containerId, "id -u && id -g && id -u -n");
+        executeCommandInContainer(containerId, "id -u && id -g && id -u -n");
+    if (output == null) {
+      LOG.error("{} {}", ERROR_MESSAGE_PREFIX, workspaceId);
+      throw new ServerException(ERROR_MESSAGE_PREFIX + workspaceId);
+    }
 
     if (output.size() != 3) {
       LOG.error("{} {}. Docker output: {}", ERROR_MESSAGE_PREFIX, workspaceId, output);
@@ -452,15 +903,13 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
   /**
    * Executes provides command inside of specified docker container and returns output.
    *
-   * @param workspaceId ID of workspace
    * @param containerId ID of container
    * @param command command to execute
-   * @return ArrayList with output lines as entries
+   * @return ArrayList with output lines as entries or null if command wrote anything to stderr
    * @throws IOException if connection to container fails
-   * @throws ServerException if other error occurs
    */
-  private ArrayList<String> executeCommandInContainer(
-      String workspaceId, String containerId, String command) throws IOException, ServerException {
+  private ArrayList<String> executeCommandInContainer(String containerId, String command)
+      throws IOException {
     Exec exec =
         dockerConnector.createExec(
             CreateExecParams.create(containerId, new String[] {"sh", "-c", command})
@@ -477,8 +926,12 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
         });
 
     if (hasFailed.get()) {
-      LOG.error("{} {}. Docker output: {}", ERROR_MESSAGE_PREFIX, workspaceId, execOutput);
-      throw new ServerException(ERROR_MESSAGE_PREFIX + workspaceId);
+      LOG.debug(
+          "Execution of '{}' in container {} failed. Docker output: {}",
+          command,
+          containerId,
+          execOutput);
+      return null;
     }
 
     return execOutput;
@@ -537,6 +990,7 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       throws TimeoutException, IOException, InterruptedException {
     final ListLineConsumer outputConsumer = new ListLineConsumer();
     Process process = ProcessUtil.executeAndWait(commandLine, timeout, SECONDS, outputConsumer);
+    metrics.exitCode(process.exitValue());
 
     if (!successResponseCodes.contains(process.exitValue())) {
       LOG.error(
@@ -547,16 +1001,4 @@ public class DockerEnvironmentBackupManager implements EnvironmentBackupManager
       throw new IOException("Synchronization process failed. Exit code " + process.exitValue());
     }
   }
-
-  private static class User {
-    String id;
-    String groupId;
-    String name;
-
-    public User(String id, String groupId, String name) {
-      this.id = id;
-      this.groupId = groupId;
-      this.name = name;
-    }
-  }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Limits rate of data transfer. */
+@FunctionalInterface
+public interface Throttle {
+
+  /** Throttle which doesn't limit transfer. */
+  Throttle NONE = bytes -> {};
+
+  /**
+   * Accounts the given number of transferred bytes, blocks if they exceed the allowed rate.
+   *
+   * @throws java.io.InterruptedIOException if waiting is interrupted
+   */
+  void acquire(long bytes) throws IOException;
+
+  /** Returns stream which reads the given one at the rate allowed by this throttle. */
+  default InputStream throttle(InputStream in) {
+    return this == NONE ? in : new ThrottledInputStream(in, this);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Input stream which reads underlying stream at the rate allowed by the {@link Throttle}. */
+class ThrottledInputStream extends FilterInputStream {
+  /** Max size of single read, so the rate is smooth even if large buffers are used. */
+  private static final int MAX_CHUNK = 64 * 1024;
+
+  private final Throttle throttle;
+
+  ThrottledInputStream(InputStream in, Throttle throttle) {
+    super(in);
+    this.throttle = throttle;
+  }
+
+  @Override
+  public int read() throws IOException {
+    final int b = in.read();
+    if (b != -1) {
+      throttle.acquire(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    final int read = in.read(b, off, Math.min(len, MAX_CHUNK));
+    if (read > 0) {
+      throttle.acquire(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    final long skipped = in.skip(Math.min(n, MAX_CHUNK));
+    if (skipped > 0) {
+      throttle.acquire(skipped);
+    }
+    return skipped;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket which allows transfer of the configured number of bytes per second on average and
+ * bursts up to the amount of one second.
+ *
+ * <p>Tokens are taken even if there is not enough of them, so the bucket may go into debt which is
+ * paid by the following transfers. This allows transfers with higher priority to go without waiting
+ * at the cost of transfers with lower priority.
+ */
+class TokenBucket {
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+  private final double bytesPerNano;
+  private final double capacity;
+  private final LongSupplier nanoClock;
+
+  /** Available tokens, negative if the bucket is in debt, guarded by this. */
+  private double tokens;
+  /** Time of the last refill, guarded by this. */
+  private long refilledAt;
+
+  TokenBucket(long bytesPerSecond, LongSupplier nanoClock) {
+    if (bytesPerSecond <= 0) {
+      throw new IllegalArgumentException("Rate of token bucket must be positive");
+    }
+    this.bytesPerNano = (double) bytesPerSecond / NANOS_PER_SECOND;
+    this.capacity = bytesPerSecond;
+    this.nanoClock = nanoClock;
+    this.tokens = capacity;
+    this.refilledAt = nanoClock.getAsLong();
+  }
+
+  /**
+   * Takes tokens for the given number of bytes.
+   *
+   * @return time in nanoseconds to wait before the bytes may be transferred, 0 if they may be
+   *     transferred immediately
+   */
+  synchronized long take(long bytes) {
+    final long now = nanoClock.getAsLong();
+    tokens = Math.min(capacity, tokens + (now - refilledAt) * bytesPerNano);
+    refilledAt = now;
+    tokens -= bytes;
+    return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / bytesPerNano);
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+/** Describes a completed copying of workspace files between container and backup storage. */
+public final class TransferReport {
+  private final long files;
+  private final long bytes;
+  private final long durationMillis;
+
+  public TransferReport(long files, long bytes, long durationMillis) {
+    this.files = files;
+    this.bytes = bytes;
+    this.durationMillis = durationMillis;
+  }
+
+  /** Returns number of regular files which content was written to the destination. */
+  public long getFiles() {
+    return files;
+  }
+
+  /** Returns total size of the written files content. */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /** Returns time spent on copying. */
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "TransferReport{"
+        + "files="
+        + files
+        + ", bytes="
+        + bytes
+        + ", durationMillis="
+        + durationMillis
+        + '}';
+  }
+}
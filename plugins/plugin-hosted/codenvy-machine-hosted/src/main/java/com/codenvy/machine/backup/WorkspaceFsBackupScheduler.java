@@ -10,13 +10,21 @@
  */
 package com.codenvy.machine.backup;
 
+import com.codahale.metrics.annotation.Gauge;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
@@ -24,6 +32,8 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import org.eclipse.che.api.core.NotFoundException;
 import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.api.core.model.machine.Machine;
+import org.eclipse.che.api.core.model.machine.MachineStatus;
 import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
 import org.eclipse.che.api.workspace.server.WorkspaceManager;
 import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
@@ -37,6 +47,15 @@ import org.slf4j.LoggerFactory;
 /**
  * Schedule backups of projects of running workspace.
  *
+ * <p>Workspaces which are due for backup are queued and backed up by a bounded pool, so that no
+ * more than the configured number of backups run at the same time in total and on each docker
+ * node. Workspaces which were not successfully backed up for the longest time go first.
+ *
+ * <p>Each workspace is backed up once per period at its own offset within the period, which is
+ * derived from the workspace id. So backups of workspaces started at the same time are spread over
+ * the period instead of being executed all at once. The very first backup of a workspace known to
+ * the scheduler is not delayed.
+ *
  * @author Alexander Garagatyi
  */
 @Singleton
@@ -44,37 +63,78 @@ public class WorkspaceFsBackupScheduler {
   private static final Logger LOG = LoggerFactory.getLogger(WorkspaceFsBackupScheduler.class);
 
   private final long syncTimeoutMillisecond;
+  private final int maxConcurrentBackups;
+  private final int maxConcurrentBackupsPerNode;
   private final WorkspaceRuntimes workspaceRuntimes;
   private final Map<String, Long> lastWorkspaceSynchronizationTime;
-  private final ExecutorService executor;
-  private final ConcurrentMap<String, String> workspacesBackupsInProgress;
+  /** Time when the scheduler found each running workspace for the first time. */
+  private final Map<String, Long> workspaceRegistrationTime;
+  private final ThreadPoolExecutor executor;
   private final Map<String, EnvironmentBackupManager> backupManagers;
   private final WorkspaceManager workspaceManager;
+  private final BackupMetrics metrics;
+
+  /** Backups waiting for execution ordered by priority, guarded by this. */
+  private final NavigableSet<BackupTask> queue;
+  /** Ids of workspaces which backups are queued or in progress, guarded by this. */
+  private final Set<String> workspacesBackupsInProgress;
+  /** Number of backups in progress by node host, guarded by this. */
+  private final Map<String, Integer> nodesBackups;
+  /** Number of backups in progress, guarded by this. */
+  private int activeBackups;
 
   @Inject
   public WorkspaceFsBackupScheduler(
       Map<String, EnvironmentBackupManager> backupManagers,
       WorkspaceRuntimes workspaceRuntimes,
       @Named("machine.backup.backup_period_second") long syncTimeoutSecond,
-      WorkspaceManager workspaceManager) {
+      @Named("machine.backup.max_concurrent_backups") int maxConcurrentBackups,
+      @Named("machine.backup.max_concurrent_backups_per_node") int maxConcurrentBackupsPerNode,
+      WorkspaceManager workspaceManager,
+      BackupMetrics metrics) {
+    if (maxConcurrentBackups <= 0 || maxConcurrentBackupsPerNode <= 0) {
+      throw new IllegalArgumentException(
+          "Max number of concurrent backups in total and per node must be positive");
+    }
     this.workspaceRuntimes = workspaceRuntimes;
     this.backupManagers = backupManagers;
     this.syncTimeoutMillisecond = TimeUnit.SECONDS.toMillis(syncTimeoutSecond);
+    this.maxConcurrentBackups = maxConcurrentBackups;
+    this.maxConcurrentBackupsPerNode = maxConcurrentBackupsPerNode;
     this.workspaceManager = workspaceManager;
+    this.metrics = metrics;
 
+    // tasks are submitted only when there is a free slot, so the queue of executor stays empty
     this.executor =
-        Executors.newCachedThreadPool(
+        new ThreadPoolExecutor(
+            maxConcurrentBackups,
+            maxConcurrentBackups,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
             new ThreadFactoryBuilder()
                 .setNameFormat("WorkspaceFsBackupScheduler-%s")
                 .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
                 .build());
+    this.executor.allowCoreThreadTimeOut(true);
     this.lastWorkspaceSynchronizationTime = new ConcurrentHashMap<>();
-    this.workspacesBackupsInProgress = new ConcurrentHashMap<>();
+    this.workspaceRegistrationTime = new ConcurrentHashMap<>();
+    this.queue =
+        new TreeSet<>(
+            Comparator.comparingLong((BackupTask task) -> task.lastSynchronizationTime)
+                .thenComparing(task -> task.workspaceId));
+    this.workspacesBackupsInProgress = new HashSet<>();
+    this.nodesBackups = new HashMap<>();
   }
 
   @ScheduleRate(initialDelay = 1, period = 1, unit = TimeUnit.MINUTES)
   public void scheduleBackup() {
-    for (String workspaceId : workspaceRuntimes.getRuntimesIds()) {
+    Set<String> runtimesIds = workspaceRuntimes.getRuntimesIds();
+    // forget stopped workspaces, so they don't affect backup lag
+    lastWorkspaceSynchronizationTime.keySet().retainAll(runtimesIds);
+    workspaceRegistrationTime.keySet().retainAll(runtimesIds);
+    final long now = System.currentTimeMillis();
+    for (String workspaceId : runtimesIds) {
 
       try {
         // re-read workspace state to ensure that it's still active after processing of all previous
@@ -85,40 +145,35 @@ public class WorkspaceFsBackupScheduler {
         WorkspaceRuntimeImpl runtime = workspace.getRuntime();
         // If workspace is not in RUNNING state skip it
         if (workspace.getStatus().equals(WorkspaceStatus.RUNNING)) {
+          workspaceRegistrationTime.putIfAbsent(workspaceId, now);
           if (isTimeToBackup(workspaceId)) {
-            executor.execute(
-                () -> {
-                  // don't start new backup if previous one is in progress
-                  if (workspacesBackupsInProgress.putIfAbsent(workspaceId, workspaceId) == null) {
-                    try {
-                      String environmentType =
-                          workspace
-                              .getConfig()
-                              .getEnvironments()
-                              .get(runtime.getActiveEnv())
-                              .getRecipe()
-                              .getType();
-                      EnvironmentBackupManager backupManager = backupManagers.get(environmentType);
-                      if (backupManager == null) {
-                        throw new ServerException(
-                            "Backing up of environment of type "
-                                + environmentType
-                                + " is not implemented.");
-                      }
-
-                      backupManager.backupWorkspace(workspaceId);
-
-                      lastWorkspaceSynchronizationTime.put(workspaceId, System.currentTimeMillis());
-                    } catch (NotFoundException ignore) {
-                      // it is ok, machine was stopped while this backup task was in the executor
-                      // queue
-                    } catch (Exception e) {
-                      LOG.error(e.getLocalizedMessage(), e);
-                    } finally {
-                      workspacesBackupsInProgress.remove(workspaceId);
-                    }
-                  }
-                });
+            String environmentType =
+                workspace
+                    .getConfig()
+                    .getEnvironments()
+                    .get(runtime.getActiveEnv())
+                    .getRecipe()
+                    .getType();
+            EnvironmentBackupManager backupManager = backupManagers.get(environmentType);
+            if (backupManager == null) {
+              throw new ServerException(
+                  "Backing up of environment of type " + environmentType + " is not implemented.");
+            }
+            Machine devMachine = runtime.getDevMachine();
+            // machine that is not in running state can be just a stub without node
+            if (devMachine != null && devMachine.getStatus() == MachineStatus.RUNNING) {
+              String nodeHost =
+                  workspaceManager
+                      .getMachineInstance(workspaceId, devMachine.getId())
+                      .getNode()
+                      .getHost();
+              enqueue(
+                  new BackupTask(
+                      workspaceId,
+                      nodeHost,
+                      lastWorkspaceSynchronizationTime.getOrDefault(workspaceId, 0L),
+                      backupManager));
+            }
           }
         }
       } catch (NotFoundException e) {
@@ -127,18 +182,59 @@ public class WorkspaceFsBackupScheduler {
         LOG.error(e.getLocalizedMessage(), e);
       }
     }
+    dispatch();
   }
 
   @VisibleForTesting
   boolean isTimeToBackup(String workspaceId) {
     final Long lastWorkspaceSyncTime = lastWorkspaceSynchronizationTime.get(workspaceId);
+    if (lastWorkspaceSyncTime == null || syncTimeoutMillisecond <= 0) {
+      return true;
+    }
+    // start of the current period of the workspace which is shifted by the workspace offset
+    final long now = System.currentTimeMillis();
+    final long offset = Math.floorMod(workspaceId.hashCode(), syncTimeoutMillisecond);
+    final long periodStart = now - Math.floorMod(now - offset, syncTimeoutMillisecond);
+    return lastWorkspaceSyncTime < periodStart;
+  }
+
+  /** Returns number of backups waiting for execution. */
+  @Gauge(name = "machine.backup.queue_size")
+  public synchronized int getQueueSize() {
+    return queue.size();
+  }
 
-    return lastWorkspaceSyncTime == null
-        || System.currentTimeMillis() - lastWorkspaceSyncTime > syncTimeoutMillisecond;
+  /** Returns number of backups in progress. */
+  @Gauge(name = "machine.backup.active_backups")
+  public synchronized int getActiveBackupsCount() {
+    return activeBackups;
+  }
+
+  /**
+   * Returns the longest time in seconds since the last successful backup among running workspaces.
+   * Lag of a workspace which was never backed up is counted from the time the scheduler found it
+   * running.
+   */
+  @Gauge(name = "machine.backup.max_lag_seconds")
+  public long getMaxBackupLagSeconds() {
+    final long now = System.currentTimeMillis();
+    long maxLag = 0;
+    for (long syncTime : lastWorkspaceSynchronizationTime.values()) {
+      maxLag = Math.max(maxLag, now - syncTime);
+    }
+    for (Map.Entry<String, Long> entry : workspaceRegistrationTime.entrySet()) {
+      if (!lastWorkspaceSynchronizationTime.containsKey(entry.getKey())) {
+        maxLag = Math.max(maxLag, now - entry.getValue());
+      }
+    }
+    return TimeUnit.MILLISECONDS.toSeconds(maxLag);
   }
 
   @PreDestroy
   private void teardown() {
+    synchronized (this) {
+      queue.clear();
+    }
     executor.shutdown();
     try {
       if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -151,4 +247,71 @@ public class WorkspaceFsBackupScheduler {
       executor.shutdownNow();
     }
   }
+
+  private synchronized void enqueue(BackupTask task) {
+    // don't queue new backup if previous one is queued or in progress
+    if (workspacesBackupsInProgress.add(task.workspaceId)) {
+      queue.add(task);
+    }
+  }
+
+  /** Starts queued backups in the order of priority while the limits allow it. */
+  private synchronized void dispatch() {
+    Iterator<BackupTask> it = queue.iterator();
+    while (activeBackups < maxConcurrentBackups && it.hasNext()) {
+      BackupTask task = it.next();
+      int nodeBackups = nodesBackups.getOrDefault(task.nodeHost, 0);
+      if (nodeBackups < maxConcurrentBackupsPerNode) {
+        try {
+          executor.execute(() -> backup(task));
+        } catch (RejectedExecutionException e) {
+          // scheduler is stopped
+          return;
+        }
+        it.remove();
+        activeBackups++;
+        nodesBackups.put(task.nodeHost, nodeBackups + 1);
+      }
+    }
+  }
+
+  private void backup(BackupTask task) {
+    metrics.queueWaited(System.nanoTime() - task.queuedAt);
+    try {
+      task.backupManager.backupWorkspace(task.workspaceId);
+
+      lastWorkspaceSynchronizationTime.put(task.workspaceId, System.currentTimeMillis());
+    } catch (NotFoundException ignore) {
+      // it is ok, machine was stopped while this backup task was in the queue
+    } catch (Exception e) {
+      LOG.error(e.getLocalizedMessage(), e);
+    } finally {
+      synchronized (this) {
+        activeBackups--;
+        nodesBackups.computeIfPresent(task.nodeHost, (node, count) -> count > 1 ? count - 1 : null);
+        workspacesBackupsInProgress.remove(task.workspaceId);
+      }
+      dispatch();
+    }
+  }
+
+  private static class BackupTask {
+    final String workspaceId;
+    final String nodeHost;
+    final long lastSynchronizationTime;
+    final EnvironmentBackupManager backupManager;
+    final long queuedAt;
+
+    BackupTask(
+        String workspaceId,
+        String nodeHost,
+        long lastSynchronizationTime,
+        EnvironmentBackupManager backupManager) {
+      this.workspaceId = workspaceId;
+      this.nodeHost = nodeHost;
+      this.lastSynchronizationTime = lastSynchronizationTime;
+      this.backupManager = backupManager;
+      this.queuedAt = System.nanoTime();
+    }
+  }
 }
@@ -10,7 +10,20 @@
  */
 package com.codenvy.machine.backup;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.annotation.Nullable;
 
 /**
  * Tool that calculates workspace files location on filesystem by the hash of workspace id.
@@ -37,10 +50,20 @@ import java.io.File;
  *     For workspace with id workspaceq23dfgh6543fh75t path will be <provided root
  *     folder>/76/aa/81/workspaceq23dfgh6543fh75t
  *
+ * <p>Workspaces may be spread over several storage volumes which are mounted in different folders.
+ * The provided root folder is always one of the volumes, the others are configured with {@code
+ * machine.backup.storage_volumes} property. Volume of a workspace is chosen by rendezvous hashing,
+ * so adding of a volume moves only the share of workspaces which belong to the new volume. Until
+ * {@link BackupStorageRebalancer} moves files of a workspace to its volume, the existing location
+ * is used.
+ *
  * @author andrew00x
  * @author Alexander Garagatyi
  */
+@Singleton
 public class WorkspaceIdHashLocationFinder {
+  private static final HashFunction VOLUME_HASH = Hashing.murmur3_128();
+
   private static final String[] segments =
       new String[] {
         "00", "01", "02", "03", "04", "05", "06", "07", "08", "09", "0a", "0b", "0c", "0d", "0e",
@@ -77,16 +100,98 @@ public class WorkspaceIdHashLocationFinder {
             "ff",
       };
 
+  private final List<File> extraVolumes;
+
+  public WorkspaceIdHashLocationFinder() {
+    this(null);
+  }
+
+  @Inject
+  public WorkspaceIdHashLocationFinder(
+      @Nullable @Named("machine.backup.storage_volumes") String[] extraVolumes) {
+    final List<File> volumes = new ArrayList<>();
+    if (extraVolumes != null) {
+      for (String volume : extraVolumes) {
+        if (!volume.trim().isEmpty()) {
+          volumes.add(new File(volume.trim()).getAbsoluteFile());
+        }
+      }
+    }
+    this.extraVolumes = Collections.unmodifiableList(volumes);
+  }
+
+  /**
+   * Returns folder of the workspace files. If the workspace files are not in the folder on their
+   * volume yet, but are present on another volume, the existing folder is returned.
+   *
+   * @param parent root folder which is the primary volume
+   * @param workspaceId id of the workspace
+   */
   public File calculateDirPath(File parent, String workspaceId) {
+    final String relPath = calculateRelativePath(workspaceId);
+    if (extraVolumes.isEmpty()) {
+      return new File(parent, relPath);
+    }
+    final List<File> volumes = getVolumes(parent);
+    final File target = new File(calculateVolume(volumes, workspaceId), relPath);
+    if (!target.exists()) {
+      for (File volume : volumes) {
+        final File existing = new File(volume, relPath);
+        if (existing.exists()) {
+          return existing;
+        }
+      }
+    }
+    return target;
+  }
+
+  /**
+   * Returns volumes of workspaces files, the first one is the primary volume.
+   *
+   * @param parent root folder which is the primary volume
+   */
+  public List<File> getVolumes(File parent) {
+    final Set<File> volumes = new LinkedHashSet<>();
+    volumes.add(parent.getAbsoluteFile());
+    volumes.addAll(extraVolumes);
+    return new ArrayList<>(volumes);
+  }
+
+  /**
+   * Returns volume where files of the workspace belong to.
+   *
+   * @param volumes all volumes
+   * @param workspaceId id of the workspace
+   */
+  public File calculateVolume(List<File> volumes, String workspaceId) {
+    File selected = null;
+    long maxWeight = Long.MIN_VALUE;
+    for (File volume : volumes) {
+      final long weight =
+          VOLUME_HASH
+              .newHasher()
+              .putString(volume.getPath(), UTF_8)
+              .putByte((byte) 0)
+              .putString(workspaceId, UTF_8)
+              .hash()
+              .asLong();
+      if (selected == null || weight > maxWeight) {
+        selected = volume;
+        maxWeight = weight;
+      }
+    }
+    return selected;
+  }
+
+  /** Returns path of the workspace files relative to the volume root folder. */
+  public String calculateRelativePath(String workspaceId) {
     final int hash = workspaceId.hashCode();
-    final String relPath =
-        segments[hash & 0xff]
-            + File.separatorChar
-            + segments[(hash >> 8) & 0xff]
-            + File.separatorChar
-            + segments[(hash >> 16) & 0xff]
-            + File.separatorChar
-            + workspaceId;
-    return new File(parent, relPath);
+    return segments[hash & 0xff]
+        + File.separatorChar
+        + segments[(hash >> 8) & 0xff]
+        + File.separatorChar
+        + segments[(hash >> 16) & 0xff]
+        + File.separatorChar
+        + workspaceId;
   }
 }
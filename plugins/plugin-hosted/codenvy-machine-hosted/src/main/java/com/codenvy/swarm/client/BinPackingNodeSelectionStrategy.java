@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static java.util.Comparator.comparingDouble;
+import static java.util.Comparator.comparingInt;
+
+import com.codenvy.swarm.client.model.DockerNode;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Selects the most loaded node which still has memory not reserved by containers, so nodes are
+ * filled up one by one and the rest of them stay free for big machines. If there are several such
+ * nodes the one with the least number of containers is selected. When all the nodes are full the
+ * node with the least number of containers is selected.
+ */
+public class BinPackingNodeSelectionStrategy implements NodeSelectionStrategy {
+
+  @Override
+  public DockerNode select(List<DockerNode> nodes) throws IOException {
+    if (nodes.isEmpty()) {
+      throw new IOException("No docker nodes available");
+    }
+    Comparator<DockerNode> fewerContainers = comparingInt(DockerNode::getContainers).reversed();
+    Optional<DockerNode> mostLoaded =
+        nodes
+            .stream()
+            .filter(node -> node.getAvailableMemory() > 0)
+            .max(comparingDouble(DockerNode::getMemoryUsage).thenComparing(fewerContainers));
+    if (mostLoaded.isPresent()) {
+      return mostLoaded.get();
+    }
+    return nodes.stream().max(fewerContainers).get();
+  }
+}
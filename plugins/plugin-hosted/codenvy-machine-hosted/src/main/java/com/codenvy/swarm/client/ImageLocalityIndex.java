@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static java.util.stream.Collectors.toList;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.codenvy.swarm.client.model.DockerNode;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.commons.annotation.Nullable;
+
+/**
+ * Keeps images which are known to be stored on docker nodes, so machines can be placed on nodes
+ * which don't need to pull their images.
+ *
+ * <p>Swarm doesn't tell which images each node has, so the index is filled from placements of
+ * containers: node of a container holds its image and the base image the container image was
+ * built from. Images may be removed from nodes by garbage collection, so a node is considered to
+ * hold an image for the limited period after the image was seen on it.
+ */
+@Singleton
+public class ImageLocalityIndex {
+  private static final long MIB = 1024 * 1024;
+
+  private final boolean enabled;
+  private final long memoryHeadroom;
+  private final long ttlMillis;
+  private final LongSupplier clock;
+  /** Image -> address of node -> last time the image was seen on the node. */
+  private final Map<String, Map<String, Long>> images;
+
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+
+  @Inject
+  public ImageLocalityIndex(
+      @Named("swarm.client.image_locality.enabled") boolean enabled,
+      @Named("swarm.client.image_locality.memory_headroom_mb") long memoryHeadroomMb,
+      @Named("swarm.client.image_locality.ttl_sec") long ttlSec) {
+    this(enabled, memoryHeadroomMb, ttlSec, System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  ImageLocalityIndex(boolean enabled, long memoryHeadroomMb, long ttlSec, LongSupplier clock) {
+    this.enabled = enabled;
+    this.memoryHeadroom = memoryHeadroomMb * MIB;
+    this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSec);
+    this.clock = clock;
+    this.images = new ConcurrentHashMap<>();
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+  }
+
+  /** Returns true if locality of images is taken into account. */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns nodes which hold the image and have free memory for a container of the given size in
+   * addition to the configured headroom.
+   *
+   * @param image image which the container will be created from
+   * @param memory memory limit of the container in bytes
+   * @param nodes available nodes
+   */
+  public List<DockerNode> findNodes(String image, long memory, List<DockerNode> nodes) {
+    if (!enabled) {
+      return Collections.emptyList();
+    }
+    final Map<String, Long> holders = images.get(normalize(image));
+    if (holders == null) {
+      return Collections.emptyList();
+    }
+    final long seenAfter = clock.getAsLong() - ttlMillis;
+    return nodes
+        .stream()
+        .filter(node -> holders.getOrDefault(node.getAddr(), 0L) > seenAfter)
+        .filter(node -> node.getAvailableMemory() >= memory + memoryHeadroom)
+        .collect(toList());
+  }
+
+  /**
+   * Records placement of a container and counts whether its node already held the image needed
+   * for the container.
+   *
+   * @param nodeAddr address of the node where container is created
+   * @param image image of the container
+   * @param baseImage image which the container image was built from, it is pulled on the node by
+   *     the build and is the one which locality matters, null if container image was not built
+   */
+  public void containerPlaced(String nodeAddr, String image, @Nullable String baseImage) {
+    if (!enabled) {
+      return;
+    }
+    final long now = clock.getAsLong();
+    final String source = normalize(baseImage != null ? baseImage : image);
+    final Long seen = images.getOrDefault(source, Collections.emptyMap()).get(nodeAddr);
+    if (seen != null && seen > now - ttlMillis) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    removeExpired(now - ttlMillis);
+    imageSeen(nodeAddr, source, now);
+    imageSeen(nodeAddr, normalize(image), now);
+  }
+
+  /** Records the image pulled on the node without counting it as a placement. */
+  public void imagePulled(String nodeAddr, String image) {
+    if (enabled) {
+      imageSeen(nodeAddr, normalize(image), clock.getAsLong());
+    }
+  }
+
+  /** Forgets the image which is removed from nodes. */
+  public void imageRemoved(String image) {
+    images.remove(normalize(image));
+  }
+
+  /** Returns number of containers placed on nodes which held their images. */
+  @Gauge(name = "swarm.image_locality.hits")
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Returns number of containers placed on nodes which had to pull their images. */
+  @Gauge(name = "swarm.image_locality.misses")
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Returns part of containers placed on nodes which held their images, from 0 to 1. */
+  @Gauge(name = "swarm.image_locality.hit_ratio")
+  public double getHitRatio() {
+    final long hitsCount = hits.get();
+    final long total = hitsCount + misses.get();
+    return total == 0 ? 0 : (double) hitsCount / total;
+  }
+
+  /** Returns number of images in the index. */
+  @Gauge(name = "swarm.image_locality.indexed_images")
+  public int getIndexedImages() {
+    return images.size();
+  }
+
+  private void imageSeen(String nodeAddr, String image, long now) {
+    images.compute(
+        image,
+        (key, holders) -> {
+          final Map<String, Long> result = holders != null ? holders : new ConcurrentHashMap<>();
+          result.put(nodeAddr, now);
+          return result;
+        });
+  }
+
+  /** Drops nodes which are not known to hold images anymore and images without nodes. */
+  private void removeExpired(long seenAfter) {
+    // placements are rare comparing to the number of images, so whole index is checked each time
+    for (String image : images.keySet()) {
+      images.computeIfPresent(
+          image,
+          (key, holders) -> {
+            holders.values().removeIf(seen -> seen <= seenAfter);
+            return holders.isEmpty() ? null : holders;
+          });
+    }
+  }
+
+  /** Adds default tag to the image without tag or digest, so both names refer the same image. */
+  static String normalize(String image) {
+    final int nameStart = image.lastIndexOf('/') + 1;
+    if (image.indexOf(':', nameStart) == -1 && image.indexOf('@', nameStart) == -1) {
+      return image + ":latest";
+    }
+    return image;
+  }
+}
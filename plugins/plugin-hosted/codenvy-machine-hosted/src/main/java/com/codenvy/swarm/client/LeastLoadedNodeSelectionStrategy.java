@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static java.util.Comparator.comparingInt;
+import static java.util.Comparator.comparingLong;
+
+import com.codenvy.swarm.client.model.DockerNode;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Selects node with the biggest amount of memory which is not reserved by containers. If there are
+ * several such nodes the one with the least number of containers is selected.
+ *
+ * <p>Unlike {@link SpreadNodeSelectionStrategy} it doesn't look at the number of containers first,
+ * so in a cluster of nodes of different sizes a big node with many containers is preferred to a
+ * small idle one while it has more free memory.
+ */
+public class LeastLoadedNodeSelectionStrategy implements NodeSelectionStrategy {
+
+  @Override
+  public DockerNode select(List<DockerNode> nodes) throws IOException {
+    if (nodes.isEmpty()) {
+      throw new IOException("No docker nodes available");
+    }
+    return nodes
+        .stream()
+        .max(
+            comparingLong(DockerNode::getAvailableMemory)
+                .thenComparing(comparingInt(DockerNode::getContainers).reversed()))
+        .get();
+  }
+}
@@ -17,8 +17,9 @@ import java.util.List;
 // TODO consider should it be DockerNode || URI || something else
 
 /**
- * Node selection strategy for Swarm. Used for not implemented yet in Swarm docker operations.
- * Should be replaced later with native Swarm methods
+ * Node selection strategy for Swarm. Used for not implemented yet in Swarm docker operations and
+ * to choose the node preferred for builds of images and containers. Should be replaced later with
+ * native Swarm methods
  *
  * @author Eugene Voevodin
  */
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import java.util.Map;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Provides {@link NodeSelectionStrategy} configured by property
+ * <i>swarm.client.node_selection_strategy</i> among the strategies bound by their names.
+ */
+@Singleton
+public class NodeSelectionStrategyProvider implements Provider<NodeSelectionStrategy> {
+  private final NodeSelectionStrategy strategy;
+
+  @Inject
+  public NodeSelectionStrategyProvider(
+      Map<String, NodeSelectionStrategy> strategies,
+      @Named("swarm.client.node_selection_strategy") String strategyName) {
+    this.strategy = strategies.get(strategyName);
+    if (strategy == null) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Node selection strategy '%s' is not supported. Supported strategies: %s",
+              strategyName, strategies.keySet()));
+    }
+  }
+
+  @Override
+  public NodeSelectionStrategy get() {
+    return strategy;
+  }
+}
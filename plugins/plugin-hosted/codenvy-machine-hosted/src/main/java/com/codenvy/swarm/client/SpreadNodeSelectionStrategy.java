@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static java.util.Comparator.comparingDouble;
+import static java.util.Comparator.comparingInt;
+
+import com.codenvy.swarm.client.model.DockerNode;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Selects node with the least number of containers, so containers are spread evenly across the
+ * nodes. If there are several such nodes the one with the lowest memory usage is selected.
+ *
+ * <p>Unlike {@link LeastLoadedNodeSelectionStrategy} it balances the number of containers rather
+ * than free memory, which spreads CPU and IO load of workspaces when nodes differ in size.
+ */
+public class SpreadNodeSelectionStrategy implements NodeSelectionStrategy {
+
+  @Override
+  public DockerNode select(List<DockerNode> nodes) throws IOException {
+    if (nodes.isEmpty()) {
+      throw new IOException("No docker nodes available");
+    }
+    return nodes
+        .stream()
+        .min(
+            comparingInt(DockerNode::getContainers)
+                .thenComparing(comparingDouble(DockerNode::getMemoryUsage)))
+        .get();
+  }
+}
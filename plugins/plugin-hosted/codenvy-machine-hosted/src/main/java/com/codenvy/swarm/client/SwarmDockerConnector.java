@@ -11,22 +11,30 @@
 package com.codenvy.swarm.client;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
-import static com.google.common.primitives.Ints.tryParse;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import com.codenvy.service.system.ClusterNode;
+import com.codenvy.service.system.ClusterState;
+import com.codenvy.service.system.ClusterStateMonitor;
+import com.codenvy.swarm.client.SwarmWorkaroundRetrier.Workaround;
 import com.codenvy.swarm.client.model.DockerNode;
-import com.google.common.base.Strings;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
-import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
+import org.eclipse.che.api.core.ServerException;
 import org.eclipse.che.commons.annotation.Nullable;
 import org.eclipse.che.plugin.docker.client.DockerApiVersionPathPrefixProvider;
 import org.eclipse.che.plugin.docker.client.DockerConnector;
@@ -39,15 +47,17 @@ import org.eclipse.che.plugin.docker.client.ProgressMonitor;
 import org.eclipse.che.plugin.docker.client.connection.DockerConnectionFactory;
 import org.eclipse.che.plugin.docker.client.exception.DockerException;
 import org.eclipse.che.plugin.docker.client.exception.ExecNotFoundException;
+import org.eclipse.che.plugin.docker.client.json.ContainerConfig;
 import org.eclipse.che.plugin.docker.client.json.ContainerCreated;
 import org.eclipse.che.plugin.docker.client.json.ContainerInfo;
 import org.eclipse.che.plugin.docker.client.json.ExecInfo;
-import org.eclipse.che.plugin.docker.client.json.SystemInfo;
 import org.eclipse.che.plugin.docker.client.params.BuildImageParams;
 import org.eclipse.che.plugin.docker.client.params.CreateContainerParams;
 import org.eclipse.che.plugin.docker.client.params.CreateExecParams;
 import org.eclipse.che.plugin.docker.client.params.PullParams;
+import org.eclipse.che.plugin.docker.client.params.RemoveImageParams;
 import org.eclipse.che.plugin.docker.client.params.StartExecParams;
+import org.eclipse.che.plugin.docker.client.params.TagParams;
 import org.slf4j.Logger;
 
 /**
@@ -66,30 +76,45 @@ public class SwarmDockerConnector extends DockerConnector {
           ".*repository .* not found: does not exist or no pull access.*", Pattern.DOTALL);
   public static final String DOCKER_OUT_OF_RESOURCES_ERROR_MESSAGE =
       "no resources available to schedule container";
+  /** Swarm constraint which prefers the node with the given name, e.g. constraint:node==~node1. */
+  private static final String PREFERRED_NODE_CONSTRAINT_KEY = "constraint:node=";
 
   private final NodeSelectionStrategy strategy;
   // TODO should it be done in other way?
   private final String nodeDaemonScheme;
-  private final int nodeDescriptionLength;
+  // provider is used as the monitor requests cluster state through docker connector
+  private final Provider<ClusterStateMonitor> clusterStateMonitor;
   // Map of exec ID to container ID (or name)
   // Temporary solution to investigate why swarm returns 404 on exec start
   private final Cache<String, String> execToContainer;
+  private final ImageLocalityIndex imageLocalityIndex;
+  // Map of built image to its build, container is created right after build
+  private final Cache<String, BuiltImage> builtImages;
+  private final PendingPlacements pendingPlacements;
+  private final SwarmWorkaroundRetrier workaroundRetrier;
 
   @Inject
   public SwarmDockerConnector(
       DockerConnectorConfiguration connectorConfiguration,
       DockerConnectionFactory connectionFactory,
       DockerRegistryAuthResolver authManager,
-      @Named("swarm.client.node_description_length") int nodeDescriptionLength,
-      DockerApiVersionPathPrefixProvider dockerApiVersionPathPrefixProvider) {
+      DockerApiVersionPathPrefixProvider dockerApiVersionPathPrefixProvider,
+      NodeSelectionStrategy strategy,
+      Provider<ClusterStateMonitor> clusterStateMonitor,
+      ImageLocalityIndex imageLocalityIndex,
+      SwarmWorkaroundRetrier workaroundRetrier) {
     super(
         connectorConfiguration, connectionFactory, authManager, dockerApiVersionPathPrefixProvider);
-    this.nodeDescriptionLength = nodeDescriptionLength;
-    this.strategy = new RandomNodeSelectionStrategy();
+    this.strategy = strategy;
+    this.clusterStateMonitor = clusterStateMonitor;
     this.nodeDaemonScheme = "http";
     // entry is not needed after start of exec, and expiration doesn't change anything important
     // start should go right after, so expire entry after 1 minute timeout
     this.execToContainer = CacheBuilder.newBuilder().expireAfterWrite(60, TimeUnit.SECONDS).build();
+    this.imageLocalityIndex = imageLocalityIndex;
+    this.builtImages = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.HOURS).build();
+    this.pendingPlacements = new PendingPlacements();
+    this.workaroundRetrier = workaroundRetrier;
   }
 
   /**
@@ -104,6 +129,23 @@ public class SwarmDockerConnector extends DockerConnector {
     super.pull(params, progressMonitor, addrToUri(node.getAddr()));
   }
 
+  /**
+   * Pulls image directly on the given node, bypassing swarm scheduling. Pulled image is recorded in
+   * {@link ImageLocalityIndex}.
+   */
+  public void pull(PullParams params, DockerNode node, ProgressMonitor progressMonitor)
+      throws IOException {
+    super.pull(params, progressMonitor, addrToUri(node.getAddr()));
+    String image = params.getImage();
+    if (params.getRegistry() != null) {
+      image = params.getRegistry() + '/' + image;
+    }
+    if (params.getTag() != null) {
+      image = image + ':' + params.getTag();
+    }
+    imageLocalityIndex.imagePulled(node.getAddr(), image);
+  }
+
   @Override
   public String buildImage(BuildImageParams params, ProgressMonitor progressMonitor)
       throws IOException {
@@ -121,26 +163,74 @@ public class SwarmDockerConnector extends DockerConnector {
     }
   }
 
+  /**
+   * Builds image preferring a node which already holds the base image, so the build doesn't pull
+   * it again. The node is chosen by the node selection strategy among nodes which hold the base
+   * image according to {@link ImageLocalityIndex}, or among all the nodes which have enough memory
+   * for the build if the base image is not known to be on any of them. Preference is a soft
+   * constraint, so swarm uses another node if the preferred one can't run the build.
+   *
+   * @param baseImage image which the built image is based on or null if it is unknown
+   */
+  public String buildImage(
+      BuildImageParams params, ProgressMonitor progressMonitor, @Nullable String baseImage)
+      throws IOException {
+    preferNode(params, baseImage);
+    return buildImage(params, progressMonitor);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Container of an image built by {@link #buildImage(BuildImageParams, ProgressMonitor,
+   * String)} prefers the node of the build, other containers prefer the node chosen by the node
+   * selection strategy. Node of created container is recorded in {@link ImageLocalityIndex}.
+   */
   @Override
   public ContainerCreated createContainer(CreateContainerParams params) throws IOException {
+    preferNode(params);
+    final ContainerCreated created = createContainerWithRetry(params);
+    final String image = params.getContainerConfig().getImage();
+    if (image != null && imageLocalityIndex.isEnabled()) {
+      recordPlacement(created.getId(), image);
+    }
+    return created;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Tag of an image built by {@link #buildImage(BuildImageParams, ProgressMonitor, String)}
+   * prefers the node of the build for its containers as well.
+   */
+  @Override
+  public void tag(TagParams params) throws IOException {
+    super.tag(params);
+    imageTagged(params);
+  }
+
+  @Override
+  public void removeImage(RemoveImageParams params) throws IOException {
+    super.removeImage(params);
+    imageLocalityIndex.imageRemoved(params.getImage());
+  }
+
+  private ContainerCreated createContainerWithRetry(CreateContainerParams params)
+      throws IOException {
     try {
       return super.createContainer(params);
     } catch (DockerException e) {
       // TODO fix this workaround. Is needed for https://github.com/codenvy/codenvy/issues/1215
       // and https://github.com/codenvy/codenvy/issues/2144
-      if (e.getStatus() == 500
-          && (IMAGE_NOT_FOUND_BY_SWARM_ERROR_MESSAGE.matcher(e.getOriginError()).matches()
-              || // if swarm failed to see image
-              REPOSITORY_NOT_FOUND_BY_SWARM_ERROR_MESSAGE
-                  .matcher(e.getOriginError())
-                  .matches())) { // failed to interact with repository
+      if (isImageNotFoundBySwarm(e)) {
         try {
-          Thread.sleep(5000); // wait a bit
-          return super.createContainer(params); // and retry after pause
+          return workaroundRetrier.retry(
+              Workaround.IMAGE_NOT_FOUND_ON_CREATE,
+              e,
+              () -> super.createContainer(params),
+              SwarmDockerConnector::isImageNotFoundBySwarm);
         } catch (DockerException de) {
           throw decorateMessage(de);
-        } catch (InterruptedException ie) {
-          throw decorateMessage(e);
         }
       }
       LOG.error(
@@ -171,19 +261,164 @@ public class SwarmDockerConnector extends DockerConnector {
       // https://github.com/docker/swarm/issues/2664
       // Log additional info to find out if this endpoint knows about exec at exactly that time
       logMissingExecInfo(params.getExecId());
-      try {
-        // Wait in case swarm needs some time to find exec
-        Thread.sleep(3000);
-        super.startExec(params, execOutputProcessor);
-      } catch (InterruptedException ie) {
-        // throw original error
-        throw new IOException(e);
-      }
+      // Repeat in case swarm needs some time to find exec
+      workaroundRetrier.retry(
+          Workaround.EXEC_NOT_FOUND_ON_START,
+          e,
+          () -> {
+            super.startExec(params, execOutputProcessor);
+            return null;
+          },
+          error -> error instanceof ExecNotFoundException);
     } finally {
       execToContainer.invalidate(params.getExecId());
     }
   }
 
+  /** Adds preference of a node to the build and records the build. */
+  @VisibleForTesting
+  void preferNode(BuildImageParams params, @Nullable String baseImage) {
+    final long memory = firstNonNull(params.getMemoryLimit(), 0L);
+    DockerNode node = null;
+    if (baseImage != null && imageLocalityIndex.isEnabled()) {
+      node = selectNodeWithImage(baseImage, memory);
+    }
+    if (node == null) {
+      node = selectNode(memory);
+    }
+    if (node != null) {
+      final Map<String, String> buildArgs =
+          new HashMap<>(firstNonNull(params.getBuildArgs(), emptyMap()));
+      buildArgs.put(PREFERRED_NODE_CONSTRAINT_KEY, "~" + node.getHostname());
+      params.withBuildArgs(buildArgs);
+    }
+    if (params.getRepository() != null) {
+      builtImages.put(
+          ImageLocalityIndex.normalize(params.getRepository()),
+          new BuiltImage(baseImage, node != null ? node.getHostname() : null));
+    }
+  }
+
+  /** Adds preference of a node to the container environment if it doesn't constrain the node. */
+  @VisibleForTesting
+  void preferNode(CreateContainerParams params) {
+    final ContainerConfig config = params.getContainerConfig();
+    final String image = config.getImage();
+    final String[] env = firstNonNull(config.getEnv(), new String[0]);
+    if (image == null
+        || Arrays.stream(env).anyMatch(var -> var.startsWith(PREFERRED_NODE_CONSTRAINT_KEY))) {
+      return;
+    }
+    final String hostname;
+    final BuiltImage built = builtImages.getIfPresent(ImageLocalityIndex.normalize(image));
+    if (built != null) {
+      // the image is only on the node where it was built
+      hostname = built.node;
+    } else {
+      final long memory = config.getHostConfig() != null ? config.getHostConfig().getMemory() : 0;
+      DockerNode node = null;
+      if (imageLocalityIndex.isEnabled()) {
+        node = selectNodeWithImage(image, memory);
+      }
+      if (node == null) {
+        node = selectNode(memory);
+      }
+      hostname = node != null ? node.getHostname() : null;
+    }
+    if (hostname != null) {
+      final String[] newEnv = Arrays.copyOf(env, env.length + 1);
+      newEnv[env.length] = PREFERRED_NODE_CONSTRAINT_KEY + "=~" + hostname;
+      config.withEnv(newEnv);
+    }
+  }
+
+  /** Records the tag of a built image as the image built on the same node. */
+  @VisibleForTesting
+  void imageTagged(TagParams params) {
+    final BuiltImage built =
+        builtImages.getIfPresent(ImageLocalityIndex.normalize(params.getImage()));
+    if (built != null) {
+      String tagged = params.getRepository();
+      if (params.getTag() != null) {
+        tagged = tagged + ':' + params.getTag();
+      }
+      builtImages.put(ImageLocalityIndex.normalize(tagged), built);
+    }
+  }
+
+  /**
+   * Selects node among the nodes which have enough memory for a container of the given size, or
+   * returns null if the placement is left to swarm. Random strategy leaves the placement to swarm,
+   * as the swarm scheduler already takes resources of nodes into account. Selected node is
+   * reserved for the container, see {@link PendingPlacements}.
+   */
+  @Nullable
+  private DockerNode selectNode(long memory) {
+    if (strategy instanceof RandomNodeSelectionStrategy) {
+      return null;
+    }
+    try {
+      final ClusterState clusterState = getClusterState();
+      synchronized (pendingPlacements) {
+        final List<DockerNode> nodes =
+            pendingPlacements
+                .apply(clusterState)
+                .stream()
+                .filter(node -> node.getAvailableMemory() >= memory)
+                .collect(toList());
+        return nodes.isEmpty() ? null : reserve(strategy.select(nodes), memory);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to select node for {} bytes of RAM. Error: {}", memory, e.getMessage());
+      return null;
+    }
+  }
+
+  @Nullable
+  private DockerNode selectNodeWithImage(String image, long memory) {
+    try {
+      final ClusterState clusterState = getClusterState();
+      synchronized (pendingPlacements) {
+        final List<DockerNode> nodes =
+            imageLocalityIndex.findNodes(image, memory, pendingPlacements.apply(clusterState));
+        return nodes.isEmpty() ? null : reserve(strategy.select(nodes), memory);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to select node which holds image {}. Error: {}", image, e.getMessage());
+      return null;
+    }
+  }
+
+  private DockerNode reserve(DockerNode node, long memory) {
+    pendingPlacements.add(node.getHostname(), memory);
+    return node;
+  }
+
+  private void recordPlacement(String containerId, String image) {
+    try {
+      final ContainerInfo info = inspectContainer(containerId);
+      if (info != null && info.getNode() != null) {
+        final BuiltImage built = builtImages.getIfPresent(ImageLocalityIndex.normalize(image));
+        imageLocalityIndex.containerPlaced(
+            info.getNode().getAddr(), image, built != null ? built.baseImage : null);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to find node of container {}. Error: {}", containerId, e.getMessage());
+    }
+  }
+
+  /** Returns true if swarm failed to see image or failed to interact with repository. */
+  private static boolean isImageNotFoundBySwarm(IOException e) {
+    if (!(e instanceof DockerException)) {
+      return false;
+    }
+    final DockerException de = (DockerException) e;
+    return de.getStatus() == 500
+        && de.getOriginError() != null
+        && (IMAGE_NOT_FOUND_BY_SWARM_ERROR_MESSAGE.matcher(de.getOriginError()).matches()
+            || REPOSITORY_NOT_FOUND_BY_SWARM_ERROR_MESSAGE.matcher(de.getOriginError()).matches());
+  }
+
   private void logMissingExecInfo(String execId) {
     try {
       LOG.warn("Exec '{}' not found tracing.");
@@ -221,63 +456,102 @@ public class SwarmDockerConnector extends DockerConnector {
   }
 
   /**
-   * Fetches nodes from {@link SystemInfo#getDriverStatus()} which contains information about all
-   * available nodes(addresses available RAM etc).
-   *
-   * <pre>
-   * Scheme of driver status content:
-   *
-   * [0] -> ["Nodes", "number of nodes"]
-   * [1] -> ["hostname", "ip:port"]
-   * [2] -> ["Containers", "number of containers"]
-   * [3] -> ["Reserved CPUs", "number of free/reserved CPUs"]
-   * [4] -> ["Reserved Memory", "number of free/reserved Memory"]
-   * [5] -> ["Labels", "executiondriver=native-0.2, kernel..."]
-   *
-   * Example:
-   *
-   * [0] -> ["Nodes", "2"]
-   * [1] -> ["swarm1.codenvy.com", "192.168.1.1:2375"]
-   * [2] -> ["Containers", "14"]
-   * [3] -> ["Reserved CPUs", "0/2"]
-   * [4] -> ["Reserved Memory", "0 b / 3.79GiB"]
-   * [5] -> ["Labels", "executiondriver=native-0.2, kernel..."]
-   * [6] -> ["swarm2.codenvy.com", "192.168.1.2:2375"]
-   * [7] -> ["Containers", "9"]
-   * [8] -> ["Reserved CPUs", "0/2"]
-   * [9] -> ["Reserved Memory", "0 b / 3.79GiB"]
-   * [10] -> ["Labels", "executiondriver=native-0.2, kernel..."]
-   * </pre>
+   * Returns healthy nodes of the cluster. Nodes are taken from the cluster state kept by {@link
+   * ClusterStateMonitor}, so swarm manager is requested only if the state was never fetched.
    */
   public List<DockerNode> getAvailableNodes() throws IOException {
-    SystemInfo systemInfo = getSystemInfo();
-    final String[][] systemDescription =
-        systemInfo.getSystemStatus() != null
-            ? systemInfo.getSystemStatus()
-            : systemInfo.getDriverStatus();
-    if (systemDescription == null) {
-      throw new DockerException(
-          "Can't find available docker nodes. DriverStatus, SystemStatus fields missing.", 500);
-    }
-    int count = 0;
-    int startsFrom = 0;
-    for (int i = 0; i < systemDescription.length; ++i) {
-      if ("Nodes".equals(Strings.nullToEmpty(systemDescription[i][0]).trim())) {
-        count = firstNonNull(tryParse(systemDescription[i][1]), 0);
-        startsFrom = i + 1;
-        break;
-      }
-    }
-    final ArrayList<DockerNode> nodes = new ArrayList<>(count);
-    for (int i = 0; i < count; ++i) {
-      final String[] node = systemDescription[i * nodeDescriptionLength + startsFrom];
-      nodes.add(new DockerNode(node[0], node[1]));
+    return toAvailableNodes(getClusterState());
+  }
+
+  private ClusterState getClusterState() throws IOException {
+    try {
+      return clusterStateMonitor.get().getState();
+    } catch (ServerException e) {
+      throw new IOException(e.getLocalizedMessage(), e);
     }
-    return nodes;
+  }
+
+  private static List<DockerNode> toAvailableNodes(ClusterState clusterState) {
+    return clusterState
+        .getNodes()
+        .stream()
+        .filter(ClusterNode::isHealthy)
+        .map(
+            node ->
+                new DockerNode(
+                    node.getHostname(),
+                    node.getAddr(),
+                    node.getContainers(),
+                    node.getReservedMemory(),
+                    node.getTotalMemory()))
+        .collect(toList());
   }
 
   // TODO find better solution
   private URI addrToUri(String addr) {
     return URI.create(nodeDaemonScheme + "://" + addr);
   }
+
+  /** Image built by the connector. */
+  private static class BuiltImage {
+    @Nullable final String baseImage;
+    /** Hostname of the node preferred for the build or null if swarm chose the node. */
+    @Nullable final String node;
+
+    BuiltImage(@Nullable String baseImage, @Nullable String node) {
+      this.baseImage = baseImage;
+      this.node = node;
+    }
+  }
+
+  /**
+   * Memory and containers of placements preferred on nodes since the cluster state was fetched.
+   * The state is refreshed periodically, so without them a burst of starts would prefer the same
+   * node. They are released when a newer state arrives, as it counts the placed containers.
+   */
+  private static class PendingPlacements {
+    /** Node hostname -> placements on the node. */
+    private final Map<String, Placed> placements = new HashMap<>();
+
+    private long stateTimestamp;
+
+    /** Returns available nodes of the state with the pending placements applied. */
+    synchronized List<DockerNode> apply(ClusterState clusterState) {
+      if (clusterState.getTimestamp() != stateTimestamp) {
+        placements.clear();
+        stateTimestamp = clusterState.getTimestamp();
+      }
+      final List<DockerNode> nodes = toAvailableNodes(clusterState);
+      if (placements.isEmpty()) {
+        return nodes;
+      }
+      return nodes
+          .stream()
+          .map(
+              node -> {
+                final Placed placed = placements.get(node.getHostname());
+                if (placed == null) {
+                  return node;
+                }
+                return new DockerNode(
+                    node.getHostname(),
+                    node.getAddr(),
+                    node.getContainers() + placed.containers,
+                    node.getReservedMemory() + placed.memory,
+                    node.getTotalMemory());
+              })
+          .collect(toList());
+    }
+
+    synchronized void add(String hostname, long memory) {
+      final Placed placed = placements.computeIfAbsent(hostname, h -> new Placed());
+      placed.memory += memory;
+      placed.containers++;
+    }
+
+    private static class Placed {
+      long memory;
+      int containers;
+    }
+  }
 }
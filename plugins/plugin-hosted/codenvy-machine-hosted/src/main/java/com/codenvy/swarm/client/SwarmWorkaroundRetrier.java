@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import com.codahale.metrics.MetricRegistry;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Repeats docker operations which fail because swarm doesn't see a just created resource yet, see
+ * e.g. https://github.com/docker/swarm/issues/2664.
+ *
+ * <p>Resource usually appears in a fraction of a second, so operation is repeated after short
+ * delays which grow exponentially up to the max delay. Each delay is randomized within its upper
+ * half, so operations which failed at the same moment don't repeat at the same moment. Operation
+ * is not repeated after the deadline, then the last error is thrown.
+ *
+ * <p>For each {@link Workaround} there are metrics named {@code swarm.client.workaround.<name>.*}:
+ * {@code fired} - meter of operations which needed the workaround, {@code cost} - timer of time
+ * spent on repeats of recovered operations, {@code attempts} - histogram of repeats of recovered
+ * operations, {@code gave_up} - meter of operations which were not recovered before the deadline.
+ */
+@Singleton
+public class SwarmWorkaroundRetrier {
+  private static final String PREFIX = "swarm.client.workaround";
+
+  /** Known issue of swarm which is worked around by repeat of an operation. */
+  public enum Workaround {
+    IMAGE_NOT_FOUND_ON_CREATE,
+    EXEC_NOT_FOUND_ON_START,
+    IMAGE_NOT_FOUND_ON_INSPECT,
+    CONTAINER_NOT_FOUND_ON_INSPECT;
+
+    // static import of MetricRegistry.name is shadowed by Enum.name here
+    private final String metricName = MetricRegistry.name(PREFIX, name().toLowerCase());
+  }
+
+  /**
+   * Docker operation which may fail because of an issue of swarm.
+   *
+   * @param <X> type of other checked exceptions thrown by the operation
+   */
+  public interface Operation<T, X extends Exception> {
+    T run() throws IOException, X;
+  }
+
+  private final MetricRegistry registry;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final long deadlineNanos;
+
+  @Inject
+  public SwarmWorkaroundRetrier(
+      MetricRegistry registry,
+      @Named("swarm.client.workaround.initial_delay_ms") long initialDelayMs,
+      @Named("swarm.client.workaround.max_delay_ms") long maxDelayMs,
+      @Named("swarm.client.workaround.deadline_ms") long deadlineMs) {
+    if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs || deadlineMs < 0) {
+      throw new IllegalArgumentException(
+          "Delays of swarm workarounds must be positive and max delay must not be less than initial"
+              + " one");
+    }
+    this.registry = registry;
+    this.initialDelayMillis = initialDelayMs;
+    this.maxDelayMillis = maxDelayMs;
+    this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+  }
+
+  /**
+   * Repeats the operation which failed with the given error until it succeeds, fails with an error
+   * which is not caused by the swarm issue or the deadline passes.
+   *
+   * @param workaround workaround which is applied
+   * @param error error of the first attempt of the operation
+   * @param operation operation to repeat
+   * @param isSwarmIssue returns true for errors which are caused by the swarm issue
+   * @return result of the operation
+   * @throws IOException the last error caused by the swarm issue if the deadline passes or the
+   *     thread is interrupted
+   * @throws X other error of the operation, it is not repeated
+   */
+  public <T, X extends Exception> T retry(
+      Workaround workaround,
+      IOException error,
+      Operation<T, X> operation,
+      Predicate<IOException> isSwarmIssue)
+      throws IOException, X {
+    registry.meter(name(workaround.metricName, "fired")).mark();
+    final long start = System.nanoTime();
+    long delay = initialDelayMillis;
+    IOException lastError = error;
+    for (int attempt = 1; ; attempt++) {
+      final long jitteredDelay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+      if (System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(jitteredDelay)
+          > deadlineNanos) {
+        registry.meter(name(workaround.metricName, "gave_up")).mark();
+        throw lastError;
+      }
+      try {
+        Thread.sleep(jitteredDelay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw lastError;
+      }
+      try {
+        final T result = operation.run();
+        registry
+            .timer(name(workaround.metricName, "cost"))
+            .update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        registry.histogram(name(workaround.metricName, "attempts")).update(attempt);
+        return result;
+      } catch (IOException e) {
+        if (!isSwarmIssue.test(e)) {
+          throw e;
+        }
+        lastError = e;
+      }
+      delay = Math.min(delay * 2, maxDelayMillis);
+    }
+  }
+}
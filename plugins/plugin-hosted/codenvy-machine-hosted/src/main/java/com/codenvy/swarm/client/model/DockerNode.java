@@ -16,13 +16,23 @@ package com.codenvy.swarm.client.model;
  * @author Eugene Voevodin
  */
 public class DockerNode {
-  // TODO add ram and containers ?
   private final String hostname;
   private final String addr;
+  private final int containers;
+  private final long reservedMemory;
+  private final long totalMemory;
 
   public DockerNode(String hostname, String addr) {
+    this(hostname, addr, 0, 0, 0);
+  }
+
+  public DockerNode(
+      String hostname, String addr, int containers, long reservedMemory, long totalMemory) {
     this.hostname = hostname;
     this.addr = addr;
+    this.containers = containers;
+    this.reservedMemory = reservedMemory;
+    this.totalMemory = totalMemory;
   }
 
   public String getAddr() {
@@ -32,4 +42,50 @@ public class DockerNode {
   public String getHostname() {
     return hostname;
   }
+
+  /** Returns number of containers on the node. */
+  public int getContainers() {
+    return containers;
+  }
+
+  /** Returns memory reserved by containers on the node in bytes. */
+  public long getReservedMemory() {
+    return reservedMemory;
+  }
+
+  /** Returns total memory of the node in bytes or 0 if it is unknown. */
+  public long getTotalMemory() {
+    return totalMemory;
+  }
+
+  /** Returns memory which is not reserved by containers on the node in bytes. */
+  public long getAvailableMemory() {
+    return Math.max(totalMemory - reservedMemory, 0);
+  }
+
+  /**
+   * Returns part of the node memory reserved by containers, from 0 to 1. Node with unknown total
+   * memory is considered fully loaded.
+   */
+  public double getMemoryUsage() {
+    return totalMemory > 0 ? Math.min((double) reservedMemory / totalMemory, 1) : 1;
+  }
+
+  @Override
+  public String toString() {
+    return "DockerNode{"
+        + "hostname='"
+        + hostname
+        + '\''
+        + ", addr='"
+        + addr
+        + '\''
+        + ", containers="
+        + containers
+        + ", reservedMemory="
+        + reservedMemory
+        + ", totalMemory="
+        + totalMemory
+        + '}';
+  }
 }
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.workspace;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.codenvy.machine.backup.BackupFingerprintStore;
+import com.codenvy.machine.backup.BackupMetrics;
+import com.codenvy.machine.backup.BackupMetrics.Operation;
+import com.codenvy.machine.backup.DedupBackupStorage;
+import com.codenvy.machine.backup.TransferReport;
+import com.codenvy.machine.backup.WorkspaceIdHashLocationFinder;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.api.core.model.workspace.Workspace;
+import org.eclipse.che.api.workspace.server.WorkspaceFilesCleaner;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.eclipse.che.commons.schedule.ScheduleDelay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes workspace files without blocking the caller.
+ *
+ * <p>Folder of workspace files is renamed into the trash folder of its volume, which removes the
+ * files logically at once, and then the trash folder entry is deleted in background. Folders of
+ * the entry are deleted in parallel by a bounded pool. The trash folders are the persistent queue
+ * of deletions: entries which were not deleted because of an error or a stop of the master are
+ * found and deleted again by the periodic scan of the trash folders.
+ *
+ * <p>Entries which the master is not permitted to delete are deleted with {@link
+ * WorkspaceFilesCleanUpScriptExecutor}. It is also used to delete folders which can't be renamed
+ * into the trash.
+ */
+@Singleton
+public class AsyncWorkspaceFilesCleaner implements WorkspaceFilesCleaner {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncWorkspaceFilesCleaner.class);
+
+  static final String TRASH_DIR = ".trash";
+
+  private final WorkspaceIdHashLocationFinder locationFinder;
+  private final File backupsRootDir;
+  private final BackupFingerprintStore fingerprintStore;
+  private final DedupBackupStorage dedupStorage;
+  private final WorkspaceFilesCleanUpScriptExecutor scriptExecutor;
+  private final BackupMetrics metrics;
+  private final ForkJoinPool pool;
+
+  /** Trash entries which deletion is queued or in progress. */
+  private final Set<Path> deletions;
+
+  private final AtomicLong deletedFiles;
+  private final AtomicLong reclaimedBytes;
+  private final AtomicLong failedDeletions;
+
+  @Inject
+  public AsyncWorkspaceFilesCleaner(
+      WorkspaceIdHashLocationFinder locationFinder,
+      @Named("che.user.workspaces.storage") File backupsRootDir,
+      @Named("workspace.projects_storage.cleanup.threads") int threads,
+      BackupFingerprintStore fingerprintStore,
+      DedupBackupStorage dedupStorage,
+      WorkspaceFilesCleanUpScriptExecutor scriptExecutor,
+      BackupMetrics metrics) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Number of cleanup threads must be positive");
+    }
+    this.locationFinder = locationFinder;
+    this.backupsRootDir = backupsRootDir;
+    this.fingerprintStore = fingerprintStore;
+    this.dedupStorage = dedupStorage;
+    this.scriptExecutor = scriptExecutor;
+    this.metrics = metrics;
+    this.deletions = ConcurrentHashMap.newKeySet();
+    this.deletedFiles = new AtomicLong();
+    this.reclaimedBytes = new AtomicLong();
+    this.failedDeletions = new AtomicLong();
+
+    final AtomicInteger threadNumber = new AtomicInteger();
+    this.pool =
+        new ForkJoinPool(
+            threads,
+            forkJoinPool -> {
+              final ForkJoinWorkerThread thread =
+                  ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+              thread.setName("WorkspaceFilesCleaner-" + threadNumber.getAndIncrement());
+              return thread;
+            },
+            LoggingUncaughtExceptionHandler.getInstance(),
+            true);
+  }
+
+  /**
+   * Moves workspace files to the trash and queues their deletion.
+   *
+   * @param workspace to cleanUp files.
+   * @throws IOException in case files can't be moved to the trash and deleted in place.
+   * @throws ServerException in case files can't be moved to the trash and deleted in place.
+   */
+  @Override
+  public void clear(Workspace workspace) throws IOException, ServerException {
+    final File wsFolder = locationFinder.calculateDirPath(backupsRootDir, workspace.getId());
+    fingerprintStore.invalidate(workspace.getId(), wsFolder);
+    dedupStorage.delete(workspace.getId());
+    if (!Files.exists(wsFolder.toPath(), NOFOLLOW_LINKS)) {
+      return;
+    }
+
+    final Path trashed;
+    try {
+      trashed = moveToTrash(wsFolder.toPath(), workspace.getId());
+    } catch (IOException e) {
+      LOG.warn(
+          "Can't move files of workspace {} to the trash, they are deleted in place. Error: {}",
+          workspace.getId(),
+          e.getLocalizedMessage());
+      try (BackupMetrics.Tracker tracker = metrics.track(Operation.CLEANUP, null)) {
+        scriptExecutor.deleteFolder(wsFolder);
+        tracker.succeeded();
+      }
+      return;
+    }
+    enqueue(trashed);
+  }
+
+  /** Queues deletion of trash entries left by previous runs or failed deletions. */
+  @ScheduleDelay(
+    initialDelay = 60,
+    delayParameterName = "workspace.projects_storage.cleanup.retry_period_sec"
+  )
+  public void resumeDeletions() {
+    for (File volume : locationFinder.getVolumes(backupsRootDir)) {
+      final Path trash = volume.toPath().resolve(TRASH_DIR);
+      if (!Files.isDirectory(trash)) {
+        continue;
+      }
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(trash)) {
+        for (Path entry : entries) {
+          enqueue(entry);
+        }
+      } catch (IOException e) {
+        LOG.error("Can't list trash folder {}. Error: {}", trash, e.getLocalizedMessage());
+      }
+    }
+  }
+
+  /** Returns number of trash entries which deletion is queued or in progress. */
+  @Gauge(name = "machine.backup.cleanup.queue_size")
+  public int getQueueSize() {
+    return deletions.size();
+  }
+
+  /** Returns number of files deleted from the trash, including files of unfinished deletions. */
+  @Gauge(name = "machine.backup.cleanup.deleted_files")
+  public long getDeletedFilesCount() {
+    return deletedFiles.get();
+  }
+
+  /** Returns total size of files deleted from the trash. */
+  @Gauge(name = "machine.backup.cleanup.reclaimed_bytes")
+  public long getReclaimedBytes() {
+    return reclaimedBytes.get();
+  }
+
+  /** Returns number of failed deletions of trash entries, they are retried by the next scan. */
+  @Gauge(name = "machine.backup.cleanup.failed")
+  public long getFailedDeletionsCount() {
+    return failedDeletions.get();
+  }
+
+  @PreDestroy
+  void shutdown() throws InterruptedException {
+    // deletions stop at the next folder, the rest of the entries is deleted after restart
+    pool.shutdownNow();
+    if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+      LOG.warn("Unable to terminate workspace files cleanup pool");
+    }
+  }
+
+  /** Renames the folder into the trash of its volume, so rename is atomic. */
+  private Path moveToTrash(Path wsFolder, String workspaceId) throws IOException {
+    Path volume = backupsRootDir.toPath().toAbsolutePath();
+    for (File candidate : locationFinder.getVolumes(backupsRootDir)) {
+      if (wsFolder.toAbsolutePath().startsWith(candidate.toPath())) {
+        volume = candidate.toPath();
+      }
+    }
+    final Path trash = volume.resolve(TRASH_DIR);
+    Files.createDirectories(trash);
+    // unique name, as a workspace with the same id may be recreated and removed again
+    final Path entry = trash.resolve(workspaceId + '.' + System.currentTimeMillis());
+    Files.move(wsFolder, entry, ATOMIC_MOVE);
+    return entry;
+  }
+
+  private void enqueue(Path entry) {
+    if (deletions.add(entry)) {
+      try {
+        pool.execute(() -> delete(entry));
+      } catch (RejectedExecutionException e) {
+        // cleaner is stopped, entry is deleted after restart
+        deletions.remove(entry);
+      }
+    }
+  }
+
+  private void delete(Path entry) {
+    final long start = System.currentTimeMillis();
+    final DeletionProgress progress = new DeletionProgress();
+    try (BackupMetrics.Tracker tracker = metrics.track(Operation.CLEANUP, null)) {
+      try {
+        deleteTree(entry, progress);
+      } catch (AccessDeniedException e) {
+        LOG.debug("Trash entry {} is deleted by cleanup script. Error: {}", entry, e.getMessage());
+        scriptExecutor.deleteFolder(entry.toFile());
+      }
+      final TransferReport report =
+          new TransferReport(
+              progress.files.get(), progress.bytes.get(), System.currentTimeMillis() - start);
+      tracker.transferred(report);
+      tracker.succeeded();
+      LOG.info("Trash entry {} is deleted. {}", entry, report);
+    } catch (CancellationException e) {
+      LOG.debug("Deletion of trash entry {} is interrupted by cleaner stop", entry);
+    } catch (IOException | ServerException e) {
+      failedDeletions.incrementAndGet();
+      LOG.error(
+          "Can't delete trash entry {}, deletion will be retried. Error: {}",
+          entry,
+          e.getLocalizedMessage());
+    } finally {
+      deletions.remove(entry);
+    }
+  }
+
+  private void deleteTree(Path root, DeletionProgress progress) throws IOException {
+    if (!Files.isDirectory(root, NOFOLLOW_LINKS)) {
+      Files.deleteIfExists(root);
+      return;
+    }
+    try {
+      new DeleteFolderTask(root, progress).invoke();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Counts files of a single trash entry and all the deleted files. */
+  private class DeletionProgress {
+    final AtomicLong files = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+
+    void deleted(long size) {
+      files.incrementAndGet();
+      bytes.addAndGet(size);
+      deletedFiles.incrementAndGet();
+      reclaimedBytes.addAndGet(size);
+    }
+  }
+
+  /**
+   * Deletes files of the folder, deletes its sub-folders by parallel tasks and then the folder
+   * itself.
+   */
+  private class DeleteFolderTask extends RecursiveAction {
+    private final Path folder;
+    private final DeletionProgress progress;
+
+    DeleteFolderTask(Path folder, DeletionProgress progress) {
+      this.folder = folder;
+      this.progress = progress;
+    }
+
+    @Override
+    protected void compute() {
+      if (pool.isShutdown()) {
+        throw new CancellationException();
+      }
+      final List<DeleteFolderTask> subFolders = new ArrayList<>();
+      try {
+        // depth 1 visits direct children with their attributes and doesn't descend into folders
+        Files.walkFileTree(
+            folder,
+            EnumSet.noneOf(FileVisitOption.class),
+            1,
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                  throws IOException {
+                if (attrs.isDirectory()) {
+                  subFolders.add(new DeleteFolderTask(file, progress));
+                } else {
+                  Files.delete(file);
+                  progress.deleted(attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+              }
+            });
+        ForkJoinTask.invokeAll(subFolders);
+        Files.delete(folder);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
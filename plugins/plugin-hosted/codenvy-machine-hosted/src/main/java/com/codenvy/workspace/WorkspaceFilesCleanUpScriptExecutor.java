@@ -13,6 +13,10 @@ package com.codenvy.workspace;
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.codenvy.machine.backup.BackupFingerprintStore;
+import com.codenvy.machine.backup.BackupMetrics;
+import com.codenvy.machine.backup.BackupMetrics.Operation;
+import com.codenvy.machine.backup.DedupBackupStorage;
 import com.codenvy.machine.backup.WorkspaceIdHashLocationFinder;
 import com.google.common.annotations.VisibleForTesting;
 import java.io.File;
@@ -45,17 +49,26 @@ public class WorkspaceFilesCleanUpScriptExecutor implements WorkspaceFilesCleane
   private final File backupsRootDir;
   private final int cleanUpTimeOut;
   private final String workspaceCleanUpScript;
+  private final BackupFingerprintStore fingerprintStore;
+  private final DedupBackupStorage dedupStorage;
+  private final BackupMetrics metrics;
 
   @Inject
   public WorkspaceFilesCleanUpScriptExecutor(
       WorkspaceIdHashLocationFinder workspaceIdHashLocationFinder,
       @Named("che.user.workspaces.storage") File backupsRootDir,
       @Named("workspace.projects_storage.cleanup.script_path") String workspaceCleanUpScript,
-      @Named("workspace.projects_storage.cleanup.timeout_seconds") int cleanUpTimeOut) {
+      @Named("workspace.projects_storage.cleanup.timeout_seconds") int cleanUpTimeOut,
+      BackupFingerprintStore fingerprintStore,
+      DedupBackupStorage dedupStorage,
+      BackupMetrics metrics) {
     this.workspaceIdHashLocationFinder = workspaceIdHashLocationFinder;
     this.backupsRootDir = backupsRootDir;
     this.workspaceCleanUpScript = workspaceCleanUpScript;
     this.cleanUpTimeOut = cleanUpTimeOut;
+    this.fingerprintStore = fingerprintStore;
+    this.dedupStorage = dedupStorage;
+    this.metrics = metrics;
   }
 
   /**
@@ -69,16 +82,30 @@ public class WorkspaceFilesCleanUpScriptExecutor implements WorkspaceFilesCleane
   public void clear(Workspace workspace) throws IOException, ServerException {
     File wsFolder =
         workspaceIdHashLocationFinder.calculateDirPath(backupsRootDir, workspace.getId());
-    CommandLine commandLine = new CommandLine(workspaceCleanUpScript, wsFolder.getAbsolutePath());
 
+    try (BackupMetrics.Tracker tracker = metrics.track(Operation.CLEANUP, null)) {
+      deleteFolder(wsFolder);
+      fingerprintStore.invalidate(workspace.getId(), wsFolder);
+      dedupStorage.delete(workspace.getId());
+      tracker.succeeded();
+    }
+  }
+
+  /**
+   * Deletes folder of workspace files with the cleanUp script, which may use privileges the master
+   * doesn't have. Script deletes only folders located in the workspaces storage.
+   *
+   * @param folder folder of workspace files or its copy in the trash of the workspaces storage
+   * @throws IOException in case I/O error.
+   * @throws ServerException in case script is interrupted or timed out.
+   */
+  public void deleteFolder(File folder) throws IOException, ServerException {
+    CommandLine commandLine = new CommandLine(workspaceCleanUpScript, folder.getAbsolutePath());
     try {
       execute(commandLine.asArray(), cleanUpTimeOut);
     } catch (InterruptedException | TimeoutException e) {
       throw new ServerException(
-          format(
-              "Failed to delete workspace files by path: '%s' for workspace with id: '%s'",
-              wsFolder.getAbsolutePath(), workspace.getId()),
-          e);
+          format("Failed to delete workspace files by path: '%s'", folder.getAbsolutePath()), e);
     }
   }
 
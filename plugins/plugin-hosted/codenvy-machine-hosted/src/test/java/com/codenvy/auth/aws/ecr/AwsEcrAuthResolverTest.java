@@ -10,7 +10,10 @@
  */
 package com.codenvy.auth.aws.ecr;
 
+import static com.codenvy.auth.aws.ecr.AwsEcrAuthResolver.REFRESH_BEFORE_EXPIRATION_MS;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
@@ -18,12 +21,30 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.ecr.AmazonECR;
+import com.amazonaws.services.ecr.AmazonECRClient;
+import com.amazonaws.services.ecr.model.AuthorizationData;
 import com.codenvy.auth.aws.AwsAccountCredentials;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.che.plugin.docker.client.dto.AuthConfig;
 import org.mockito.Mock;
 import org.mockito.testng.MockitoTestNGListener;
@@ -68,16 +89,16 @@ public class AwsEcrAuthResolverTest {
 
     awsEcrAuthResolver = spy(new AwsEcrAuthResolver(awsEcrInitialAuthConfig));
 
-    doReturn(AUTHORIZATION_TOKEN)
+    doReturn(authorizationData(AUTHORIZATION_TOKEN))
         .when(awsEcrAuthResolver)
-        .getAwsAuthorizationToken(AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY);
+        .getAwsAuthorizationData(eq(AWS_ECR), any());
   }
 
   @Test
   public void shouldBeAbleToGetDynamicXRegistryAuth() {
     AuthConfig authConfig = awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
 
-    verify(awsEcrAuthResolver).getAwsAuthorizationToken(AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY);
+    verify(awsEcrAuthResolver).getAwsAuthorizationData(eq(AWS_ECR), any());
 
     assertEquals(authConfig.getUsername(), USERNAME);
     assertEquals(authConfig.getPassword(), PASSWORD);
@@ -103,9 +124,7 @@ public class AwsEcrAuthResolverTest {
 
   @Test
   public void shouldReturnNullWhenGetDynamicXRegistryAuthIfFailedToRetrieveAuthToken() {
-    doReturn(null)
-        .when(awsEcrAuthResolver)
-        .getAwsAuthorizationToken(AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY);
+    doReturn(null).when(awsEcrAuthResolver).getAwsAuthorizationData(eq(AWS_ECR), any());
 
     assertNull(awsEcrAuthResolver.getXRegistryAuth(AWS_ECR));
   }
@@ -113,18 +132,18 @@ public class AwsEcrAuthResolverTest {
   @Test
   public void
       shouldReturnNullWhenGetDynamicXRegistryAuthIfRetrievedAuthTokenCannotBeDecodedAsBase64() {
-    doReturn("QVdTOmR5SomEvRoNgBaSe64VaLuE+=")
+    doReturn(authorizationData("QVdTOmR5SomEvRoNgBaSe64VaLuE+="))
         .when(awsEcrAuthResolver)
-        .getAwsAuthorizationToken(AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY);
+        .getAwsAuthorizationData(eq(AWS_ECR), any());
 
     assertNull(awsEcrAuthResolver.getXRegistryAuth(AWS_ECR));
   }
 
   @Test
   public void shouldReturnNullWhenGetDynamicXRegistryAuthIfRetrievedAuthTokenHasWrongFormat() {
-    doReturn("J7sLO0KsMwKKy7h1")
+    doReturn(authorizationData("J7sLO0KsMwKKy7h1"))
         .when(awsEcrAuthResolver)
-        .getAwsAuthorizationToken(AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY);
+        .getAwsAuthorizationData(eq(AWS_ECR), any());
 
     assertNull(awsEcrAuthResolver.getXRegistryAuth(AWS_ECR));
   }
@@ -143,8 +162,7 @@ public class AwsEcrAuthResolverTest {
 
     AuthConfig authConfig = awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
 
-    verify(awsEcrAuthResolver, times(1))
-        .getAwsAuthorizationToken(AWS_ACCESS_KEY_ID, AWS_SECRET_ACCESS_KEY);
+    verify(awsEcrAuthResolver, times(1)).getAwsAuthorizationData(eq(AWS_ECR), any());
 
     assertEquals(authConfig.getUsername(), USERNAME);
     assertEquals(authConfig.getPassword(), PASSWORD);
@@ -168,9 +186,9 @@ public class AwsEcrAuthResolverTest {
         "id1234.dkr.ecr.region-1.amazonaws.com",
         new AwsAccountCredentials("id1234", "region-1", "accessKey", "secretKey"));
     when(awsEcrInitialAuthConfig.getAuthConfigs()).thenReturn(configuredCredentials);
-    doReturn("QVdTOmR5bmFtaWNQYXNzd29yZA==")
+    doReturn(authorizationData("QVdTOmR5bmFtaWNQYXNzd29yZA=="))
         .when(awsEcrAuthResolver)
-        .getAwsAuthorizationToken("accessKey", "secretKey");
+        .getAwsAuthorizationData(eq("id1234.dkr.ecr.region-1.amazonaws.com"), any());
 
     Map<String, AuthConfig> authConfigsMap = awsEcrAuthResolver.getXRegistryConfig();
 
@@ -192,7 +210,9 @@ public class AwsEcrAuthResolverTest {
         "id1234.dkr.ecr.region-1.amazonaws.com",
         new AwsAccountCredentials("id1234", "region-1", "accessKey", "secretKey"));
     when(awsEcrInitialAuthConfig.getAuthConfigs()).thenReturn(configuredCredentials);
-    doReturn(null).when(awsEcrAuthResolver).getAwsAuthorizationToken("accessKey", "secretKey");
+    doReturn(null)
+        .when(awsEcrAuthResolver)
+        .getAwsAuthorizationData(eq("id1234.dkr.ecr.region-1.amazonaws.com"), any());
 
     Map<String, AuthConfig> authConfigsMap = awsEcrAuthResolver.getXRegistryConfig();
 
@@ -211,4 +231,135 @@ public class AwsEcrAuthResolverTest {
 
     assertTrue(authConfigsMap.size() == 0);
   }
+
+  @Test
+  public void shouldCacheAuthConfigUntilTokenIsAboutToExpire() {
+    AuthConfig first = awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
+    AuthConfig second = awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
+
+    verify(awsEcrAuthResolver, times(1)).getAwsAuthorizationData(eq(AWS_ECR), any());
+    assertEquals(second, first);
+  }
+
+  @Test
+  public void shouldRefreshTokenWhichIsAboutToExpire() {
+    doReturn(authorizationData(AUTHORIZATION_TOKEN, REFRESH_BEFORE_EXPIRATION_MS / 2))
+        .when(awsEcrAuthResolver)
+        .getAwsAuthorizationData(eq(AWS_ECR), any());
+
+    awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
+    AuthConfig authConfig = awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
+
+    verify(awsEcrAuthResolver, times(2)).getAwsAuthorizationData(eq(AWS_ECR), any());
+    assertEquals(authConfig.getPassword(), PASSWORD);
+  }
+
+  @Test
+  public void shouldUseCachedTokenIfItIsNotExpiredAndRefreshFails() {
+    doReturn(authorizationData(AUTHORIZATION_TOKEN, REFRESH_BEFORE_EXPIRATION_MS / 2))
+        .when(awsEcrAuthResolver)
+        .getAwsAuthorizationData(eq(AWS_ECR), any());
+    awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
+    doReturn(null).when(awsEcrAuthResolver).getAwsAuthorizationData(eq(AWS_ECR), any());
+
+    AuthConfig authConfig = awsEcrAuthResolver.getXRegistryAuth(AWS_ECR);
+
+    assertEquals(authConfig.getUsername(), USERNAME);
+    assertEquals(authConfig.getPassword(), PASSWORD);
+  }
+
+  @Test
+  public void shouldNotUseExpiredTokenIfRefreshFails() {
+    doReturn(authorizationData(AUTHORIZATION_TOKEN, -1))
+        .when(awsEcrAuthResolver)
+        .getAwsAuthorizationData(eq(AWS_ECR), any());
+    assertNotNull(awsEcrAuthResolver.getXRegistryAuth(AWS_ECR));
+    doReturn(null).when(awsEcrAuthResolver).getAwsAuthorizationData(eq(AWS_ECR), any());
+
+    assertNull(awsEcrAuthResolver.getXRegistryAuth(AWS_ECR));
+  }
+
+  @Test(timeOut = 30_000)
+  public void shouldRequestTokenFromEcrOnceForConcurrentCallers() throws Exception {
+    AtomicInteger tokenRequests = new AtomicInteger();
+    HttpServer fakeEcr = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    fakeEcr.createContext(
+        "/",
+        exchange -> {
+          tokenRequests.incrementAndGet();
+          try {
+            // give concurrent callers time to pile up
+            Thread.sleep(200);
+          } catch (InterruptedException ignored) {
+          }
+          byte[] body =
+              ("{\"authorizationData\":[{\"authorizationToken\":\""
+                      + AUTHORIZATION_TOKEN
+                      + "\",\"expiresAt\":"
+                      + TimeUnit.MILLISECONDS.toSeconds(
+                          System.currentTimeMillis() + TimeUnit.HOURS.toMillis(12))
+                      + ",\"proxyEndpoint\":\"https://"
+                      + AWS_ECR
+                      + "\"}]}")
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "application/x-amz-json-1.1");
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+          exchange.close();
+        });
+    fakeEcr.start();
+    AtomicInteger createdClients = new AtomicInteger();
+    AwsEcrAuthResolver resolver =
+        new AwsEcrAuthResolver(awsEcrInitialAuthConfig) {
+          @Override
+          AmazonECR createEcrClient(AwsAccountCredentials awsAccountCredentials) {
+            createdClients.incrementAndGet();
+            AmazonECRClient client =
+                new AmazonECRClient(
+                    new BasicAWSCredentials(
+                        awsAccountCredentials.getAccessKeyId(),
+                        awsAccountCredentials.getSecretAccessKey()));
+            client.setEndpoint("http://localhost:" + fakeEcr.getAddress().getPort());
+            return client;
+          }
+        };
+    ExecutorService executor = Executors.newFixedThreadPool(10);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<AuthConfig>> results = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        Callable<AuthConfig> getAuth =
+            () -> {
+              start.await();
+              return resolver.getXRegistryAuth(AWS_ECR);
+            };
+        results.add(executor.submit(getAuth));
+      }
+      start.countDown();
+
+      for (Future<AuthConfig> result : results) {
+        AuthConfig authConfig = result.get();
+        assertEquals(authConfig.getUsername(), USERNAME);
+        assertEquals(authConfig.getPassword(), PASSWORD);
+      }
+      resolver.getXRegistryConfig();
+      assertEquals(tokenRequests.get(), 1);
+      assertEquals(createdClients.get(), 1);
+    } finally {
+      executor.shutdownNow();
+      resolver.shutdown();
+      fakeEcr.stop(0);
+    }
+  }
+
+  private static AuthorizationData authorizationData(String token) {
+    return authorizationData(token, TimeUnit.HOURS.toMillis(12));
+  }
+
+  private static AuthorizationData authorizationData(String token, long expiresInMs) {
+    return new AuthorizationData()
+        .withAuthorizationToken(token)
+        .withExpiresAt(new Date(System.currentTimeMillis() + expiresInMs))
+        .withProxyEndpoint("https://" + AWS_ECR);
+  }
 }
@@ -19,12 +19,17 @@ import static java.util.Collections.singletonMap;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codenvy.swarm.client.SwarmWorkaroundRetrier;
 import org.eclipse.che.api.core.ServerException;
 import org.eclipse.che.api.core.jsonrpc.commons.RequestTransmitter;
 import org.eclipse.che.api.core.util.JsonRpcEndpointToMachineNameHolder;
@@ -39,6 +44,7 @@ import org.eclipse.che.plugin.docker.client.DockerConnector;
 import org.eclipse.che.plugin.docker.client.DockerConnectorConfiguration;
 import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
 import org.eclipse.che.plugin.docker.client.UserSpecificDockerRegistryCredentialsProvider;
+import org.eclipse.che.plugin.docker.client.dto.AuthConfigs;
 import org.eclipse.che.plugin.docker.client.exception.ContainerNotFoundException;
 import org.eclipse.che.plugin.docker.client.exception.DockerException;
 import org.eclipse.che.plugin.docker.client.exception.ImageNotFoundException;
@@ -83,6 +89,7 @@ public class HostedMachineProviderImplTest {
   @Mock private RecipeRetriever recipeRetriever;
   @Mock private MachineTokenRegistry machineTokenRegistry;
   @Mock private SecurityOptProvider securityOptProvider;
+  @Mock private ImagePrewarmer imagePrewarmer;
 
   private WindowsPathEscaper windowsPathEscaper = new WindowsPathEscaper();
 
@@ -98,9 +105,6 @@ public class HostedMachineProviderImplTest {
 
   @BeforeMethod
   public void setUp() throws Exception {
-    // let tests pass faster
-    HostedMachineProviderImpl.SWARM_WAIT_BEFORE_REPEAT_WORKAROUND_TIME_MS = 10;
-
     when(dockerConnectorProviderMock.get()).thenReturn(dockerConnector);
     when(dockerConnectorConfiguration.getDockerHostIp()).thenReturn("123.123.123.123");
 
@@ -150,7 +154,11 @@ public class HostedMachineProviderImplTest {
             0,
             emptySet(),
             null,
-            emptyMap());
+            emptyMap(),
+            imagePrewarmer,
+            // let tests pass faster
+            new SwarmWorkaroundRetrier(new MetricRegistry(), 1, 10, 1000),
+            new MachineImageBuildCoalescer(dockerConnector, 0, 60_000));
   }
 
   @Test
@@ -168,6 +176,31 @@ public class HostedMachineProviderImplTest {
         MAINTENANCE_CONSTRAINT_VALUE);
   }
 
+  @Test
+  public void shouldCountBaseImageForPrewarmer() throws Exception {
+    createInstanceFromRecipe();
+
+    verify(imagePrewarmer).imageUsed("image");
+  }
+
+  @Test
+  public void shouldNotCountBaseImageOfStartWithCredentialsOfUser() throws Exception {
+    when(credentialsReader.getCredentials()).thenReturn(mock(AuthConfigs.class));
+
+    createInstanceFromRecipe();
+
+    verify(imagePrewarmer, never()).imageUsed(anyString());
+  }
+
+  @Test
+  public void shouldFindBaseImageOfDockerfile() throws Exception {
+    assertEquals(
+        HostedMachineProviderImpl.getBaseImage("# comment\nfrom codenvy/ubuntu_jdk8\nRUN ls"),
+        "codenvy/ubuntu_jdk8");
+    assertNull(HostedMachineProviderImpl.getBaseImage("ARG IMAGE\nFROM ${IMAGE}"));
+    assertNull(HostedMachineProviderImpl.getBaseImage("RUN ls"));
+  }
+
   @Test
   public void shouldAddCpuConsumptionLimitsWhenBuildImage() throws Exception {
     // given
@@ -205,7 +238,11 @@ public class HostedMachineProviderImplTest {
             cpuQuota,
             emptySet(),
             null,
-            emptyMap());
+            emptyMap(),
+            imagePrewarmer,
+            // let tests pass faster
+            new SwarmWorkaroundRetrier(new MetricRegistry(), 1, 10, 1000),
+            new MachineImageBuildCoalescer(dockerConnector, 0, 60_000));
 
     // when
     createInstanceFromRecipe();
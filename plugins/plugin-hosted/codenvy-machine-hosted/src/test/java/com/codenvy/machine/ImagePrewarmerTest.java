@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.codenvy.machine.ImageWarmStatus.State;
+import com.codenvy.swarm.client.SwarmDockerConnector;
+import com.codenvy.swarm.client.model.DockerNode;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
+import org.eclipse.che.plugin.docker.client.ProgressMonitor;
+import org.eclipse.che.plugin.docker.client.params.PullParams;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Tests {@link ImagePrewarmer}. */
+@Listeners(MockitoTestNGListener.class)
+public class ImagePrewarmerTest {
+  private static final String STACK_IMAGE = "codenvy/ubuntu_jdk8";
+  private static final String OTHER_IMAGE = "codenvy/node";
+
+  private static final DockerNode NODE1 = new DockerNode("node1", "10.0.0.1:2375", 5, 0, 0);
+  private static final DockerNode NODE2 = new DockerNode("node2", "10.0.0.2:2375", 1, 0, 0);
+
+  @Mock private DockerConnectorProvider dockerConnectorProvider;
+  @Mock private SwarmDockerConnector docker;
+
+  private ImagePrewarmer prewarmer;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    when(dockerConnectorProvider.get()).thenReturn(docker);
+    when(docker.getAvailableNodes()).thenReturn(asList(NODE1, NODE2));
+    prewarmer = new ImagePrewarmer(dockerConnectorProvider, true, 1, 1);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    prewarmer.shutdown();
+  }
+
+  @Test
+  public void shouldPullMostUsedImagesOntoEveryNode() throws Exception {
+    prewarmer.imageUsed(STACK_IMAGE);
+    prewarmer.imageUsed(STACK_IMAGE);
+    prewarmer.imageUsed(OTHER_IMAGE);
+
+    prewarmer.prewarm();
+    awaitPulls();
+
+    verify(docker).pull(argThat(image(STACK_IMAGE)), eq(NODE1), any(ProgressMonitor.class));
+    verify(docker).pull(argThat(image(STACK_IMAGE)), eq(NODE2), any(ProgressMonitor.class));
+    verify(docker, never())
+        .pull(argThat(image(OTHER_IMAGE)), any(DockerNode.class), any(ProgressMonitor.class));
+    assertEquals(prewarmer.getStatus("node1").get(0).getState(), State.WARM);
+    assertEquals(prewarmer.getWarmNodesCount(), 2);
+  }
+
+  @Test
+  public void shouldSkipNodeWithoutDiskSpace() throws Exception {
+    prewarmer = new ImagePrewarmer(dockerConnectorProvider, true, 2, 1);
+    prewarmer.imageUsed(STACK_IMAGE);
+    prewarmer.imageUsed(STACK_IMAGE);
+    prewarmer.imageUsed(OTHER_IMAGE);
+    doThrow(new IOException("write /var/lib/docker/tmp: no space left on device"))
+        .when(docker)
+        .pull(any(PullParams.class), eq(NODE1), any(ProgressMonitor.class));
+
+    prewarmer.prewarm();
+    awaitPulls();
+    prewarmer.prewarm();
+    awaitPulls();
+
+    verify(docker, times(1)).pull(any(PullParams.class), eq(NODE1), any(ProgressMonitor.class));
+    verify(docker, times(4)).pull(any(PullParams.class), eq(NODE2), any(ProgressMonitor.class));
+    assertEquals(prewarmer.getStatus("node1").get(0).getState(), State.FAILED);
+    assertEquals(prewarmer.getFailedPullsCount(), 1);
+  }
+
+  @Test
+  public void shouldSkipImageWhichCanNotBeAccessed() throws Exception {
+    prewarmer.imageUsed(STACK_IMAGE);
+    prewarmer.imageUsed(STACK_IMAGE);
+    doThrow(new IOException("unauthorized: authentication required"))
+        .when(docker)
+        .pull(any(PullParams.class), eq(NODE2), any(ProgressMonitor.class));
+
+    prewarmer.prewarm();
+    awaitPulls();
+    prewarmer.prewarm();
+    awaitPulls();
+
+    verify(docker).pull(any(PullParams.class), eq(NODE2), any(ProgressMonitor.class));
+    verify(docker, never()).pull(any(PullParams.class), eq(NODE1), any(ProgressMonitor.class));
+    assertEquals(prewarmer.getStatus("node2").get(0).getState(), State.FAILED);
+    assertEquals(prewarmer.getFailedPullsCount(), 1);
+  }
+
+  @Test
+  public void shouldSkipRunWhilePullsOfPreviousRunAreInProgress() throws Exception {
+    final CountDownLatch finishPull = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              finishPull.await(10, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(docker)
+        .pull(any(PullParams.class), eq(NODE1), any(ProgressMonitor.class));
+    prewarmer.imageUsed(STACK_IMAGE);
+
+    prewarmer.prewarm();
+    assertTrue(prewarmer.getPendingPullsCount() > 0);
+    prewarmer.prewarm();
+    finishPull.countDown();
+    awaitPulls();
+
+    verify(docker).pull(any(PullParams.class), eq(NODE1), any(ProgressMonitor.class));
+    verify(docker).pull(any(PullParams.class), eq(NODE2), any(ProgressMonitor.class));
+  }
+
+  @Test
+  public void shouldForgetImagesWhichAreNotUsedAnymore() throws Exception {
+    prewarmer.imageUsed(STACK_IMAGE);
+
+    for (int i = 0; i < 4; i++) {
+      prewarmer.prewarm();
+      awaitPulls();
+    }
+
+    assertTrue(prewarmer.getPopularImages().isEmpty());
+    prewarmer.prewarm();
+    awaitPulls();
+    verify(docker, times(8))
+        .pull(any(PullParams.class), any(DockerNode.class), any(ProgressMonitor.class));
+    assertTrue(prewarmer.getStatus("node1").isEmpty());
+  }
+
+  @Test
+  public void shouldNotPullImagesIfDisabled() throws Exception {
+    prewarmer = new ImagePrewarmer(dockerConnectorProvider, false, 1, 1);
+    prewarmer.imageUsed(STACK_IMAGE);
+
+    prewarmer.prewarm();
+
+    verify(docker, never())
+        .pull(any(PullParams.class), any(DockerNode.class), any(ProgressMonitor.class));
+  }
+
+  @Test
+  public void shouldSplitImageIntoPullParams() {
+    PullParams params = ImagePrewarmer.toPullParams(STACK_IMAGE);
+    assertNull(params.getRegistry());
+    assertEquals(params.getImage(), STACK_IMAGE);
+    assertEquals(params.getTag(), "latest");
+
+    params = ImagePrewarmer.toPullParams("registry.io:5000/codenvy/node:1.0");
+    assertEquals(params.getRegistry(), "registry.io:5000");
+    assertEquals(params.getImage(), "codenvy/node");
+    assertEquals(params.getTag(), "1.0");
+
+    params = ImagePrewarmer.toPullParams("ubuntu@sha256:abc");
+    assertEquals(params.getImage(), "ubuntu@sha256:abc");
+    assertNull(params.getTag());
+  }
+
+  private void awaitPulls() throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (prewarmer.getPendingPullsCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(prewarmer.getPendingPullsCount(), 0);
+  }
+
+  private static ArgumentMatcher<PullParams> image(String image) {
+    return new ArgumentMatcher<PullParams>() {
+      @Override
+      public boolean matches(Object argument) {
+        return image.equals(((PullParams) argument).getImage());
+      }
+    };
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.ProgressMonitor;
+import org.eclipse.che.plugin.docker.client.json.ProgressStatus;
+import org.eclipse.che.plugin.docker.client.params.TagParams;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Tests {@link MachineImageBuildCoalescer}. */
+@Listeners(MockitoTestNGListener.class)
+public class MachineImageBuildCoalescerTest {
+  private static final String RECIPE_KEY = "recipe";
+  private static final long BUILD_TIMEOUT_MS = 500;
+
+  @Mock private DockerConnector docker;
+
+  private MachineImageBuildCoalescer coalescer;
+  private ExecutorService executor;
+  private AtomicInteger builds;
+
+  @BeforeMethod
+  public void setUp() {
+    coalescer = new MachineImageBuildCoalescer(docker, 60, BUILD_TIMEOUT_MS);
+    executor = Executors.newCachedThreadPool();
+    builds = new AtomicInteger();
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldShareConcurrentBuildOfSameRecipeAndItsProgress() throws Exception {
+    final ProgressStatus started = mock(ProgressStatus.class);
+    final ProgressStatus finished = mock(ProgressStatus.class);
+    final CountDownLatch buildStarted = new CountDownLatch(1);
+    final CountDownLatch waiterJoined = new CountDownLatch(1);
+    final CountDownLatch finishBuild = new CountDownLatch(1);
+    final ProgressMonitor leaderMonitor = mock(ProgressMonitor.class);
+    final List<ProgressStatus> waiterStatuses = new CopyOnWriteArrayList<>();
+    final ProgressMonitor waiterMonitor =
+        status -> {
+          waiterStatuses.add(status);
+          waiterJoined.countDown();
+        };
+
+    final Future<?> leader =
+        executor.submit(
+            () -> {
+              coalescer.build(
+                  RECIPE_KEY,
+                  "machine_1",
+                  leaderMonitor,
+                  monitor -> {
+                    count();
+                    monitor.updateProgress(started);
+                    buildStarted.countDown();
+                    await(finishBuild);
+                    monitor.updateProgress(finished);
+                  });
+              return null;
+            });
+    assertTrue(buildStarted.await(10, TimeUnit.SECONDS));
+    final Future<?> waiter =
+        executor.submit(
+            () -> {
+              coalescer.build(RECIPE_KEY, "machine_2", waiterMonitor, monitor -> fail());
+              return null;
+            });
+    // joined start gets the last progress of the build right away
+    assertTrue(waiterJoined.await(10, TimeUnit.SECONDS));
+    finishBuild.countDown();
+    leader.get(10, TimeUnit.SECONDS);
+    waiter.get(10, TimeUnit.SECONDS);
+
+    assertEquals(builds.get(), 1);
+    verify(leaderMonitor).updateProgress(started);
+    verify(leaderMonitor).updateProgress(finished);
+    assertEquals(waiterStatuses, asList(started, finished));
+    verify(docker).tag(any(TagParams.class));
+    assertEquals(coalescer.getPerformedBuildsCount(), 1);
+    assertEquals(coalescer.getSharedBuildsCount(), 1);
+  }
+
+  @Test
+  public void shouldBuildImageSeparatelyIfSharedBuildTimesOut() throws Exception {
+    final CountDownLatch buildStarted = new CountDownLatch(1);
+    final CountDownLatch finishBuild = new CountDownLatch(1);
+    final Future<?> leader =
+        executor.submit(
+            () -> {
+              coalescer.build(
+                  RECIPE_KEY,
+                  "machine_1",
+                  ProgressMonitor.DEV_NULL,
+                  monitor -> {
+                    count();
+                    buildStarted.countDown();
+                    await(finishBuild);
+                  });
+              return null;
+            });
+    assertTrue(buildStarted.await(10, TimeUnit.SECONDS));
+
+    coalescer.build(RECIPE_KEY, "machine_2", ProgressMonitor.DEV_NULL, monitor -> count());
+
+    assertEquals(builds.get(), 2);
+    finishBuild.countDown();
+    leader.get(10, TimeUnit.SECONDS);
+    verify(docker, never()).tag(any(TagParams.class));
+    assertEquals(coalescer.getPerformedBuildsCount(), 2);
+    assertEquals(coalescer.getSharedBuildsCount(), 0);
+  }
+
+  @Test
+  public void shouldTagRecentlyBuiltImage() throws Exception {
+    coalescer.build(RECIPE_KEY, "machine_1", ProgressMonitor.DEV_NULL, monitor -> count());
+
+    coalescer.build(RECIPE_KEY, "machine_2", ProgressMonitor.DEV_NULL, monitor -> count());
+
+    assertEquals(builds.get(), 1);
+    verify(docker).tag(any(TagParams.class));
+  }
+
+  @Test
+  public void shouldBuildImageIfRecentlyBuiltImageCanNotBeTagged() throws Exception {
+    doThrow(new IOException("No such image")).when(docker).tag(any(TagParams.class));
+    coalescer.build(RECIPE_KEY, "machine_1", ProgressMonitor.DEV_NULL, monitor -> count());
+
+    coalescer.build(RECIPE_KEY, "machine_2", ProgressMonitor.DEV_NULL, monitor -> count());
+
+    assertEquals(builds.get(), 2);
+  }
+
+  @Test
+  public void shouldNotShareBuildsOfDifferentRecipes() throws Exception {
+    coalescer.build(RECIPE_KEY, "machine_1", ProgressMonitor.DEV_NULL, monitor -> count());
+
+    coalescer.build("other", "machine_2", ProgressMonitor.DEV_NULL, monitor -> count());
+
+    assertEquals(builds.get(), 2);
+    verify(docker, never()).tag(any(TagParams.class));
+  }
+
+  private void count() {
+    builds.incrementAndGet();
+  }
+
+  private static void await(CountDownLatch latch) throws IOException {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.codenvy.machine.backup.WorkspaceIdHashLocationFinder;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.che.api.core.ConflictException;
+import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.model.machine.MachineStatus;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.machine.server.model.impl.MachineImpl;
+import org.eclipse.che.api.machine.server.spi.Instance;
+import org.eclipse.che.api.machine.server.spi.InstanceNode;
+import org.eclipse.che.api.workspace.server.WorkspaceManager;
+import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
+import org.eclipse.che.api.workspace.server.model.impl.WorkspaceImpl;
+import org.eclipse.che.api.workspace.server.model.impl.WorkspaceRuntimeImpl;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Tests {@link NodeDrainer}. */
+@Listeners(MockitoTestNGListener.class)
+public class NodeDrainerTest {
+  private static final String NODE_HOST = "node1";
+  private static final String OTHER_NODE_HOST = "node2";
+
+  @Mock private WorkspaceRuntimes workspaceRuntimes;
+  @Mock private WorkspaceManager workspaceManager;
+
+  private File backupsRoot;
+  private WorkspaceIdHashLocationFinder locationFinder;
+  private Set<String> ids;
+  private Map<String, AtomicReference<WorkspaceStatus>> statuses;
+  private List<String> stopOrder;
+  private NodeDrainer drainer;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    backupsRoot = Files.createTempDirectory("backups").toFile();
+    locationFinder = new WorkspaceIdHashLocationFinder();
+    ids = new LinkedHashSet<>();
+    statuses = new HashMap<>();
+    stopOrder = Collections.synchronizedList(new ArrayList<>());
+    when(workspaceRuntimes.getRuntimesIds()).thenReturn(ids);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (drainer != null) {
+      drainer.shutdown();
+    }
+    IoUtil.deleteRecursive(backupsRoot);
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldStopWorkspacesOfTheNodeStartingFromTheLargestBackup() throws Exception {
+    drainer = createDrainer(1, 10);
+    addWorkspace("ws1", NODE_HOST, 10);
+    addWorkspace("ws2", NODE_HOST, 30);
+    addWorkspace("ws3", OTHER_NODE_HOST, 40);
+    addWorkspace("ws4", NODE_HOST, 20);
+    stopImmediately();
+
+    DrainProgress started = drainer.drain(NODE_HOST);
+
+    assertEquals(started.getTotalWorkspaces(), 3);
+    DrainProgress progress = awaitFinish(NODE_HOST);
+    assertEquals(stopOrder, Arrays.asList("ws2", "ws4", "ws1"));
+    verify(workspaceManager, never()).stopWorkspace("ws3");
+    assertEquals(progress.getStoppedWorkspaces(), 3);
+    assertEquals(progress.getFailedWorkspaces(), 0);
+    assertEquals(progress.getTotalBytes(), 60);
+    assertEquals(progress.getStoppedBytes(), 60);
+    assertTrue(progress.getEstimatedCompletionAt() >= progress.getStartedAt());
+    assertTrue(progress.getEstimatedCompletionAt() <= progress.getDeadline());
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldNotStopMoreWorkspacesAtOnceThanConfigured() throws Exception {
+    drainer = createDrainer(2, 10);
+    for (int i = 0; i < 6; i++) {
+      addWorkspace("ws" + i, NODE_HOST, i);
+    }
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger maxActive = new AtomicInteger();
+    doAnswer(
+            invocation -> {
+              String workspaceId = (String) invocation.getArguments()[0];
+              maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+              TimeUnit.MILLISECONDS.sleep(100);
+              active.decrementAndGet();
+              statuses.get(workspaceId).set(WorkspaceStatus.STOPPED);
+              return null;
+            })
+        .when(workspaceManager)
+        .stopWorkspace(anyString());
+
+    drainer.drain(NODE_HOST);
+
+    DrainProgress progress = awaitFinish(NODE_HOST);
+    assertEquals(progress.getStoppedWorkspaces(), 6);
+    assertEquals(maxActive.get(), 2);
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldReportWorkspaceWhichIsNotStoppedWithinTimeoutAsFailed() throws Exception {
+    drainer = createDrainer(2, 1);
+    addWorkspace("ws1", NODE_HOST, 10);
+    addWorkspace("ws2", NODE_HOST, 20);
+    doAnswer(
+            invocation -> {
+              String workspaceId = (String) invocation.getArguments()[0];
+              if ("ws1".equals(workspaceId)) {
+                statuses.get(workspaceId).set(WorkspaceStatus.STOPPED);
+              } else {
+                statuses.get(workspaceId).set(WorkspaceStatus.STOPPING);
+              }
+              return null;
+            })
+        .when(workspaceManager)
+        .stopWorkspace(anyString());
+
+    drainer.drain(NODE_HOST);
+
+    DrainProgress progress = awaitFinish(NODE_HOST);
+    assertEquals(progress.getStoppedWorkspaces(), 1);
+    assertEquals(progress.getFailedWorkspaces(), 1);
+    assertEquals(progress.getStoppedBytes(), 10);
+  }
+
+  @Test(timeOut = 10_000, expectedExceptions = ConflictException.class)
+  public void shouldRejectDrainOfTheNodeWhichIsBeingDrained() throws Exception {
+    drainer = createDrainer(1, 10);
+    addWorkspace("ws1", NODE_HOST, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              release.await();
+              statuses.get("ws1").set(WorkspaceStatus.STOPPED);
+              return null;
+            })
+        .when(workspaceManager)
+        .stopWorkspace("ws1");
+    drainer.drain(NODE_HOST);
+
+    try {
+      drainer.drain(NODE_HOST);
+    } finally {
+      release.countDown();
+      awaitFinish(NODE_HOST);
+      // the node can be drained again once the previous drain is finished
+      assertEquals(drainer.drain(NODE_HOST).getTotalWorkspaces(), 0);
+    }
+  }
+
+  @Test(expectedExceptions = NotFoundException.class)
+  public void shouldThrowNotFoundExceptionOnGettingProgressOfNodeWhichWasNotDrained()
+      throws Exception {
+    drainer = createDrainer(1, 10);
+
+    drainer.getProgress(NODE_HOST);
+  }
+
+  private NodeDrainer createDrainer(int maxParallelStops, long stopTimeoutSec) {
+    return new NodeDrainer(
+        workspaceRuntimes,
+        workspaceManager,
+        backupsRoot,
+        locationFinder,
+        maxParallelStops,
+        stopTimeoutSec);
+  }
+
+  private void stopImmediately() throws Exception {
+    doAnswer(
+            invocation -> {
+              String workspaceId = (String) invocation.getArguments()[0];
+              stopOrder.add(workspaceId);
+              statuses.get(workspaceId).set(WorkspaceStatus.STOPPED);
+              return null;
+            })
+        .when(workspaceManager)
+        .stopWorkspace(anyString());
+  }
+
+  private void addWorkspace(String wsId, String nodeHost, int backupSize) throws Exception {
+    WorkspaceImpl workspace = mock(WorkspaceImpl.class);
+    WorkspaceRuntimeImpl workspaceRuntime = mock(WorkspaceRuntimeImpl.class);
+    MachineImpl devMachine = mock(MachineImpl.class);
+    Instance devMachineInstance = mock(Instance.class);
+    InstanceNode node = mock(InstanceNode.class);
+    when(workspaceRuntime.getDevMachine()).thenReturn(devMachine);
+    when(devMachine.getId()).thenReturn(wsId + "-dev-machine");
+    when(devMachine.getStatus()).thenReturn(MachineStatus.RUNNING);
+    when(workspaceManager.getMachineInstance(wsId, wsId + "-dev-machine"))
+        .thenReturn(devMachineInstance);
+    when(devMachineInstance.getNode()).thenReturn(node);
+    when(node.getHost()).thenReturn(nodeHost);
+
+    AtomicReference<WorkspaceStatus> status = new AtomicReference<>(WorkspaceStatus.RUNNING);
+    statuses.put(wsId, status);
+    when(workspaceManager.getWorkspace(wsId)).thenReturn(workspace);
+    when(workspace.getRuntime()).thenReturn(workspaceRuntime);
+    when(workspace.getStatus()).thenAnswer(invocation -> status.get());
+
+    Path backupDir = locationFinder.calculateDirPath(backupsRoot, wsId).toPath();
+    Files.createDirectories(backupDir.resolve("project"));
+    Files.write(backupDir.resolve("project/file"), new byte[backupSize]);
+
+    ids.add(wsId);
+  }
+
+  /** Waits until the drain is finished, test timeout limits the waiting. */
+  private DrainProgress awaitFinish(String nodeHost) throws Exception {
+    DrainProgress progress = drainer.getProgress(nodeHost);
+    while (progress.isInProgress()) {
+      TimeUnit.MILLISECONDS.sleep(10);
+      progress = drainer.getProgress(nodeHost);
+    }
+    return progress;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static org.testng.Assert.assertEquals;
+
+import com.codahale.metrics.MetricRegistry;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link BackupBandwidthLimiter}. */
+public class BackupBandwidthLimiterTest {
+  private static final String NODE1 = "192.168.0.1";
+  private static final String NODE2 = "192.168.0.2";
+
+  private MetricRegistry registry;
+  private BackupMetrics metrics;
+
+  @BeforeMethod
+  public void setUp() {
+    registry = new MetricRegistry();
+    metrics = new BackupMetrics(registry);
+  }
+
+  @Test
+  public void shouldNotLimitBandwidthByDefault() throws Exception {
+    BackupBandwidthLimiter limiter = new BackupBandwidthLimiter(0, 0, metrics);
+
+    try (BackupBandwidthLimiter.Transfer transfer = limiter.start(NODE1, false)) {
+      transfer.acquire(Long.MAX_VALUE / 2);
+
+      assertEquals(transfer.getShareKibps(), 0);
+    }
+    assertEquals(registry.timer("machine.backup.throttle_wait").getCount(), 0);
+  }
+
+  @Test
+  public void shouldShareBudgetsBetweenTransfers() throws Exception {
+    BackupBandwidthLimiter limiter = new BackupBandwidthLimiter(1000, 3000, metrics);
+
+    try (BackupBandwidthLimiter.Transfer first = limiter.start(NODE1, false);
+        BackupBandwidthLimiter.Transfer second = limiter.start(NODE1, false);
+        BackupBandwidthLimiter.Transfer third = limiter.start(NODE2, false);
+        BackupBandwidthLimiter.Transfer fourth = limiter.start(NODE2, false)) {
+      assertEquals(first.getShareKibps(), 1000);
+      assertEquals(second.getShareKibps(), 500);
+      assertEquals(third.getShareKibps(), 1000);
+      assertEquals(fourth.getShareKibps(), 500);
+    }
+    try (BackupBandwidthLimiter.Transfer transfer = limiter.start(NODE1, false)) {
+      assertEquals(transfer.getShareKibps(), 1000);
+    }
+  }
+
+  @Test
+  public void shouldNotLimitShareOfInteractiveTransfer() throws Exception {
+    BackupBandwidthLimiter limiter = new BackupBandwidthLimiter(1000, 0, metrics);
+
+    try (BackupBandwidthLimiter.Transfer transfer = limiter.start(NODE1, true)) {
+      assertEquals(transfer.getShareKibps(), 0);
+    }
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldDelayBackgroundTransferWhichExceedsBudget() throws Exception {
+    BackupBandwidthLimiter limiter = new BackupBandwidthLimiter(1000, 0, metrics);
+
+    try (BackupBandwidthLimiter.Transfer transfer = limiter.start(NODE1, false)) {
+      // one second burst plus 10 milliseconds of transfer
+      transfer.acquire(1000 * 1024 + 10 * 1024);
+    }
+
+    assertEquals(registry.timer("machine.backup.throttle_wait").getCount(), 1);
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldNotDelayInteractiveTransferButDelayBackgroundOnesOfTheSameNode()
+      throws Exception {
+    BackupBandwidthLimiter limiter = new BackupBandwidthLimiter(1000, 0, metrics);
+
+    try (BackupBandwidthLimiter.Transfer restore = limiter.start(NODE1, true)) {
+      restore.acquire(1000 * 1024 + 10 * 1024);
+    }
+    assertEquals(registry.timer("machine.backup.throttle_wait").getCount(), 0);
+
+    try (BackupBandwidthLimiter.Transfer backup = limiter.start(NODE2, false)) {
+      backup.acquire(1024);
+    }
+    assertEquals(registry.timer("machine.backup.throttle_wait").getCount(), 0);
+
+    try (BackupBandwidthLimiter.Transfer backup = limiter.start(NODE1, false)) {
+      backup.acquire(1024);
+    }
+    assertEquals(registry.timer("machine.backup.throttle_wait").getCount(), 1);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static com.codenvy.machine.backup.WorkspaceIdHashLocationFinderTest.findWorkspaceOfVolume;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import org.eclipse.che.api.core.NotFoundException;
+import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.workspace.server.WorkspaceManager;
+import org.eclipse.che.api.workspace.server.model.impl.WorkspaceImpl;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Tests {@link BackupStorageRebalancer}. */
+@Listeners(MockitoTestNGListener.class)
+public class BackupStorageRebalancerTest {
+
+  @Mock private WorkspaceManager workspaceManager;
+
+  private Path root;
+  private File primary;
+  private File volume;
+  private WorkspaceIdHashLocationFinder finder;
+  private BackupStorageRebalancer rebalancer;
+  private String workspaceId;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("volumes");
+    primary = root.resolve("primary").toFile();
+    volume = root.resolve("volume").toFile();
+    finder = new WorkspaceIdHashLocationFinder(new String[] {volume.getPath()});
+    rebalancer = new BackupStorageRebalancer(primary, finder, workspaceManager);
+    workspaceId = findWorkspaceOfVolume(finder, primary, volume);
+    mockWorkspaceStatus(WorkspaceStatus.STOPPED);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    IoUtil.deleteRecursive(root.toFile());
+  }
+
+  @Test
+  public void shouldMoveBackupOfStoppedWorkspaceToItsVolume() throws Exception {
+    Path source = createBackup(primary);
+
+    rebalancer.rebalance();
+
+    Path target = volume.toPath().resolve(finder.calculateRelativePath(workspaceId));
+    assertFalse(Files.exists(source));
+    assertFalse(Files.exists(BackupFingerprintStore.getFingerprintFile(source.toFile())));
+    assertEquals(
+        new String(Files.readAllBytes(target.resolve("app/pom.xml")), UTF_8), "<project/>");
+    assertEquals(
+        Files.getLastModifiedTime(target.resolve("app/pom.xml")), FileTime.fromMillis(1_000_000));
+    assertEquals(Files.readSymbolicLink(target.resolve("link")), Paths.get("app/pom.xml"));
+    assertEquals(
+        new String(
+            Files.readAllBytes(BackupFingerprintStore.getFingerprintFile(target.toFile())), UTF_8),
+        "fingerprint");
+    assertEquals(finder.calculateDirPath(primary, workspaceId), target.toFile());
+    assertEquals(rebalancer.getMovedBackupsCount(), 1);
+    assertEquals(rebalancer.getMisplacedBackupsCount(), 0);
+  }
+
+  @Test
+  public void shouldNotMoveBackupOfRunningWorkspace() throws Exception {
+    mockWorkspaceStatus(WorkspaceStatus.RUNNING);
+    Path source = createBackup(primary);
+
+    rebalancer.rebalance();
+
+    assertTrue(Files.exists(source.resolve("app/pom.xml")));
+    assertEquals(finder.calculateDirPath(primary, workspaceId), source.toFile());
+    assertEquals(rebalancer.getMovedBackupsCount(), 0);
+    assertEquals(rebalancer.getMisplacedBackupsCount(), 1);
+  }
+
+  @Test
+  public void shouldNotMoveBackupOfRemovedWorkspace() throws Exception {
+    when(workspaceManager.getWorkspace(anyString())).thenThrow(new NotFoundException("removed"));
+    Path source = createBackup(primary);
+
+    rebalancer.rebalance();
+
+    assertTrue(Files.exists(source.resolve("app/pom.xml")));
+  }
+
+  @Test
+  public void shouldRemoveStaleCopyOfMovedBackup() throws Exception {
+    Path source = createBackup(primary);
+    Path target = createBackup(volume);
+
+    rebalancer.rebalance();
+
+    assertFalse(Files.exists(source));
+    assertTrue(Files.exists(target.resolve("app/pom.xml")));
+  }
+
+  @Test
+  public void shouldNotTouchBackupsOnTheirVolumes() throws Exception {
+    Path target = createBackup(volume);
+
+    rebalancer.rebalance();
+
+    assertTrue(Files.exists(target.resolve("app/pom.xml")));
+    assertEquals(rebalancer.getMovedBackupsCount(), 0);
+  }
+
+  private Path createBackup(File volume) throws Exception {
+    Path backup = volume.toPath().resolve(finder.calculateRelativePath(workspaceId));
+    Files.createDirectories(backup.resolve("app"));
+    Path pom = Files.write(backup.resolve("app/pom.xml"), "<project/>".getBytes(UTF_8));
+    Files.setLastModifiedTime(pom, FileTime.fromMillis(1_000_000));
+    Files.createSymbolicLink(backup.resolve("link"), Paths.get("app/pom.xml"));
+    Files.write(
+        BackupFingerprintStore.getFingerprintFile(backup.toFile()), "fingerprint".getBytes(UTF_8));
+    return backup;
+  }
+
+  private void mockWorkspaceStatus(WorkspaceStatus status) throws Exception {
+    WorkspaceImpl workspace = mock(WorkspaceImpl.class);
+    when(workspace.getStatus()).thenReturn(status);
+    when(workspaceManager.getWorkspace(anyString())).thenReturn(workspace);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static org.testng.Assert.assertEquals;
+
+import com.codenvy.machine.backup.ContainerUserStore.User;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link ContainerUserStore}. */
+public class ContainerUserStoreTest {
+  private static final User USER = new User("1000", "1000", "user");
+
+  private Path root;
+  private ContainerUserStore store;
+  private AtomicInteger imageKeyLoads;
+  private AtomicInteger userLoads;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("backups");
+    store = new ContainerUserStore(root.toFile());
+    imageKeyLoads = new AtomicInteger();
+    userLoads = new AtomicInteger();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    IoUtil.deleteRecursive(root.toFile());
+  }
+
+  @Test
+  public void shouldRequestUserOfContainerOnce() throws Exception {
+    assertEquals(get(store, "container1", "image1"), USER);
+    assertEquals(get(store, "container1", "image1"), USER);
+
+    assertEquals(imageKeyLoads.get(), 1);
+    assertEquals(userLoads.get(), 1);
+    assertEquals(store.getHitsCount(), 1);
+    assertEquals(store.getMissesCount(), 1);
+  }
+
+  @Test
+  public void shouldReuseUserOfImageForOtherContainers() throws Exception {
+    get(store, "container1", "image1");
+    store.invalidate("container1");
+
+    assertEquals(get(store, "container2", "image1"), USER);
+
+    assertEquals(imageKeyLoads.get(), 2);
+    assertEquals(userLoads.get(), 1);
+  }
+
+  @Test
+  public void shouldRequestUserOfNewImage() throws Exception {
+    get(store, "container1", "image1");
+
+    get(store, "container2", "image2");
+
+    assertEquals(userLoads.get(), 2);
+  }
+
+  @Test
+  public void shouldKeepUsersOfImagesAcrossRestarts() throws Exception {
+    get(store, "container1", "image1");
+
+    ContainerUserStore restarted = new ContainerUserStore(root.toFile());
+
+    assertEquals(get(restarted, "container1", "image1"), USER);
+    assertEquals(userLoads.get(), 1);
+  }
+
+  @Test
+  public void shouldIgnoreMalformedStoreFile() throws Exception {
+    Files.write(root.resolve(ContainerUserStore.STORE_FILE), "garbage".getBytes());
+
+    assertEquals(get(store, "container1", "image1"), USER);
+    assertEquals(userLoads.get(), 1);
+  }
+
+  private User get(ContainerUserStore store, String containerId, String imageKey)
+      throws Exception {
+    return store.get(
+        containerId,
+        () -> {
+          imageKeyLoads.incrementAndGet();
+          return imageKey;
+        },
+        () -> {
+          userLoads.incrementAndGet();
+          return new User(USER.getId(), USER.getGroupId(), USER.getName());
+        });
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static com.codenvy.machine.backup.ContentDefinedChunker.MAX_CHUNK_SIZE;
+import static com.codenvy.machine.backup.ContentDefinedChunker.MIN_CHUNK_SIZE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.testng.annotations.Test;
+
+/** Tests {@link ContentDefinedChunker}. */
+public class ContentDefinedChunkerTest {
+
+  @Test
+  public void shouldSplitContentIntoChunksWithinSizeLimits() throws Exception {
+    byte[] content = randomContent(42, 4 * 1024 * 1024);
+
+    List<byte[]> chunks = split(content);
+
+    ByteArrayOutputStream joined = new ByteArrayOutputStream();
+    for (int i = 0; i < chunks.size(); i++) {
+      int size = chunks.get(i).length;
+      assertTrue(size <= MAX_CHUNK_SIZE);
+      assertTrue(size >= MIN_CHUNK_SIZE || i == chunks.size() - 1);
+      joined.write(chunks.get(i));
+    }
+    assertTrue(Arrays.equals(joined.toByteArray(), content));
+  }
+
+  @Test
+  public void shouldNotProduceChunksForEmptyContent() throws Exception {
+    assertEquals(split(new byte[0]).size(), 0);
+  }
+
+  @Test
+  public void shouldSplitZeroFilledContentIntoMaxSizeChunks() throws Exception {
+    List<byte[]> chunks = split(new byte[MAX_CHUNK_SIZE * 2 + 10]);
+
+    assertEquals(chunks.size(), 3);
+    assertEquals(chunks.get(0).length, MAX_CHUNK_SIZE);
+    assertEquals(chunks.get(1).length, MAX_CHUNK_SIZE);
+    assertEquals(chunks.get(2).length, 10);
+  }
+
+  @Test
+  public void shouldKeepMostChunksAfterInsertionIntoContent() throws Exception {
+    byte[] content = randomContent(7, 4 * 1024 * 1024);
+    byte[] modified = new byte[content.length + 100];
+    System.arraycopy(content, 0, modified, 0, 1000);
+    System.arraycopy(content, 1000, modified, 1100, content.length - 1000);
+
+    List<byte[]> original = split(content);
+    Set<String> originalChunks = new HashSet<>();
+    for (byte[] chunk : original) {
+      originalChunks.add(Arrays.toString(chunk));
+    }
+    int shared = 0;
+    for (byte[] chunk : split(modified)) {
+      if (originalChunks.contains(Arrays.toString(chunk))) {
+        shared++;
+      }
+    }
+
+    // only chunks around the insertion point are changed
+    assertTrue(shared >= original.size() - 2, shared + " of " + original.size() + " are shared");
+  }
+
+  private static List<byte[]> split(byte[] content) throws Exception {
+    List<byte[]> chunks = new ArrayList<>();
+    ContentDefinedChunker.split(
+        new ByteArrayInputStream(content),
+        (buffer, length) -> chunks.add(Arrays.copyOf(buffer, length)));
+    return chunks;
+  }
+
+  private static byte[] randomContent(long seed, int size) {
+    byte[] content = new byte[size];
+    new Random(seed).nextBytes(content);
+    return content;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link DedupBackupStorage}. */
+public class DedupBackupStorageTest {
+
+  private Path root;
+  private DedupBackupStorage storage;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("backups");
+    storage = new DedupBackupStorage(root.toFile(), true);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    IoUtil.deleteRecursive(root.toFile());
+  }
+
+  @Test
+  public void shouldRestoreStoredBackupFolder() throws Exception {
+    Path backup = createBackupFolder("ws1", 1);
+
+    storage.store("ws1", backup.toFile());
+    IoUtil.deleteRecursive(backup.toFile());
+    storage.restore("ws1", backup.toFile());
+
+    assertTrue(storage.hasSnapshot("ws1"));
+    assertEquals(
+        Files.readAllBytes(backup.resolve("project/pom.xml")), "<project/>".getBytes(UTF_8));
+    assertEquals(Files.readAllBytes(backup.resolve("project/data.bin")), randomContent(1));
+    assertTrue(Files.isDirectory(backup.resolve("project/empty")));
+    assertTrue(Files.isSymbolicLink(backup.resolve("link")));
+    assertEquals(Files.readSymbolicLink(backup.resolve("link")).toString(), "project/pom.xml");
+    assertEquals(
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(backup.resolve("run.sh"))),
+        "rwxr-x---");
+    assertEquals(
+        Files.getLastModifiedTime(backup.resolve("run.sh")), FileTime.fromMillis(1_000_000_000));
+  }
+
+  @Test
+  public void shouldReplaceFolderContentOnRestore() throws Exception {
+    Path backup = createBackupFolder("ws1", 1);
+    storage.store("ws1", backup.toFile());
+    Files.write(backup.resolve("new-file"), new byte[] {1});
+
+    storage.restore("ws1", backup.toFile());
+
+    assertFalse(Files.exists(backup.resolve("new-file")));
+  }
+
+  @Test
+  public void shouldStoreContentSharedByWorkspacesOnce() throws Exception {
+    storage.store("ws1", createBackupFolder("ws1", 1).toFile());
+    long storedBytes = storage.getStoredBytes();
+
+    storage.store("ws2", createBackupFolder("ws2", 1).toFile());
+
+    assertEquals(storage.getStoredBytes(), storedBytes);
+    assertEquals(storage.getLogicalBytes(), storedBytes * 2);
+    assertEquals(storage.getDedupRatio(), 2.0);
+  }
+
+  @Test
+  public void shouldRemoveChunksWhichAreNoLongerReferenced() throws Exception {
+    storage.store("ws1", createBackupFolder("ws1", 1).toFile());
+    storage.store("ws2", createBackupFolder("ws2", 2).toFile());
+    long ws2Bytes = storage.getLogicalBytes() / 2;
+
+    storage.delete("ws1");
+    storage.collectGarbage();
+
+    assertFalse(storage.hasSnapshot("ws1"));
+    assertEquals(storage.getStoredBytes(), ws2Bytes);
+  }
+
+  @Test
+  public void shouldRestoreReferencesAfterRestart() throws Exception {
+    storage.store("ws1", createBackupFolder("ws1", 1).toFile());
+    long storedBytes = storage.getStoredBytes();
+
+    storage = new DedupBackupStorage(root.toFile(), true);
+    storage.collectGarbage();
+
+    assertEquals(storage.getStoredBytes(), storedBytes);
+    assertEquals(storage.getLogicalBytes(), storedBytes);
+  }
+
+  @Test
+  public void shouldRemoveChunksOfReplacedContentOnGarbageCollection() throws Exception {
+    Path backup = createBackupFolder("ws1", 1);
+    storage.store("ws1", backup.toFile());
+    Files.write(backup.resolve("project/data.bin"), randomContent(2));
+
+    storage.store("ws1", backup.toFile());
+    storage.collectGarbage();
+
+    assertEquals(storage.getStoredBytes(), storage.getLogicalBytes());
+  }
+
+  /** Creates backup folder which content is defined by the seed. */
+  private Path createBackupFolder(String workspaceId, long seed) throws Exception {
+    Path backup = root.resolve(workspaceId);
+    Files.createDirectories(backup.resolve("project/empty"));
+    Files.write(backup.resolve("project/pom.xml"), "<project/>".getBytes(UTF_8));
+    Files.write(backup.resolve("project/data.bin"), randomContent(seed));
+    Path script = Files.write(backup.resolve("run.sh"), "#!/bin/sh".getBytes(UTF_8));
+    Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-x---"));
+    Files.setLastModifiedTime(script, FileTime.fromMillis(1_000_000_000));
+    Files.createSymbolicLink(backup.resolve("link"), new File("project/pom.xml").toPath());
+    return backup;
+  }
+
+  private static byte[] randomContent(long seed) {
+    byte[] content = new byte[512 * 1024];
+    new Random(seed).nextBytes(content);
+    return content;
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.params.GetResourceParams;
+import org.eclipse.che.plugin.docker.client.params.PutResourceParams;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Tests {@link DockerArchiveBackupEngine}. */
+@Listeners(MockitoTestNGListener.class)
+public class DockerArchiveBackupEngineTest {
+  private static final String CONTAINER_ID = "containerId";
+  private static final String PROJECTS_PATH = "/projects";
+  private static final long MODIFICATION_TIME = 1_500_000_000_000L;
+
+  @Mock private DockerConnector docker;
+
+  private Path backupDir;
+  private Map<String, String> archiveContent;
+  private DockerArchiveBackupEngine engine;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    backupDir = Files.createTempDirectory("backup");
+    archiveContent = new HashMap<>();
+    engine = new DockerArchiveBackupEngine(docker);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    engine.shutdown();
+    IoUtil.deleteRecursive(backupDir.toFile());
+  }
+
+  @Test
+  public void shouldCopyFilesOfContainerIntoBackupFolder() throws Exception {
+    returnArchive(
+        directory("projects/app"),
+        file("projects/app/pom.xml", "<project/>"),
+        directory("projects/app/empty"));
+
+    TransferReport report = engine.backup(CONTAINER_ID, PROJECTS_PATH, backupDir.toFile());
+
+    assertEquals(read(backupDir.resolve("app/pom.xml")), "<project/>");
+    assertTrue(Files.isDirectory(backupDir.resolve("app/empty")));
+    assertEquals(
+        PosixFilePermissions.toString(
+            Files.getPosixFilePermissions(backupDir.resolve("app/pom.xml"))),
+        "rw-r-----");
+    assertEquals(
+        Files.getLastModifiedTime(backupDir.resolve("app/pom.xml")),
+        FileTime.fromMillis(MODIFICATION_TIME));
+    assertEquals(report.getFiles(), 1);
+    assertEquals(report.getBytes(), "<project/>".length());
+  }
+
+  @Test
+  public void shouldNotRewriteUnchangedFilesAndRemoveAbsentOnes() throws Exception {
+    Files.createDirectories(backupDir.resolve("app/removed-folder"));
+    Files.write(backupDir.resolve("app/removed-file"), new byte[1]);
+    Files.write(backupDir.resolve("app/pom.xml"), "<project/>".getBytes(UTF_8));
+    Files.setLastModifiedTime(
+        backupDir.resolve("app/pom.xml"), FileTime.fromMillis(MODIFICATION_TIME));
+    returnArchive(
+        directory("projects/app"),
+        file("projects/app/pom.xml", "<project/>"),
+        file("projects/app/new", "new"));
+
+    TransferReport report = engine.backup(CONTAINER_ID, PROJECTS_PATH, backupDir.toFile());
+
+    assertEquals(report.getFiles(), 1);
+    assertEquals(read(backupDir.resolve("app/new")), "new");
+    assertFalse(Files.exists(backupDir.resolve("app/removed-file")));
+    assertFalse(Files.exists(backupDir.resolve("app/removed-folder")));
+  }
+
+  @Test
+  public void shouldKeepContentOfKeptFoldersAbsentInContainer() throws Exception {
+    Files.createDirectories(backupDir.resolve("app/node_modules/lib/nested"));
+    Files.write(backupDir.resolve("app/node_modules/lib/index.js"), "index".getBytes(UTF_8));
+    Files.write(backupDir.resolve("app/node_modules/lib/nested/util.js"), "util".getBytes(UTF_8));
+    Files.createDirectories(backupDir.resolve("web/node_modules"));
+    Files.write(backupDir.resolve("web/node_modules/web.js"), "web".getBytes(UTF_8));
+    Files.write(backupDir.resolve("web/removed-file"), new byte[1]);
+    // folders are not restored into container yet, parent of the second one is absent too
+    returnArchive(directory("projects/app"), file("projects/app/pom.xml", "<project/>"));
+
+    engine.backup(
+        CONTAINER_ID,
+        PROJECTS_PATH,
+        backupDir.toFile(),
+        new HashSet<>(asList(Paths.get("app/node_modules"), Paths.get("web/node_modules"))),
+        Throttle.NONE);
+
+    assertEquals(read(backupDir.resolve("app/node_modules/lib/index.js")), "index");
+    assertEquals(read(backupDir.resolve("app/node_modules/lib/nested/util.js")), "util");
+    assertEquals(read(backupDir.resolve("web/node_modules/web.js")), "web");
+    assertFalse(Files.exists(backupDir.resolve("web/removed-file")));
+    assertEquals(read(backupDir.resolve("app/pom.xml")), "<project/>");
+  }
+
+  @Test
+  public void shouldStreamBackupFolderIntoContainer() throws Exception {
+    Files.createDirectories(backupDir.resolve("app"));
+    Files.write(backupDir.resolve("app/pom.xml"), "<project/>".getBytes(UTF_8));
+    Map<String, TarArchiveEntry> entries = new HashMap<>();
+    Map<String, String> contents = new HashMap<>();
+    doAnswer(
+            invocation -> {
+              PutResourceParams params = invocation.getArgumentAt(0, PutResourceParams.class);
+              assertEquals(params.getContainer(), CONTAINER_ID);
+              assertEquals(params.getTargetPath(), "/");
+              try (TarArchiveInputStream tar =
+                  new TarArchiveInputStream(params.getSourceStream())) {
+                TarArchiveEntry entry;
+                while ((entry = tar.getNextTarEntry()) != null) {
+                  entries.put(entry.getName(), entry);
+                  contents.put(entry.getName(), new String(IOUtils.toByteArray(tar), UTF_8));
+                }
+              }
+              return null;
+            })
+        .when(docker)
+        .putResource(any(PutResourceParams.class));
+
+    TransferReport report =
+        engine.restore(backupDir.toFile(), CONTAINER_ID, PROJECTS_PATH, 1000, 1001);
+
+    assertEquals(report.getFiles(), 1);
+    assertTrue(entries.get("projects/").isDirectory());
+    assertTrue(entries.get("projects/app/").isDirectory());
+    assertEquals(contents.get("projects/app/pom.xml"), "<project/>");
+    assertEquals(entries.get("projects/app/pom.xml").getLongUserId(), 1000);
+    assertEquals(entries.get("projects/app/pom.xml").getLongGroupId(), 1001);
+  }
+
+  private void returnArchive(TarArchiveEntry... entries) throws Exception {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (TarArchiveOutputStream tar = new TarArchiveOutputStream(archive)) {
+      tar.putArchiveEntry(directory("projects"));
+      tar.closeArchiveEntry();
+      for (TarArchiveEntry entry : entries) {
+        tar.putArchiveEntry(entry);
+        if (entry.isFile()) {
+          tar.write(archiveContent.get(entry.getName()).getBytes(UTF_8));
+        }
+        tar.closeArchiveEntry();
+      }
+    }
+    when(docker.getResource(any(GetResourceParams.class)))
+        .thenReturn(new ByteArrayInputStream(archive.toByteArray()));
+  }
+
+  private TarArchiveEntry file(String name, String content) {
+    archiveContent.put(name, content);
+    TarArchiveEntry entry = new TarArchiveEntry(name);
+    entry.setSize(content.length());
+    entry.setMode(0100640);
+    entry.setModTime(MODIFICATION_TIME);
+    return entry;
+  }
+
+  private static TarArchiveEntry directory(String name) {
+    TarArchiveEntry entry = new TarArchiveEntry(name + '/');
+    entry.setModTime(MODIFICATION_TIME);
+    return entry;
+  }
+
+  private static String read(Path file) throws Exception {
+    return new String(Files.readAllBytes(file), UTF_8);
+  }
+}
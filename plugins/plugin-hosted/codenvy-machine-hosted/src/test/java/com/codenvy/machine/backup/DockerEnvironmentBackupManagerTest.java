@@ -10,32 +10,47 @@
  */
 package com.codenvy.machine.backup;
 
+import static com.codenvy.machine.backup.DockerEnvironmentBackupManager.ENGINE_DOCKER_ARCHIVE;
+import static com.codenvy.machine.backup.DockerEnvironmentBackupManager.ENGINE_RSYNC;
 import static java.lang.Thread.sleep;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.anyVararg;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.slf4j.LoggerFactory.getLogger;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 import static org.testng.internal.junit.ArrayAsserts.assertArrayEquals;
 
+import com.codahale.metrics.MetricRegistry;
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
@@ -46,6 +61,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.che.api.core.NotFoundException;
 import org.eclipse.che.api.core.ServerException;
 import org.eclipse.che.api.core.model.machine.MachineStatus;
+import org.eclipse.che.api.core.notification.EventService;
 import org.eclipse.che.api.environment.server.exception.EnvironmentException;
 import org.eclipse.che.api.machine.server.model.impl.MachineImpl;
 import org.eclipse.che.api.machine.server.model.impl.MachineRuntimeInfoImpl;
@@ -53,6 +69,7 @@ import org.eclipse.che.api.machine.server.model.impl.ServerImpl;
 import org.eclipse.che.api.workspace.server.WorkspaceManager;
 import org.eclipse.che.api.workspace.server.model.impl.WorkspaceImpl;
 import org.eclipse.che.api.workspace.server.model.impl.WorkspaceRuntimeImpl;
+import org.eclipse.che.commons.lang.IoUtil;
 import org.eclipse.che.plugin.docker.client.DockerConnector;
 import org.eclipse.che.plugin.docker.client.Exec;
 import org.eclipse.che.plugin.docker.client.LogMessage;
@@ -89,6 +106,7 @@ public class DockerEnvironmentBackupManagerTest {
   private static final int MAX_BACKUP_DURATION_SEC = 10;
   private static final int MAX_RESTORE_DURATION_SEC = 10;
   private static final String BACKUPS_ROOT_PATH = "/tmp/che/backups";
+  private static final String IMAGE_ID = "sha256:c8e6a4ab1c3b";
   private static final String USER_ID = "1234";
   private static final String USER_GID = "12345";
   private static final String PATH_TO_WORKSPACE = "00/00/00/";
@@ -98,6 +116,11 @@ public class DockerEnvironmentBackupManagerTest {
   private static final String PROJECTS_PATH_IN_CONTAINER = "/projects-folder";
   private static final String USER_IN_CONTAINER = "test-user";
   private static final String PUBLISHED_SSH_PORT = "32559";
+  private static final String FS_FINGERPRINT = "0cc175b9c0f1b6a831c399e269772661";
+  private static final String FS_FINGERPRINT_COMMAND =
+      "cd "
+          + PROJECTS_PATH_IN_CONTAINER
+          + " && find . -printf '%p %s %T@ %m %U %G\\n' | md5sum";
 
   private static final String[] BACKUP_WORKSPACE_COMMAND = {
     BACKUP_SCRIPT,
@@ -137,27 +160,26 @@ public class DockerEnvironmentBackupManagerTest {
   @Mock private DockerNode dockerNode;
   @Mock private MachineRuntimeInfoImpl machineRuntimeInfo;
   @Mock private WorkspaceManager workspaceManager;
+  @Mock private BackupFingerprintStore fingerprintStore;
+  @Mock private DedupBackupStorage dedupStorage;
+  @Mock private DockerArchiveBackupEngine archiveEngine;
+  @Mock private EventService eventService;
 
   @Captor private ArgumentCaptor<String[]> cmdCaptor;
 
   private ExecutorService executor;
+  private MetricRegistry metricRegistry;
 
   private DockerEnvironmentBackupManager backupManager;
+  private Path tempBackupsRoot;
+  private Path userStoreDir;
+  private long nodeBandwidthLimitKibps;
 
   @BeforeMethod
   private void setup() throws Exception {
-    backupManager =
-        spy(
-            new DockerEnvironmentBackupManager(
-                BACKUP_SCRIPT,
-                RESTORE_SCRIPT,
-                MAX_BACKUP_DURATION_SEC,
-                MAX_RESTORE_DURATION_SEC,
-                new File(BACKUPS_ROOT_PATH),
-                workspaceIdHashLocationFinder,
-                PROJECTS_PATH_IN_CONTAINER,
-                workspaceManager,
-                docker));
+    nodeBandwidthLimitKibps = 0;
+    userStoreDir = Files.createTempDirectory("container-users");
+    backupManager = createBackupManager(false);
 
     when(workspaceManager.getWorkspace(nullable(String.class))).thenReturn(workspace);
     when(workspace.getRuntime()).thenReturn(workspaceRuntime);
@@ -176,14 +198,6 @@ public class DockerEnvironmentBackupManagerTest {
                 new ServerImpl("ref", "proto", "127.0.0.1:" + PUBLISHED_SSH_PORT, null, null)));
     when(workspaceIdHashLocationFinder.calculateDirPath(any(File.class), any(String.class)))
         .thenReturn(new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR));
-    doNothing()
-        .when(backupManager)
-        .executeCommand(
-            anyObject(),
-            anyInt(),
-            nullable(String.class),
-            nullable(String.class),
-            anySetOf(Integer.class));
     Exec getUserIdsExecMock = mock(Exec.class);
     when(getUserIdsExecMock.getId()).thenReturn("getUserIdsExecMockId");
     Exec getUserNameExecMock = mock(Exec.class);
@@ -199,6 +213,14 @@ public class DockerEnvironmentBackupManagerTest {
                 CreateExecParams.create(CONTAINER_ID, new String[] {"sh", "-c", "id -u -n"})
                     .withDetach(false))))
         .thenReturn(getUserNameExecMock);
+    Exec getFingerprintExecMock = mock(Exec.class);
+    when(getFingerprintExecMock.getId()).thenReturn("getFingerprintExecMockId");
+    when(docker.createExec(
+            eq(
+                CreateExecParams.create(
+                        CONTAINER_ID, new String[] {"sh", "-c", FS_FINGERPRINT_COMMAND})
+                    .withDetach(false))))
+        .thenReturn(getFingerprintExecMock);
     doAnswer(
             invocation -> {
               String execId = ((StartExecParams) invocation.getArguments()[0]).getExecId();
@@ -216,6 +238,10 @@ public class DockerEnvironmentBackupManagerTest {
                   messageProcessor.process(
                       new LogMessage(LogMessage.Type.STDOUT, USER_IN_CONTAINER));
                   break;
+                case "getFingerprintExecMockId":
+                  messageProcessor.process(
+                      new LogMessage(LogMessage.Type.STDOUT, FS_FINGERPRINT + "  -"));
+                  break;
                 default:
                   throw new RuntimeException("Unexpected exec id");
               }
@@ -229,6 +255,7 @@ public class DockerEnvironmentBackupManagerTest {
         singletonMap("22/tcp", singletonList(new PortBinding().withHostPort(PUBLISHED_SSH_PORT))));
     ContainerInfo containerInfo = new ContainerInfo();
     containerInfo.setNetworkSettings(networkSettings);
+    containerInfo.setImage(IMAGE_ID);
     ContainerState containerState = new ContainerState();
     containerState.setRunning(true);
     containerInfo.setState(containerState);
@@ -238,8 +265,14 @@ public class DockerEnvironmentBackupManagerTest {
   }
 
   @AfterMethod
-  private void cleanup() {
+  private void cleanup() throws Exception {
     executor.shutdownNow();
+    backupManager.shutdown();
+    if (tempBackupsRoot != null) {
+      IoUtil.deleteRecursive(tempBackupsRoot.toFile());
+      tempBackupsRoot = null;
+    }
+    IoUtil.deleteRecursive(userStoreDir.toFile());
   }
 
   @Test
@@ -258,6 +291,77 @@ public class DockerEnvironmentBackupManagerTest {
 
     String[] command = cmdCaptor.getValue();
     assertArrayEquals(BACKUP_WORKSPACE_COMMAND, command);
+    assertEquals(metricRegistry.timer("machine.backup.backup.duration").getCount(), 1);
+    assertEquals(
+        metricRegistry.timer("machine.backup.backup.duration.node.192_19_20_78").getCount(), 1);
+    assertEquals(metricRegistry.counter("machine.backup.backup.in_flight").getCount(), 0);
+  }
+
+  @Test
+  public void shouldRequestUserFromContainerOnlyOnce() throws Exception {
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+    backupManager.backupWorkspace(WORKSPACE_ID);
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    verify(docker)
+        .createExec(
+            CreateExecParams.create(
+                    CONTAINER_ID, new String[] {"sh", "-c", "id -u && id -g && id -u -n"})
+                .withDetach(false));
+  }
+
+  @Test
+  public void shouldRequestUserOfImageOnlyOnceAcrossRestarts() throws Exception {
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+    backupManager.backupWorkspaceAndCleanup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+    backupManager.shutdown();
+
+    // the same container and image after restart of the master
+    backupManager = createBackupManager(false);
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(docker)
+        .createExec(
+            CreateExecParams.create(
+                    CONTAINER_ID, new String[] {"sh", "-c", "id -u && id -g && id -u -n"})
+                .withDetach(false));
+  }
+
+  @Test
+  public void shouldPassBandwidthShareToBackupScript() throws Exception {
+    nodeBandwidthLimitKibps = 4096;
+    backupManager = createBackupManager(false);
+    injectWorkspaceLock(WORKSPACE_ID);
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    verify(backupManager)
+        .executeCommand(
+            cmdCaptor.capture(),
+            eq(MAX_BACKUP_DURATION_SEC),
+            eq(NODE_HOST),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    String[] command = cmdCaptor.getValue();
+    assertEquals(command.length, BACKUP_WORKSPACE_COMMAND.length + 1);
+    assertEquals(command[command.length - 1], "4096");
+  }
+
+  @Test
+  public void shouldNotLimitBandwidthOfRestoreScript() throws Exception {
+    nodeBandwidthLimitKibps = 4096;
+    backupManager = createBackupManager(false);
+
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(backupManager)
+        .executeCommand(
+            cmdCaptor.capture(),
+            eq(MAX_RESTORE_DURATION_SEC),
+            eq(NODE_HOST),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    assertArrayEquals(RESTORE_WORKSPACE_COMMAND, cmdCaptor.getValue());
   }
 
   @Test
@@ -385,6 +489,227 @@ public class DockerEnvironmentBackupManagerTest {
     assertArrayEquals(BACKUP_WORKSPACE_WITH_CLEANUP_COMMAND, command);
   }
 
+  @Test
+  public void shouldStoreBackupInDedupStorageAfterBackupWithCleanup() throws Exception {
+    when(dedupStorage.isEnabled()).thenReturn(true);
+    injectWorkspaceLock(WORKSPACE_ID);
+
+    backupManager.backupWorkspaceAndCleanup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(dedupStorage).store(WORKSPACE_ID, new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR));
+  }
+
+  @Test
+  public void shouldRemoveSnapshotFromDedupStorageIfItCanNotBeStored() throws Exception {
+    when(dedupStorage.isEnabled()).thenReturn(true);
+    doThrow(new IOException("No space left on device"))
+        .when(dedupStorage)
+        .store(anyString(), any(File.class));
+    injectWorkspaceLock(WORKSPACE_ID);
+
+    backupManager.backupWorkspaceAndCleanup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(dedupStorage).delete(WORKSPACE_ID);
+  }
+
+  @Test
+  public void shouldNotStoreBackupInDedupStorageAfterScheduledBackup() throws Exception {
+    when(dedupStorage.isEnabled()).thenReturn(true);
+    injectWorkspaceLock(WORKSPACE_ID);
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    verify(dedupStorage, never()).store(anyString(), any(File.class));
+  }
+
+  @Test
+  public void shouldRestoreBackupFolderFromDedupStorageBeforeRestore() throws Exception {
+    when(dedupStorage.hasSnapshot(WORKSPACE_ID)).thenReturn(true);
+
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(dedupStorage).restore(WORKSPACE_ID, new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR));
+    verify(backupManager)
+        .executeCommand(
+            cmdCaptor.capture(),
+            eq(MAX_RESTORE_DURATION_SEC),
+            eq(NODE_HOST),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    assertArrayEquals(RESTORE_WORKSPACE_COMMAND, cmdCaptor.getValue());
+  }
+
+  @Test
+  public void shouldBackupWorkspaceWithArchiveEngine() throws Exception {
+    backupManager = createBackupManager(false, ENGINE_DOCKER_ARCHIVE);
+    when(archiveEngine.backup(
+            anyString(), anyString(), any(File.class), anySetOf(Path.class), any(Throttle.class)))
+        .thenReturn(new TransferReport(1, 1, 1));
+    injectWorkspaceLock(WORKSPACE_ID);
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    verify(archiveEngine)
+        .backup(
+            eq(CONTAINER_ID),
+            eq(PROJECTS_PATH_IN_CONTAINER),
+            eq(new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR)),
+            eq(emptySet()),
+            any(Throttle.class));
+    verify(backupManager, never())
+        .executeCommand(
+            anyObject(),
+            anyInt(),
+            nullable(String.class),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    verify(docker, never()).createExec(any(CreateExecParams.class));
+  }
+
+  @Test
+  public void shouldRestoreWorkspaceWithArchiveEngine() throws Exception {
+    backupManager = createBackupManager(false, ENGINE_DOCKER_ARCHIVE);
+    when(archiveEngine.restore(
+            any(File.class),
+            anyString(),
+            anyString(),
+            anyLong(),
+            anyLong(),
+            anySetOf(Path.class),
+            any(Throttle.class)))
+        .thenReturn(new TransferReport(1, 1, 1));
+
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(archiveEngine)
+        .restore(
+            eq(new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR)),
+            eq(CONTAINER_ID),
+            eq(PROJECTS_PATH_IN_CONTAINER),
+            eq(Long.parseLong(USER_ID)),
+            eq(Long.parseLong(USER_GID)),
+            eq(emptySet()),
+            any(Throttle.class));
+    verify(backupManager, never())
+        .executeCommand(
+            anyObject(),
+            anyInt(),
+            nullable(String.class),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    assertEquals(metricRegistry.timer("machine.backup.restore.duration").getCount(), 1);
+    assertEquals(metricRegistry.histogram("machine.backup.restore.bytes").getCount(), 1);
+    assertEquals(metricRegistry.histogram("machine.backup.restore.files").getCount(), 1);
+  }
+
+  @Test
+  public void shouldRestoreDeferredFoldersInBackground() throws Exception {
+    Path backupDir = createBackupDirWithDeferredFolder();
+    backupManager = createBackupManager(false, ENGINE_DOCKER_ARCHIVE, "*/node_modules");
+    when(archiveEngine.restore(
+            any(File.class),
+            anyString(),
+            anyString(),
+            anyLong(),
+            anyLong(),
+            anySetOf(Path.class),
+            any(Throttle.class)))
+        .thenReturn(new TransferReport(1, 1, 1));
+    when(archiveEngine.restore(
+            any(File.class),
+            anyString(),
+            anyString(),
+            anyLong(),
+            anyLong(),
+            eq(emptySet()),
+            any(Throttle.class)))
+        .thenReturn(new TransferReport(2, 2, 2));
+
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(archiveEngine)
+        .restore(
+            eq(backupDir.toFile()),
+            eq(CONTAINER_ID),
+            eq(PROJECTS_PATH_IN_CONTAINER),
+            eq(Long.parseLong(USER_ID)),
+            eq(Long.parseLong(USER_GID)),
+            eq(singleton(Paths.get("app/node_modules"))),
+            any(Throttle.class));
+    verify(archiveEngine, timeout(2000))
+        .restore(
+            eq(backupDir.resolve("app/node_modules").toFile()),
+            eq(CONTAINER_ID),
+            eq(PROJECTS_PATH_IN_CONTAINER + "/app/node_modules"),
+            eq(Long.parseLong(USER_ID)),
+            eq(Long.parseLong(USER_GID)),
+            eq(emptySet()),
+            any(Throttle.class));
+    ArgumentCaptor<DeferredRestoreCompletedEvent> eventCaptor =
+        ArgumentCaptor.forClass(DeferredRestoreCompletedEvent.class);
+    verify(eventService, timeout(2000)).publish(eventCaptor.capture());
+    assertTrue(eventCaptor.getValue().isSuccessful());
+    assertEquals(eventCaptor.getValue().getReport().getFiles(), 2);
+  }
+
+  @Test
+  public void shouldKeepNotRestoredDeferredFoldersInBackup() throws Exception {
+    createBackupDirWithDeferredFolder();
+    backupManager = createBackupManager(false, ENGINE_DOCKER_ARCHIVE, "*/node_modules");
+    when(archiveEngine.restore(
+            any(File.class),
+            anyString(),
+            anyString(),
+            anyLong(),
+            anyLong(),
+            anySetOf(Path.class),
+            any(Throttle.class)))
+        .thenReturn(new TransferReport(1, 1, 1));
+    when(archiveEngine.restore(
+            any(File.class),
+            anyString(),
+            anyString(),
+            anyLong(),
+            anyLong(),
+            eq(emptySet()),
+            any(Throttle.class)))
+        .thenThrow(new IOException("Connection reset"));
+    when(archiveEngine.backup(
+            anyString(), anyString(), any(File.class), anySetOf(Path.class), any(Throttle.class)))
+        .thenReturn(new TransferReport(1, 1, 1));
+    backupManager.restoreWorkspaceBackup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+    ArgumentCaptor<DeferredRestoreCompletedEvent> eventCaptor =
+        ArgumentCaptor.forClass(DeferredRestoreCompletedEvent.class);
+    verify(eventService, timeout(2000)).publish(eventCaptor.capture());
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    assertFalse(eventCaptor.getValue().isSuccessful());
+    verify(archiveEngine)
+        .backup(
+            eq(CONTAINER_ID),
+            eq(PROJECTS_PATH_IN_CONTAINER),
+            any(File.class),
+            eq(singleton(Paths.get("app/node_modules"))),
+            any(Throttle.class));
+  }
+
+  @Test(expectedExceptions = ServerException.class)
+  public void shouldThrowServerExceptionIfArchiveEngineFailsToBackup() throws Exception {
+    backupManager = createBackupManager(false, ENGINE_DOCKER_ARCHIVE);
+    when(archiveEngine.backup(
+            anyString(), anyString(), any(File.class), anySetOf(Path.class), any(Throttle.class)))
+        .thenThrow(new IOException("Connection reset"));
+    injectWorkspaceLock(WORKSPACE_ID);
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void shouldNotCreateBackupManagerWithUnknownEngine() throws Exception {
+    createBackupManager(false, "scp");
+  }
+
   @Test
   public void shouldBeAbleRestoreWorkspace() throws Exception {
     doNothing()
@@ -410,6 +735,119 @@ public class DockerEnvironmentBackupManagerTest {
     assertArrayEquals(RESTORE_WORKSPACE_COMMAND, command);
   }
 
+  @Test
+  public void shouldSkipBackupIfWorkspaceFilesAreNotChanged() throws Exception {
+    backupManager = createBackupManager(true);
+    injectWorkspaceLock(WORKSPACE_ID);
+    when(fingerprintStore.get(WORKSPACE_ID, new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR)))
+        .thenReturn(FS_FINGERPRINT);
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    verify(backupManager, never())
+        .executeCommand(
+            any(String[].class),
+            anyInt(),
+            nullable(String.class),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    assertEquals(backupManager.getSkippedBackupsCount(), 1);
+    assertEquals(backupManager.getExecutedBackupsCount(), 0);
+  }
+
+  @Test
+  public void shouldBackupWorkspaceAndStoreFingerprintIfWorkspaceFilesAreChanged()
+      throws Exception {
+    backupManager = createBackupManager(true);
+    injectWorkspaceLock(WORKSPACE_ID);
+    File backupDir = new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR);
+    when(fingerprintStore.get(WORKSPACE_ID, backupDir))
+        .thenReturn("92eb5ffee6ae2fec3ad71c777531578f");
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    verify(backupManager)
+        .executeCommand(
+            cmdCaptor.capture(),
+            eq(MAX_BACKUP_DURATION_SEC),
+            eq(NODE_HOST),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    assertArrayEquals(BACKUP_WORKSPACE_COMMAND, cmdCaptor.getValue());
+    verify(fingerprintStore).invalidate(WORKSPACE_ID, backupDir);
+    verify(fingerprintStore).put(WORKSPACE_ID, backupDir, FS_FINGERPRINT);
+    assertEquals(backupManager.getSkippedBackupsCount(), 0);
+    assertEquals(backupManager.getExecutedBackupsCount(), 1);
+  }
+
+  @Test
+  public void shouldBackupWorkspaceIfFingerprintCanNotBeComputed() throws Exception {
+    backupManager = createBackupManager(true);
+    injectWorkspaceLock(WORKSPACE_ID);
+    when(docker.createExec(
+            eq(
+                CreateExecParams.create(
+                        CONTAINER_ID, new String[] {"sh", "-c", FS_FINGERPRINT_COMMAND})
+                    .withDetach(false))))
+        .thenThrow(new IOException("test exception"));
+
+    backupManager.backupWorkspace(WORKSPACE_ID);
+
+    verify(backupManager)
+        .executeCommand(
+            any(String[].class),
+            anyInt(),
+            nullable(String.class),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    verify(fingerprintStore, never()).put(anyString(), any(File.class), anyString());
+  }
+
+  @Test
+  public void shouldNotStoreFingerprintIfBackupFails() throws Exception {
+    backupManager = createBackupManager(true);
+    injectWorkspaceLock(WORKSPACE_ID);
+    doThrow(new IOException("test exception"))
+        .when(backupManager)
+        .executeCommand(
+            any(String[].class),
+            anyInt(),
+            nullable(String.class),
+            nullable(String.class),
+            anySetOf(Integer.class));
+
+    try {
+      backupManager.backupWorkspace(WORKSPACE_ID);
+      fail("Backup should fail");
+    } catch (ServerException ignored) {
+    }
+
+    verify(fingerprintStore).invalidate(WORKSPACE_ID, new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR));
+    verify(fingerprintStore, never()).put(anyString(), any(File.class), anyString());
+    assertEquals(metricRegistry.meter("machine.backup.backup.failures").getCount(), 1);
+    assertEquals(metricRegistry.timer("machine.backup.backup.duration").getCount(), 0);
+    assertEquals(metricRegistry.counter("machine.backup.backup.in_flight").getCount(), 0);
+  }
+
+  @Test
+  public void shouldNotSkipBackupWithCleanupButShouldStoreFingerprint() throws Exception {
+    backupManager = createBackupManager(true);
+    injectWorkspaceLock(WORKSPACE_ID);
+    File backupDir = new File(ABSOLUTE_PATH_TO_WORKSPACE_DIR);
+    when(fingerprintStore.get(WORKSPACE_ID, backupDir)).thenReturn(FS_FINGERPRINT);
+
+    backupManager.backupWorkspaceAndCleanup(WORKSPACE_ID, CONTAINER_ID, NODE_HOST);
+
+    verify(backupManager)
+        .executeCommand(
+            any(String[].class),
+            anyInt(),
+            nullable(String.class),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    verify(fingerprintStore).put(WORKSPACE_ID, backupDir, FS_FINGERPRINT);
+  }
+
   @Test(timeOut = 2_000 * 60) // 2 minutes
   public void shouldIgnoreNewBackupRequestIfPreviousOneHasBeenJustStarted() throws Exception {
     // given
@@ -922,6 +1360,60 @@ public class DockerEnvironmentBackupManagerTest {
     assertEquals(cmdCaptor.getValue()[0], BACKUP_SCRIPT);
   }
 
+  private DockerEnvironmentBackupManager createBackupManager(boolean skipUnchangedBackups)
+      throws Exception {
+    return createBackupManager(skipUnchangedBackups, ENGINE_RSYNC);
+  }
+
+  private DockerEnvironmentBackupManager createBackupManager(
+      boolean skipUnchangedBackups, String backupEngine, String... deferredRestorePaths)
+      throws Exception {
+    metricRegistry = new MetricRegistry();
+    DockerEnvironmentBackupManager backupManager =
+        spy(
+            new DockerEnvironmentBackupManager(
+                BACKUP_SCRIPT,
+                RESTORE_SCRIPT,
+                MAX_BACKUP_DURATION_SEC,
+                MAX_RESTORE_DURATION_SEC,
+                new File(BACKUPS_ROOT_PATH),
+                workspaceIdHashLocationFinder,
+                PROJECTS_PATH_IN_CONTAINER,
+                workspaceManager,
+                docker,
+                skipUnchangedBackups,
+                fingerprintStore,
+                dedupStorage,
+                backupEngine,
+                archiveEngine,
+                deferredRestorePaths,
+                eventService,
+                new BackupMetrics(metricRegistry),
+                new ContainerUserStore(userStoreDir.toFile()),
+                new BackupBandwidthLimiter(
+                    nodeBandwidthLimitKibps, 0, new BackupMetrics(metricRegistry))));
+    doNothing()
+        .when(backupManager)
+        .executeCommand(
+            anyObject(),
+            anyInt(),
+            nullable(String.class),
+            nullable(String.class),
+            anySetOf(Integer.class));
+    return backupManager;
+  }
+
+  /** Creates backup folder of the workspace which contains a folder matching deferred pattern. */
+  private Path createBackupDirWithDeferredFolder() throws Exception {
+    tempBackupsRoot = Files.createTempDirectory("backups");
+    Path backupDir = tempBackupsRoot.resolve(WORKSPACE_ID);
+    Files.createDirectories(backupDir.resolve("app/node_modules/lib"));
+    Files.write(backupDir.resolve("app/pom.xml"), new byte[1]);
+    when(workspaceIdHashLocationFinder.calculateDirPath(any(File.class), any(String.class)))
+        .thenReturn(backupDir.toFile());
+    return backupDir;
+  }
+
   /**
    * Runs processes to do specified task simultaneously and wait until they finish.
    *
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link TokenBucket}. */
+public class TokenBucketTest {
+  private static final long RATE = 1000;
+
+  private AtomicLong clock;
+  private TokenBucket bucket;
+
+  @BeforeMethod
+  public void setUp() {
+    clock = new AtomicLong();
+    bucket = new TokenBucket(RATE, clock::get);
+  }
+
+  @Test
+  public void shouldAllowBurstOfOneSecond() {
+    assertEquals(bucket.take(RATE), 0);
+  }
+
+  @Test
+  public void shouldRequireWaitingWhenBucketIsEmpty() {
+    bucket.take(RATE);
+
+    assertEquals(bucket.take(RATE / 2), TimeUnit.MILLISECONDS.toNanos(500));
+  }
+
+  @Test
+  public void shouldRefillBucketOverTime() {
+    bucket.take(RATE);
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+
+    assertEquals(bucket.take(RATE / 2), 0);
+  }
+
+  @Test
+  public void shouldNotAccumulateMoreThanCapacity() {
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    assertEquals(bucket.take(RATE * 2), TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  public void shouldMakeFollowingTransfersPayTheDebt() {
+    bucket.take(RATE * 3);
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+    // 2 seconds of debt are left, 1 more second is needed for the new transfer
+    assertEquals(bucket.take(RATE), TimeUnit.SECONDS.toNanos(2));
+  }
+}
@@ -11,6 +11,7 @@
 package com.codenvy.machine.backup;
 
 import static java.lang.Thread.sleep;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.doAnswer;
@@ -22,12 +23,24 @@ import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.api.core.model.machine.MachineStatus;
 import org.eclipse.che.api.core.model.workspace.WorkspaceStatus;
+import org.eclipse.che.api.machine.server.model.impl.MachineImpl;
+import org.eclipse.che.api.machine.server.spi.Instance;
+import org.eclipse.che.api.machine.server.spi.InstanceNode;
 import org.eclipse.che.api.workspace.server.WorkspaceManager;
 import org.eclipse.che.api.workspace.server.WorkspaceRuntimes;
 import org.eclipse.che.api.workspace.server.model.impl.EnvironmentImpl;
@@ -50,6 +63,9 @@ public class WorkspaceFsBackupSchedulerTest {
   private static final String ACTIVE_ENV = "testActiveEnv";
   private static final String ENV_TYPE = "testEnvType";
   private static final long BACKUP_TIMEOUT = 1; // 1 second
+  private static final int MAX_CONCURRENT_BACKUPS = 10;
+  private static final int MAX_CONCURRENT_BACKUPS_PER_NODE = 10;
+  private static final String NODE_HOST = "node1";
 
   @Mock private WorkspaceRuntimes workspaceRuntimes;
   @Mock private WorkspaceManager workspaceManager;
@@ -67,7 +83,10 @@ public class WorkspaceFsBackupSchedulerTest {
                 Collections.singletonMap(ENV_TYPE, backupManager),
                 workspaceRuntimes,
                 BACKUP_TIMEOUT,
-                workspaceManager));
+                MAX_CONCURRENT_BACKUPS,
+                MAX_CONCURRENT_BACKUPS_PER_NODE,
+                workspaceManager,
+                new BackupMetrics(new MetricRegistry())));
 
     EnvironmentImpl environment = new EnvironmentImpl();
     EnvironmentRecipeImpl environmentRecipe = new EnvironmentRecipeImpl();
@@ -84,8 +103,22 @@ public class WorkspaceFsBackupSchedulerTest {
   }
 
   private WorkspaceImpl addWorkspace(String wsId) throws Exception {
+    return addWorkspace(wsId, NODE_HOST);
+  }
+
+  private WorkspaceImpl addWorkspace(String wsId, String nodeHost) throws Exception {
     WorkspaceImpl workspace = mock(WorkspaceImpl.class);
     WorkspaceRuntimeImpl workspaceRuntime = mock(WorkspaceRuntimeImpl.class);
+    MachineImpl devMachine = mock(MachineImpl.class);
+    Instance devMachineInstance = mock(Instance.class);
+    InstanceNode node = mock(InstanceNode.class);
+    when(workspaceRuntime.getDevMachine()).thenReturn(devMachine);
+    when(devMachine.getId()).thenReturn(wsId + "-dev-machine");
+    when(devMachine.getStatus()).thenReturn(MachineStatus.RUNNING);
+    when(workspaceManager.getMachineInstance(wsId, wsId + "-dev-machine"))
+        .thenReturn(devMachineInstance);
+    when(devMachineInstance.getNode()).thenReturn(node);
+    when(node.getHost()).thenReturn(nodeHost);
 
     when(workspaceManager.getWorkspace(wsId)).thenReturn(workspace);
     when(workspace.getRuntime()).thenReturn(workspaceRuntime);
@@ -211,7 +244,10 @@ public class WorkspaceFsBackupSchedulerTest {
                 Collections.singletonMap(ENV_TYPE, backupManager),
                 workspaceRuntimes,
                 0,
-                workspaceManager));
+                MAX_CONCURRENT_BACKUPS,
+                MAX_CONCURRENT_BACKUPS_PER_NODE,
+                workspaceManager,
+                new BackupMetrics(new MetricRegistry())));
 
     scheduler.scheduleBackup();
 
@@ -239,7 +275,10 @@ public class WorkspaceFsBackupSchedulerTest {
                 Collections.singletonMap(ENV_TYPE, backupManager),
                 workspaceRuntimes,
                 0,
-                workspaceManager));
+                MAX_CONCURRENT_BACKUPS,
+                MAX_CONCURRENT_BACKUPS_PER_NODE,
+                workspaceManager,
+                new BackupMetrics(new MetricRegistry())));
     doAnswer(
             invocation -> {
               sleep(FAKE_BACKUP_TIME_MS);
@@ -258,4 +297,165 @@ public class WorkspaceFsBackupSchedulerTest {
     verify(workspaceRuntimes, times(2)).getRuntimesIds();
     verify(backupManager, timeout(2000)).backupWorkspace(eq("ws3"));
   }
+
+  @Test
+  public void shouldNotRunMoreBackupsOnNodeThanLimit() throws Exception {
+    // given
+    ids.clear();
+    addWorkspace("ws1", "node1");
+    addWorkspace("ws2", "node1");
+    addWorkspace("ws3", "node1");
+    addWorkspace("ws4", "node2");
+    scheduler = createScheduler(10, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger node1Backups = new AtomicInteger();
+    AtomicInteger maxNode1Backups = new AtomicInteger();
+    doAnswer(
+            invocation -> {
+              String wsId = invocation.getArgumentAt(0, String.class);
+              boolean onNode1 = !wsId.equals("ws4");
+              if (onNode1) {
+                maxNode1Backups.accumulateAndGet(node1Backups.incrementAndGet(), Math::max);
+              }
+              release.await();
+              if (onNode1) {
+                node1Backups.decrementAndGet();
+              }
+              return null;
+            })
+        .when(backupManager)
+        .backupWorkspace(anyString());
+
+    // when
+    scheduler.scheduleBackup();
+
+    // then
+    // backup on another node is not blocked by busy node
+    verify(backupManager, timeout(2000)).backupWorkspace("ws4");
+    verify(backupManager, timeout(2000).times(3)).backupWorkspace(anyString());
+    assertEquals(scheduler.getActiveBackupsCount(), 3);
+    assertEquals(scheduler.getQueueSize(), 1);
+
+    release.countDown();
+    verify(backupManager, timeout(2000).times(4)).backupWorkspace(anyString());
+    assertEquals(maxNode1Backups.get(), 2);
+  }
+
+  @Test
+  public void shouldNotRunMoreBackupsThanGlobalLimit() throws Exception {
+    // given
+    ids.clear();
+    addWorkspace("ws1", "node1");
+    addWorkspace("ws2", "node2");
+    addWorkspace("ws3", "node3");
+    scheduler = createScheduler(2, 10);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              release.await();
+              return null;
+            })
+        .when(backupManager)
+        .backupWorkspace(anyString());
+
+    // when
+    scheduler.scheduleBackup();
+
+    // then
+    verify(backupManager, timeout(2000).times(2)).backupWorkspace(anyString());
+    verify(backupManager, after(500).times(2)).backupWorkspace(anyString());
+    assertEquals(scheduler.getQueueSize(), 1);
+
+    release.countDown();
+    verify(backupManager, timeout(2000).times(3)).backupWorkspace(anyString());
+  }
+
+  @Test
+  public void shouldFirstBackupWorkspaceWhichWasNotBackedUpForLongerTime() throws Exception {
+    // given
+    ids.clear();
+    addWorkspace("ws1", "node1");
+    scheduler = createScheduler(1, 1);
+    List<String> backedUp = Collections.synchronizedList(new ArrayList<>());
+    doAnswer(
+            invocation -> {
+              backedUp.add(invocation.getArgumentAt(0, String.class));
+              return null;
+            })
+        .when(backupManager)
+        .backupWorkspace(anyString());
+    scheduler.scheduleBackup();
+    verify(backupManager, timeout(2000)).backupWorkspace("ws1");
+    addWorkspace("ws2", "node1");
+    // wait until the backup is registered as finished
+    Thread.sleep(100);
+
+    // when
+    scheduler.scheduleBackup();
+
+    // then
+    verify(backupManager, timeout(2000).times(3)).backupWorkspace(anyString());
+    assertEquals(backedUp, Arrays.asList("ws1", "ws2", "ws1"));
+  }
+
+  @Test
+  public void shouldNotBackupAgainUntilOffsetOfWorkspaceInTheNextPeriod() throws Exception {
+    // given
+    ids.clear();
+    addWorkspace("ws1");
+    scheduler = createScheduler(10, 10, 3600);
+    scheduler.scheduleBackup();
+    verify(backupManager, timeout(2000)).backupWorkspace("ws1");
+    // wait until the backup is registered as finished
+    Thread.sleep(100);
+
+    // when
+    scheduler.scheduleBackup();
+
+    // then
+    verify(backupManager, after(500).times(1)).backupWorkspace("ws1");
+    assertTrue(scheduler.getMaxBackupLagSeconds() < 3600);
+  }
+
+  @Test
+  public void shouldCountLagOfWorkspaceNeverBackedUpFromItsRegistration() throws Exception {
+    // given
+    ids.clear();
+    addWorkspace("ws1");
+    scheduler = createScheduler(10, 10, 3600);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              release.await();
+              return null;
+            })
+        .when(backupManager)
+        .backupWorkspace(anyString());
+    scheduler.scheduleBackup();
+    verify(backupManager, timeout(2000)).backupWorkspace("ws1");
+
+    // when
+    Thread.sleep(1100);
+
+    // then
+    assertTrue(scheduler.getMaxBackupLagSeconds() >= 1);
+    release.countDown();
+  }
+
+  private WorkspaceFsBackupScheduler createScheduler(int maxBackups, int maxBackupsPerNode) {
+    return createScheduler(maxBackups, maxBackupsPerNode, 0);
+  }
+
+  private WorkspaceFsBackupScheduler createScheduler(
+      int maxBackups, int maxBackupsPerNode, long backupPeriodSec) {
+    return spy(
+        new WorkspaceFsBackupScheduler(
+            Collections.singletonMap(ENV_TYPE, backupManager),
+            workspaceRuntimes,
+            backupPeriodSec,
+            maxBackups,
+            maxBackupsPerNode,
+            workspaceManager,
+            new BackupMetrics(new MetricRegistry())));
+  }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.machine.backup;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link WorkspaceIdHashLocationFinder}. */
+public class WorkspaceIdHashLocationFinderTest {
+  private static final int WORKSPACES = 10_000;
+
+  private Path root;
+  private File primary;
+  private File volume1;
+  private File volume2;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("volumes");
+    primary = root.resolve("primary").toFile();
+    volume1 = root.resolve("volume1").toFile();
+    volume2 = root.resolve("volume2").toFile();
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    IoUtil.deleteRecursive(root.toFile());
+  }
+
+  @Test
+  public void shouldCalculatePathByHashOfWorkspaceId() {
+    WorkspaceIdHashLocationFinder finder = new WorkspaceIdHashLocationFinder();
+
+    assertEquals(
+        finder.calculateDirPath(new File("/backups"), "workspaceibi5g3ofwxl52qiq"),
+        new File("/backups/2e/9a/94/workspaceibi5g3ofwxl52qiq"));
+    assertEquals(
+        finder.calculateDirPath(new File("/backups"), "workspaceq23dfgh6543fh75t"),
+        new File("/backups/76/aa/81/workspaceq23dfgh6543fh75t"));
+  }
+
+  @Test
+  public void shouldSpreadWorkspacesOverVolumes() {
+    WorkspaceIdHashLocationFinder finder =
+        new WorkspaceIdHashLocationFinder(new String[] {volume1.getPath(), volume2.getPath()});
+    List<File> volumes = finder.getVolumes(primary);
+
+    Map<File, Integer> counts = new HashMap<>();
+    for (int i = 0; i < WORKSPACES; i++) {
+      counts.merge(finder.calculateVolume(volumes, "workspace" + i), 1, Integer::sum);
+    }
+
+    assertEquals(volumes, Arrays.asList(primary, volume1, volume2));
+    for (File volume : volumes) {
+      assertTrue(counts.get(volume) > WORKSPACES / 3 * 0.9, volume + ": " + counts);
+    }
+  }
+
+  @Test
+  public void shouldMoveWorkspacesOnlyToAddedVolume() {
+    List<File> oldVolumes =
+        new WorkspaceIdHashLocationFinder(new String[] {volume1.getPath()}).getVolumes(primary);
+    WorkspaceIdHashLocationFinder finder =
+        new WorkspaceIdHashLocationFinder(new String[] {volume1.getPath(), volume2.getPath()});
+    List<File> newVolumes = finder.getVolumes(primary);
+
+    int moved = 0;
+    for (int i = 0; i < WORKSPACES; i++) {
+      File oldVolume = finder.calculateVolume(oldVolumes, "workspace" + i);
+      File newVolume = finder.calculateVolume(newVolumes, "workspace" + i);
+      if (!oldVolume.equals(newVolume)) {
+        assertEquals(newVolume, volume2);
+        moved++;
+      }
+    }
+
+    assertTrue(moved > WORKSPACES / 3 * 0.9 && moved < WORKSPACES / 3 * 1.1, "moved " + moved);
+  }
+
+  @Test
+  public void shouldUseExistingFolderUntilItIsMovedToItsVolume() throws Exception {
+    WorkspaceIdHashLocationFinder finder =
+        new WorkspaceIdHashLocationFinder(new String[] {volume1.getPath()});
+    String workspaceId = findWorkspaceOfVolume(finder, primary, volume1);
+    File existing = new File(primary, finder.calculateRelativePath(workspaceId));
+    assertTrue(existing.mkdirs());
+
+    assertEquals(finder.calculateDirPath(primary, workspaceId), existing);
+
+    File moved = new File(volume1, finder.calculateRelativePath(workspaceId));
+    assertTrue(moved.mkdirs());
+    assertEquals(finder.calculateDirPath(primary, workspaceId), moved);
+  }
+
+  @Test
+  public void shouldUseFolderOnItsVolumeForNewWorkspace() {
+    WorkspaceIdHashLocationFinder finder =
+        new WorkspaceIdHashLocationFinder(new String[] {volume1.getPath()});
+    String workspaceId = findWorkspaceOfVolume(finder, primary, volume1);
+
+    assertEquals(
+        finder.calculateDirPath(primary, workspaceId),
+        new File(volume1, finder.calculateRelativePath(workspaceId)));
+  }
+
+  /** Returns id of a workspace which belongs to the given volume. */
+  static String findWorkspaceOfVolume(
+      WorkspaceIdHashLocationFinder finder, File primary, File volume) {
+    for (int i = 0; ; i++) {
+      String workspaceId = "workspace" + i;
+      if (finder.calculateVolume(finder.getVolumes(primary), workspaceId).equals(volume)) {
+        return workspaceId;
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import com.codenvy.swarm.client.model.DockerNode;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link ImageLocalityIndex}. */
+public class ImageLocalityIndexTest {
+  private static final long GIB = 1024 * 1024 * 1024;
+  private static final long TTL_SEC = 3600;
+  private static final String STACK_IMAGE = "codenvy/ubuntu_jdk8";
+
+  private static final DockerNode NODE1 = new DockerNode("node1", "10.0.0.1:2375", 2, GIB, 8 * GIB);
+  private static final DockerNode NODE2 = new DockerNode("node2", "10.0.0.2:2375", 2, GIB, 8 * GIB);
+  private static final DockerNode LOADED =
+      new DockerNode("loaded", "10.0.0.3:2375", 9, 7 * GIB, 8 * GIB);
+  private static final List<DockerNode> NODES = asList(NODE1, NODE2, LOADED);
+
+  private AtomicLong clock;
+  private ImageLocalityIndex index;
+
+  @BeforeMethod
+  public void setUp() {
+    clock = new AtomicLong(1_000_000);
+    index = new ImageLocalityIndex(true, 512, TTL_SEC, clock::get);
+  }
+
+  @Test
+  public void shouldFindNodesWhereBaseImageWasUsed() {
+    index.containerPlaced(NODE2.getAddr(), "machine_ws1_dev", STACK_IMAGE + ":latest");
+
+    assertEquals(index.findNodes(STACK_IMAGE, GIB, NODES), singletonList(NODE2));
+    assertEquals(index.findNodes("machine_ws1_dev:latest", GIB, NODES), singletonList(NODE2));
+    assertTrue(index.findNodes("codenvy/node", GIB, NODES).isEmpty());
+  }
+
+  @Test
+  public void shouldSkipNodesWithoutMemoryForContainerAndHeadroom() {
+    index.containerPlaced(NODE1.getAddr(), STACK_IMAGE, null);
+    index.containerPlaced(LOADED.getAddr(), STACK_IMAGE, null);
+
+    // loaded node has 1 GiB free which is not enough with headroom of 512 MiB
+    assertEquals(index.findNodes(STACK_IMAGE, GIB / 2, NODES), asList(NODE1, LOADED));
+    assertEquals(index.findNodes(STACK_IMAGE, GIB, NODES), singletonList(NODE1));
+  }
+
+  @Test
+  public void shouldCountPlacementsOnNodesWhichHeldImage() {
+    index.containerPlaced(NODE1.getAddr(), "machine_ws1_dev", STACK_IMAGE);
+    index.containerPlaced(NODE1.getAddr(), "machine_ws2_dev", STACK_IMAGE);
+    index.containerPlaced(NODE2.getAddr(), "machine_ws3_dev", STACK_IMAGE);
+    index.containerPlaced(NODE2.getAddr(), "machine_ws4_dev", STACK_IMAGE);
+
+    assertEquals(index.getHits(), 2);
+    assertEquals(index.getMisses(), 2);
+    assertEquals(index.getHitRatio(), 0.5);
+  }
+
+  @Test
+  public void shouldForgetImagesNotSeenWithinTtl() {
+    index.containerPlaced(NODE1.getAddr(), STACK_IMAGE, null);
+    clock.addAndGet(TimeUnit.SECONDS.toMillis(TTL_SEC) + 1);
+
+    assertTrue(index.findNodes(STACK_IMAGE, GIB, NODES).isEmpty());
+
+    index.containerPlaced(NODE2.getAddr(), "codenvy/node", null);
+
+    assertEquals(index.getIndexedImages(), 1);
+    assertEquals(index.getMisses(), 2);
+  }
+
+  @Test
+  public void shouldForgetRemovedImage() {
+    index.containerPlaced(NODE1.getAddr(), STACK_IMAGE, null);
+
+    index.imageRemoved(STACK_IMAGE + ":latest");
+
+    assertTrue(index.findNodes(STACK_IMAGE, GIB, NODES).isEmpty());
+    assertEquals(index.getIndexedImages(), 0);
+  }
+
+  @Test
+  public void shouldNotFindNodesIfDisabled() {
+    index = new ImageLocalityIndex(false, 512, TTL_SEC, clock::get);
+    index.containerPlaced(NODE1.getAddr(), STACK_IMAGE, null);
+
+    assertTrue(index.findNodes(STACK_IMAGE, GIB, NODES).isEmpty());
+    assertEquals(index.getMisses(), 0);
+  }
+
+  @Test
+  public void shouldAddDefaultTagToImageWithoutTagOrDigest() {
+    assertEquals(ImageLocalityIndex.normalize("ubuntu"), "ubuntu:latest");
+    assertEquals(
+        ImageLocalityIndex.normalize("registry:5000/ubuntu"), "registry:5000/ubuntu:latest");
+    assertEquals(
+        ImageLocalityIndex.normalize("registry:5000/ubuntu:16.04"), "registry:5000/ubuntu:16.04");
+    assertEquals(ImageLocalityIndex.normalize("ubuntu@sha256:abc"), "ubuntu@sha256:abc");
+  }
+}
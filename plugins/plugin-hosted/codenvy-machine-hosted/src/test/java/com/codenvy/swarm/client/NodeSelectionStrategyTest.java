@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.testng.Assert.assertEquals;
+
+import com.codenvy.swarm.client.model.DockerNode;
+import java.io.IOException;
+import java.util.List;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class NodeSelectionStrategyTest {
+  private static final long GIB = 1024 * 1024 * 1024;
+
+  private static final DockerNode IDLE = new DockerNode("idle", "10.0.0.1:2375", 0, 0, 4 * GIB);
+  private static final DockerNode BUSY =
+      new DockerNode("busy", "10.0.0.2:2375", 6, 3 * GIB, 4 * GIB);
+  private static final DockerNode FULL =
+      new DockerNode("full", "10.0.0.3:2375", 2, 4 * GIB, 4 * GIB);
+  private static final DockerNode BIG =
+      new DockerNode("big", "10.0.0.4:2375", 8, 4 * GIB, 16 * GIB);
+
+  @Test(dataProvider = "selections")
+  public void shouldSelectNode(
+      NodeSelectionStrategy strategy, List<DockerNode> nodes, DockerNode expected)
+      throws Exception {
+    assertEquals(strategy.select(nodes), expected);
+  }
+
+  @DataProvider(name = "selections")
+  public Object[][] selections() {
+    DockerNode sameMemoryFewerContainers = new DockerNode("fewer", "10.0.0.5:2375", 1, 0, 4 * GIB);
+    DockerNode sameContainersLessMemory = new DockerNode("less", "10.0.0.6:2375", 6, GIB, 4 * GIB);
+    DockerNode otherFull = new DockerNode("other", "10.0.0.7:2375", 5, 4 * GIB, 4 * GIB);
+    return new Object[][] {
+      // most free memory
+      {new LeastLoadedNodeSelectionStrategy(), asList(BUSY, IDLE, FULL, BIG), BIG},
+      {new LeastLoadedNodeSelectionStrategy(), asList(BUSY, IDLE, FULL), IDLE},
+      {new LeastLoadedNodeSelectionStrategy(), asList(IDLE, sameMemoryFewerContainers), IDLE},
+      {
+        new LeastLoadedNodeSelectionStrategy(),
+        asList(sameMemoryFewerContainers, BUSY),
+        sameMemoryFewerContainers
+      },
+      // most loaded node which is not full
+      {new BinPackingNodeSelectionStrategy(), asList(IDLE, BUSY, FULL, BIG), BUSY},
+      {new BinPackingNodeSelectionStrategy(), asList(IDLE, BIG), BIG},
+      {new BinPackingNodeSelectionStrategy(), asList(FULL, otherFull), FULL},
+      // least containers, unlike least loaded which selects BIG among the same nodes
+      {new SpreadNodeSelectionStrategy(), asList(BUSY, BIG, FULL, IDLE), IDLE},
+      {new SpreadNodeSelectionStrategy(), asList(BUSY, BIG, FULL), FULL},
+      {
+        new SpreadNodeSelectionStrategy(),
+        asList(BUSY, sameContainersLessMemory),
+        sameContainersLessMemory
+      }
+    };
+  }
+
+  @Test(
+    dataProvider = "strategies",
+    expectedExceptions = IOException.class,
+    expectedExceptionsMessageRegExp = "No docker nodes available"
+  )
+  public void shouldThrowExceptionWhenThereAreNoNodes(NodeSelectionStrategy strategy)
+      throws Exception {
+    strategy.select(emptyList());
+  }
+
+  @DataProvider(name = "strategies")
+  public Object[][] strategies() {
+    return new Object[][] {
+      {new RandomNodeSelectionStrategy()},
+      {new LeastLoadedNodeSelectionStrategy()},
+      {new BinPackingNodeSelectionStrategy()},
+      {new SpreadNodeSelectionStrategy()}
+    };
+  }
+}
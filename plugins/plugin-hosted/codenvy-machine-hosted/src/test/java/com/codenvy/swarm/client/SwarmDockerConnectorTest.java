@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codenvy.service.system.ClusterNode;
+import com.codenvy.service.system.ClusterState;
+import com.codenvy.service.system.ClusterStateMonitor;
+import com.codenvy.swarm.client.model.DockerNode;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.inject.Provider;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.plugin.docker.client.DockerApiVersionPathPrefixProvider;
+import org.eclipse.che.plugin.docker.client.DockerConnectorConfiguration;
+import org.eclipse.che.plugin.docker.client.DockerRegistryAuthResolver;
+import org.eclipse.che.plugin.docker.client.connection.DockerConnectionFactory;
+import org.eclipse.che.plugin.docker.client.json.ContainerConfig;
+import org.eclipse.che.plugin.docker.client.json.HostConfig;
+import org.eclipse.che.plugin.docker.client.params.BuildImageParams;
+import org.eclipse.che.plugin.docker.client.params.CreateContainerParams;
+import org.eclipse.che.plugin.docker.client.params.TagParams;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+@Listeners(MockitoTestNGListener.class)
+public class SwarmDockerConnectorTest {
+  private static final long GIB = 1024 * 1024 * 1024;
+
+  @Mock private DockerConnectorConfiguration connectorConfiguration;
+  @Mock private DockerConnectionFactory connectionFactory;
+  @Mock private DockerRegistryAuthResolver authResolver;
+  @Mock private DockerApiVersionPathPrefixProvider apiVersionPathPrefixProvider;
+  @Mock private NodeSelectionStrategy strategy;
+  @Mock private Provider<ClusterStateMonitor> clusterStateMonitorProvider;
+  @Mock private ClusterStateMonitor clusterStateMonitor;
+  @Mock private ImageLocalityIndex imageLocalityIndex;
+
+  private SwarmDockerConnector connector;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    when(clusterStateMonitorProvider.get()).thenReturn(clusterStateMonitor);
+    connector =
+        new SwarmDockerConnector(
+            connectorConfiguration,
+            connectionFactory,
+            authResolver,
+            apiVersionPathPrefixProvider,
+            strategy,
+            clusterStateMonitorProvider,
+            imageLocalityIndex,
+            new SwarmWorkaroundRetrier(new MetricRegistry(), 1, 10, 1000));
+  }
+
+  @Test
+  public void shouldReturnHealthyNodesOfClusterState() throws Exception {
+    when(clusterStateMonitor.getState())
+        .thenReturn(
+            new ClusterState(
+                asList(
+                    new ClusterNode("node1", "192.168.1.1:2375", true, 14, GIB, 4 * GIB),
+                    new ClusterNode("node2", "192.168.1.2:2375", false, 0, 0, 4 * GIB),
+                    new ClusterNode("node3", "192.168.1.3:2375", true, 3, 3 * GIB, 8 * GIB)),
+                System.currentTimeMillis()));
+
+    List<DockerNode> nodes = connector.getAvailableNodes();
+
+    assertEquals(nodes.size(), 2);
+    assertNode(nodes.get(0), "node1", "192.168.1.1:2375", 14, GIB, 4 * GIB);
+    assertNode(nodes.get(1), "node3", "192.168.1.3:2375", 3, 3 * GIB, 8 * GIB);
+  }
+
+  @Test
+  public void shouldPreferNodeSelectedByStrategyAmongNodesWithEnoughMemoryForBuild()
+      throws Exception {
+    setUpClusterState();
+    // selects the last of the suitable nodes to check that unsuitable ones are filtered out
+    when(strategy.select(anyListOf(DockerNode.class)))
+        .thenAnswer(invocation -> last(invocation.getArgumentAt(0, List.class)));
+    BuildImageParams params =
+        BuildImageParams.create(new File("Dockerfile"))
+            .withRepository("machine_ws1_dev")
+            .withMemoryLimit(5 * GIB);
+
+    connector.preferNode(params, "codenvy/ubuntu_jdk8");
+
+    assertEquals(params.getBuildArgs().get("constraint:node="), "~node1");
+  }
+
+  @Test
+  public void shouldPreferNodeSelectedByStrategyForContainer() throws Exception {
+    setUpClusterState();
+    when(strategy.select(anyListOf(DockerNode.class)))
+        .thenAnswer(invocation -> last(invocation.getArgumentAt(0, List.class)));
+    CreateContainerParams params =
+        CreateContainerParams.create(
+            new ContainerConfig()
+                .withImage("codenvy/ubuntu_jdk8")
+                .withEnv("CHE_API=http://codenvy/api")
+                .withHostConfig(new HostConfig().withMemory(GIB)));
+
+    connector.preferNode(params);
+
+    assertEquals(
+        params.getContainerConfig().getEnv(),
+        new String[] {"CHE_API=http://codenvy/api", "constraint:node==~node3"});
+  }
+
+  @Test
+  public void shouldPreferNodeOfBuildForContainerOfBuiltImage() throws Exception {
+    setUpClusterState();
+    when(strategy.select(anyListOf(DockerNode.class)))
+        .thenAnswer(invocation -> last(invocation.getArgumentAt(0, List.class)));
+    connector.preferNode(
+        BuildImageParams.create(new File("Dockerfile")).withRepository("machine_ws1_dev"), null);
+    CreateContainerParams params =
+        CreateContainerParams.create(
+            new ContainerConfig()
+                .withImage("machine_ws1_dev")
+                .withHostConfig(new HostConfig().withMemory(6 * GIB)));
+
+    connector.preferNode(params);
+
+    // only node1 has enough memory for the container, but the image is on node3
+    assertEquals(params.getContainerConfig().getEnv(), new String[] {"constraint:node==~node3"});
+  }
+
+  @Test
+  public void shouldPreferNodeOfBuildForContainerOfTaggedBuiltImage() throws Exception {
+    setUpClusterState();
+    when(strategy.select(anyListOf(DockerNode.class)))
+        .thenAnswer(invocation -> last(invocation.getArgumentAt(0, List.class)));
+    connector.preferNode(
+        BuildImageParams.create(new File("Dockerfile")).withRepository("machine_ws1_dev"), null);
+    connector.imageTagged(TagParams.create("machine_ws1_dev", "machine_ws2_dev"));
+    CreateContainerParams params =
+        CreateContainerParams.create(
+            new ContainerConfig()
+                .withImage("machine_ws2_dev")
+                .withHostConfig(new HostConfig().withMemory(6 * GIB)));
+
+    connector.preferNode(params);
+
+    assertEquals(params.getContainerConfig().getEnv(), new String[] {"constraint:node==~node3"});
+  }
+
+  @Test
+  public void shouldSpreadSelectionsMadeBeforeRefreshOfClusterState() throws Exception {
+    setUpIdleClusterState(1);
+    connector = newConnector(new LeastLoadedNodeSelectionStrategy());
+
+    final Set<String> preferred = new HashSet<>();
+    for (int i = 0; i < 3; i++) {
+      final CreateContainerParams params = newContainerParams(2 * GIB);
+      connector.preferNode(params);
+      preferred.add(params.getContainerConfig().getEnv()[0]);
+    }
+
+    assertEquals(
+        preferred,
+        new HashSet<>(
+            asList(
+                "constraint:node==~node1", "constraint:node==~node2", "constraint:node==~node3")));
+  }
+
+  @Test
+  public void shouldReleasePendingPlacementsWhenClusterStateIsRefreshed() throws Exception {
+    setUpIdleClusterState(1);
+    connector = newConnector(new LeastLoadedNodeSelectionStrategy());
+    final CreateContainerParams first = newContainerParams(7 * GIB);
+    connector.preferNode(first);
+    final String firstNode = first.getContainerConfig().getEnv()[0];
+
+    // the refreshed state doesn't show the container yet, e.g. its creation failed
+    setUpIdleClusterState(2);
+    final CreateContainerParams second = newContainerParams(7 * GIB);
+    connector.preferNode(second);
+
+    assertEquals(second.getContainerConfig().getEnv()[0], firstNode);
+  }
+
+  @Test
+  public void shouldLeavePlacementToSwarmWithRandomStrategy() throws Exception {
+    connector =
+        new SwarmDockerConnector(
+            connectorConfiguration,
+            connectionFactory,
+            authResolver,
+            apiVersionPathPrefixProvider,
+            new RandomNodeSelectionStrategy(),
+            clusterStateMonitorProvider,
+            imageLocalityIndex,
+            new SwarmWorkaroundRetrier(new MetricRegistry(), 1, 10, 1000));
+    BuildImageParams buildParams =
+        BuildImageParams.create(new File("Dockerfile")).withRepository("machine_ws1_dev");
+    CreateContainerParams createParams =
+        CreateContainerParams.create(new ContainerConfig().withImage("codenvy/ubuntu_jdk8"));
+
+    connector.preferNode(buildParams, null);
+    connector.preferNode(createParams);
+
+    assertNull(buildParams.getBuildArgs());
+    assertNull(createParams.getContainerConfig().getEnv());
+    verify(clusterStateMonitor, never()).getState();
+  }
+
+  @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Swarm error")
+  public void shouldThrowIOExceptionWhenClusterStateIsUnavailable() throws Exception {
+    when(clusterStateMonitor.getState()).thenThrow(new ServerException("Swarm error"));
+
+    connector.getAvailableNodes();
+  }
+
+  private void setUpClusterState() throws Exception {
+    when(clusterStateMonitor.getState())
+        .thenReturn(
+            new ClusterState(
+                asList(
+                    new ClusterNode("node1", "192.168.1.1:2375", true, 2, GIB, 8 * GIB),
+                    new ClusterNode("node2", "192.168.1.2:2375", true, 9, 7 * GIB, 8 * GIB),
+                    new ClusterNode("node3", "192.168.1.3:2375", true, 3, 4 * GIB, 8 * GIB)),
+                System.currentTimeMillis()));
+  }
+
+  private void setUpIdleClusterState(long timestamp) throws Exception {
+    when(clusterStateMonitor.getState())
+        .thenReturn(
+            new ClusterState(
+                asList(
+                    new ClusterNode("node1", "192.168.1.1:2375", true, 0, 0, 8 * GIB),
+                    new ClusterNode("node2", "192.168.1.2:2375", true, 0, 0, 8 * GIB),
+                    new ClusterNode("node3", "192.168.1.3:2375", true, 0, 0, 8 * GIB)),
+                timestamp));
+  }
+
+  private SwarmDockerConnector newConnector(NodeSelectionStrategy strategy) {
+    return new SwarmDockerConnector(
+        connectorConfiguration,
+        connectionFactory,
+        authResolver,
+        apiVersionPathPrefixProvider,
+        strategy,
+        clusterStateMonitorProvider,
+        imageLocalityIndex,
+        new SwarmWorkaroundRetrier(new MetricRegistry(), 1, 10, 1000));
+  }
+
+  private static CreateContainerParams newContainerParams(long memory) {
+    return CreateContainerParams.create(
+        new ContainerConfig()
+            .withImage("codenvy/ubuntu_jdk8")
+            .withHostConfig(new HostConfig().withMemory(memory)));
+  }
+
+  private static DockerNode last(List<?> nodes) {
+    return (DockerNode) nodes.get(nodes.size() - 1);
+  }
+
+  private static void assertNode(
+      DockerNode node,
+      String hostname,
+      String addr,
+      int containers,
+      long reservedMemory,
+      long totalMemory) {
+    assertEquals(node.getHostname(), hostname);
+    assertEquals(node.getAddr(), addr);
+    assertEquals(node.getContainers(), containers);
+    assertEquals(node.getReservedMemory(), reservedMemory);
+    assertEquals(node.getTotalMemory(), totalMemory);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.swarm.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codenvy.swarm.client.SwarmWorkaroundRetrier.Workaround;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.che.plugin.docker.client.exception.ContainerNotFoundException;
+import org.eclipse.che.plugin.docker.client.exception.DockerException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link SwarmWorkaroundRetrier}. */
+public class SwarmWorkaroundRetrierTest {
+  private static final String METRIC = "swarm.client.workaround.container_not_found_on_inspect";
+
+  private MetricRegistry registry;
+  private SwarmWorkaroundRetrier retrier;
+  private AtomicInteger attempts;
+
+  @BeforeMethod
+  public void setUp() {
+    registry = new MetricRegistry();
+    retrier = new SwarmWorkaroundRetrier(registry, 1, 4, 200);
+    attempts = new AtomicInteger();
+  }
+
+  @Test
+  public void shouldRepeatOperationUntilItSucceeds() throws Exception {
+    final String result =
+        retrier.retry(
+            Workaround.CONTAINER_NOT_FOUND_ON_INSPECT,
+            new ContainerNotFoundException("not found"),
+            () -> {
+              if (attempts.incrementAndGet() < 3) {
+                throw new ContainerNotFoundException("not found");
+              }
+              return "info";
+            },
+            e -> e instanceof ContainerNotFoundException);
+
+    assertEquals(result, "info");
+    assertEquals(registry.meter(METRIC + ".fired").getCount(), 1);
+    assertEquals(registry.timer(METRIC + ".cost").getCount(), 1);
+    assertEquals(registry.histogram(METRIC + ".attempts").getSnapshot().getMax(), 3);
+    assertEquals(registry.meter(METRIC + ".gave_up").getCount(), 0);
+  }
+
+  @Test
+  public void shouldNotRepeatOperationAfterOtherError() throws Exception {
+    final DockerException other = new DockerException("server error", 500);
+    try {
+      retrier.retry(
+          Workaround.CONTAINER_NOT_FOUND_ON_INSPECT,
+          new ContainerNotFoundException("not found"),
+          () -> {
+            attempts.incrementAndGet();
+            throw other;
+          },
+          e -> e instanceof ContainerNotFoundException);
+      fail("Error of the operation is expected");
+    } catch (DockerException e) {
+      assertSame(e, other);
+    }
+
+    assertEquals(attempts.get(), 1);
+    assertEquals(registry.meter(METRIC + ".gave_up").getCount(), 0);
+  }
+
+  @Test
+  public void shouldThrowLastErrorAfterDeadline() throws Exception {
+    final long start = System.nanoTime();
+    try {
+      retrier.retry(
+          Workaround.CONTAINER_NOT_FOUND_ON_INSPECT,
+          new ContainerNotFoundException("first"),
+          () -> {
+            throw new ContainerNotFoundException("attempt " + attempts.incrementAndGet());
+          },
+          e -> e instanceof ContainerNotFoundException);
+      fail("Error of the operation is expected");
+    } catch (IOException e) {
+      assertEquals(e.getMessage(), "attempt " + attempts.get());
+    }
+
+    assertEquals(registry.meter(METRIC + ".gave_up").getCount(), 1);
+    assertEquals(registry.timer(METRIC + ".cost").getCount(), 0);
+    // delays are capped, so the operation is repeated many times within the deadline
+    assertTrue(attempts.get() > 10);
+    assertTrue(System.nanoTime() - start < 1_000_000_000);
+  }
+
+  @Test
+  public void shouldThrowLastErrorWhenInterrupted() throws Exception {
+    try {
+      retrier.retry(
+          Workaround.CONTAINER_NOT_FOUND_ON_INSPECT,
+          new ContainerNotFoundException("first"),
+          () -> {
+            // interrupts the delay before the next attempt
+            Thread.currentThread().interrupt();
+            throw new ContainerNotFoundException("attempt " + attempts.incrementAndGet());
+          },
+          e -> e instanceof ContainerNotFoundException);
+      fail("Error of the operation is expected");
+    } catch (IOException e) {
+      assertEquals(e.getMessage(), "attempt 1");
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+
+    assertEquals(attempts.get(), 1);
+    assertEquals(registry.meter(METRIC + ".gave_up").getCount(), 0);
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.workspace;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codenvy.machine.backup.BackupFingerprintStore;
+import com.codenvy.machine.backup.BackupMetrics;
+import com.codenvy.machine.backup.DedupBackupStorage;
+import com.codenvy.machine.backup.WorkspaceIdHashLocationFinder;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.eclipse.che.api.core.model.workspace.Workspace;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Tests {@link AsyncWorkspaceFilesCleaner}. */
+@Listeners(MockitoTestNGListener.class)
+public class AsyncWorkspaceFilesCleanerTest {
+  private static final String WORKSPACE_ID = "workspace123";
+
+  @Mock private Workspace workspace;
+  @Mock private BackupFingerprintStore fingerprintStore;
+  @Mock private DedupBackupStorage dedupStorage;
+  @Mock private WorkspaceFilesCleanUpScriptExecutor scriptExecutor;
+
+  private File root;
+  private File wsFolder;
+  private MetricRegistry metricRegistry;
+  private AsyncWorkspaceFilesCleaner cleaner;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    root = Files.createTempDirectory("workspaces").toFile();
+    WorkspaceIdHashLocationFinder finder = new WorkspaceIdHashLocationFinder();
+    wsFolder = finder.calculateDirPath(root, WORKSPACE_ID);
+    metricRegistry = new MetricRegistry();
+    cleaner =
+        new AsyncWorkspaceFilesCleaner(
+            finder,
+            root,
+            2,
+            fingerprintStore,
+            dedupStorage,
+            scriptExecutor,
+            new BackupMetrics(metricRegistry));
+    when(workspace.getId()).thenReturn(WORKSPACE_ID);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    cleaner.shutdown();
+    IoUtil.deleteRecursive(root);
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldMoveWorkspaceFilesToTrashAndDeleteThemInBackground() throws Exception {
+    createFiles(wsFolder.toPath());
+
+    cleaner.clear(workspace);
+
+    assertFalse(wsFolder.exists());
+    verify(fingerprintStore).invalidate(WORKSPACE_ID, wsFolder);
+    verify(dedupStorage).delete(WORKSPACE_ID);
+    awaitValue(() -> metricRegistry.timer("machine.backup.cleanup.duration").getCount(), 1);
+    awaitValue(cleaner::getQueueSize, 0);
+    assertTrash(0);
+    assertEquals(cleaner.getDeletedFilesCount(), 5);
+    assertEquals(cleaner.getReclaimedBytes(), 50);
+    assertEquals(metricRegistry.histogram("machine.backup.cleanup.bytes").getCount(), 1);
+    assertEquals(metricRegistry.histogram("machine.backup.cleanup.files").getCount(), 1);
+    verify(scriptExecutor, never()).deleteFolder(any(File.class));
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldResumeDeletionOfEntriesLeftInTrash() throws Exception {
+    createFiles(root.toPath().resolve(AsyncWorkspaceFilesCleaner.TRASH_DIR).resolve("ws.1"));
+    createFiles(root.toPath().resolve(AsyncWorkspaceFilesCleaner.TRASH_DIR).resolve("ws.2"));
+
+    cleaner.resumeDeletions();
+
+    awaitValue(() -> metricRegistry.timer("machine.backup.cleanup.duration").getCount(), 2);
+    assertTrash(0);
+    assertEquals(cleaner.getDeletedFilesCount(), 10);
+    assertEquals(cleaner.getReclaimedBytes(), 100);
+  }
+
+  @Test
+  public void shouldDeleteFilesInPlaceWithScriptIfTheyCantBeMovedToTrash() throws Exception {
+    createFiles(wsFolder.toPath());
+    // trash folder can't be created
+    Files.write(root.toPath().resolve(AsyncWorkspaceFilesCleaner.TRASH_DIR), new byte[0]);
+
+    cleaner.clear(workspace);
+
+    verify(scriptExecutor).deleteFolder(wsFolder);
+    verify(dedupStorage).delete(WORKSPACE_ID);
+    assertEquals(cleaner.getQueueSize(), 0);
+    assertEquals(metricRegistry.timer("machine.backup.cleanup.duration").getCount(), 1);
+  }
+
+  @Test
+  public void shouldNotQueueDeletionIfWorkspaceHasNoFiles() throws Exception {
+    cleaner.clear(workspace);
+
+    verify(fingerprintStore).invalidate(WORKSPACE_ID, wsFolder);
+    verify(dedupStorage).delete(WORKSPACE_ID);
+    assertEquals(cleaner.getQueueSize(), 0);
+    assertFalse(root.toPath().resolve(AsyncWorkspaceFilesCleaner.TRASH_DIR).toFile().exists());
+  }
+
+  private void assertTrash(int entries) throws Exception {
+    Path trash = root.toPath().resolve(AsyncWorkspaceFilesCleaner.TRASH_DIR);
+    assertTrue(Files.isDirectory(trash));
+    assertEquals(trash.toFile().list().length, entries);
+  }
+
+  /** Creates 5 files of 10 bytes each in nested folders. */
+  private static void createFiles(Path folder) throws Exception {
+    Files.createDirectories(folder.resolve("app/src/main"));
+    Files.createDirectories(folder.resolve("lib/empty"));
+    Files.write(folder.resolve("README.md"), "0123456789".getBytes(UTF_8));
+    Files.write(folder.resolve("app/pom.xml"), "0123456789".getBytes(UTF_8));
+    Files.write(folder.resolve("app/src/main/A.java"), "0123456789".getBytes(UTF_8));
+    Files.write(folder.resolve("app/src/main/B.java"), "0123456789".getBytes(UTF_8));
+    Files.write(folder.resolve("lib/lib.jar"), "0123456789".getBytes(UTF_8));
+  }
+
+  /** Waits until the value becomes equal to expected, test timeout limits the waiting. */
+  private static void awaitValue(LongSupplier value, long expected) throws Exception {
+    while (value.getAsLong() != expected) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+}
@@ -16,7 +16,12 @@ import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codenvy.machine.backup.BackupFingerprintStore;
+import com.codenvy.machine.backup.BackupMetrics;
+import com.codenvy.machine.backup.DedupBackupStorage;
 import com.codenvy.machine.backup.WorkspaceIdHashLocationFinder;
 import java.io.File;
 import java.util.concurrent.TimeoutException;
@@ -38,15 +43,25 @@ public class WorkspaceFilesCleanUpScriptExecutorTest {
   @Mock private File file;
   @Mock private Workspace workspace;
   @Mock private WorkspaceIdHashLocationFinder workspaceIdHashLocationFinder;
+  @Mock private BackupFingerprintStore fingerprintStore;
+  @Mock private DedupBackupStorage dedupStorage;
 
+  private MetricRegistry metricRegistry;
   private WorkspaceFilesCleanUpScriptExecutor workspaceFilesCleaner;
 
   @BeforeMethod
   public void cleanUp() throws Exception {
+    metricRegistry = new MetricRegistry();
     workspaceFilesCleaner =
         spy(
             new WorkspaceFilesCleanUpScriptExecutor(
-                workspaceIdHashLocationFinder, file, TEXT, CLEAN_UP_DURATION));
+                workspaceIdHashLocationFinder,
+                file,
+                TEXT,
+                CLEAN_UP_DURATION,
+                fingerprintStore,
+                dedupStorage,
+                new BackupMetrics(metricRegistry)));
     doReturn(file).when(workspaceIdHashLocationFinder).calculateDirPath(file, TEXT);
     when(workspace.getId()).thenReturn(TEXT);
     when(file.getAbsolutePath()).thenReturn(TEXT);
@@ -60,6 +75,9 @@ public class WorkspaceFilesCleanUpScriptExecutorTest {
     verify(workspaceIdHashLocationFinder).calculateDirPath(file, TEXT);
     verify(file).getAbsolutePath();
     verify(workspaceFilesCleaner).execute(new String[] {TEXT, TEXT}, CLEAN_UP_DURATION);
+    verify(fingerprintStore).invalidate(TEXT, file);
+    verify(dedupStorage).delete(TEXT);
+    assertEquals(metricRegistry.timer("machine.backup.cleanup.duration").getCount(), 1);
   }
 
   @Test(expectedExceptions = ServerException.class)
@@ -69,7 +87,11 @@ public class WorkspaceFilesCleanUpScriptExecutorTest {
         .when(workspaceFilesCleaner)
         .execute(new String[] {TEXT, TEXT}, CLEAN_UP_DURATION);
 
-    workspaceFilesCleaner.clear(workspace);
+    try {
+      workspaceFilesCleaner.clear(workspace);
+    } finally {
+      assertEquals(metricRegistry.meter("machine.backup.cleanup.failures").getCount(), 1);
+    }
   }
 
   @Test(expectedExceptions = ServerException.class)
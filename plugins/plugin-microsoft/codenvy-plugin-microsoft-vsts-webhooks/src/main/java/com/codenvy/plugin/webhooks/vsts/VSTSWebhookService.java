@@ -23,6 +23,7 @@ import com.codenvy.plugin.webhooks.BaseWebhookService;
 import com.codenvy.plugin.webhooks.FactoryConnection;
 import com.codenvy.plugin.webhooks.FactoryType;
 import com.codenvy.plugin.webhooks.UserConnection;
+import com.codenvy.plugin.webhooks.WebhookEventQueue;
 import com.codenvy.plugin.webhooks.vsts.shared.GenericEvent;
 import com.codenvy.plugin.webhooks.vsts.shared.PullRequestUpdatedEvent;
 import com.codenvy.plugin.webhooks.vsts.shared.WorkItemCreationEvent;
@@ -68,6 +69,9 @@ public class VSTSWebhookService extends BaseWebhookService {
 
   private static final Logger LOG = LoggerFactory.getLogger(VSTSWebhookService.class);
   private static final String VSTS_WEBHOOKS_PROPERTIES_FILENAME = "vsts-webhooks.properties";
+  // all the events modify webhooks stored in the same properties file,
+  // so they are processed one by one regardless of the repository
+  private static final String VSTS_EVENTS_ORDERING_KEY = "vsts";
 
   private final FactoryConnection factoryConnection;
   private final UserConnection userConnection;
@@ -80,9 +84,11 @@ public class VSTSWebhookService extends BaseWebhookService {
       final UserConnection userConnection,
       final VSTSConnection vstsConnection,
       final ConfigurationProperties configurationProperties,
+      final WebhookEventQueue eventQueue,
       @Named("integration.factory.owner.username") String username,
       @Named("integration.factory.owner.password") String password) {
-    super(authConnection, factoryConnection, configurationProperties, username, password);
+    super(
+        authConnection, factoryConnection, configurationProperties, eventQueue, username, password);
 
     this.factoryConnection = factoryConnection;
     this.userConnection = userConnection;
@@ -119,14 +125,20 @@ public class VSTSWebhookService extends BaseWebhookService {
             final WorkItemCreationEvent wicEvent =
                 DtoFactory.getInstance()
                     .createDtoFromJson(requestInputString, WorkItemCreationEvent.class);
-            handleWorkItemCreationEvent(wicEvent);
+            enqueue(
+                genericEvent.getId(),
+                VSTS_EVENTS_ORDERING_KEY,
+                () -> handleWorkItemCreationEvent(wicEvent));
             break;
           case "git.pullrequest.updated":
             // Create {@link PullRequestUpdatedEvent} from JSON
             final PullRequestUpdatedEvent pruEvent =
                 DtoFactory.getInstance()
                     .createDtoFromJson(requestInputString, PullRequestUpdatedEvent.class);
-            handlePullRequestUpdatedEvent(pruEvent);
+            enqueue(
+                genericEvent.getId(),
+                VSTS_EVENTS_ORDERING_KEY,
+                () -> handlePullRequestUpdatedEvent(pruEvent));
             break;
           default:
             response =
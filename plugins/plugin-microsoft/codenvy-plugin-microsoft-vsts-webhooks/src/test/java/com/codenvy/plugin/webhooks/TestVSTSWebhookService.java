@@ -23,6 +23,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Response;
@@ -83,6 +84,15 @@ public class TestVSTSWebhookService {
             org.eclipse.che.commons.lang.Pair.of("username", "password")))
         .thenReturn("https://fabrikam-fiber-inc.visualstudio.com/DefaultCollection/test-project");
 
+    // Prepare eventQueue, events are processed synchronously
+    WebhookEventQueue mockEventQueue = mock(WebhookEventQueue.class);
+    when(mockEventQueue.offer(anyObject(), anyObject(), anyObject()))
+        .thenAnswer(
+            invocation -> {
+              ((WebhookEventQueue.EventHandler) invocation.getArguments()[2]).handle();
+              return CompletableFuture.completedFuture(null);
+            });
+
     // Prepare VSTSWebhookService
     fakeVSTSWebhookService =
         new VSTSWebhookService(
@@ -91,6 +101,7 @@ public class TestVSTSWebhookService {
             mockUserConnection,
             mockVSTSConnection,
             mock(ConfigurationProperties.class),
+            mockEventQueue,
             "username",
             "password");
   }
@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import org.eclipse.che.api.auth.shared.dto.Token;
 import org.eclipse.che.api.core.ForbiddenException;
@@ -61,6 +63,7 @@ public abstract class BaseWebhookService extends Service {
   private final AuthConnection authConnection;
   private final FactoryConnection factoryConnection;
   private final ConfigurationProperties configurationProperties;
+  private final WebhookEventQueue eventQueue;
   private final String username;
   private final String password;
 
@@ -70,15 +73,58 @@ public abstract class BaseWebhookService extends Service {
       final AuthConnection authConnection,
       final FactoryConnection factoryConnection,
       ConfigurationProperties configurationProperties,
+      WebhookEventQueue eventQueue,
       String username,
       String password) {
     this.authConnection = authConnection;
     this.factoryConnection = factoryConnection;
     this.configurationProperties = configurationProperties;
+    this.eventQueue = eventQueue;
     this.username = username;
     this.password = password;
   }
 
+  /**
+   * Process webhook event in {@link WebhookEventQueue} and wait until it is processed, so the event
+   * is acknowledged only after it is processed. The handler is executed by {@link
+   * WebhookEventQueue} worker with an empty {@link org.eclipse.che.commons.env.EnvironmentContext},
+   * so it has to set the subject itself
+   *
+   * @param deliveryId the id which is the same for redeliveries of the event, or null if the event
+   *     has no such id
+   * @param repositoryUrl the URL of the repository the event belongs to, events of the same
+   *     repository are processed in the order they were accepted
+   * @param handler the processing of the event
+   * @throws ServerException when the event can't be accepted as there are too many pending events,
+   *     or when processing of the event fails
+   */
+  protected void enqueue(
+      final String deliveryId,
+      final String repositoryUrl,
+      final WebhookEventQueue.EventHandler handler)
+      throws ServerException {
+    final CompletableFuture<Void> result = eventQueue.offer(deliveryId, repositoryUrl, handler);
+    if (result == null) {
+      throw new ServerException(
+          "Too many webhook events are waiting for processing, event for repository "
+              + repositoryUrl
+              + " can't be accepted right now");
+    }
+    try {
+      result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServerException(
+          "Processing of webhook event for repository " + repositoryUrl + " is interrupted");
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof ServerException) {
+        throw (ServerException) cause;
+      }
+      throw new ServerException(cause.getMessage());
+    }
+  }
+
   /**
    * Get factories that contain a project for given repository and branch
    *
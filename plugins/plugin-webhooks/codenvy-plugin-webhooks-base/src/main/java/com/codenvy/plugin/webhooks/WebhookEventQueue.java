@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.plugin.webhooks;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.commons.env.EnvironmentContext;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes webhook events on a bounded pool of workers. Events with the same ordering key, which
+ * is usually the repository url, are processed one by one in the order they were accepted, while
+ * events of different repositories are processed in parallel.
+ *
+ * <p>Accepted events live in memory only, so the delivery of an event must not be acknowledged
+ * before the event is processed, otherwise events accepted before a stop of the server are lost.
+ * Each accepted event has a result which is completed when the event is processed, and the request
+ * which delivered the event waits for it. Events which are not processed because the queue is shut
+ * down complete with an error, so their deliveries fail and can be redelivered.
+ *
+ * <p>Events redelivered with the same delivery id get the result of the original event if it is
+ * waiting for processing or was successfully processed within the deduplication window, e.g. when
+ * the provider redelivers an event after a timeout of the original request. Failed deliveries are
+ * removed from the deduplication window, so a redelivery of a failed event is processed again.
+ *
+ * <p>When the number of accepted but not yet processed events reaches the configured limit new
+ * events are rejected, so the provider can redeliver them later.
+ */
+@Singleton
+public class WebhookEventQueue {
+  private static final Logger LOG = LoggerFactory.getLogger(WebhookEventQueue.class);
+
+  private static final long MAX_REMEMBERED_DELIVERIES = 10_000;
+  private static final long SHUTDOWN_TIMEOUT_SEC = 30;
+
+  /** Processing of a single webhook event. */
+  @FunctionalInterface
+  public interface EventHandler {
+    void handle() throws ServerException, IOException;
+  }
+
+  private final ThreadPoolExecutor executor;
+  private final int queueSize;
+  /** Delivery id -> result of processing of the delivered event. */
+  private final Cache<String, CompletableFuture<Void>> deliveries;
+  /** Events waiting for processing grouped by ordering key, guarded by itself. */
+  private final Map<String, Deque<Event>> orderedEvents = new HashMap<>();
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicInteger processing = new AtomicInteger();
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  @Inject
+  public WebhookEventQueue(
+      @Named("webhooks.processing.pool_size") int poolSize,
+      @Named("webhooks.processing.queue_size") int queueSize,
+      @Named("webhooks.processing.deduplication_window_sec") long deduplicationWindowSec) {
+    if (poolSize <= 0 || queueSize <= 0 || deduplicationWindowSec < 0) {
+      throw new IllegalArgumentException(
+          "Webhooks processing pool size and queue size must be positive, "
+              + "deduplication window must not be negative");
+    }
+    this.queueSize = queueSize;
+    this.deliveries =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_REMEMBERED_DELIVERIES)
+            .expireAfterWrite(deduplicationWindowSec, TimeUnit.SECONDS)
+            .build();
+    this.executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("WebhookEventProcessor-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Accepts the event for processing and returns immediately.
+   *
+   * @param deliveryId identifier of the event delivery which is the same for redeliveries of the
+   *     event, if it is null the event is not checked for duplicates
+   * @param orderingKey events with the same key are processed in the order they were accepted
+   * @param handler processing of the event
+   * @return result of processing of the event, which completes with the error of the handler if
+   *     processing fails, or result of the already accepted event if the event is a duplicate, or
+   *     null if the event is rejected because the queue is full
+   */
+  public CompletableFuture<Void> offer(
+      String deliveryId, String orderingKey, EventHandler handler) {
+    final Event event = new Event(deliveryId, handler);
+    if (deliveryId != null) {
+      final CompletableFuture<Void> original =
+          deliveries.asMap().putIfAbsent(deliveryId, event.result);
+      if (original != null) {
+        duplicates.incrementAndGet();
+        LOG.debug(
+            "Webhook event delivery {} is a duplicate and is not processed again", deliveryId);
+        return original;
+      }
+    }
+    if (pending.incrementAndGet() > queueSize) {
+      reject(event);
+      return null;
+    }
+
+    synchronized (orderedEvents) {
+      final Deque<Event> keyEvents = orderedEvents.get(orderingKey);
+      if (keyEvents != null) {
+        // previous event with the same key is being processed, it will schedule this one
+        keyEvents.add(event);
+        return event.result;
+      }
+      orderedEvents.put(orderingKey, new ArrayDeque<>());
+    }
+    try {
+      executor.execute(new OrderedTask(orderingKey, event));
+    } catch (RejectedExecutionException x) {
+      synchronized (orderedEvents) {
+        orderedEvents.remove(orderingKey);
+      }
+      reject(event);
+      return null;
+    }
+    return event.result;
+  }
+
+  /** @return number of events waiting for processing */
+  @Gauge(name = "webhooks.processing.queue_size")
+  public int getQueueSize() {
+    return pending.get() - processing.get();
+  }
+
+  /** @return number of events which are currently processed */
+  @Gauge(name = "webhooks.processing.active")
+  public int getActiveCount() {
+    return processing.get();
+  }
+
+  /** @return number of successfully processed events */
+  @Gauge(name = "webhooks.processing.processed")
+  public long getProcessedCount() {
+    return processed.get();
+  }
+
+  /** @return number of events which failed to be processed */
+  @Gauge(name = "webhooks.processing.failed")
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  /** @return number of ignored event redeliveries */
+  @Gauge(name = "webhooks.processing.duplicates")
+  public long getDuplicatesCount() {
+    return duplicates.get();
+  }
+
+  /** @return number of events rejected because the queue was full */
+  @Gauge(name = "webhooks.processing.rejected")
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  @PreDestroy
+  public void shutdown() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+      for (Runnable task : executor.shutdownNow()) {
+        final OrderedTask orderedTask = (OrderedTask) task;
+        dropEvents(orderedTask.orderingKey, orderedTask.event);
+      }
+    }
+  }
+
+  /**
+   * Drops events with the given key which can't be processed as the queue is shut down.
+   *
+   * @param event the event which failed to be scheduled and is not in the queue anymore
+   */
+  private void dropEvents(String orderingKey, Event event) {
+    final List<Event> dropped = new ArrayList<>();
+    dropped.add(event);
+    synchronized (orderedEvents) {
+      final Deque<Event> keyEvents = orderedEvents.remove(orderingKey);
+      if (keyEvents != null) {
+        dropped.addAll(keyEvents);
+      }
+    }
+    pending.addAndGet(-dropped.size());
+    for (Event droppedEvent : dropped) {
+      fail(
+          droppedEvent,
+          new ServerException(
+              "Webhook events queue is shut down, event of " + orderingKey + " is not processed"));
+    }
+    LOG.warn(
+        "Webhook events queue is shut down, {} events of {} are not processed",
+        dropped.size(),
+        orderingKey);
+  }
+
+  private void process(Event event) {
+    processing.incrementAndGet();
+    try {
+      event.handler.handle();
+      processed.incrementAndGet();
+      event.result.complete(null);
+    } catch (Exception x) {
+      failed.incrementAndGet();
+      LOG.warn(
+          "Failed to process webhook event delivery {}. Error: {}",
+          event.deliveryId,
+          x.getMessage());
+      fail(event, x);
+    } finally {
+      processing.decrementAndGet();
+      pending.decrementAndGet();
+      EnvironmentContext.reset();
+      // the handler failed with an error, the request which waits for the event must not hang
+      if (!event.result.isDone()) {
+        fail(event, new ServerException("Processing of the webhook event is aborted"));
+      }
+    }
+  }
+
+  private void reject(Event event) {
+    pending.decrementAndGet();
+    rejected.incrementAndGet();
+    LOG.warn("Webhook events queue is full, event delivery {} is rejected", event.deliveryId);
+    // a duplicate may already wait for the result of the rejected event
+    fail(
+        event,
+        new ServerException("Webhook events queue is full, the event can't be accepted right now"));
+  }
+
+  /** Completes the event with the error and forgets its delivery, so it can be redelivered. */
+  private void fail(Event event, Exception error) {
+    if (event.deliveryId != null) {
+      deliveries.asMap().remove(event.deliveryId, event.result);
+    }
+    event.result.completeExceptionally(error);
+  }
+
+  /** Webhook event accepted for processing. */
+  private static class Event {
+    final String deliveryId;
+    final EventHandler handler;
+    final CompletableFuture<Void> result;
+
+    Event(String deliveryId, EventHandler handler) {
+      this.deliveryId = deliveryId;
+      this.handler = handler;
+      this.result = new CompletableFuture<>();
+    }
+  }
+
+  /** Processes the event and schedules the next event with the same key if there is one. */
+  private class OrderedTask implements Runnable {
+    final String orderingKey;
+    final Event event;
+
+    OrderedTask(String orderingKey, Event event) {
+      this.orderingKey = orderingKey;
+      this.event = event;
+    }
+
+    @Override
+    public void run() {
+      try {
+        process(event);
+      } finally {
+        final Event next;
+        synchronized (orderedEvents) {
+          next = orderedEvents.get(orderingKey).poll();
+          if (next == null) {
+            orderedEvents.remove(orderingKey);
+          }
+        }
+        if (next != null) {
+          // resubmit instead of looping, so events of a busy repository don't hold the worker
+          try {
+            executor.execute(new OrderedTask(orderingKey, next));
+          } catch (RejectedExecutionException x) {
+            dropEvents(orderingKey, next);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.plugin.webhooks;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import org.eclipse.che.api.core.ServerException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/** Tests {@link WebhookEventQueue}. */
+public class WebhookEventQueueTest {
+
+  private WebhookEventQueue queue;
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (queue != null) {
+      queue.shutdown();
+    }
+  }
+
+  @Test(timeOut = 10_000)
+  public void processesEventsOfTheSameRepositoryInOrder() throws Exception {
+    queue = new WebhookEventQueue(4, 100, 60);
+    List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch allProcessed = new CountDownLatch(50);
+
+    for (int i = 0; i < 50; i++) {
+      int idx = i;
+      assertNotNull(
+          queue.offer(
+              "delivery" + i,
+              "repository",
+              () -> {
+                sleepRandomly();
+                processed.add(idx);
+                allProcessed.countDown();
+              }));
+    }
+
+    assertTrue(allProcessed.await(5, TimeUnit.SECONDS));
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      expected.add(i);
+    }
+    assertEquals(processed, expected);
+    awaitValue(queue::getProcessedCount, 50);
+  }
+
+  @Test(timeOut = 10_000)
+  public void processesEventsOfDifferentRepositoriesInParallel() throws Exception {
+    queue = new WebhookEventQueue(2, 100, 60);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch otherProcessed = new CountDownLatch(1);
+
+    queue.offer("delivery1", "repository1", waitFor(release));
+    queue.offer("delivery2", "repository1", otherProcessed::countDown);
+    queue.offer("delivery3", "repository2", otherProcessed::countDown);
+
+    // the event of the second repository doesn't wait for the first repository events
+    assertTrue(otherProcessed.await(5, TimeUnit.SECONDS));
+    awaitValue(queue::getActiveCount, 1);
+    awaitValue(queue::getQueueSize, 1);
+
+    release.countDown();
+    awaitValue(queue::getProcessedCount, 3);
+  }
+
+  @Test(timeOut = 10_000)
+  public void ignoresRedeliveredEvents() throws Exception {
+    queue = new WebhookEventQueue(1, 100, 60);
+    AtomicInteger handled = new AtomicInteger();
+
+    CompletableFuture<Void> original =
+        queue.offer("delivery", "repository", handled::incrementAndGet);
+    original.get();
+    CompletableFuture<Void> redelivered =
+        queue.offer("delivery", "repository", handled::incrementAndGet);
+
+    assertSame(redelivered, original);
+    assertEquals(queue.getDuplicatesCount(), 1);
+    assertEquals(handled.get(), 1);
+  }
+
+  @Test(timeOut = 10_000)
+  public void completesResultOfEventWhenItIsProcessed() throws Exception {
+    queue = new WebhookEventQueue(1, 100, 60);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<Void> result = queue.offer("delivery", "repository", waitFor(release));
+    // redelivery of the event which is processed waits for the same result
+    CompletableFuture<Void> redelivered = queue.offer("delivery", "repository", () -> {});
+
+    assertSame(redelivered, result);
+    assertFalse(result.isDone());
+    release.countDown();
+    result.get();
+  }
+
+  @Test(timeOut = 10_000)
+  public void completesResultOfEventWithErrorOfProcessing() throws Exception {
+    queue = new WebhookEventQueue(1, 100, 60);
+    ServerException error = new ServerException("No factory found");
+
+    CompletableFuture<Void> result =
+        queue.offer(
+            "delivery",
+            "repository",
+            () -> {
+              throw error;
+            });
+
+    try {
+      result.get();
+      fail("Processing of the event is expected to fail");
+    } catch (ExecutionException x) {
+      assertSame(x.getCause(), error);
+    }
+  }
+
+  @Test(timeOut = 10_000)
+  public void processesRedeliveryOfFailedEvent() throws Exception {
+    queue = new WebhookEventQueue(1, 100, 60);
+    AtomicInteger handled = new AtomicInteger();
+
+    queue.offer(
+        "delivery",
+        "repository",
+        () -> {
+          throw new ServerException("No factory found");
+        });
+    awaitValue(queue::getFailedCount, 1);
+    queue.offer("delivery", "repository", handled::incrementAndGet);
+    awaitValue(queue::getProcessedCount, 1);
+
+    assertEquals(queue.getDuplicatesCount(), 0);
+    assertEquals(handled.get(), 1);
+  }
+
+  @Test(timeOut = 10_000)
+  public void rejectsEventsWhenQueueIsFull() throws Exception {
+    queue = new WebhookEventQueue(1, 2, 60);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger handled = new AtomicInteger();
+
+    assertNotNull(queue.offer("delivery1", "repository1", waitFor(release)));
+    assertNotNull(queue.offer("delivery2", "repository2", handled::incrementAndGet));
+    assertNull(queue.offer("delivery3", "repository3", handled::incrementAndGet));
+    assertEquals(queue.getRejectedCount(), 1);
+
+    release.countDown();
+    awaitValue(queue::getProcessedCount, 2);
+
+    // rejected event is accepted when redelivered
+    assertNotNull(queue.offer("delivery3", "repository3", handled::incrementAndGet));
+    awaitValue(queue::getProcessedCount, 3);
+    assertEquals(handled.get(), 2);
+  }
+
+  @Test(timeOut = 10_000)
+  public void dropsQueuedEventsOfRepositoryWhenShutDown() throws Exception {
+    queue = new WebhookEventQueue(1, 100, 60);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger handled = new AtomicInteger();
+    queue.offer("delivery1", "repository", waitFor(release));
+    CompletableFuture<Void> second =
+        queue.offer("delivery2", "repository", handled::incrementAndGet);
+    CompletableFuture<Void> third =
+        queue.offer("delivery3", "repository", handled::incrementAndGet);
+    awaitValue(queue::getActiveCount, 1);
+
+    Thread shutdown =
+        new Thread(
+            () -> {
+              try {
+                queue.shutdown();
+              } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    shutdown.start();
+    // events of other repositories are rejected once the queue is shut down
+    while (queue.offer(null, "other-repository", () -> {}) != null) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    release.countDown();
+    shutdown.join();
+
+    assertEquals(handled.get(), 0);
+    assertEquals(queue.getQueueSize(), 0);
+    // deliveries of dropped events fail, so they can be redelivered
+    assertTrue(second.isCompletedExceptionally());
+    assertTrue(third.isCompletedExceptionally());
+  }
+
+  /** Waits until the value becomes equal to expected, test timeout limits the waiting. */
+  private static void awaitValue(LongSupplier value, long expected) throws Exception {
+    while (value.getAsLong() != expected) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
+  private static WebhookEventQueue.EventHandler waitFor(CountDownLatch release) {
+    return () -> {
+      try {
+        release.await();
+      } catch (InterruptedException x) {
+        Thread.currentThread().interrupt();
+        throw new ServerException(x.getMessage());
+      }
+    };
+  }
+
+  private static void sleepRandomly() throws ServerException {
+    try {
+      TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextInt(3));
+    } catch (InterruptedException x) {
+      Thread.currentThread().interrupt();
+      throw new ServerException(x.getMessage());
+    }
+  }
+}
@@ -15,18 +15,32 @@ import static org.eclipse.che.multiuser.permission.workspace.server.WorkspaceDom
 
 import com.codenvy.api.audit.server.printer.Printer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.che.api.core.ConflictException;
@@ -46,6 +60,12 @@ import org.slf4j.LoggerFactory;
 /**
  * Facade for audit report related operations.
  *
+ * <p>Users are processed in parallel by a bounded number of threads, while their info is written
+ * into the report in the order of users pages through a single buffered writer. Permissions are
+ * fetched once per workspace for all its users and kept for a limited number of recently used
+ * workspaces, so workspaces shared between users are rarely requested again while memory used by
+ * the report doesn't grow with the number of workspaces.
+ *
  * @author Igor Vinokur
  */
 @Singleton
@@ -53,20 +73,33 @@ public class AuditManager {
 
   private static final Logger LOG = LoggerFactory.getLogger(AuditManager.class);
 
+  private static final int USERS_PAGE_SIZE = 30;
+  private static final int PERMISSIONS_PAGE_SIZE = 100;
+  private static final int PERMISSIONS_CACHE_SIZE = 1000;
+
   private final WorkspaceManager workspaceManager;
   private final PermissionsManager permissionsManager;
   private final UserManager userManager;
+  private final int parallelism;
 
   private AtomicBoolean inProgress = new AtomicBoolean(false);
+  private final AtomicLong processedUsers = new AtomicLong();
+  private volatile long totalUsers;
+  private volatile long startedAt;
 
   @Inject
   public AuditManager(
       UserManager userManager,
       WorkspaceManager workspaceManager,
-      PermissionsManager permissionsManager) {
+      PermissionsManager permissionsManager,
+      @Named("audit.report.parallelism") int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Audit report parallelism must be positive");
+    }
     this.userManager = userManager;
     this.workspaceManager = workspaceManager;
     this.permissionsManager = permissionsManager;
+    this.parallelism = parallelism;
   }
 
   /**
@@ -83,10 +116,23 @@ public class AuditManager {
     }
 
     Path auditReport = null;
+    ExecutorService executor = null;
     try {
+      processedUsers.set(0);
+      totalUsers = userManager.getTotalCount();
+      startedAt = System.currentTimeMillis();
       auditReport = createEmptyAuditReportFile();
-      printSystemInfo(auditReport);
-      printAllUsersInfo(auditReport);
+      executor =
+          Executors.newFixedThreadPool(
+              parallelism,
+              new ThreadFactoryBuilder()
+                  .setNameFormat("AuditReportGenerator-%d")
+                  .setDaemon(true)
+                  .build());
+      try (Writer writer = Files.newBufferedWriter(auditReport, Charset.defaultCharset())) {
+        printSystemInfo(writer, totalUsers);
+        printAllUsersInfo(writer, executor);
+      }
     } catch (Exception exception) {
       if (auditReport != null) {
         deleteReportDirectory(auditReport);
@@ -94,12 +140,20 @@ public class AuditManager {
       LOG.error(exception.getMessage(), exception);
       throw new ServerException(exception.getMessage(), exception);
     } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
       inProgress.set(false);
     }
 
     return auditReport;
   }
 
+  /** Returns progress of the audit report which is being generated or of the last one. */
+  public AuditReportProgress getProgress() {
+    return new AuditReportProgress(inProgress.get(), totalUsers, processedUsers.get(), startedAt);
+  }
+
   private Path createEmptyAuditReportFile() throws IOException {
     String dateTime = new SimpleDateFormat("dd-MM-yyyy_hh:mm:ss").format(new Date());
     Path auditReport = createTempDirectory(null).resolve("report_" + dateTime + ".txt");
@@ -107,51 +161,112 @@ public class AuditManager {
     return auditReport;
   }
 
-  void printSystemInfo(Path auditReport) throws ServerException {
-    Printer.createSystemInfoPrinter(auditReport, userManager.getTotalCount()).print();
+  void printSystemInfo(Writer auditReport, long allUsersNumber) throws ServerException {
+    Printer.createSystemInfoPrinter(auditReport, allUsersNumber).print();
   }
 
-  private void printDelimiter(Path auditReport, String title) throws ServerException {
+  private void printDelimiter(Writer auditReport, String title) throws ServerException {
     Printer.createDelimiterPrinter(auditReport, title).print();
   }
 
-  private void printAllUsersInfo(Path auditReport) throws ServerException {
-    Page<UserImpl> currentPage = userManager.getAll(30, 0);
+  private void printAllUsersInfo(Writer auditReport, ExecutorService executor)
+      throws ServerException, IOException, InterruptedException {
+    // permissions of workspaces by user ids, shared between users of the report
+    Cache<String, Map<String, AbstractPermissions>> permissionsCache =
+        CacheBuilder.newBuilder().maximumSize(PERMISSIONS_CACHE_SIZE).build();
+    // users info is written in order of submission, the queue limits number of users in memory
+    Queue<Future<String>> pending = new ArrayDeque<>();
+    int maxPending = parallelism * 2;
+    Page<UserImpl> currentPage = userManager.getAll(USERS_PAGE_SIZE, 0);
     do {
-      // Print users with their workspaces from current page
       for (UserImpl user : currentPage.getItems()) {
-        List<WorkspaceImpl> workspaces;
-        try {
-          workspaces = workspaceManager.getWorkspaces(user.getId(), false);
-          Set<String> workspaceIds =
-              workspaces.stream().map(WorkspaceImpl::getId).collect(Collectors.toSet());
-          // add workspaces witch are belong to user, but user doesn't have permissions for them.
-          workspaceManager
-              .getByNamespace(user.getName(), false)
-              .stream()
-              .filter(workspace -> !workspaceIds.contains(workspace.getId()))
-              .forEach(workspaces::add);
-        } catch (ServerException exception) {
-          Printer.createErrorPrinter(
-                  auditReport,
-                  "Failed to retrieve the list of related workspaces for user " + user.getId())
-              .print();
-          continue;
+        pending.add(executor.submit(() -> getUserInfo(user, permissionsCache)));
+        if (pending.size() >= maxPending) {
+          auditReport.write(getResult(pending.poll()));
         }
-        Map<String, AbstractPermissions> wsPermissions = new HashMap<>();
-        for (WorkspaceImpl workspace : workspaces) {
-          try {
-            wsPermissions.put(
-                workspace.getId(),
-                permissionsManager.get(user.getId(), DOMAIN_ID, workspace.getId()));
-          } catch (NotFoundException | ConflictException ignored) {
-            // User doesn't have permissions for workspace
-          }
+      }
+    } while ((currentPage = getNextPage(currentPage)) != null);
+    while (!pending.isEmpty()) {
+      auditReport.write(getResult(pending.poll()));
+    }
+  }
+
+  /** Returns info about the user and the workspaces related to him in the audit report format. */
+  private String getUserInfo(
+      UserImpl user, Cache<String, Map<String, AbstractPermissions>> permissionsCache)
+      throws ServerException {
+    StringWriter userInfo = new StringWriter();
+    List<WorkspaceImpl> workspaces;
+    try {
+      workspaces = workspaceManager.getWorkspaces(user.getId(), false);
+      Set<String> workspaceIds =
+          workspaces.stream().map(WorkspaceImpl::getId).collect(Collectors.toSet());
+      // add workspaces witch are belong to user, but user doesn't have permissions for them.
+      workspaceManager
+          .getByNamespace(user.getName(), false)
+          .stream()
+          .filter(workspace -> !workspaceIds.contains(workspace.getId()))
+          .forEach(workspaces::add);
+    } catch (ServerException exception) {
+      Printer.createErrorPrinter(
+              userInfo,
+              "Failed to retrieve the list of related workspaces for user " + user.getId())
+          .print();
+      processedUsers.incrementAndGet();
+      return userInfo.toString();
+    }
+    Map<String, AbstractPermissions> wsPermissions = new HashMap<>();
+    for (WorkspaceImpl workspace : workspaces) {
+      Map<String, AbstractPermissions> usersPermissions =
+          permissionsCache.getIfPresent(workspace.getId());
+      if (usersPermissions == null) {
+        usersPermissions = getWorkspacePermissions(workspace.getId());
+        permissionsCache.put(workspace.getId(), usersPermissions);
+      }
+      AbstractPermissions permissions = usersPermissions.get(user.getId());
+      if (permissions != null) {
+        wsPermissions.put(workspace.getId(), permissions);
+      }
+    }
+    Printer.createUserPrinter(userInfo, user, workspaces, wsPermissions).print();
+    processedUsers.incrementAndGet();
+    return userInfo.toString();
+  }
+
+  /** Fetches permissions of all the users of the workspace, mapped by user id. */
+  private Map<String, AbstractPermissions> getWorkspacePermissions(String workspaceId)
+      throws ServerException {
+    Map<String, AbstractPermissions> usersPermissions = new HashMap<>();
+    try {
+      Page<AbstractPermissions> permissionsPage =
+          permissionsManager.getByInstance(DOMAIN_ID, workspaceId, PERMISSIONS_PAGE_SIZE, 0);
+      while (true) {
+        for (AbstractPermissions permissions : permissionsPage.getItems()) {
+          usersPermissions.put(permissions.getUserId(), permissions);
+        }
+        if (!permissionsPage.hasNextPage()) {
+          break;
         }
-        Printer.createUserPrinter(auditReport, user, workspaces, wsPermissions).print();
+        PageRef nextPageRef = permissionsPage.getNextPageRef();
+        permissionsPage =
+            permissionsManager.getByInstance(
+                DOMAIN_ID, workspaceId, nextPageRef.getPageSize(), nextPageRef.getItemsBefore());
       }
+    } catch (NotFoundException | ConflictException ignored) {
+      // Workspace doesn't have permissions
+    }
+    return usersPermissions;
+  }
 
-    } while ((currentPage = getNextPage(currentPage)) != null);
+  private String getResult(Future<String> userInfo) throws ServerException, InterruptedException {
+    try {
+      return userInfo.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ServerException) {
+        throw (ServerException) e.getCause();
+      }
+      throw new ServerException(e.getCause().getMessage(), e.getCause());
+    }
   }
 
   private Page<UserImpl> getNextPage(Page<UserImpl> currentPage) throws ServerException {
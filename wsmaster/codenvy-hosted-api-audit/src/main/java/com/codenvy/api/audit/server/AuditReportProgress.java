@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.api.audit.server;
+
+/** Describes progress of the audit report generation. */
+public class AuditReportProgress {
+
+  private final boolean inProgress;
+  private final long totalUsers;
+  private final long processedUsers;
+  private final long startedAt;
+
+  public AuditReportProgress(
+      boolean inProgress, long totalUsers, long processedUsers, long startedAt) {
+    this.inProgress = inProgress;
+    this.totalUsers = totalUsers;
+    this.processedUsers = processedUsers;
+    this.startedAt = startedAt;
+  }
+
+  /** Returns {@code true} if the audit report is being generated at the moment. */
+  public boolean isInProgress() {
+    return inProgress;
+  }
+
+  /** Number of users to include into the report being generated or into the last report. */
+  public long getTotalUsers() {
+    return totalUsers;
+  }
+
+  /** Number of users already included into the report being generated or into the last report. */
+  public long getProcessedUsers() {
+    return processedUsers;
+  }
+
+  /** Time in milliseconds when generation of the report was started or 0 if it never started. */
+  public long getStartedAt() {
+    return startedAt;
+  }
+}
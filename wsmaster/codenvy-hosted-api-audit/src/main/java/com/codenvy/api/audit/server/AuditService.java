@@ -71,4 +71,21 @@ public class AuditService extends Service {
         .header("Content-Disposition", "attachment; filename=" + report.getFileName().toString())
         .build();
   }
+
+  @GET
+  @Path("/progress")
+  @Produces(MediaType.APPLICATION_JSON)
+  @ApiOperation(
+    value = "Get progress of the audit report generation",
+    response = AuditReportProgress.class
+  )
+  @ApiResponses(
+    value = {
+      @ApiResponse(code = 200, message = "OK"),
+      @ApiResponse(code = 500, message = "Server error")
+    }
+  )
+  public AuditReportProgress getProgress() {
+    return auditManager.getProgress();
+  }
 }
@@ -33,7 +33,7 @@ public class AuditServicePermissionsFilter extends CheMethodInvokerFilter {
   protected void filter(GenericResourceMethod GenericResourceMethod, Object[] arguments)
       throws ApiException {
     String methodName = GenericResourceMethod.getMethod().getName();
-    if ("downloadReport".equals(methodName)) {
+    if ("downloadReport".equals(methodName) || "getProgress".equals(methodName)) {
       EnvironmentContext.getCurrent()
           .getSubject()
           .checkPermission(SystemDomain.DOMAIN_ID, null, MANAGE_SYSTEM_ACTION);
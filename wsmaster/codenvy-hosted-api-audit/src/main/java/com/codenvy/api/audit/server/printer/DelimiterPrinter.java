@@ -10,7 +10,7 @@
  */
 package com.codenvy.api.audit.server.printer;
 
-import java.nio.file.Path;
+import java.io.Writer;
 import org.eclipse.che.api.core.ServerException;
 
 /**
@@ -23,10 +23,10 @@ public class DelimiterPrinter extends Printer {
   private String title;
 
   /**
-   * @param auditReport path to the audit report
+   * @param auditReport writer of the audit report
    * @param title string inside delimiter
    */
-  public DelimiterPrinter(Path auditReport, String title) {
+  public DelimiterPrinter(Writer auditReport, String title) {
     super(auditReport);
 
     this.title = title;
@@ -14,11 +14,16 @@ import static java.nio.file.Files.createTempFile;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static org.apache.commons.io.FileUtils.readFileToString;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -61,7 +66,7 @@ public class AuditManagerTest {
   public void setUp() throws Exception {
     auditReport = createTempFile("report", ".txt");
 
-    auditManager = new AuditManager(userManager, workspaceManager, permissionsManager);
+    auditManager = new AuditManager(userManager, workspaceManager, permissionsManager, 4);
 
     // User
     UserImpl user1 = mock(UserImpl.class);
@@ -104,12 +109,10 @@ public class AuditManagerTest {
     when(ws1User1Permissions.getInstanceId()).thenReturn("Workspace1Id");
     when(ws2User1Permissions.getInstanceId()).thenReturn("Workspace2Id");
     when(ws2User2Permissions.getInstanceId()).thenReturn("Workspace2Id");
-    when(permissionsManager.get(eq("User1Id"), anyString(), eq("Workspace1Id")))
-        .thenReturn(ws1User1Permissions);
-    when(permissionsManager.get(eq("User1Id"), anyString(), eq("Workspace2Id")))
-        .thenReturn(ws2User1Permissions);
-    when(permissionsManager.get(eq("User2Id"), anyString(), eq("Workspace2Id")))
-        .thenReturn(ws2User2Permissions);
+    when(permissionsManager.getByInstance(anyString(), eq("Workspace1Id"), anyInt(), anyLong()))
+        .thenReturn(new Page<>(singletonList(ws1User1Permissions), 0, 100, 1));
+    when(permissionsManager.getByInstance(anyString(), eq("Workspace2Id"), anyInt(), anyLong()))
+        .thenReturn(new Page<>(asList(ws2User1Permissions, ws2User2Permissions), 0, 100, 2));
     // Page
     Page page = mock(Page.class);
     when(page.getItems()).thenReturn(asList(user1, user2));
@@ -186,4 +189,57 @@ public class AuditManagerTest {
             + "user2@email.com is owner of 1 workspace and has permissions in 1 workspace\n"
             + "   └ Workspace2Name, is owner: true, permissions: [read, use, run, configure, setPermissions, delete]\n");
   }
+
+  @Test
+  public void shouldWriteUsersInfoInOrderOfUsersPages() throws Exception {
+    // given
+    List<UserImpl> firstPageUsers = new ArrayList<>();
+    List<UserImpl> secondPageUsers = new ArrayList<>();
+    StringBuilder expectedReport = new StringBuilder("Number of users: 60\n");
+    for (int i = 0; i < 60; i++) {
+      UserImpl user = mock(UserImpl.class);
+      when(user.getId()).thenReturn("Id" + i);
+      when(user.getName()).thenReturn("Name" + i);
+      when(user.getEmail()).thenReturn("user" + i + "@email.com");
+      when(workspaceManager.getWorkspaces(eq("Id" + i), eq(false)))
+          .thenReturn(singletonList(workspace2));
+      (i < 30 ? firstPageUsers : secondPageUsers).add(user);
+      expectedReport
+          .append("user")
+          .append(i)
+          .append("@email.com is owner of 0 workspaces and has permissions in 0 workspaces\n")
+          .append("   └ Workspace2Name, is owner: false, permissions: []\n");
+    }
+    when(userManager.getAll(30, 0)).thenReturn(new Page<>(firstPageUsers, 0, 30, 60));
+    when(userManager.getAll(30, 30)).thenReturn(new Page<>(secondPageUsers, 30, 30, 60));
+    when(userManager.getTotalCount()).thenReturn(60L);
+
+    // when
+    auditReport = auditManager.generateAuditReport();
+
+    // then
+    assertEquals(readFileToString(auditReport.toFile()), expectedReport.toString());
+  }
+
+  @Test
+  public void shouldFetchPermissionsOfWorkspaceOnceForAllItsUsers() throws Exception {
+    // when
+    auditReport = auditManager.generateAuditReport();
+
+    // then
+    verify(permissionsManager, times(1))
+        .getByInstance(anyString(), eq("Workspace2Id"), anyInt(), anyLong());
+  }
+
+  @Test
+  public void shouldExposeProgressOfGeneratedReport() throws Exception {
+    // when
+    auditReport = auditManager.generateAuditReport();
+
+    // then
+    AuditReportProgress progress = auditManager.getProgress();
+    assertFalse(progress.isInProgress());
+    assertEquals(progress.getTotalUsers(), 2);
+    assertEquals(progress.getProcessedUsers(), 2);
+  }
 }
@@ -72,6 +72,20 @@ public class AuditServicePermissionsFilterTest {
     verify(subject).checkPermission(SystemDomain.DOMAIN_ID, null, MANAGE_SYSTEM_ACTION);
   }
 
+  @Test
+  public void shouldCheckPermissionsOnAuditProgressRequest() throws Exception {
+    final Response response =
+        given()
+            .auth()
+            .basic(ADMIN_USER_NAME, ADMIN_USER_PASSWORD)
+            .when()
+            .get(SECURE_PATH + "/audit/progress");
+
+    assertEquals(response.getStatusCode(), 204);
+    verify(service).getProgress();
+    verify(subject).checkPermission(SystemDomain.DOMAIN_ID, null, MANAGE_SYSTEM_ACTION);
+  }
+
   @Test(
     expectedExceptions = ForbiddenException.class,
     expectedExceptionsMessageRegExp = "User is not authorized to perform this operation"
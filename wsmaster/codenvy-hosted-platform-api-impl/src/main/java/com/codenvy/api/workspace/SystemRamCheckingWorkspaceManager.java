@@ -118,10 +118,11 @@ public class SystemRamCheckingWorkspaceManager extends LimitsCheckingWorkspaceMa
 
   /**
    * One of the checks in {@link #checkSystemRamLimitAndPropagateStart(WorkspaceCallback)} is needed
-   * to deny starting workspace, if system RAM limit exceeded. This check may be slow because it is
-   * based on request to swarm for memory amount allocated on all nodes, but it can't be performed
-   * more than specified times at the same time, and the semaphore is used to control that. The
-   * semaphore is a trade off between speed and risk to exceed system RAM limit. In the worst case
+   * to deny starting workspace, if system RAM limit exceeded. This check is based on periodically
+   * refreshed state of memory allocated on all nodes, which may not yet reflect workspaces that are
+   * starting, so it can't be performed more than specified times at the same time, and the semaphore
+   * is used to control that. The semaphore is a trade off between speed and risk to exceed system
+   * RAM limit. In the worst case
    * specified number of permits to start workspace can happen at the same time after the actually
    * system limit allows to start only one workspace, all permits will be allowed to start
    * workspace. If more than specified number of permits to start workspace happens, they will wait
@@ -14,29 +14,30 @@ import com.codahale.metrics.annotation.Gauge;
 import com.codenvy.api.dao.authentication.AccessTicket;
 import com.codenvy.api.dao.authentication.TicketManager;
 import com.google.inject.Singleton;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import javax.servlet.http.HttpServletResponse;
-import org.eclipse.che.commons.lang.IoUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import javax.inject.Inject;
 
-/** Simple implementation of <code>TicketManager</code> */
+/**
+ * Simple implementation of <code>TicketManager</code>.
+ *
+ * <p>Sso clients registered in a removed ticket are notified asynchronously by {@link
+ * SsoClientLogoutNotifier}.
+ */
 @Singleton
 public class InMemoryTicketManager implements TicketManager {
-  private static final Logger LOG = LoggerFactory.getLogger(InMemoryTicketManager.class);
   private final Map<String, AccessTicket> accessTickets = new HashMap<>();
   private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+  private final SsoClientLogoutNotifier logoutNotifier;
+
+  @Inject
+  public InMemoryTicketManager(SsoClientLogoutNotifier logoutNotifier) {
+    this.logoutNotifier = logoutNotifier;
+  }
 
   /** @see TicketManager#putAccessTicket(com.codenvy.api.dao.authentication.AccessTicket) */
   @Override
@@ -74,62 +75,18 @@ public class InMemoryTicketManager implements TicketManager {
       return null;
     }
 
+    AccessTicket ticket;
     readWriteLock.writeLock().lock();
     try {
-
-      AccessTicket ticket = accessTickets.remove(accessToken);
-      if (ticket == null) return null;
-      for (String ssoClient : ticket.getRegisteredClients()) {
-        // NOTE : must send as many logout request as possible.
-        HttpURLConnection conn = null;
-        try {
-          conn = (HttpURLConnection) new URL(ssoClient + "/_sso/client/logout").openConnection();
-          conn.setRequestMethod("POST");
-          conn.setDoOutput(true);
-          conn.setInstanceFollowRedirects(false);
-          conn.setConnectTimeout(5 * 1000);
-          conn.setReadTimeout(5 * 1000);
-          conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-          OutputStream out = conn.getOutputStream();
-          out.write(
-              ("authToken=" + URLEncoder.encode(ticket.getAccessToken(), "UTF-8")).getBytes());
-
-          int responseCode = conn.getResponseCode();
-          LOG.debug("Sent logout request to {} response {}", conn.getURL(), responseCode);
-          if (responseCode / 100 != 2) {
-            if (responseCode == HttpServletResponse.SC_BAD_GATEWAY) {
-              LOG.warn("Tenant {} is unavailable. Logout request not executed", ssoClient);
-            } else if (responseCode == HttpServletResponse.SC_MOVED_TEMPORARILY) {
-              LOG.warn(
-                  "Logout request for tenant {} was redirected to {}. Logout was omitted",
-                  ssoClient,
-                  conn.getHeaderField("Location"));
-            } else {
-              InputStream errorStream = conn.getErrorStream();
-              String message = errorStream != null ? IoUtil.readAndCloseQuietly(errorStream) : "";
-              throw new IOException(
-                  "Unexpected response code '"
-                      + responseCode
-                      + "' for SSO logout request to"
-                      + " '"
-                      + conn.getURL()
-                      + "'. "
-                      + message);
-            }
-          }
-
-        } catch (IOException e) {
-          LOG.warn("{}. Not able to send logout request to {}", e.getLocalizedMessage(), ssoClient);
-        } finally {
-          if (conn != null) {
-            conn.disconnect();
-          }
-        }
-      }
-      return ticket;
+      ticket = accessTickets.remove(accessToken);
     } finally {
       readWriteLock.writeLock().unlock();
     }
+    // clients are notified outside of the lock, so slow clients don't block tickets lookup
+    if (ticket != null) {
+      logoutNotifier.notifyLogout(ticket);
+    }
+    return ticket;
   }
 
   /** @return number of access tickets. */
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.auth.sso.server.ticket;
+
+import com.codahale.metrics.annotation.Gauge;
+import com.codenvy.api.dao.authentication.AccessTicket;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.che.commons.lang.IoUtil;
+import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notifies sso clients registered in an {@link AccessTicket} that the ticket was removed.
+ *
+ * <p>Each client is notified by a separate task executed by a bounded pool, so one slow or hung
+ * client neither delays the others nor the caller. Connection failures are retried up to the
+ * configured number of attempts, while responses which mean that the client is gone or redirects
+ * the request are not. When the queue is full the notification is dropped and logged, as logout
+ * notifications are best effort anyway.
+ */
+@Singleton
+public class SsoClientLogoutNotifier {
+  private static final Logger LOG = LoggerFactory.getLogger(SsoClientLogoutNotifier.class);
+
+  private static final int CONNECTION_TIMEOUT_MS = 5 * 1000;
+
+  private final ThreadPoolExecutor executor;
+  private final int maxAttempts;
+  private final long retryDelayMs;
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  @Inject
+  public SsoClientLogoutNotifier(
+      @Named("auth.sso.client_logout.pool_size") int poolSize,
+      @Named("auth.sso.client_logout.queue_size") int queueSize,
+      @Named("auth.sso.client_logout.max_attempts") int maxAttempts,
+      @Named("auth.sso.client_logout.retry_delay_ms") long retryDelayMs) {
+    if (poolSize <= 0 || queueSize <= 0 || maxAttempts <= 0 || retryDelayMs < 0) {
+      throw new IllegalArgumentException(
+          "Sso client logout pool size, queue size and max attempts must be positive, "
+              + "retry delay must not be negative");
+    }
+    this.maxAttempts = maxAttempts;
+    this.retryDelayMs = retryDelayMs;
+    this.executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize),
+            new ThreadFactoryBuilder()
+                .setNameFormat("SsoClientLogoutNotifier-%d")
+                .setUncaughtExceptionHandler(LoggingUncaughtExceptionHandler.getInstance())
+                .setDaemon(true)
+                .build());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Schedules logout notification of each client registered in the given ticket and returns
+   * immediately.
+   *
+   * @param ticket removed access ticket
+   */
+  public void notifyLogout(AccessTicket ticket) {
+    for (String ssoClient : ticket.getRegisteredClients()) {
+      try {
+        executor.execute(() -> notifyClient(ssoClient, ticket.getAccessToken()));
+      } catch (RejectedExecutionException e) {
+        rejected.incrementAndGet();
+        LOG.warn(
+            "Logout notification queue is full or closed. Logout request to {} was not sent",
+            ssoClient);
+      }
+    }
+  }
+
+  /** @return number of notifications waiting for execution */
+  @Gauge(name = "auth.sso.client_logout.queue_size")
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  /** @return number of notifications which are currently executing */
+  @Gauge(name = "auth.sso.client_logout.active")
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  /** @return number of successfully delivered notifications */
+  @Gauge(name = "auth.sso.client_logout.sent")
+  public long getSentCount() {
+    return sent.get();
+  }
+
+  /** @return number of notifications which were not delivered after all attempts */
+  @Gauge(name = "auth.sso.client_logout.failed")
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  /** @return number of repeated delivery attempts */
+  @Gauge(name = "auth.sso.client_logout.retried")
+  public long getRetriedCount() {
+    return retried.get();
+  }
+
+  /** @return number of notifications dropped because the queue was full */
+  @Gauge(name = "auth.sso.client_logout.rejected")
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  @PreDestroy
+  public void shutdown() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(CONNECTION_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS)) {
+      executor.shutdownNow();
+      LOG.warn("Unable to send all pending sso client logout requests");
+    }
+  }
+
+  private void notifyClient(String ssoClient, String accessToken) {
+    for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+      try {
+        sendLogoutRequest(ssoClient, accessToken);
+        sent.incrementAndGet();
+        return;
+      } catch (IOException e) {
+        if (attempt == maxAttempts) {
+          failed.incrementAndGet();
+          LOG.warn(
+              "{}. Not able to send logout request to {} after {} attempt(s)",
+              e.getLocalizedMessage(),
+              ssoClient,
+              attempt);
+          return;
+        }
+        retried.incrementAndGet();
+        LOG.debug("{}. Retrying logout request to {}", e.getLocalizedMessage(), ssoClient);
+        try {
+          Thread.sleep(retryDelayMs * attempt);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          failed.incrementAndGet();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends logout request to the sso client.
+   *
+   * <p>Responses which indicate that the client is unavailable or moved are logged and not treated
+   * as failures, as repeating the request won't change the result.
+   *
+   * @throws IOException when the request can't be sent or the client responds with an unexpected
+   *     code
+   */
+  void sendLogoutRequest(String ssoClient, String accessToken) throws IOException {
+    HttpURLConnection conn = null;
+    try {
+      conn = (HttpURLConnection) new URL(ssoClient + "/_sso/client/logout").openConnection();
+      conn.setRequestMethod("POST");
+      conn.setDoOutput(true);
+      conn.setInstanceFollowRedirects(false);
+      conn.setConnectTimeout(CONNECTION_TIMEOUT_MS);
+      conn.setReadTimeout(CONNECTION_TIMEOUT_MS);
+      conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      try (OutputStream out = conn.getOutputStream()) {
+        out.write(("authToken=" + URLEncoder.encode(accessToken, "UTF-8")).getBytes());
+      }
+
+      int responseCode = conn.getResponseCode();
+      LOG.debug("Sent logout request to {} response {}", conn.getURL(), responseCode);
+      if (responseCode / 100 != 2) {
+        if (responseCode == HttpServletResponse.SC_BAD_GATEWAY) {
+          LOG.warn("Tenant {} is unavailable. Logout request not executed", ssoClient);
+        } else if (responseCode == HttpServletResponse.SC_MOVED_TEMPORARILY) {
+          LOG.warn(
+              "Logout request for tenant {} was redirected to {}. Logout was omitted",
+              ssoClient,
+              conn.getHeaderField("Location"));
+        } else {
+          InputStream errorStream = conn.getErrorStream();
+          String message = errorStream != null ? IoUtil.readAndCloseQuietly(errorStream) : "";
+          throw new IOException(
+              "Unexpected response code '"
+                  + responseCode
+                  + "' for SSO logout request to"
+                  + " '"
+                  + conn.getURL()
+                  + "'. "
+                  + message);
+        }
+      }
+    } finally {
+      if (conn != null) {
+        conn.disconnect();
+      }
+    }
+  }
+}
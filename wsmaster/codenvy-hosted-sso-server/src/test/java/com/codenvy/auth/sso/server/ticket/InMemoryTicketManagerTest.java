@@ -10,21 +10,34 @@
  */
 package com.codenvy.auth.sso.server.ticket;
 
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 import com.codenvy.api.dao.authentication.AccessTicket;
 import com.codenvy.api.dao.authentication.TicketManager;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
 import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.Listeners;
 import org.testng.annotations.Test;
 
+@Listeners(MockitoTestNGListener.class)
 public class InMemoryTicketManagerTest {
   private static final String TOKEN = "123456789";
   String userId = "sdfsd345345";
 
+  @Mock SsoClientLogoutNotifier logoutNotifier;
+
   @Test
   public void shouldBeAbleToPutAndGetTicket() {
-    TicketManager ticketManager = new InMemoryTicketManager();
+    TicketManager ticketManager = new InMemoryTicketManager(logoutNotifier);
 
     assertNull(ticketManager.getAccessTicket(TOKEN));
 
@@ -39,7 +52,7 @@ public class InMemoryTicketManagerTest {
 
   @Test
   public void shouldBeAbleToGetTickets() {
-    TicketManager ticketManager = new InMemoryTicketManager();
+    TicketManager ticketManager = new InMemoryTicketManager(logoutNotifier);
 
     assertEquals(ticketManager.getAccessTickets().size(), 0);
 
@@ -53,7 +66,7 @@ public class InMemoryTicketManagerTest {
   @Test
   public void shouldBeAbleToRemoveTickets() {
 
-    TicketManager ticketManager = new InMemoryTicketManager();
+    TicketManager ticketManager = new InMemoryTicketManager(logoutNotifier);
 
     ticketManager.putAccessTicket(new AccessTicket(TOKEN, userId, "default"));
 
@@ -63,4 +76,77 @@ public class InMemoryTicketManagerTest {
 
     assertEquals(ticketManager.getAccessTickets().size(), 0);
   }
+
+  @Test
+  public void shouldNotifyClientsAboutRemovedTicket() {
+    TicketManager ticketManager = new InMemoryTicketManager(logoutNotifier);
+    AccessTicket ticket = new AccessTicket(TOKEN, userId, "default");
+    ticketManager.putAccessTicket(ticket);
+
+    ticketManager.removeTicket(TOKEN);
+
+    verify(logoutNotifier).notifyLogout(ticket);
+  }
+
+  @Test
+  public void shouldNotNotifyClientsWhenTicketIsMissing() {
+    TicketManager ticketManager = new InMemoryTicketManager(logoutNotifier);
+
+    assertNull(ticketManager.removeTicket(TOKEN));
+
+    verifyZeroInteractions(logoutNotifier);
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldNotBlockTicketsLookupWhileClientsHangOnLogout() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    HttpServer hungClient = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    hungClient.createContext(
+        "/_sso/client/logout",
+        exchange -> {
+          try {
+            release.await();
+            exchange.sendResponseHeaders(200, -1);
+          } catch (InterruptedException ignored) {
+          } finally {
+            exchange.close();
+          }
+        });
+    hungClient.start();
+    SsoClientLogoutNotifier notifier = new SsoClientLogoutNotifier(2, 100, 1, 0);
+    try {
+      TicketManager ticketManager = new InMemoryTicketManager(notifier);
+      String clientUrl = "http://localhost:" + hungClient.getAddress().getPort();
+      AccessTicket lookedUp = new AccessTicket(TOKEN, userId, "default");
+      ticketManager.putAccessTicket(lookedUp);
+
+      long removalNanos = 0;
+      long maxLookupNanos = 0;
+      for (int i = 0; i < 20; i++) {
+        AccessTicket removed = new AccessTicket("token-" + i, userId, "default");
+        removed.registerClientUrl(clientUrl);
+        ticketManager.putAccessTicket(removed);
+
+        long start = System.nanoTime();
+        ticketManager.removeTicket(removed.getAccessToken());
+        removalNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        assertEquals(ticketManager.getAccessTicket(TOKEN), lookedUp);
+        maxLookupNanos = Math.max(maxLookupNanos, System.nanoTime() - start);
+      }
+
+      assertTrue(
+          removalNanos < TimeUnit.SECONDS.toNanos(1),
+          "Tickets removal took " + TimeUnit.NANOSECONDS.toMillis(removalNanos) + "ms");
+      assertTrue(
+          maxLookupNanos < TimeUnit.MILLISECONDS.toNanos(100),
+          "Ticket lookup took " + TimeUnit.NANOSECONDS.toMillis(maxLookupNanos) + "ms");
+      assertEquals(notifier.getSentCount(), 0);
+    } finally {
+      release.countDown();
+      notifier.shutdown();
+      hungClient.stop(0);
+    }
+  }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.service.system;
+
+import java.util.Objects;
+
+/**
+ * Describes state of a docker node of the cluster.
+ *
+ * <p>Resources which are not reported by the node are represented by zero values.
+ */
+public class ClusterNode {
+
+  private final String hostname;
+  private final String addr;
+  private final boolean healthy;
+  private final int containers;
+  private final long reservedMemory;
+  private final long totalMemory;
+
+  public ClusterNode(
+      String hostname,
+      String addr,
+      boolean healthy,
+      int containers,
+      long reservedMemory,
+      long totalMemory) {
+    this.hostname = hostname;
+    this.addr = addr;
+    this.healthy = healthy;
+    this.containers = containers;
+    this.reservedMemory = reservedMemory;
+    this.totalMemory = totalMemory;
+  }
+
+  /** Hostname of the node. */
+  public String getHostname() {
+    return hostname;
+  }
+
+  /** Address of docker daemon of the node in format <i>ip:port</i>. */
+  public String getAddr() {
+    return addr;
+  }
+
+  /** Returns {@code true} if the node can be used for containers scheduling. */
+  public boolean isHealthy() {
+    return healthy;
+  }
+
+  /** Number of containers on the node. */
+  public int getContainers() {
+    return containers;
+  }
+
+  /** Memory reserved by containers on the node in Bytes. */
+  public long getReservedMemory() {
+    return reservedMemory;
+  }
+
+  /** Total memory of the node in Bytes. */
+  public long getTotalMemory() {
+    return totalMemory;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof ClusterNode)) return false;
+
+    ClusterNode other = (ClusterNode) o;
+
+    return healthy == other.healthy
+        && containers == other.containers
+        && reservedMemory == other.reservedMemory
+        && totalMemory == other.totalMemory
+        && Objects.equals(hostname, other.hostname)
+        && Objects.equals(addr, other.addr);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(hostname, addr, healthy, containers, reservedMemory, totalMemory);
+  }
+
+  @Override
+  public String toString() {
+    return "ClusterNode{"
+        + "hostname='"
+        + hostname
+        + '\''
+        + ", addr='"
+        + addr
+        + '\''
+        + ", healthy="
+        + healthy
+        + ", containers="
+        + containers
+        + ", reservedMemory="
+        + reservedMemory
+        + ", totalMemory="
+        + totalMemory
+        + '}';
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.service.system;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the docker cluster state.
+ *
+ * @see ClusterStateMonitor
+ */
+public class ClusterState {
+
+  private final List<ClusterNode> nodes;
+  private final long timestamp;
+  private final SystemRamInfo systemRamInfo;
+
+  public ClusterState(List<ClusterNode> nodes, long timestamp) {
+    this.nodes = unmodifiableList(new ArrayList<>(nodes));
+    this.timestamp = timestamp;
+    long systemRamUsed = 0;
+    long systemRamTotal = 0;
+    for (ClusterNode node : nodes) {
+      systemRamUsed += node.getReservedMemory();
+      systemRamTotal += node.getTotalMemory();
+    }
+    this.systemRamInfo = new SystemRamInfo(systemRamUsed, systemRamTotal);
+  }
+
+  /** Returns all the nodes of the cluster including unhealthy ones. */
+  public List<ClusterNode> getNodes() {
+    return nodes;
+  }
+
+  /** Time in milliseconds when the state was fetched. */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /** Returns RAM values summarized over all the nodes of the cluster. */
+  public SystemRamInfo getSystemRamInfo() {
+    return systemRamInfo;
+  }
+
+  @Override
+  public String toString() {
+    return "ClusterState{" + "nodes=" + nodes + ", timestamp=" + timestamp + '}';
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.service.system;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.primitives.Ints.tryParse;
+import static java.util.Arrays.deepToString;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.commons.lang.Size;
+import org.eclipse.che.commons.schedule.ScheduleDelay;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
+import org.eclipse.che.plugin.docker.client.json.SystemInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically fetches state of the docker cluster and keeps it as an immutable {@link
+ * ClusterState}, so components which need information about nodes of the cluster can use it
+ * without requests to the swarm manager.
+ *
+ * <p>State is refreshed in the background with a period configured by property
+ * <i>system.cluster.state_refresh_period_sec</i>. If refresh fails the last fetched state is kept.
+ * State is fetched synchronously only if it was never fetched before.
+ */
+@Singleton
+public class ClusterStateMonitor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ClusterStateMonitor.class);
+
+  private static final String CLUSTER_STATE_ERROR =
+      "An error occurred while getting cluster state.";
+  private static final Pattern NODE_PROPERTY_NAME_PREFIX = Pattern.compile("^\\s*└");
+
+  private final DockerConnector dockerConnector;
+
+  private volatile ClusterState state;
+
+  @Inject
+  public ClusterStateMonitor(DockerConnectorProvider dockerConnectorProvider) {
+    this.dockerConnector = dockerConnectorProvider.get();
+  }
+
+  /**
+   * Returns the last fetched state of the cluster.
+   *
+   * @throws ServerException if the state was never fetched and can't be fetched now
+   */
+  public ClusterState getState() throws ServerException {
+    ClusterState current = state;
+    if (current != null) {
+      return current;
+    }
+    synchronized (this) {
+      return state != null ? state : fetchState();
+    }
+  }
+
+  @VisibleForTesting
+  @ScheduleDelay(initialDelay = 0, delayParameterName = "system.cluster.state_refresh_period_sec")
+  void refreshState() {
+    try {
+      synchronized (this) {
+        fetchState();
+      }
+    } catch (ServerException e) {
+      LOG.warn(
+          "Failed to refresh cluster state, the last known state is kept. Error: {}",
+          e.getLocalizedMessage());
+    }
+  }
+
+  private ClusterState fetchState() throws ServerException {
+    SystemInfo systemInfo;
+    try {
+      systemInfo = dockerConnector.getSystemInfo();
+    } catch (IOException e) {
+      LOG.error("Failed to retrieve system information from docker.", e);
+      throw new ServerException(CLUSTER_STATE_ERROR, e);
+    }
+    String[][] statusOutput =
+        systemInfo.getSystemStatus() != null
+            ? systemInfo.getSystemStatus()
+            : systemInfo.getDriverStatus();
+    if (statusOutput == null) {
+      LOG.error(
+          "Empty system information was received from docker. Whole system info from docker {}",
+          systemInfo);
+      throw new ServerException(CLUSTER_STATE_ERROR);
+    }
+    ClusterState newState = new ClusterState(parseNodes(statusOutput), System.currentTimeMillis());
+    state = newState;
+    return newState;
+  }
+
+  /**
+   * Parses nodes from status output of swarm which is introduced in a 2-dimensional string array,
+   * where the number of nodes is followed by descriptions of the nodes. Node description starts
+   * from node hostname and address, followed by node properties, which names are prefixed with
+   * tree drawing character, e.g.:
+   *
+   * <pre>
+   * ["Nodes", "2"]
+   * [" node1.host", "192.168.1.1:2375"]
+   * ["  └ Status", "Healthy"]
+   * ["  └ Containers", "14 (14 Running, 0 Paused, 0 Stopped)"]
+   * ["  └ Reserved Memory", "1000 MiB / 5.881 GiB"]
+   * ...
+   * [" node2.host", "192.168.1.2:2375"]
+   * ...
+   * </pre>
+   *
+   * Properties which are missing or can't be parsed are treated as zero, node without status is
+   * considered healthy.
+   */
+  private List<ClusterNode> parseNodes(String[][] statusOutput) throws ServerException {
+    int count = -1;
+    int index = 0;
+    for (; index < statusOutput.length; ++index) {
+      if (isEntry(statusOutput[index])
+          && "Nodes".equals(Strings.nullToEmpty(statusOutput[index][0]).trim())) {
+        count = firstNonNull(tryParse(Strings.nullToEmpty(statusOutput[index][1]).trim()), -1);
+        ++index;
+        break;
+      }
+    }
+    if (count < 0) {
+      LOG.error(
+          "Nodes were not found in docker system info response. All system values from docker: {}",
+          deepToString(statusOutput));
+      throw new ServerException(CLUSTER_STATE_ERROR);
+    }
+
+    List<ClusterNode> nodes = new ArrayList<>(count);
+    while (nodes.size() < count && index < statusOutput.length) {
+      String[] header = statusOutput[index++];
+      if (!isEntry(header) || isNodeProperty(header)) {
+        continue;
+      }
+      boolean healthy = true;
+      int containers = 0;
+      long reservedMemory = 0;
+      long totalMemory = 0;
+      for (; index < statusOutput.length && isNodeProperty(statusOutput[index]); ++index) {
+        String value = Strings.nullToEmpty(statusOutput[index][1]).trim();
+        switch (NODE_PROPERTY_NAME_PREFIX.matcher(statusOutput[index][0]).replaceFirst("").trim()) {
+          case "Status":
+            healthy = value.isEmpty() || "Healthy".equalsIgnoreCase(value);
+            break;
+          case "Containers":
+            // value may contain details, e.g. "14 (14 Running, 0 Paused, 0 Stopped)"
+            containers = firstNonNull(tryParse(value.split(" ")[0]), 0);
+            break;
+          case "Reserved Memory":
+            String[] ramValues = value.split(" / ");
+            if (ramValues.length == 2) {
+              reservedMemory = parseSize(ramValues[0]);
+              totalMemory = parseSize(ramValues[1]);
+            } else {
+              LOG.warn(
+                  "A problem occurred while parsing memory of node {}. "
+                      + "Expected: <used RAM size> / <total RAM size> but got: {}",
+                  header[0],
+                  value);
+            }
+            break;
+        }
+      }
+      nodes.add(
+          new ClusterNode(
+              header[0].trim(),
+              Strings.nullToEmpty(header[1]).trim(),
+              healthy,
+              containers,
+              reservedMemory,
+              totalMemory));
+    }
+    return nodes;
+  }
+
+  private static boolean isEntry(String[] entry) {
+    return entry != null && entry.length == 2 && entry[0] != null;
+  }
+
+  private static boolean isNodeProperty(String[] entry) {
+    return isEntry(entry) && NODE_PROPERTY_NAME_PREFIX.matcher(entry[0]).find();
+  }
+
+  private static long parseSize(String size) {
+    try {
+      return Size.parseSize(size.trim());
+    } catch (IllegalArgumentException e) {
+      LOG.warn("Failed to parse size '{}' from docker system info", size);
+      return 0;
+    }
+  }
+}
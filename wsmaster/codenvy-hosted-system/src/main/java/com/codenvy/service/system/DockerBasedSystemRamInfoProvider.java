@@ -10,23 +10,17 @@
  */
 package com.codenvy.service.system;
 
-import static java.util.Arrays.deepToString;
-import static org.eclipse.che.commons.lang.Size.parseSize;
-
 import com.google.inject.Inject;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import org.eclipse.che.api.core.ServerException;
-import org.eclipse.che.plugin.docker.client.DockerConnector;
-import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
-import org.eclipse.che.plugin.docker.client.json.SystemInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of {@link SystemRamInfoProvider} based on docker.
  *
+ * <p>RAM values are taken from the cluster state kept by {@link ClusterStateMonitor}, so no
+ * requests to docker are performed on each call.
+ *
  * @author Igor Vinokur
  */
 public class DockerBasedSystemRamInfoProvider implements SystemRamInfoProvider {
@@ -36,92 +30,26 @@ public class DockerBasedSystemRamInfoProvider implements SystemRamInfoProvider {
   private static final String SYSTEM_RAM_INFO_ERROR =
       "An error occurred while getting system RAM info.";
 
-  private final DockerConnector dockerConnector;
+  private final ClusterStateMonitor clusterStateMonitor;
 
   @Inject
-  public DockerBasedSystemRamInfoProvider(DockerConnectorProvider dockerConnectorProvider) {
-    this.dockerConnector = dockerConnectorProvider.get();
+  public DockerBasedSystemRamInfoProvider(ClusterStateMonitor clusterStateMonitor) {
+    this.clusterStateMonitor = clusterStateMonitor;
   }
 
   @Override
   public SystemRamInfo getSystemRamInfo() throws ServerException {
-    SystemInfo systemInfo;
+    ClusterState clusterState;
     try {
-      systemInfo = dockerConnector.getSystemInfo();
-    } catch (IOException e) {
-      LOG.error("Failed to retrieve system information from docker.", e);
+      clusterState = clusterStateMonitor.getState();
+    } catch (ServerException e) {
       throw new ServerException(SYSTEM_RAM_INFO_ERROR, e);
     }
-    String[][] driverStatus = systemInfo.getDriverStatus();
-    String[][] systemStatus = systemInfo.getSystemStatus();
-    String[][] statusOutput = driverStatus == null ? systemStatus : driverStatus;
-    if (statusOutput == null) {
-      LOG.error(
-          "Empty system information was received from docker. Whole system info from docker {}",
-          systemInfo);
+    SystemRamInfo systemRamInfo = clusterState.getSystemRamInfo();
+    if (systemRamInfo.getSystemRamTotal() == 0) {
+      LOG.error("System RAM values were not found in cluster state {}", clusterState);
       throw new ServerException(SYSTEM_RAM_INFO_ERROR);
     }
-
-    List<String> allNodesRamUsage = new ArrayList<>();
-    /*
-     System values from docker response are introduced in a 2-dimensional string array e.g.:
-     "SystemStatus": [
-        .
-        .
-        .
-        " node1.<host>",
-        "<host>:<port>"
-        ],
-        "  └ Reserved Memory",
-        "1000 MiB / 5.881 GiB"
-        ],
-        .
-        .
-        .
-        " node2.<host>",
-        "<host>:<port>"
-        ],
-        [
-        "  └ Reserved Memory",
-        "1000 MiB / 1.511 GiB"
-        ],
-        .
-        .
-        .
-     ],
-     RAM vales are divided by nodes and introduced in a string array which has '└ Reserved Memory' in first element,
-     and RAM values of node in format <used RAM size> / <total RAM size> in second element.
-     There are as many RAM values arrays inside the 'statusOutput' array as many nodes are present in the system.
-    */
-    for (String[] systemInfoEntry : statusOutput) {
-      if (systemInfoEntry.length == 2
-          && systemInfoEntry[0] != null
-          && systemInfoEntry[0].endsWith("Reserved Memory")) {
-        allNodesRamUsage.add(systemInfoEntry[1]);
-      }
-    }
-    if (allNodesRamUsage.isEmpty()) {
-      LOG.error(
-          "System RAM values was not found in docker system info response. All system values from docker: {}",
-          deepToString(statusOutput));
-      throw new ServerException(SYSTEM_RAM_INFO_ERROR);
-    }
-
-    long systemRamUsed = 0;
-    long systemRamTotal = 0;
-    for (String nodeRamUsage : allNodesRamUsage) {
-      String[] ramValues = nodeRamUsage.split(" / ");
-      if (ramValues.length != 2) {
-        LOG.error(
-            "A problem occurred while parsing system information from docker. "
-                + "Expected: <used RAM size> / <total RAM size> but got: "
-                + nodeRamUsage);
-        throw new ServerException(SYSTEM_RAM_INFO_ERROR);
-      }
-      systemRamUsed += parseSize(ramValues[0]);
-      systemRamTotal += parseSize(ramValues[1]);
-    }
-
-    return new SystemRamInfo(systemRamUsed, systemRamTotal);
+    return systemRamInfo;
   }
 }
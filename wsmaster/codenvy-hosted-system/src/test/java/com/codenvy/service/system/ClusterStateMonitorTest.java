@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.service.system;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import org.eclipse.che.api.core.ServerException;
+import org.eclipse.che.plugin.docker.client.DockerConnector;
+import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
+import org.eclipse.che.plugin.docker.client.json.SystemInfo;
+import org.mockito.Mock;
+import org.mockito.testng.MockitoTestNGListener;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Listeners;
+import org.testng.annotations.Test;
+
+/** Tests for {@link ClusterStateMonitor} */
+@Listeners(MockitoTestNGListener.class)
+public class ClusterStateMonitorTest {
+  private static final long MIB = 1024 * 1024;
+  private static final long GIB = 1024 * MIB;
+
+  private static final String[][] TWO_NODES_STATUS = {
+    {"Role", "primary"},
+    {"Strategy", "spread"},
+    {"Filters", "health, port, containerslots, dependency, affinity, constraint"},
+    {"Nodes", "2"},
+    {" node1.host", "192.168.1.1:2375"},
+    {"  └ ID", "ABCD"},
+    {"  └ Status", "Healthy"},
+    {"  └ Containers", "14 (14 Running, 0 Paused, 0 Stopped)"},
+    {"  └ Reserved CPUs", "0 / 2"},
+    {"  └ Reserved Memory", "1 GiB / 4 GiB"},
+    {"  └ Labels", "kernelversion=4.4.0, operatingsystem=Ubuntu 16.04"},
+    {"  └ Error", "(none)"},
+    {"  └ UpdatedAt", "2017-05-05T10:00:00Z"},
+    {"  └ ServerVersion", "1.12.6"},
+    {" node2.host", "192.168.1.2:2375"},
+    {"  └ ID", "EFGH"},
+    {"  └ Status", "Unhealthy"},
+    {"  └ Containers", "3"},
+    {"  └ Reserved CPUs", "0 / 2"},
+    {"  └ Reserved Memory", "512 MiB / 8 GiB"},
+    {"  └ Labels", "kernelversion=4.4.0, operatingsystem=Ubuntu 16.04"},
+    {"  └ Error", "(none)"},
+    {"  └ UpdatedAt", "2017-05-05T10:00:00Z"},
+    {"  └ ServerVersion", "1.12.6"}
+  };
+
+  @Mock private DockerConnectorProvider dockerConnectorProvider;
+  @Mock private DockerConnector dockerConnector;
+  @Mock private SystemInfo systemInfo;
+
+  private ClusterStateMonitor clusterStateMonitor;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    when(dockerConnectorProvider.get()).thenReturn(dockerConnector);
+    when(dockerConnector.getSystemInfo()).thenReturn(systemInfo);
+
+    clusterStateMonitor = new ClusterStateMonitor(dockerConnectorProvider);
+  }
+
+  @Test
+  public void shouldParseNodesFromSystemStatus() throws Exception {
+    when(systemInfo.getSystemStatus()).thenReturn(TWO_NODES_STATUS);
+
+    List<ClusterNode> nodes = clusterStateMonitor.getState().getNodes();
+
+    assertEquals(nodes.size(), 2);
+    assertEquals(
+        nodes.get(0), new ClusterNode("node1.host", "192.168.1.1:2375", true, 14, GIB, 4 * GIB));
+    assertEquals(
+        nodes.get(1),
+        new ClusterNode("node2.host", "192.168.1.2:2375", false, 3, 512 * MIB, 8 * GIB));
+  }
+
+  @Test
+  public void shouldParseNodesFromDriverStatusWhenSystemStatusIsMissing() throws Exception {
+    when(systemInfo.getDriverStatus()).thenReturn(TWO_NODES_STATUS);
+
+    assertEquals(clusterStateMonitor.getState().getNodes().size(), 2);
+  }
+
+  @Test
+  public void shouldSummarizeRamOfAllNodes() throws Exception {
+    when(systemInfo.getSystemStatus()).thenReturn(TWO_NODES_STATUS);
+
+    SystemRamInfo systemRamInfo = clusterStateMonitor.getState().getSystemRamInfo();
+
+    assertEquals(systemRamInfo.getSystemRamUsed(), GIB + 512 * MIB);
+    assertEquals(systemRamInfo.getSystemRamTotal(), 12 * GIB);
+  }
+
+  @Test
+  public void shouldTreatUnrecognizedNodePropertiesAsZero() throws Exception {
+    when(systemInfo.getSystemStatus())
+        .thenReturn(
+            new String[][] {
+              {"Nodes", "1"},
+              {" node1.host", "192.168.1.1:2375"},
+              {"  └ Containers", "unknown"},
+              {"  └ Reserved Memory", "Unrecognized value"}
+            });
+
+    assertEquals(
+        clusterStateMonitor.getState().getNodes(),
+        singletonList(new ClusterNode("node1.host", "192.168.1.1:2375", true, 0, 0, 0)));
+  }
+
+  @Test
+  public void shouldReturnEmptyStateWhenThereAreNoNodes() throws Exception {
+    when(systemInfo.getSystemStatus()).thenReturn(new String[][] {{"Nodes", "0"}});
+
+    assertTrue(clusterStateMonitor.getState().getNodes().isEmpty());
+  }
+
+  @Test
+  public void shouldNotRequestDockerWhenStateIsAlreadyFetched() throws Exception {
+    when(systemInfo.getSystemStatus()).thenReturn(TWO_NODES_STATUS);
+    ClusterState state = clusterStateMonitor.getState();
+
+    assertSame(clusterStateMonitor.getState(), state);
+    assertSame(clusterStateMonitor.getState(), state);
+
+    verify(dockerConnector, times(1)).getSystemInfo();
+  }
+
+  @Test
+  public void shouldReplaceStateOnRefresh() throws Exception {
+    when(systemInfo.getSystemStatus()).thenReturn(TWO_NODES_STATUS);
+    ClusterState state = clusterStateMonitor.getState();
+    when(systemInfo.getSystemStatus()).thenReturn(new String[][] {{"Nodes", "0"}});
+
+    clusterStateMonitor.refreshState();
+
+    ClusterState refreshed = clusterStateMonitor.getState();
+    assertTrue(refreshed != state);
+    assertTrue(refreshed.getNodes().isEmpty());
+  }
+
+  @Test
+  public void shouldKeepLastStateWhenRefreshFails() throws Exception {
+    when(systemInfo.getSystemStatus()).thenReturn(TWO_NODES_STATUS);
+    clusterStateMonitor.refreshState();
+    ClusterState state = clusterStateMonitor.getState();
+    when(dockerConnector.getSystemInfo()).thenThrow(new IOException("Swarm is unavailable"));
+
+    clusterStateMonitor.refreshState();
+
+    assertSame(clusterStateMonitor.getState(), state);
+  }
+
+  @Test(
+    expectedExceptions = ServerException.class,
+    expectedExceptionsMessageRegExp = "An error occurred while getting cluster state."
+  )
+  public void shouldThrowExceptionIfStateWasNeverFetchedAndDockerIsUnavailable()
+      throws Exception {
+    when(dockerConnector.getSystemInfo()).thenThrow(new IOException("Swarm is unavailable"));
+
+    clusterStateMonitor.getState();
+  }
+
+  @Test(
+    expectedExceptions = ServerException.class,
+    expectedExceptionsMessageRegExp = "An error occurred while getting cluster state."
+  )
+  public void shouldThrowExceptionIfFailedToRecognizeDockerSystemInfo() throws Exception {
+    when(systemInfo.getDriverStatus())
+        .thenReturn(new String[][] {{"Unrecognized value", "Unrecognized value"}});
+
+    clusterStateMonitor.getState();
+  }
+
+  @Test(
+    expectedExceptions = ServerException.class,
+    expectedExceptionsMessageRegExp = "An error occurred while getting cluster state."
+  )
+  public void shouldThrowExceptionIfDockerSystemStatusIsNull() throws Exception {
+    clusterStateMonitor.getState();
+  }
+}
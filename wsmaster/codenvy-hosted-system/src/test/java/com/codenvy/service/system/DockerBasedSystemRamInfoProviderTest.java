@@ -10,15 +10,13 @@
  */
 package com.codenvy.service.system;
 
+import static java.util.Arrays.asList;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 import org.eclipse.che.api.core.ServerException;
-import org.eclipse.che.plugin.docker.client.DockerConnector;
-import org.eclipse.che.plugin.docker.client.DockerConnectorProvider;
-import org.eclipse.che.plugin.docker.client.json.SystemInfo;
 import org.mockito.Mock;
 import org.mockito.testng.MockitoTestNGListener;
 import org.testng.annotations.BeforeMethod;
@@ -32,60 +30,49 @@ import org.testng.annotations.Test;
  */
 @Listeners(MockitoTestNGListener.class)
 public class DockerBasedSystemRamInfoProviderTest {
+  private static final long MIB = 1024 * 1024;
+  private static final long GIB = 1024 * MIB;
 
-  @Mock private SystemInfo systemInfo;
-  @Mock private DockerConnectorProvider dockerConnectorProvider;
-  @Mock private DockerConnector dockerConnector;
+  @Mock private ClusterStateMonitor clusterStateMonitor;
 
   private SystemRamInfoProvider systemRamInfoProvider;
 
   @BeforeMethod
   private void setup() throws Exception {
-    when(dockerConnectorProvider.get()).thenReturn(dockerConnector);
-    when(dockerConnector.getSystemInfo()).thenReturn(systemInfo);
-
-    systemRamInfoProvider = new DockerBasedSystemRamInfoProvider(dockerConnectorProvider);
+    systemRamInfoProvider = new DockerBasedSystemRamInfoProvider(clusterStateMonitor);
   }
 
   @Test
   public void shouldReturnRamNotExceededStatusWhenSystemRamLimitIsNotExceeded() throws Exception {
-    when(systemInfo.getDriverStatus())
-        .thenReturn(new String[][] {{" └ Reserved Memory", "0 B / 3 GiB"}});
+    setNodesMemory(new long[] {0, 3 * GIB});
 
     assertFalse(systemRamInfoProvider.getSystemRamInfo().isSystemRamLimitExceeded());
   }
 
   @Test
   public void shouldReturnRamExceededStatusWhenSystemRamLimitIsExceeded() throws Exception {
-    when(systemInfo.getDriverStatus())
-        .thenReturn(
-            new String[][] {
-              {" └ Reserved Memory", "800 MiB / 1 GiB"},
-              {" └ Reserved Memory", "0.99 GiB / 1 GiB"},
-              {" └ Reserved Memory", "0.95 GiB / 1 GiB"}
-            });
+    setNodesMemory(
+        new long[] {800 * MIB, GIB}, new long[] {1014 * MIB, GIB}, new long[] {973 * MIB, GIB});
 
     assertTrue(systemRamInfoProvider.getSystemRamInfo().isSystemRamLimitExceeded());
   }
 
   @Test
   public void shouldReturnRamValues() throws Exception {
-    when(systemInfo.getDriverStatus())
-        .thenReturn(new String[][] {{" └ Reserved Memory", "1 GiB / 3 GiB"}});
+    setNodesMemory(new long[] {GIB, 2 * GIB}, new long[] {0, GIB});
 
     SystemRamInfo systemRamInfo = systemRamInfoProvider.getSystemRamInfo();
 
-    assertEquals(systemRamInfo.getSystemRamUsed(), 1024 * 1024 * 1024);
-    assertEquals(systemRamInfo.getSystemRamTotal(), 3L * 1024 * 1024 * 1024);
+    assertEquals(systemRamInfo.getSystemRamUsed(), GIB);
+    assertEquals(systemRamInfo.getSystemRamTotal(), 3 * GIB);
   }
 
   @Test(
     expectedExceptions = ServerException.class,
     expectedExceptionsMessageRegExp = "An error occurred while getting system RAM info."
   )
-  public void shouldThrowExceptionIfFailedToRecognizeDockerSystemInfo() throws Exception {
-    when(systemInfo.getDriverStatus())
-        .thenReturn(new String[][] {{"Unrecognized value", "Unrecognized value"}});
+  public void shouldThrowExceptionIfClusterStateDoesNotContainRamValues() throws Exception {
+    setNodesMemory(new long[] {0, 0});
 
     systemRamInfoProvider.getSystemRamInfo();
   }
@@ -94,9 +81,8 @@ public class DockerBasedSystemRamInfoProviderTest {
     expectedExceptions = ServerException.class,
     expectedExceptionsMessageRegExp = "An error occurred while getting system RAM info."
   )
-  public void shouldThrowExceptionIfFailedToRecognizeDockerSystemRamValues() throws Exception {
-    when(systemInfo.getDriverStatus())
-        .thenReturn(new String[][] {{" └ Reserved Memory", "Unrecognized value"}});
+  public void shouldThrowExceptionIfClusterStateDoesNotContainNodes() throws Exception {
+    setNodesMemory();
 
     systemRamInfoProvider.getSystemRamInfo();
   }
@@ -105,8 +91,27 @@ public class DockerBasedSystemRamInfoProviderTest {
     expectedExceptions = ServerException.class,
     expectedExceptionsMessageRegExp = "An error occurred while getting system RAM info."
   )
-  public void shouldThrowExceptionIfDockerSystemRamValuesArrayFromResponseIsNull()
-      throws Exception {
+  public void shouldThrowExceptionIfFailedToGetClusterState() throws Exception {
+    when(clusterStateMonitor.getState())
+        .thenThrow(new ServerException("An error occurred while getting cluster state."));
+
     systemRamInfoProvider.getSystemRamInfo();
   }
+
+  /** Each argument is a pair of reserved and total memory of a node. */
+  private void setNodesMemory(long[]... nodesMemory) throws Exception {
+    ClusterNode[] nodes = new ClusterNode[nodesMemory.length];
+    for (int i = 0; i < nodesMemory.length; i++) {
+      nodes[i] =
+          new ClusterNode(
+              "node" + i,
+              "192.168.1." + i + ":2375",
+              true,
+              0,
+              nodesMemory[i][0],
+              nodesMemory[i][1]);
+    }
+    when(clusterStateMonitor.getState())
+        .thenReturn(new ClusterState(asList(nodes), System.currentTimeMillis()));
+  }
 }
@@ -32,4 +32,18 @@ public interface LdapEntrySelector {
    * @throws SyncException when any error occurs during selection, or during iteration
    */
   Iterable<LdapEntry> select(Connection connection) throws SyncException;
+
+  /**
+   * Selects ldap entries in implementation specific way, narrowing the selection to those entries
+   * which additionally match the given filter. It is used by incremental synchronization to select
+   * only the entries changed since the previous synchronization.
+   *
+   * @param connection the connection which should be used for selection, it is already opened and
+   *     shouldn't be closed
+   * @param additionalFilter the filter which selected entries must match in addition to the
+   *     configured ones, e.g. <i>(modifyTimestamp>=20170101000000Z)</i>
+   * @return an iterable describing the result iterator
+   * @throws SyncException when any error occurs during selection, or during iteration
+   */
+  Iterable<LdapEntry> select(Connection connection, String additionalFilter) throws SyncException;
 }
@@ -46,7 +46,8 @@ public class LdapEntrySelectorProvider implements Provider<LdapEntrySelector> {
       @Named("ldap.sync.profile.attrs") @Nullable Pair<String, String>[] profileAttributes,
       @Named("ldap.sync.user.attr.id") String userIdAttr,
       @Named("ldap.sync.user.attr.name") String userNameAttr,
-      @Named("ldap.sync.user.attr.email") String userEmailAttr) {
+      @Named("ldap.sync.user.attr.email") String userEmailAttr,
+      @Named("ldap.sync.change_marker.attr") @Nullable String changeMarkerAttr) {
     if (groupFilter != null && membersAttrName == null) {
       throw new NullPointerException(
           format(
@@ -65,6 +66,10 @@ public class LdapEntrySelectorProvider implements Provider<LdapEntrySelector> {
         attrsList.add(profileAttribute.second);
       }
     }
+    // operational attributes like 'modifyTimestamp' are returned only when requested explicitly
+    if (changeMarkerAttr != null) {
+      attrsList.add(changeMarkerAttr);
+    }
     final String[] syncAttributes = attrsList.toArray(new String[attrsList.size()]);
 
     if (groupFilter == null) {
@@ -16,6 +16,7 @@ import com.codenvy.ldap.LdapUserIdNormalizer;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.persist.Transactional;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -41,8 +42,10 @@ import org.eclipse.che.commons.lang.concurrent.LoggingUncaughtExceptionHandler;
 import org.eclipse.che.core.db.DBInitializer;
 import org.ldaptive.Connection;
 import org.ldaptive.ConnectionFactory;
+import org.ldaptive.LdapAttribute;
 import org.ldaptive.LdapEntry;
 import org.ldaptive.LdapException;
+import org.ldaptive.SearchFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +62,13 @@ import org.slf4j.LoggerFactory;
  *
  * <p>Ldap entries selection strategy is picked by {@link LdapEntrySelectorProvider}.
  *
+ * <p>If change marker attribute is configured (e.g. <i>modifyTimestamp</i> or <i>uSNChanged</i>)
+ * then scheduled synchronizations are incremental, see {@link #syncChanged()}, and full
+ * synchronization is performed only once per configured full synchronization period. As entries
+ * removed from ldap storage can't be selected, users are removed only by full synchronization.
+ * Incremental synchronization looks up only users of the changed entries in the database, so it
+ * doesn't depend on the number of users.
+ *
  * <p>It is thread-safe.
  *
  * @author Yevhenii Voevodin
@@ -73,6 +83,11 @@ public class LdapSynchronizer {
   private static final String USER_ID_ATTRIBUTE_NAME = "ldap.sync.user.attr.id";
   private static final String USER_NAME_ATTRIBUTE_NAME = "ldap.sync.user.attr.name";
   private static final String USER_EMAIL_ATTRIBUTE_NAME = "ldap.sync.user.attr.email";
+  private static final String CHANGE_MARKER_ATTRIBUTE_NAME = "ldap.sync.change_marker.attr";
+
+  private static final String HIGH_WATER_MARK_STATE_PREFIX = "high_water_mark.";
+  private static final String LAST_SEEN_MARK_STATE_PREFIX = "last_seen_mark.";
+  private static final String LAST_FULL_SYNC_STATE = "last_full_sync_ms";
 
   private final long syncPeriodMs;
   private final long initDelayMs;
@@ -88,6 +103,9 @@ public class LdapSynchronizer {
   private final AtomicBoolean isSyncing;
   private final LdapUserIdNormalizer idNormalizer;
   private final DBUserLinker linker;
+  private final String changeMarkerAttr;
+  private final long fullSyncPeriodMs;
+  private final SyncStateStore stateStore;
 
   /**
    * Creates an instance of synchronizer.
@@ -113,6 +131,13 @@ public class LdapSynchronizer {
    * @param removeIfMissing whether remove those users who are present in persistence layer while
    *     missing from ldap storage
    * @param userLinker gets database users and their attributes
+   * @param changeMarkerAttr an optional ldap attribute which value grows each time the entry is
+   *     modified, e.g. 'modifyTimestamp' or 'uSNChanged'. If it is set then scheduled
+   *     synchronizations select only entries changed since the previous synchronization
+   * @param fullSyncPeriodMs how often scheduled synchronization is performed as full one when
+   *     {@code changeMarkerAttr} is set, if it is <=0 then full synchronization is performed only
+   *     when there is no high-water mark of the previous synchronization
+   * @param stateStore stores the high-water mark and the time of the last full synchronization
    */
   @Inject
   public LdapSynchronizer(
@@ -130,7 +155,10 @@ public class LdapSynchronizer {
       @Named("ldap.sync.profile.attrs") @Nullable Pair<String, String>[] profileAttributes,
       @Named("ldap.sync.update_if_exists") boolean updateIfExists,
       @Named("ldap.sync.remove_if_missing") boolean removeIfMissing,
-      DBUserLinker userLinker) {
+      DBUserLinker userLinker,
+      @Named(CHANGE_MARKER_ATTRIBUTE_NAME) @Nullable String changeMarkerAttr,
+      @Named("ldap.sync.full_sync_period_ms") long fullSyncPeriodMs,
+      SyncStateStore stateStore) {
     if (initDelayMs < 0) {
       throw new IllegalArgumentException(
           "'ldap.sync.initial_delay_ms' must be >= 0, the actual value is " + initDelayMs);
@@ -148,6 +176,9 @@ public class LdapSynchronizer {
     this.updateIfExists = updateIfExists;
     this.removeIfMissing = removeIfMissing;
     this.linker = userLinker;
+    this.changeMarkerAttr = changeMarkerAttr;
+    this.fullSyncPeriodMs = fullSyncPeriodMs;
+    this.stateStore = stateStore;
     this.scheduler =
         Executors.newScheduledThreadPool(
             1,
@@ -167,7 +198,7 @@ public class LdapSynchronizer {
     if (!isSyncing.compareAndSet(false, true)) {
       throw new SyncException("Couldn't start synchronization as it is executing right now");
     }
-    scheduler.execute(this::syncSilentlyAndUnsetFlag);
+    scheduler.execute(() -> syncSilentlyAndUnsetFlag(this::syncAll));
   }
 
   /**
@@ -178,21 +209,76 @@ public class LdapSynchronizer {
    * @throws SyncException when any error occurs during synchronization
    */
   public SyncResult syncAll() throws LdapException, SyncException {
+    return sync(null);
+  }
+
+  /**
+   * Does the synchronization of those entries which were changed since the previous
+   * synchronization, according to the configured change marker attribute. Users missing from ldap
+   * storage are not removed by this kind of synchronization.
+   *
+   * <p>Falls back to {@link #syncAll()} if there is no high-water mark of the previous
+   * synchronization.
+   *
+   * @return the result of synchronization
+   * @throws LdapException when any error occurs during connection opening or closing
+   * @throws SyncException when change marker attribute is not configured or when any error occurs
+   *     during synchronization
+   */
+  public SyncResult syncChanged() throws LdapException, SyncException {
+    if (changeMarkerAttr == null) {
+      throw new SyncException(
+          format(
+              "Couldn't perform incremental synchronization as '%s' is not configured",
+              CHANGE_MARKER_ATTRIBUTE_NAME));
+    }
+    final String mark = stateStore.get(HIGH_WATER_MARK_STATE_PREFIX + changeMarkerAttr);
+    if (mark == null) {
+      LOG.info("High-water mark of the previous synchronization is missing, syncing all users");
+      return syncAll();
+    }
+    return sync(mark);
+  }
+
+  /**
+   * Synchronizes either all the selected entries, or only those which change marker is not less
+   * than {@code sinceMark} if it is not null.
+   */
+  private SyncResult sync(@Nullable String sinceMark) throws LdapException, SyncException {
     LOG.info("Preparing synchronization environment");
+    final long startedAt = System.currentTimeMillis();
     final SyncResult syncResult = new SyncResult();
-    final Set<String> linkingIds = linker.findIds();
+    // only full synchronization needs all the users to find out which of them are missing
+    final Set<String> linkingIds = sinceMark == null ? linker.findIds() : null;
+    final HighWaterMark highWaterMark =
+        new HighWaterMark(
+            changeMarkerAttr != null
+                ? stateStore.get(LAST_SEEN_MARK_STATE_PREFIX + changeMarkerAttr)
+                : null);
     LOG.debug("Using selector {} for synchronization", selector);
-    LOG.info("Starting synchronization of users/profiles");
     try (Connection connection = connFactory.getConnection()) {
       connection.open();
-      for (LdapEntry entry : selector.select(connection)) {
+      final Iterable<LdapEntry> entries;
+      if (sinceMark == null) {
+        LOG.info("Starting synchronization of users/profiles");
+        entries = selector.select(connection);
+      } else {
+        LOG.info("Starting synchronization of users/profiles changed since '{}'", sinceMark);
+        entries = selector.select(connection, changedSinceFilter(sinceMark));
+      }
+      for (LdapEntry entry : entries) {
         syncResult.fetched++;
 
         if (LOG.isDebugEnabled()) {
           LOG.debug("Synchronizing entry: {}", entry);
         }
 
+        final long failedBefore = syncResult.failed;
         syncFetched(entry, linkingIds, syncResult);
+        if (changeMarkerAttr != null) {
+          highWaterMark.update(
+              entry.getAttribute(changeMarkerAttr), syncResult.failed != failedBefore);
+        }
 
         // Each EACH_ENTRIES_COUNT_CHECK_INTERRUPTION synchronized entries check whether thread
         // wasn't interrupted
@@ -208,7 +294,9 @@ public class LdapSynchronizer {
       }
     }
 
-    if (removeIfMissing && !linkingIds.isEmpty()) {
+    // entries removed from ldap can't be selected by their change marker,
+    // so only full synchronization knows which users are missing
+    if (linkingIds != null && removeIfMissing && !linkingIds.isEmpty()) {
       LOG.info("Removing users missing from ldap storage, users to remove '{}'", linkingIds.size());
       for (String linkingId : linkingIds) {
         try {
@@ -223,12 +311,65 @@ public class LdapSynchronizer {
       }
     }
 
+    if (changeMarkerAttr != null) {
+      storeState(highWaterMark, linkingIds != null, startedAt, syncResult);
+    }
+
     LOG.info("Synchronization result: {}", syncResult);
     return syncResult;
   }
 
-  /** Validates and tries to persist fetched ldap entry. */
-  private void syncFetched(LdapEntry entry, Set<String> linkingIds, SyncResult syncResult) {
+  /** Stores the high-water mark of the next synchronization. */
+  private void storeState(
+      HighWaterMark highWaterMark, boolean fullSync, long startedAt, SyncResult syncResult) {
+    final String mark = highWaterMark.getNext();
+    if (mark != null) {
+      stateStore.set(HIGH_WATER_MARK_STATE_PREFIX + changeMarkerAttr, mark);
+      LOG.debug("High-water mark of synchronization is '{}'", mark);
+    }
+    final String lastSeen = highWaterMark.getLastSeen();
+    if (lastSeen != null) {
+      stateStore.set(LAST_SEEN_MARK_STATE_PREFIX + changeMarkerAttr, lastSeen);
+    } else if (fullSync && syncResult.fetched > 0) {
+      LOG.warn(
+          "Synchronized entries don't have '{}' attribute, incremental synchronization won't be "
+              + "possible. Please, check configuration `{}` parameter correctness.",
+          changeMarkerAttr,
+          CHANGE_MARKER_ATTRIBUTE_NAME);
+    }
+    if (fullSync) {
+      stateStore.set(LAST_FULL_SYNC_STATE, Long.toString(startedAt));
+    }
+  }
+
+  /** Returns filter matching entries which change marker is greater than or equal to given one. */
+  private String changedSinceFilter(String mark) {
+    final SearchFilter filter = new SearchFilter("(" + changeMarkerAttr + ">={0})");
+    filter.setParameter(0, mark);
+    return filter.format();
+  }
+
+  /** Returns true if scheduled synchronization must be full rather than incremental. */
+  private boolean isFullSyncRequired() {
+    if (changeMarkerAttr == null) {
+      return true;
+    }
+    if (fullSyncPeriodMs <= 0) {
+      return false;
+    }
+    final String lastFullSync = stateStore.get(LAST_FULL_SYNC_STATE);
+    return lastFullSync == null
+        || System.currentTimeMillis() - Long.parseLong(lastFullSync) >= fullSyncPeriodMs;
+  }
+
+  /**
+   * Validates and tries to persist fetched ldap entry.
+   *
+   * @param linkingIds linking identifiers of users which are not synchronized yet, or null if the
+   *     user of the entry is looked up in the database
+   */
+  private void syncFetched(
+      LdapEntry entry, @Nullable Set<String> linkingIds, SyncResult syncResult) {
     idNormalizer.normalize(entry);
 
     final UserImpl ldapUser = userMapper.apply(entry);
@@ -240,7 +381,15 @@ public class LdapSynchronizer {
     final ProfileImpl ldapProfile = profileMapper.apply(entry);
     try {
       final String linkingId = linker.extractId(ldapUser);
-      if (!linkingIds.remove(linkingId)) {
+      User dbUser = null;
+      final boolean exists;
+      if (linkingIds != null) {
+        exists = linkingIds.remove(linkingId);
+      } else {
+        dbUser = findUserIfExists(linkingId);
+        exists = dbUser != null;
+      }
+      if (!exists) {
         createUserAndProfile(ldapUser, ldapProfile);
         syncResult.created++;
         LOG.debug("Created user & profile '{}'", ldapUser.getId());
@@ -253,7 +402,9 @@ public class LdapSynchronizer {
         return;
       }
 
-      final User dbUser = linker.findUser(linkingId);
+      if (dbUser == null) {
+        dbUser = linker.findUser(linkingId);
+      }
       final Profile dbProfile = profileManager.getById(dbUser.getId());
       // user identifier in database is always 'id', which means
       // that if linking attribute is different from 'id' then
@@ -283,6 +434,15 @@ public class LdapSynchronizer {
     }
   }
 
+  @Nullable
+  private User findUserIfExists(String linkingId) throws ServerException {
+    try {
+      return linker.findUser(linkingId);
+    } catch (NotFoundException x) {
+      return null;
+    }
+  }
+
   @Transactional
   protected void createUserAndProfile(UserImpl user, ProfileImpl profile)
       throws ConflictException, NotFoundException, ServerException {
@@ -306,9 +466,9 @@ public class LdapSynchronizer {
     return updated;
   }
 
-  private void syncSilentlyAndUnsetFlag() {
+  private void syncSilentlyAndUnsetFlag(Callable<SyncResult> syncAction) {
     try {
-      syncAll();
+      syncAction.call();
     } catch (Exception x) {
       LOG.error(
           "Couldn't finish users synchronization due to occurred error, "
@@ -444,11 +604,80 @@ public class LdapSynchronizer {
     }
   }
 
+  /**
+   * Computes the mark from which the next incremental synchronization selects entries. The mark is
+   * the greatest marker read by the previous synchronizations, which is read before the start of
+   * the current one, so entries modified while it runs are selected again even if they were already
+   * read. Markers are assigned by ldap storage, so the mark doesn't depend on the clock of the
+   * master, e.g. 'modifyTimestamp' of an entry modified by a server which clock is behind is still
+   * not less than the mark. If some entries failed to be synchronized then the mark is not moved
+   * beyond the least marker of them, so failed entries are selected again by the next incremental
+   * synchronization.
+   */
+  private static class HighWaterMark {
+
+    private final String previousMax;
+
+    private String max;
+    private String minFailed;
+
+    /** @param previousMax the greatest marker read by previous synchronizations or null */
+    HighWaterMark(@Nullable String previousMax) {
+      this.previousMax = previousMax;
+    }
+
+    void update(LdapAttribute markerAttr, boolean failed) {
+      if (markerAttr == null || markerAttr.getStringValue() == null) {
+        return;
+      }
+      final String marker = markerAttr.getStringValue();
+      if (max == null || compare(marker, max) > 0) {
+        max = marker;
+      }
+      if (failed && (minFailed == null || compare(marker, minFailed) < 0)) {
+        minFailed = marker;
+      }
+    }
+
+    /**
+     * Returns the mark of the next synchronization or null if the stored one must be kept, e.g.
+     * when no entries were read, or if there is no mark yet and the next synchronization is full.
+     */
+    @Nullable
+    String getNext() {
+      if (max == null || previousMax == null) {
+        return null;
+      }
+      if (minFailed != null && compare(minFailed, previousMax) < 0) {
+        return minFailed;
+      }
+      return previousMax;
+    }
+
+    /** Returns the greatest marker read by this and previous synchronizations or null. */
+    @Nullable
+    String getLastSeen() {
+      if (max == null) {
+        return null;
+      }
+      return previousMax == null || compare(max, previousMax) > 0 ? max : previousMax;
+    }
+
+    /** Compares numeric markers (e.g. 'uSNChanged') as numbers and the others as strings. */
+    private static int compare(String marker1, String marker2) {
+      try {
+        return Long.compare(Long.parseLong(marker1), Long.parseLong(marker2));
+      } catch (NumberFormatException x) {
+        return marker1.compareTo(marker2);
+      }
+    }
+  }
+
   private class SchedulerSyncRunnable implements Runnable {
     @Override
     public void run() {
       if (isSyncing.compareAndSet(false, true)) {
-        syncSilentlyAndUnsetFlag();
+        syncSilentlyAndUnsetFlag(() -> isFullSyncRequired() ? syncAll() : syncChanged());
       }
     }
   }
@@ -53,9 +53,14 @@ public class LookupSelector implements LdapEntrySelector {
 
   @Override
   public Iterable<LdapEntry> select(Connection connection) {
+    return select(connection, null);
+  }
+
+  @Override
+  public Iterable<LdapEntry> select(Connection connection, String additionalFilter) {
     final SearchRequest req = new SearchRequest();
     req.setBaseDn(baseDn);
-    req.setSearchFilter(new SearchFilter(filter));
+    req.setSearchFilter(new SearchFilter(SearchFilters.and(filter, additionalFilter)));
     req.setReturnAttributes(attributes);
     req.setSearchScope(SearchScope.SUBTREE);
     req.setTimeLimit(Duration.ofMillis(readPageTimeoutMs));
@@ -18,6 +18,7 @@ import static org.ldaptive.SearchScope.SUBTREE;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import org.ldaptive.Connection;
 import org.ldaptive.LdapEntry;
@@ -32,7 +33,7 @@ import org.ldaptive.ad.handler.RangeEntryHandler;
 
 /**
  * Queries all the group members and returns and iterable requesting each of them when {@link
- * Iterator#next()} is called.
+ * Iterator#next()} is called. Members which don't match users filter are skipped.
  *
  * @author Yevhenii Voevodin
  */
@@ -59,6 +60,11 @@ public class MembershipSelector implements LdapEntrySelector {
 
   @Override
   public Iterable<LdapEntry> select(Connection connection) {
+    return select(connection, null);
+  }
+
+  @Override
+  public Iterable<LdapEntry> select(Connection connection, String additionalFilter) {
     final SearchRequest groupsSearch = new SearchRequest();
     groupsSearch.setBaseDn(baseDn);
     groupsSearch.setSearchFilter(new SearchFilter(groupsFilter));
@@ -78,7 +84,7 @@ public class MembershipSelector implements LdapEntrySelector {
               .flatMap(entry -> entry.getAttribute(membersAttr).getStringValues().stream())
               .collect(toSet()),
           connection,
-          usersFilter,
+          SearchFilters.and(usersFilter, additionalFilter),
           returnAttrs);
     } catch (LdapException x) {
       throw new SyncException(x.getLocalizedMessage(), x);
@@ -133,6 +139,8 @@ public class MembershipSelector implements LdapEntrySelector {
     private final String[] returnAttrs;
     private final SearchOperation searchOp;
 
+    private LdapEntry next;
+
     private RequestEachEntryIterator(
         Iterator<String> dns,
         Connection connection,
@@ -146,12 +154,24 @@ public class MembershipSelector implements LdapEntrySelector {
 
     @Override
     public boolean hasNext() {
-      return dnsIterator.hasNext();
+      while (next == null && dnsIterator.hasNext()) {
+        next = requestEntry(dnsIterator.next());
+      }
+      return next != null;
     }
 
     @Override
     public LdapEntry next() {
-      final String dn = dnsIterator.next();
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final LdapEntry entry = next;
+      next = null;
+      return entry;
+    }
+
+    /** Returns the member entry or null if it doesn't match users filter. */
+    private LdapEntry requestEntry(String dn) {
       final SearchRequest request = new SearchRequest();
       request.setBaseDn(dn);
       request.setSearchFilter(usersFilter);
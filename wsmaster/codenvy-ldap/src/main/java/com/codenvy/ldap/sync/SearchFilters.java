@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.ldap.sync;
+
+/** Helps to compose ldap search filters. */
+final class SearchFilters {
+
+  /**
+   * Combines two filters into a conjunction, any of the filters may be null or empty in which case
+   * the other one is returned as is.
+   */
+  static String and(String filter, String additionalFilter) {
+    if (isNullOrEmpty(additionalFilter)) {
+      return filter;
+    }
+    if (isNullOrEmpty(filter)) {
+      return additionalFilter;
+    }
+    return "(&" + parenthesize(filter) + parenthesize(additionalFilter) + ')';
+  }
+
+  private static String parenthesize(String filter) {
+    final String trimmed = filter.trim();
+    return trimmed.startsWith("(") ? trimmed : '(' + trimmed + ')';
+  }
+
+  private static boolean isNullOrEmpty(String filter) {
+    return filter == null || filter.trim().isEmpty();
+  }
+
+  private SearchFilters() {}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) [2012] - [2017] Red Hat, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Red Hat, Inc. - initial API and implementation
+ */
+package com.codenvy.ldap.sync;
+
+import com.google.inject.Inject;
+import com.google.inject.persist.Transactional;
+import java.util.List;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+
+/**
+ * Persists named values which describe the state of ldap synchronization, such as the high-water
+ * mark of the last incremental synchronization, so the state survives restarts of the master.
+ */
+@Singleton
+public class SyncStateStore {
+
+  @Inject private Provider<EntityManager> emProvider;
+
+  /**
+   * Returns the value stored under the given name or null if there is no such value.
+   *
+   * @param name the name of the value
+   */
+  @Transactional
+  public String get(String name) {
+    final List result =
+        emProvider
+            .get()
+            .createNativeQuery(
+                "SELECT state_value FROM codenvy_ldap_sync_state WHERE state_name = ?1")
+            .setParameter(1, name)
+            .getResultList();
+    return result.isEmpty() ? null : (String) result.get(0);
+  }
+
+  /**
+   * Stores the value under the given name replacing the existing one.
+   *
+   * @param name the name of the value
+   * @param value the value to store
+   */
+  @Transactional
+  public void set(String name, String value) {
+    final EntityManager manager = emProvider.get();
+    manager
+        .createNativeQuery("DELETE FROM codenvy_ldap_sync_state WHERE state_name = ?1")
+        .setParameter(1, name)
+        .executeUpdate();
+    manager
+        .createNativeQuery(
+            "INSERT INTO codenvy_ldap_sync_state (state_name, state_value) VALUES (?1, ?2)")
+        .setParameter(1, name)
+        .setParameter(2, value)
+        .executeUpdate();
+  }
+}
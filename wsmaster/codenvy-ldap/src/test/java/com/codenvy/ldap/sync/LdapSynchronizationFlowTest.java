@@ -181,6 +181,59 @@ public class LdapSynchronizationFlowTest {
     server.removeDefaultUser(user3.getId());
   }
 
+  @Test(dependsOnMethods = "conflictUpdateIsSolvedByTwoSynchronizations")
+  public void incrementalSynchronization() throws Exception {
+    // add a few users to ldap
+    final UserImpl user1 = asUser(server.addDefaultLdapUser(11));
+    final UserImpl user2 = asUser(server.addDefaultLdapUser(12));
+    final UserImpl user3 = asUser(server.addDefaultLdapUser(13));
+
+    // full synchronization stores the high-water mark, which is the greatest marker read by the
+    // previous synchronizations as entryCSN is not a time marker
+    SyncResult syncResult = synchronizer.syncAll();
+    assertEquals(syncResult.getCreated(), 3);
+    assertEquals(syncResult.getFetched(), 3);
+    assertEquals(
+        userManager.getAll(3, 0).fill(new HashSet<>()), new HashSet<>(asList(user1, user2, user3)));
+
+    // modify one ldap user and add another one
+    server.modify("uid", user2.getId(), replaceMod("cn", "new-name"));
+    final UserImpl user4 = asUser(server.addDefaultLdapUser(14));
+
+    // sync changed entries, entries changed since the start of the previous synchronization
+    // are fetched again
+    syncResult = synchronizer.syncChanged();
+    assertEquals(syncResult.getCreated(), 1);
+    assertEquals(syncResult.getUpdated(), 1);
+    assertEquals(syncResult.getUpToDate(), 2);
+    assertEquals(syncResult.getFailed(), 0);
+    assertEquals(syncResult.getFetched(), 4);
+    assertEquals(userManager.getById(user2.getId()).getName(), "new-name");
+    assertEquals(userManager.getById(user4.getId()), user4);
+
+    // remove user from ldap
+    server.removeDefaultUser(user1.getId());
+
+    // incremental synchronization doesn't remove users
+    syncResult = synchronizer.syncChanged();
+    assertEquals(syncResult.getUpToDate(), 3);
+    assertEquals(syncResult.getRemoved(), 0);
+    assertEquals(syncResult.getFetched(), 3);
+    assertEquals(userManager.getTotalCount(), 4);
+
+    // full synchronization does
+    syncResult = synchronizer.syncAll();
+    assertEquals(syncResult.getUpToDate(), 3);
+    assertEquals(syncResult.getRemoved(), 1);
+    assertEquals(syncResult.getFetched(), 3);
+    assertEquals(userManager.getTotalCount(), 3);
+
+    // cleanup ldap user entries
+    server.removeDefaultUser(user2.getId());
+    server.removeDefaultUser(user3.getId());
+    server.removeDefaultUser(user4.getId());
+  }
+
   private static Modification replaceMod(String attrName, String newValue) {
     return new ClientModification(
         REPLACE_ATTRIBUTE, new DefaultClientAttribute(attrName, newValue));
@@ -231,6 +284,8 @@ public class LdapSynchronizationFlowTest {
       bindConstant().annotatedWith(Names.named("ldap.sync.page.read_timeout_ms")).to(30_000L);
       bindConstant().annotatedWith(Names.named("ldap.sync.remove_if_missing")).to(true);
       bindConstant().annotatedWith(Names.named("ldap.sync.update_if_exists")).to(true);
+      bindConstant().annotatedWith(Names.named("ldap.sync.change_marker.attr")).to("entryCSN");
+      bindConstant().annotatedWith(Names.named("ldap.sync.full_sync_period_ms")).to(-1L);
       bindConstant().annotatedWith(Names.named("ldap.base_dn")).to(server.getBaseDn());
       bindConstant()
           .annotatedWith(Names.named("ldap.sync.user.filter"))
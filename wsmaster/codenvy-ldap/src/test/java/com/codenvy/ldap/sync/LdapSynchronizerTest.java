@@ -11,20 +11,26 @@
 package com.codenvy.ldap.sync;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 import com.codenvy.ldap.LdapUserIdNormalizer;
 import com.codenvy.ldap.sync.LdapSynchronizer.SyncResult;
 import com.google.common.collect.ImmutableMap;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -74,6 +80,8 @@ public class LdapSynchronizerTest {
 
   @Mock private ProfileManager profileManager;
 
+  @Mock private SyncStateStore stateStore;
+
   private LdapSynchronizer synchronizer;
   private Set<String> existingIds;
 
@@ -96,7 +104,10 @@ public class LdapSynchronizerTest {
             new Pair[] {Pair.of("firstName", "givenName")},
             true,
             true,
-            userFinder);
+            userFinder,
+            null,
+            0,
+            stateStore);
 
     // mocking existing ids
     existingIds = new HashSet<>();
@@ -253,7 +264,10 @@ public class LdapSynchronizerTest {
             null,
             false, // <- don't update
             true,
-            userFinder);
+            userFinder,
+            null,
+            0,
+            stateStore);
     when(entrySelector.select(anyObject()))
         .thenReturn(asList(createUserEntry("user123"), createUserEntry("user234")));
     existingIds.add("user123");
@@ -305,7 +319,10 @@ public class LdapSynchronizerTest {
             null,
             true,
             true,
-            emailFinder);
+            emailFinder,
+            null,
+            0,
+            stateStore);
 
     ArrayList<LdapEntry> entries = new ArrayList<>(2);
     entries.add(
@@ -336,6 +353,171 @@ public class LdapSynchronizerTest {
     assertEquals(user.getEmail(), existingUser.getEmail(), "linking attribute must be the same");
   }
 
+  @Test
+  public void synchronizesOnlyEntriesChangedSinceHighWaterMark() throws Exception {
+    synchronizer = newIncrementalSynchronizer("modifyTimestamp");
+    when(stateStore.get("high_water_mark.modifyTimestamp")).thenReturn("20170101000000Z");
+    when(entrySelector.select(anyObject(), eq("(modifyTimestamp>=20170101000000Z)")))
+        .thenReturn(
+            asList(
+                withMarker(createUserEntry("user123"), "modifyTimestamp", "20170102000000Z"),
+                withMarker(createUserEntry("user234"), "modifyTimestamp", "20170103000000Z")));
+    when(userFinder.findUser("user234")).thenReturn(new UserImpl("user234", "email", "name"));
+    when(profileManager.getById("user234")).thenReturn(new ProfileImpl("user234"));
+
+    final SyncResult syncResult = synchronizer.syncChanged();
+
+    assertEquals(syncResult.getCreated(), 1);
+    assertEquals(syncResult.getUpdated(), 1);
+    assertEquals(syncResult.getRemoved(), 0);
+    assertEquals(syncResult.getFetched(), 2);
+    verify(entrySelector, never()).select(anyObject());
+    verify(userFinder, never()).findIds();
+    verify(userManager, never()).remove(anyString());
+    verify(stateStore).set("last_seen_mark.modifyTimestamp", "20170103000000Z");
+    verify(stateStore, never()).set(eq("last_full_sync_ms"), anyString());
+  }
+
+  @Test
+  public void selectsEntriesModifiedDuringSynchronizationWhenClockOfLdapServerIsBehind()
+      throws Exception {
+    synchronizer = newIncrementalSynchronizer("modifyTimestamp");
+    // clock of the ldap server is an hour behind the clock of the master
+    final Instant serverNow = Instant.now().minusSeconds(3600);
+    final String previousMax = toGeneralizedTime(serverNow.minusSeconds(600));
+    final String modifiedDuringSync = toGeneralizedTime(serverNow);
+    when(stateStore.get("high_water_mark.modifyTimestamp")).thenReturn("20170101000000Z");
+    when(stateStore.get("last_seen_mark.modifyTimestamp")).thenReturn(previousMax);
+    when(entrySelector.select(anyObject(), eq("(modifyTimestamp>=20170101000000Z)")))
+        .thenReturn(
+            singletonList(
+                withMarker(createUserEntry("user123"), "modifyTimestamp", modifiedDuringSync)));
+
+    synchronizer.syncChanged();
+
+    // the mark is the greatest marker read before the start, not the time of the master
+    verify(stateStore).set("high_water_mark.modifyTimestamp", previousMax);
+    verify(stateStore).set("last_seen_mark.modifyTimestamp", modifiedDuringSync);
+  }
+
+  @Test
+  public void synchronizesAllEntriesWhenHighWaterMarkIsMissing() throws Exception {
+    synchronizer = newIncrementalSynchronizer("modifyTimestamp");
+    when(entrySelector.select(anyObject()))
+        .thenReturn(
+            asList(
+                withMarker(createUserEntry("user123"), "modifyTimestamp", "20170102000000Z"),
+                withMarker(createUserEntry("user234"), "modifyTimestamp", "20170101000000Z")));
+    existingIds.add("missed-in-selection");
+    when(userFinder.findUser("missed-in-selection"))
+        .thenReturn(new UserImpl("missed-in-selection", "email", "name"));
+
+    final SyncResult syncResult = synchronizer.syncChanged();
+
+    assertEquals(syncResult.getCreated(), 2);
+    assertEquals(syncResult.getRemoved(), 1);
+    verify(userManager).remove("missed-in-selection");
+    verify(stateStore).set("last_seen_mark.modifyTimestamp", "20170102000000Z");
+    // no marker was read before the start, so the next synchronization is full again
+    verify(stateStore, never()).set(eq("high_water_mark.modifyTimestamp"), anyString());
+    final ArgumentCaptor<String> fullSyncTimeCaptor = ArgumentCaptor.forClass(String.class);
+    verify(stateStore).set(eq("last_full_sync_ms"), fullSyncTimeCaptor.capture());
+    assertTrue(Long.parseLong(fullSyncTimeCaptor.getValue()) <= System.currentTimeMillis());
+  }
+
+  @Test
+  public void doesNotMoveHighWaterMarkBeyondEntryFailedToSynchronize() throws Exception {
+    synchronizer = newIncrementalSynchronizer("uSNChanged");
+    when(stateStore.get("high_water_mark.uSNChanged")).thenReturn("5");
+    when(stateStore.get("last_seen_mark.uSNChanged")).thenReturn("11");
+    final LdapEntry noEmailEntry = new LdapEntry("uid=user234,dc=codenvy,dc=com");
+    noEmailEntry.addAttribute(new LdapAttribute("uid", "user234"));
+    noEmailEntry.addAttribute(new LdapAttribute("cn", "name-user234"));
+    when(entrySelector.select(anyObject(), eq("(uSNChanged>=5)")))
+        .thenReturn(
+            asList(
+                withMarker(createUserEntry("user123"), "uSNChanged", "12"),
+                withMarker(noEmailEntry, "uSNChanged", "9"),
+                withMarker(createUserEntry("user345"), "uSNChanged", "10")));
+
+    final SyncResult syncResult = synchronizer.syncChanged();
+
+    assertEquals(syncResult.getCreated(), 2);
+    assertEquals(syncResult.getFailed(), 1);
+    verify(stateStore).set("high_water_mark.uSNChanged", "9");
+  }
+
+  @Test
+  public void movesHighWaterMarkOfCountersToMarkerReadBeforeStartOfSynchronization()
+      throws Exception {
+    synchronizer = newIncrementalSynchronizer("uSNChanged");
+    when(stateStore.get("high_water_mark.uSNChanged")).thenReturn("5");
+    when(stateStore.get("last_seen_mark.uSNChanged")).thenReturn("8");
+    when(entrySelector.select(anyObject(), eq("(uSNChanged>=5)")))
+        .thenReturn(
+            asList(
+                withMarker(createUserEntry("user123"), "uSNChanged", "10"),
+                withMarker(createUserEntry("user234"), "uSNChanged", "9")));
+
+    synchronizer.syncChanged();
+
+    // every entry modified after the start has a marker greater than 8
+    verify(stateStore).set("high_water_mark.uSNChanged", "8");
+    // numeric markers are compared as numbers
+    verify(stateStore).set("last_seen_mark.uSNChanged", "10");
+  }
+
+  @Test
+  public void doesNotStoreHighWaterMarkOfCountersUntilMarkerIsReadBeforeStart() throws Exception {
+    synchronizer = newIncrementalSynchronizer("uSNChanged");
+    when(entrySelector.select(anyObject()))
+        .thenReturn(singletonList(withMarker(createUserEntry("user123"), "uSNChanged", "10")));
+
+    synchronizer.syncAll();
+
+    verify(stateStore, never()).set(eq("high_water_mark.uSNChanged"), anyString());
+    verify(stateStore).set("last_seen_mark.uSNChanged", "10");
+  }
+
+  @Test(expectedExceptions = SyncException.class)
+  public void failsToSynchronizeChangedEntriesWhenChangeMarkerIsNotConfigured() throws Exception {
+    synchronizer.syncChanged();
+  }
+
+  @SuppressWarnings("unchecked") // synchronizer generic array of string pairs
+  private LdapSynchronizer newIncrementalSynchronizer(String changeMarkerAttr) {
+    return new LdapSynchronizer(
+        connFactory,
+        entrySelector,
+        userManager,
+        profileManager,
+        idNormalizer,
+        null,
+        0,
+        0,
+        "uid",
+        "cn",
+        "mail",
+        new Pair[] {Pair.of("firstName", "givenName")},
+        true,
+        true,
+        userFinder,
+        changeMarkerAttr,
+        0,
+        stateStore);
+  }
+
+  private static String toGeneralizedTime(Instant instant) {
+    return DateTimeFormatter.ofPattern("uuuuMMddHHmmss'Z'")
+        .withZone(ZoneOffset.UTC)
+        .format(instant);
+  }
+
+  private static LdapEntry withMarker(LdapEntry entry, String markerAttr, String marker) {
+    entry.addAttribute(new LdapAttribute(markerAttr, marker));
+    return entry;
+  }
+
   private static LdapEntry createUserEntry(String id) {
     return createUserEntry(id, "name-" + id, "email" + id, "firstName-" + id);
   }
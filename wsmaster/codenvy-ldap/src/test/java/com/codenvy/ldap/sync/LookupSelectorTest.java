@@ -82,4 +82,21 @@ public class LookupSelectorTest {
       }
     }
   }
+
+  @Test
+  public void testLookupSelectionNarrowedByAdditionalFilter() throws Exception {
+    final LookupSelector selector =
+        new LookupSelector(
+            10, 30_000L, server.getBaseDn(), "(objectClass=inetOrgPerson)", "uid", "givenName");
+    try (Connection conn = connFactory.getConnection()) {
+      conn.open();
+      final Set<LdapEntry> selection =
+          StreamSupport.stream(selector.select(conn, "(givenName=*)").spliterator(), false)
+              .collect(toSet());
+      assertEquals(selection.size(), 100);
+      for (LdapEntry entry : selection) {
+        assertNotNull(entry.getAttribute("givenName"));
+      }
+    }
+  }
 }